@@ -0,0 +1,501 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Search results by position and search parameters, so a position that has already been
+// analyzed the same way is answered from memory instead of searched again.
+//
+// Keys are the Zobrist hash mixed with the limits and an evaluator tag (key()). Only
+// fixed limits (depth, nodes, movetime) make sense as keys; clock-based searches are
+// never cached. The history before the position is not part of the key, so a cached
+// result doesn't see repetitions the search would have found.
+//
+// Size is bounded in bytes (an estimate per entry, see weight()) and eviction follows
+// W-TinyLFU:
+// - new entries go to a small LRU window;
+// - entries leaving the window must beat the main area's LRU victim on estimated access
+//   frequency to get in, so one-off positions can't push out lesson positions and
+//   common openings;
+// - the main area is a segmented LRU: probation, and a protected segment for entries
+//   hit again since admission.
+// Frequencies come from a 4-bit count-min sketch that is halved every 10 × width
+// increments, so old popularity fades.
+//
+// The cache is split into STRIPES independent stripes by key, each with its own lock,
+// budget and sketch, so concurrent readers rarely wait on each other. open() warms the
+// cache from a snapshot, and save() and close() write one, replaced atomically.
+final class AnalysisCache implements Closeable {
+    static final int STRIPES = 16;
+    static final long DEFAULT_BYTES = 64L << 20;
+    static final Path DEFAULT_PATH = ChessStorage.DATA_DIRECTORY.resolve("analysis-cache.bin");
+    static final int MAGIC = 0x41434331; // "AC" 1
+    static final int VERSION = 1;
+
+    // Node, map entry, boxed key, SearchResult and its pv array header
+    static final int ENTRY_OVERHEAD_BYTES = 176;
+    static final int WINDOW_PERCENT = 1;
+    static final int PROTECTED_PERCENT = 80;
+    // Candidates at least this frequent get in now and then even when they lose, so a
+    // flood of keys crafted to collide with a victim in the sketch can't lock it in
+    static final int ADMIT_ANYWAY_FREQUENCY = 6;
+
+    private static final LongAdder HITS = Metrics.counter("cache.hits");
+    private static final LongAdder MISSES = Metrics.counter("cache.misses");
+    private static final LongAdder EVICTIONS = Metrics.counter("cache.evictions");
+    private static final LongAdder REJECTIONS = Metrics.counter("cache.rejections");
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Path file;
+
+    AnalysisCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    private AnalysisCache(long maxBytes, Path file) {
+        this.file = file;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxBytes / STRIPES);
+        }
+        Metrics.gauge("cache.entries", this::size);
+        Metrics.gauge("cache.bytes", this::bytes);
+    }
+
+    // A cache warmed from file if it exists, saved back to it by close()
+    static AnalysisCache open(Path file, long maxBytes) throws IOException {
+        AnalysisCache cache = new AnalysisCache(maxBytes, file);
+        if (Files.exists(file)) {
+            cache.load(file);
+        }
+        return cache;
+    }
+
+    // The search limits and evaluator are part of the key: the same position searched
+    // deeper, or with another network, is another entry
+    static long key(long positionHash, SearchLimits limits, String evaluator) {
+        long key = positionHash;
+        key = mix(key ^ limits.depth);
+        key = mix(key ^ limits.nodes);
+        key = mix(key ^ limits.moveTimeMs);
+        if (limits.excludedMoves != null) {
+            for (int move : limits.excludedMoves) {
+                key = mix(key ^ move);
+            }
+        }
+        return mix(key ^ evaluator.hashCode());
+    }
+
+    // Limits that give the same kind of answer every time: no clock, not infinite
+    static boolean cacheable(SearchLimits limits) {
+        return !limits.infinite && !limits.hasClock() && (limits.depth > 0 || limits.nodes > 0 || limits.moveTimeMs > 0);
+    }
+
+    // Counts as an access for the admission policy whether or not it hits
+    SearchResult get(long key) {
+        SearchResult result = stripe(key).get(key);
+        (result != null ? HITS : MISSES).increment();
+        return result;
+    }
+
+    void put(long key, SearchResult result) {
+        stripe(key).put(key, result);
+    }
+
+    long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    long bytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.bytes();
+        }
+        return bytes;
+    }
+
+    // Writes every entry with its frequency, coldest first, to the file given to open()
+    void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        List<Node> nodes = new ArrayList<>();
+        List<Integer> frequencies = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            stripe.snapshot(nodes, frequencies);
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nodes.size());
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = nodes.get(i);
+                SearchResult r = node.value;
+                out.writeLong(node.key);
+                out.writeByte(frequencies.get(i));
+                out.writeInt(r.depth);
+                out.writeInt(r.selDepth);
+                out.writeInt(r.score);
+                out.writeLong(r.nodes);
+                out.writeLong(r.timeMs);
+                out.writeInt(r.hashfull);
+                out.writeShort(r.pv.length);
+                for (int move : r.pv) {
+                    out.writeInt(move);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not an analysis cache");
+            }
+            // An older layout is only a cold start, not an error
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                int frequency = in.readByte();
+                int depth = in.readInt(), selDepth = in.readInt(), score = in.readInt();
+                long nodes = in.readLong(), timeMs = in.readLong();
+                int hashfull = in.readInt();
+                int[] pv = new int[in.readUnsignedShort()];
+                for (int j = 0; j < pv.length; j++) {
+                    pv[j] = in.readInt();
+                }
+                stripe(key).warm(key, new SearchResult(depth, selDepth, score, nodes, timeMs, pv, hashfull), frequency);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        save();
+    }
+
+    private Stripe stripe(long key) {
+        return stripes[(int) (key >>> 60) & (STRIPES - 1)];
+    }
+
+    static int weight(SearchResult result) {
+        return ENTRY_OVERHEAD_BYTES + 4 * result.pv.length;
+    }
+
+    // MurmurHash3's 64-bit finalizer
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Node {
+        final long key;
+        SearchResult value;
+        int weight;
+        int segment;
+        Node prev;
+        Node next;
+
+        Node(long key, SearchResult value) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight(value);
+        }
+    }
+
+    // Intrusive LRU list: head is least recently used
+    private static final class LruList {
+        Node head;
+        Node tail;
+        long bytes;
+
+        void addLast(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            bytes += node.weight;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = node.next = null;
+            bytes -= node.weight;
+        }
+
+        void moveToLast(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    // Count-min sketch of 4-bit counters, 16 to a long, four rows hashed from the key
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0x97cb3127L, 0xb0c8e0f5L, 0x5a1dc3c7L, 0xe1b2c5f3L};
+        private static final long HALVE_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(long expectedEntries) {
+            int length = Integer.highestOneBit((int) Math.max(64, Math.min(1 << 26, expectedEntries)) * 2 - 1);
+            table = new long[length];
+            sampleSize = 10 * length;
+        }
+
+        int frequency(long key) {
+            int min = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long h = mix(key + SEEDS[i]);
+                int slot = (int) (h >>> 32) & (table.length - 1), shift = ((int) h & 15) << 2;
+                min = Math.min(min, (int) (table[slot] >>> shift) & 15);
+            }
+            return min;
+        }
+
+        void increment(long key) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                long h = mix(key + SEEDS[i]);
+                int slot = (int) (h >>> 32) & (table.length - 1), shift = ((int) h & 15) << 2;
+                if (((table[slot] >>> shift) & 15) < 15) {
+                    table[slot] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & HALVE_MASK;
+                }
+                additions >>>= 1;
+            }
+        }
+    }
+
+    private static final class Stripe {
+        private final Map<Long, Node> map = new HashMap<>();
+        private final LruList window = new LruList();
+        private final LruList probation = new LruList();
+        private final LruList protectedList = new LruList();
+        private final FrequencySketch sketch;
+        private final long windowMax;
+        private final long mainMax;
+        private final long protectedMax;
+        private long random = System.nanoTime() | 1;
+
+        Stripe(long maxBytes) {
+            windowMax = Math.max(ENTRY_OVERHEAD_BYTES, maxBytes * WINDOW_PERCENT / 100);
+            mainMax = Math.max(0, maxBytes - windowMax);
+            protectedMax = mainMax * PROTECTED_PERCENT / 100;
+            sketch = new FrequencySketch(maxBytes / ENTRY_OVERHEAD_BYTES);
+        }
+
+        synchronized SearchResult get(long key) {
+            sketch.increment(key);
+            Node node = map.get(key);
+            if (node == null) {
+                return null;
+            }
+            touch(node);
+            return node.value;
+        }
+
+        synchronized void put(long key, SearchResult value) {
+            Node node = map.get(key);
+            if (node != null) {
+                // Same place, new weight; a longer pv can push the segment over budget
+                list(node.segment).remove(node);
+                node.value = value;
+                node.weight = weight(value);
+                list(node.segment).addLast(node);
+                touch(node);
+                if (node.segment == WINDOW) {
+                    drainWindow();
+                } else {
+                    while (probation.bytes + protectedList.bytes > mainMax && evictVictim() != null) {
+                        // evictVictim counts it
+                    }
+                }
+                return;
+            }
+            node = new Node(key, value);
+            node.segment = WINDOW;
+            map.put(key, node);
+            window.addLast(node);
+            drainWindow();
+        }
+
+        // A snapshot entry: its frequency goes back into the sketch first, so admission
+        // ranks it the way it was ranked when saved
+        synchronized void warm(long key, SearchResult value, int frequency) {
+            for (int i = 0; i < frequency; i++) {
+                sketch.increment(key);
+            }
+            put(key, value);
+        }
+
+        synchronized void snapshot(List<Node> nodes, List<Integer> frequencies) {
+            for (LruList list : new LruList[] {probation, window, protectedList}) {
+                for (Node node = list.head; node != null; node = node.next) {
+                    nodes.add(node);
+                    frequencies.add(sketch.frequency(node.key));
+                }
+            }
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized long bytes() {
+            return window.bytes + probation.bytes + protectedList.bytes;
+        }
+
+        private LruList list(int segment) {
+            return segment == WINDOW ? window : segment == PROBATION ? probation : protectedList;
+        }
+
+        private void touch(Node node) {
+            if (node.segment == PROBATION) {
+                probation.remove(node);
+                node.segment = PROTECTED;
+                protectedList.addLast(node);
+                // Overflow goes back to probation, where it has to earn its place again
+                while (protectedList.bytes > protectedMax && protectedList.head != null) {
+                    Node demoted = protectedList.head;
+                    protectedList.remove(demoted);
+                    demoted.segment = PROBATION;
+                    probation.addLast(demoted);
+                }
+            } else {
+                list(node.segment).moveToLast(node);
+            }
+        }
+
+        // Entries pushed out of the window must beat the main area's victims to stay
+        private void drainWindow() {
+            while (window.bytes > windowMax) {
+                Node candidate = window.head;
+                window.remove(candidate);
+                admit(candidate);
+            }
+        }
+
+        private void admit(Node candidate) {
+            while (probation.bytes + protectedList.bytes + candidate.weight > mainMax) {
+                Node victim = probation.head != null ? probation.head : protectedList.head;
+                if (victim == null || !wins(candidate, victim)) {
+                    map.remove(candidate.key);
+                    REJECTIONS.increment();
+                    return;
+                }
+                evictVictim();
+            }
+            candidate.segment = PROBATION;
+            probation.addLast(candidate);
+        }
+
+        private boolean wins(Node candidate, Node victim) {
+            int candidateFrequency = sketch.frequency(candidate.key);
+            int victimFrequency = sketch.frequency(victim.key);
+            if (candidateFrequency > victimFrequency) {
+                return true;
+            }
+            if (candidateFrequency >= ADMIT_ANYWAY_FREQUENCY) {
+                random ^= random << 13;
+                random ^= random >>> 7;
+                random ^= random << 17;
+                return (random & 127) == 0;
+            }
+            return false;
+        }
+
+        // Removes the main area's least valuable entry, or returns null when it is empty
+        private Node evictVictim() {
+            Node victim = probation.head != null ? probation.head : protectedList.head;
+            if (victim != null) {
+                list(victim.segment).remove(victim);
+                map.remove(victim.key);
+                EVICTIONS.increment();
+            }
+            return victim;
+        }
+    }
+
+    // Hit ratio and latency on a skewed stream of positions with scans mixed in:
+    //   java AnalysisCache bench [MB] [keys]
+    public static void main(String[] args) {
+        if (args.length == 0 || !args[0].equals("bench")) {
+            System.err.println("Usage: java AnalysisCache bench [MB] [keys]");
+            System.exit(2);
+            return;
+        }
+        long megabytes = args.length > 1 ? Long.parseLong(args[1]) : 16;
+        int keys = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        AnalysisCache cache = new AnalysisCache(megabytes << 20);
+        int[] pv = new int[8];
+        // Zipf(0.9) over keys by inverse transform on a precomputed cumulative table
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, 0.9);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(42);
+        LatencyHistogram latency = new LatencyHistogram();
+        long hits = 0, requests = 4_000_000, scanKey = keys;
+        for (long i = 0; i < requests; i++) {
+            long key;
+            // Every 50th request is part of a scan of never-repeated keys, like a batch run
+            if (i % 50 == 0) {
+                key = scanKey++;
+            } else {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                key = index >= 0 ? index : -index - 1;
+            }
+            key = mix(key);
+            long start = System.nanoTime();
+            SearchResult result = cache.get(key);
+            latency.record(System.nanoTime() - start);
+            if (result != null) {
+                hits++;
+            } else {
+                cache.put(key, new SearchResult(10, 14, 0, 100_000, 100, pv, 0));
+            }
+        }
+        System.out.printf("%d MB, %,d entries: hit ratio %.1f%%, get p50 %.2f us p99 %.2f us%n", megabytes,
+            cache.size(), 100.0 * hits / requests, latency.percentile(50) / 1e3, latency.percentile(99) / 1e3);
+    }
+}
@@ -0,0 +1,184 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+
+// Background analysis for the JavaFX board. analyze() returns at once: it cancels the
+// search of the previous position and queues an infinite search of the new one on the
+// service's own thread. The engine keeps its transposition table between positions, so
+// while the player thinks the tree under their likely move (and the opponent's likely
+// reply) is being filled, and the search after the move starts warm.
+//
+// Iteration results arrive on the search thread. Only the newest is kept, and it is
+// handed to the FX thread with Platform.runLater at most MAX_UPDATES_PER_SECOND times a
+// second, so a fast search never floods the event queue. Results for a position that
+// has since changed are dropped on both sides of the hand-off.
+final class AnalysisService {
+    static final int MAX_UPDATES_PER_SECOND = 30;
+    private static final long FRAME_NANOS = 1_000_000_000L / MAX_UPDATES_PER_SECOND;
+
+    // What the board shows: one completed iteration and the position it belongs to
+    static final class Update {
+        final SearchResult result;
+        final boolean whiteToMove;
+        final String pvSan;
+        private final long generation;
+
+        Update(SearchResult result, boolean whiteToMove, String pvSan, long generation) {
+            this.result = result;
+            this.whiteToMove = whiteToMove;
+            this.pvSan = pvSan;
+            this.generation = generation;
+        }
+
+        // From White's point of view, as boards usually show it
+        String scoreText() {
+            int sign = whiteToMove ? 1 : -1;
+            if (result.isMate()) {
+                int mate = sign * result.mateIn();
+                return mate > 0 ? "#" + mate : "#-" + -mate;
+            }
+            return String.format("%+.2f", sign * result.score / 100.0);
+        }
+
+        @Override
+        public String toString() {
+            return scoreText() + "  depth " + result.depth + "  " + pvSan;
+        }
+    }
+
+    private final SearchEngine engine;
+    private final ExecutorService searchThread = Executors.newSingleThreadExecutor(SearchEngine.daemonThreads("analysis"));
+    // Frame pacing and stop retries; never runs a search
+    private final ScheduledExecutorService timer =
+        Executors.newSingleThreadScheduledExecutor(SearchEngine.daemonThreads("analysis-timer"));
+
+    // Guards running and every engine.stop() aimed at a stale search: checking and stopping
+    // under one lock means a stop can never land on a search that started in between
+    private final Object searchLock = new Object();
+    // Bumped by every analyze() and stop(); a search or update from an older one is stale
+    private volatile long generation;
+    // Generation of the search now running, or -1 when the search thread is idle
+    private long running = -1;
+
+    private final AtomicReference<Update> pending = new AtomicReference<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile long lastFlushNanos;
+    private volatile Consumer<Update> listener;
+
+    AnalysisService(int threads, int hashMb) {
+        engine = new SearchEngine(threads, hashMb);
+    }
+
+    // Leaves a core for the UI
+    AnalysisService() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 64);
+    }
+
+    // Analyzes a copy of position until the next analyze() or stop(). The listener is
+    // called on the FX thread, only with results for this position.
+    void analyze(ChessGame position, Consumer<Update> listener) {
+        ChessGame root = new ChessGame();
+        root.copyFrom(position);
+        long id = cancelCurrent();
+        this.listener = listener;
+        searchThread.execute(() -> search(root, id));
+    }
+
+    // Cancels the current analysis without waiting for it to wind down
+    void stop() {
+        cancelCurrent();
+    }
+
+    void shutdown() {
+        cancelCurrent();
+        searchThread.shutdownNow();
+        timer.shutdownNow();
+        engine.shutdown();
+    }
+
+    private long cancelCurrent() {
+        long id;
+        synchronized (searchLock) {
+            id = ++generation;
+        }
+        pending.set(null);
+        stopStale();
+        return id;
+    }
+
+    // A stop can land before the running search has reset its flag, and an infinite
+    // search that has run out of depth only checks the flag, so repeat it until the
+    // stale search is gone
+    private void stopStale() {
+        synchronized (searchLock) {
+            if (running >= 0 && running != generation) {
+                engine.stop();
+                timer.schedule(this::stopStale, 1, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void search(ChessGame root, long id) {
+        synchronized (searchLock) {
+            // Skipped when it was cancelled while queued behind the previous search
+            if (id != generation) {
+                return;
+            }
+            running = id;
+        }
+        try {
+            engine.search(root, SearchLimits.infinite(), result -> publish(root, id, result));
+        } finally {
+            synchronized (searchLock) {
+                running = -1;
+            }
+        }
+    }
+
+    // On the search thread
+    private void publish(ChessGame root, long id, SearchResult result) {
+        if (id != generation) {
+            engine.stop();
+            return;
+        }
+        pending.set(new Update(result, root.isWhiteTurn(), pvSan(root, result.pv), id));
+        if (flushScheduled.compareAndSet(false, true)) {
+            long wait = lastFlushNanos + FRAME_NANOS - System.nanoTime();
+            if (wait <= 0) {
+                Platform.runLater(this::flush);
+            } else {
+                timer.schedule(() -> Platform.runLater(this::flush), wait, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    // On the FX thread
+    private void flush() {
+        lastFlushNanos = System.nanoTime();
+        flushScheduled.set(false);
+        Update update = pending.getAndSet(null);
+        Consumer<Update> target = listener;
+        if (update != null && update.generation == generation && target != null) {
+            target.accept(update);
+        }
+    }
+
+    private static String pvSan(ChessGame root, int[] pv) {
+        ChessGame board = new ChessGame();
+        board.copyFrom(root);
+        StringBuilder sb = new StringBuilder();
+        for (int move : pv) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(board.toSan(move));
+            board.makeMove(move);
+        }
+        return sb.toString();
+    }
+}
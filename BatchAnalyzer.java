@@ -0,0 +1,584 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Batch analysis of FEN/EPD or PGN files on every core.
+//
+//   java BatchAnalyzer <input> <output.jsonl> [--depth N | --movetime MS | --nodes N]
+//                      [--threads N] [--hash MB] [--format fen|pgn] [--checkpoint FILE] [--resume]
+//                      [--tb DIR] [--eval FILE.nnue] [--cache FILE] [--cache-mb MB] [--deterministic]
+//
+// The input is streamed: the reader thread parses positions and hands them to a
+// ForkJoinPool in chunks that split across idle workers (work stealing), each worker
+// searching with its own single-threaded engine. At most a fixed number of positions
+// are in flight, so memory does not grow with the file. A writer thread puts results
+// back in input order and appends them as JSON lines; every few thousand lines it
+// syncs the output and records (positions done, output length) in a checkpoint, so
+// --resume truncates any partial tail and carries on from exactly that position.
+//
+// With --cache, results are looked up in an AnalysisCache (loaded from and saved back
+// to FILE) before searching, so the opening positions every PGN game shares, and
+// anything analyzed in an earlier run with the same limits, are searched only once.
+//
+// Each worker's searcher keeps its transposition table from one position to the next,
+// so consecutive positions of a game start from a warm tree. The output then depends
+// on which positions a worker saw before; --deterministic clears the table before every
+// search for run-to-run identical results, at the cost of that warm start.
+public class BatchAnalyzer {
+    static final int CHUNK_SIZE = 64;
+    static final int CHECKPOINT_EVERY = 2000;
+    static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    static final class Options {
+        Path input;
+        Path output;
+        Path checkpoint;
+        String format;
+        SearchLimits limits = SearchLimits.depth(10);
+        int threads = Runtime.getRuntime().availableProcessors();
+        int hashMb = 16;
+        boolean resume;
+        // Clear each searcher's table between positions, trading speed for order-independent output
+        boolean deterministic;
+        Path tablebases;
+        Path network;
+        Path cache;
+        long cacheMb = AnalysisCache.DEFAULT_BYTES >> 20;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            List<String> files = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--depth": options.limits = SearchLimits.depth(Integer.parseInt(args[++i])); break;
+                    case "--movetime": options.limits = SearchLimits.moveTime(Long.parseLong(args[++i])); break;
+                    case "--nodes": options.limits = SearchLimits.nodes(Long.parseLong(args[++i])); break;
+                    case "--threads": options.threads = Math.max(1, Integer.parseInt(args[++i])); break;
+                    case "--hash": options.hashMb = Integer.parseInt(args[++i]); break;
+                    case "--format": options.format = args[++i]; break;
+                    case "--checkpoint": options.checkpoint = Paths.get(args[++i]); break;
+                    case "--resume": options.resume = true; break;
+                    case "--deterministic": options.deterministic = true; break;
+                    case "--tb": options.tablebases = Paths.get(args[++i]); break;
+                    case "--eval": options.network = Paths.get(args[++i]); break;
+                    case "--cache": options.cache = Paths.get(args[++i]); break;
+                    case "--cache-mb": options.cacheMb = Long.parseLong(args[++i]); break;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        files.add(args[i]);
+                }
+            }
+            if (files.size() != 2) {
+                throw new IllegalArgumentException("Expected an input file and an output file");
+            }
+            options.input = Paths.get(files.get(0));
+            options.output = Paths.get(files.get(1));
+            if (options.checkpoint == null) {
+                options.checkpoint = Paths.get(options.output + ".checkpoint");
+            }
+            if (options.format == null) {
+                options.format = options.input.toString().toLowerCase().endsWith(".pgn") ? "pgn" : "fen";
+            }
+            if (!options.format.equals("pgn") && !options.format.equals("fen")) {
+                throw new IllegalArgumentException("Format must be fen or pgn");
+            }
+            return options;
+        }
+    }
+
+    // One position on its way through the pipeline; the board travels as FEN to stay small
+    static final class Job {
+        final long index;
+        final String id;
+        final String fen;
+        final String played;
+        long queuedNanos;
+        long doneNanos;
+        String json;
+
+        Job(long index, String id, String fen, String played) {
+            this.index = index;
+            this.id = id;
+            this.fen = fen;
+            this.played = played;
+        }
+    }
+
+    // An engine and a board, reused for position after position
+    private static final class Searcher {
+        final SearchEngine engine;
+        final ChessGame board = new ChessGame();
+
+        Searcher(int hashMb) {
+            engine = new SearchEngine(1, hashMb);
+        }
+    }
+
+    // Positions [from, to) of a chunk; halves are forked so idle workers can steal them
+    private final class AnalyzeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Job[] jobs;
+        private final int from, to;
+
+        AnalyzeTask(Job[] jobs, int from, int to) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 2) {
+                for (int i = from; i < to; i++) {
+                    analyze(jobs[i]);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new AnalyzeTask(jobs, from, mid), new AnalyzeTask(jobs, mid, to));
+            }
+        }
+    }
+
+    private final Options options;
+    private final ForkJoinPool pool;
+    // Idle searchers; never more exist than workers that have run at the same time
+    private final Queue<Searcher> searchers = new ConcurrentLinkedQueue<>();
+    private final Semaphore inFlight;
+    private final BlockingQueue<Job> finished = new LinkedBlockingQueue<>();
+
+    final LatencyHistogram parseLatency = new LatencyHistogram();
+    final LatencyHistogram queueLatency = new LatencyHistogram();
+    final LatencyHistogram searchLatency = new LatencyHistogram();
+    final LatencyHistogram writeLatency = new LatencyHistogram();
+    final LatencyHistogram totalLatency = new LatencyHistogram();
+    private final AtomicLong nodes = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    // Set by the reader when the input is exhausted: the index one past the last position
+    private volatile long endIndex = Long.MAX_VALUE;
+    private volatile boolean writerFailed;
+    // Shared by every searcher; set before the first position is submitted
+    private Tablebase tablebase;
+    private NnueEvaluator.Network network;
+    private AnalysisCache cache;
+    // Evaluator and tablebase setup, part of every cache key
+    private String cacheTag;
+
+    BatchAnalyzer(Options options) {
+        this.options = options;
+        pool = new ForkJoinPool(options.threads);
+        inFlight = new Semaphore(options.threads * CHUNK_SIZE * 2);
+    }
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: java BatchAnalyzer <input> <output.jsonl> [--depth N | --movetime MS | --nodes N]");
+            System.err.println("       [--threads N] [--hash MB] [--format fen|pgn] [--checkpoint FILE] [--resume] [--tb DIR]");
+            System.err.println("       [--eval FILE.nnue] [--cache FILE] [--cache-mb MB] [--deterministic]");
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        Metrics.start();
+        try {
+            new BatchAnalyzer(options).run();
+        } catch (IOException e) {
+            System.err.println("Batch analysis failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    void run() throws IOException {
+        long skip = 0;
+        long outputBytes = 0;
+        if (options.resume && !Files.exists(options.checkpoint)
+                && Files.exists(options.output) && Files.size(options.output) > 0) {
+            // Starting over would truncate the earlier run's output
+            throw new IOException("Cannot resume: no checkpoint at " + options.checkpoint + " for " + options.output);
+        }
+        if (options.resume && Files.exists(options.checkpoint)) {
+            Properties saved = new Properties();
+            try (Reader in = Files.newBufferedReader(options.checkpoint, StandardCharsets.UTF_8)) {
+                saved.load(in);
+            }
+            if (!options.input.toAbsolutePath().toString().equals(saved.getProperty("input"))) {
+                throw new IOException("Checkpoint " + options.checkpoint + " belongs to " + saved.getProperty("input"));
+            }
+            skip = Long.parseLong(saved.getProperty("positions", "0"));
+            outputBytes = Long.parseLong(saved.getProperty("outputBytes", "0"));
+            System.err.printf("Resuming after %,d positions%n", skip);
+        }
+
+        // Anything past the checkpointed length was written after the last sync: drop it
+        try (FileChannel channel = FileChannel.open(options.output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(outputBytes);
+        }
+
+        if (options.tablebases != null) {
+            tablebase = new Tablebase(options.tablebases, 256L << 20);
+        }
+        if (options.network != null) {
+            network = NnueEvaluator.Network.load(options.network);
+        }
+        if (options.cache != null && AnalysisCache.cacheable(options.limits)) {
+            cache = AnalysisCache.open(options.cache, options.cacheMb << 20);
+            cacheTag = (network != null ? NnueEvaluator.class.getName() + ":" + options.network.toAbsolutePath()
+                : ClassicalEvaluator.class.getName()) + (tablebase != null ? "+tb" : "")
+                + (options.deterministic ? "+cold" : "");
+        }
+
+        long start = System.nanoTime();
+        ResultWriter writer = new ResultWriter(skip, outputBytes);
+        Thread writerThread = new Thread(writer, "batch-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        try {
+            long count = options.format.equals("pgn") ? readPgn(skip) : readFen(skip);
+            endIndex = count;
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+            for (Searcher s : searchers) {
+                s.engine.shutdown();
+            }
+        }
+        if (writer.failure != null) {
+            throw writer.failure;
+        }
+        report(writer.written, System.nanoTime() - start);
+        if (tablebase != null) {
+            tablebase.close();
+        }
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    // FEN or EPD, one position per line; EPD "id" opcodes become the position id
+    private long readFen(long skip) throws IOException {
+        long index = 0;
+        List<Job> chunk = new ArrayList<>(CHUNK_SIZE);
+        try (BufferedReader in = Files.newBufferedReader(options.input, StandardCharsets.UTF_8)) {
+            long mark = System.nanoTime();
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (index < skip) {
+                    index++;
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                String fen, id = null;
+                if (fields.length >= 6 && isNumber(fields[4]) && isNumber(fields[5])) {
+                    fen = String.join(" ", Arrays.copyOf(fields, 6));
+                } else {
+                    fen = String.join(" ", Arrays.copyOf(fields, Math.min(4, fields.length))) + " 0 1";
+                    id = epdOperand(line, "id");
+                }
+                parseLatency.record(System.nanoTime() - mark);
+                submit(new Job(index, id != null ? id : "line " + index, fen, null), chunk);
+                index++;
+                mark = System.nanoTime();
+            }
+        }
+        flush(chunk);
+        return index;
+    }
+
+    // Every position of every game, before each move, tagged with the move actually played
+    private long readPgn(long skip) throws IOException {
+        List<Job> chunk = new ArrayList<>(CHUNK_SIZE);
+        class Positions implements PgnParser.Visitor {
+            long index;
+            long gameNumber;
+            int ply;
+            long mark = System.nanoTime();
+
+            @Override
+            public void startGame(long offset) {
+                gameNumber++;
+                ply = 0;
+            }
+
+            @Override
+            public boolean move(ChessGame board, int move) {
+                ply++;
+                if (index++ < skip) {
+                    return true;
+                }
+                Job job = new Job(index - 1, "game " + gameNumber + " ply " + ply, board.toFen(), board.toSan(move));
+                parseLatency.record(System.nanoTime() - mark);
+                try {
+                    submit(job, chunk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                mark = System.nanoTime();
+                return true;
+            }
+
+            @Override
+            public void error(long offset, String message) {
+                System.err.println("Game " + gameNumber + " (byte " + offset + "): " + message);
+            }
+        }
+
+        Positions positions = new Positions();
+        try {
+            PgnParser.parseFile(options.input, true, positions);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        flush(chunk);
+        return positions.index;
+    }
+
+    private void submit(Job job, List<Job> chunk) throws IOException {
+        // Blocks while the pipeline is full, which is what bounds memory
+        inFlight.acquireUninterruptibly();
+        if (writerFailed) {
+            throw new IOException("Output writer stopped");
+        }
+        job.queuedNanos = System.nanoTime();
+        chunk.add(job);
+        if (chunk.size() == CHUNK_SIZE) {
+            flush(chunk);
+        }
+    }
+
+    private void flush(List<Job> chunk) {
+        if (!chunk.isEmpty()) {
+            Job[] jobs = chunk.toArray(new Job[0]);
+            pool.execute(new AnalyzeTask(jobs, 0, jobs.length));
+            chunk.clear();
+        }
+    }
+
+    // Runs on a pool worker
+    private void analyze(Job job) {
+        long started = System.nanoTime();
+        queueLatency.record(started - job.queuedNanos);
+        Searcher s = searchers.poll();
+        if (s == null) {
+            s = new Searcher(options.hashMb);
+            s.engine.setTablebase(tablebase);
+            if (network != null) {
+                s.engine.setEvaluator(new NnueEvaluator(network));
+            }
+        }
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"index\":").append(job.index).append(",\"id\":");
+        appendString(json, job.id);
+        json.append(",\"fen\":");
+        appendString(json, job.fen);
+        if (job.played != null) {
+            json.append(",\"played\":");
+            appendString(json, job.played);
+        }
+
+        try {
+            s.board.setFen(job.fen);
+            if (!s.board.hasLegalMoves()) {
+                json.append(",\"result\":\"").append(s.board.inCheck() ? "checkmate" : "stalemate").append('"');
+            } else {
+                long key = cache != null ? AnalysisCache.key(s.board.hash(), options.limits, cacheTag) : 0;
+                SearchResult result = cache != null ? cache.get(key) : null;
+                if (result == null) {
+                    if (options.deterministic) {
+                        // What is left from earlier positions depends on how work was scheduled
+                        s.engine.newGame();
+                    }
+                    result = s.engine.search(s.board, options.limits, null);
+                    nodes.addAndGet(result.nodes);
+                    if (cache != null) {
+                        cache.put(key, result);
+                    }
+                }
+                json.append(",\"bestmove\":\"").append(Move.toUci(result.bestMove())).append('"');
+                json.append(",\"san\":");
+                appendString(json, s.board.toSan(result.bestMove()));
+                json.append(",\"score\":{").append(result.isMate() ? "\"mate\":" + result.mateIn() : "\"cp\":" + result.score);
+                json.append("},\"depth\":").append(result.depth).append(",\"seldepth\":").append(result.selDepth);
+                json.append(",\"nodes\":").append(result.nodes).append(",\"timeMs\":").append(result.timeMs);
+                json.append(",\"pv\":\"").append(result.pvString()).append('"');
+            }
+        } catch (RuntimeException e) {
+            // Bad FEN, usually; keep the line so output indices stay contiguous
+            errors.incrementAndGet();
+            json.append(",\"error\":");
+            appendString(json, String.valueOf(e.getMessage()));
+        } catch (Throwable e) {
+            // The writer waits for every index, so even an Error must produce a line;
+            // the searcher may be left half-updated and is dropped
+            errors.incrementAndGet();
+            json.append(",\"error\":");
+            appendString(json, e.toString());
+            s = null;
+        } finally {
+            if (s != null) {
+                searchers.add(s);
+            }
+        }
+        json.append('}');
+
+        job.json = json.toString();
+        job.doneNanos = System.nanoTime();
+        searchLatency.record(job.doneNanos - started);
+        finished.add(job);
+    }
+
+    // Restores input order, appends JSON lines and checkpoints
+    private final class ResultWriter implements Runnable {
+        private final Map<Long, Job> pending = new HashMap<>();
+        private long next;
+        private long bytes;
+        long written;
+        volatile IOException failure;
+
+        ResultWriter(long next, long bytes) {
+            this.next = next;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            long lastProgress = System.nanoTime();
+            long sinceCheckpoint = 0;
+            try (FileOutputStream file = new FileOutputStream(options.output.toFile(), true);
+                 OutputStream out = new BufferedOutputStream(file, 1 << 16)) {
+                while (next < endIndex) {
+                    Job job = finished.poll(100, TimeUnit.MILLISECONDS);
+                    if (job != null) {
+                        pending.put(job.index, job);
+                    }
+                    while ((job = pending.remove(next)) != null) {
+                        byte[] line = (job.json + "\n").getBytes(StandardCharsets.UTF_8);
+                        out.write(line);
+                        bytes += line.length;
+                        next++;
+                        written++;
+                        sinceCheckpoint++;
+                        long now = System.nanoTime();
+                        writeLatency.record(now - job.doneNanos);
+                        totalLatency.record(now - job.queuedNanos);
+                        inFlight.release();
+                    }
+                    if (sinceCheckpoint >= CHECKPOINT_EVERY) {
+                        checkpoint(out, file, false);
+                        sinceCheckpoint = 0;
+                    }
+                    if (System.nanoTime() - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                        lastProgress = System.nanoTime();
+                        System.err.printf("%,d positions written, %,d nodes, %d queued%n", written, nodes.get(),
+                            pending.size() + finished.size());
+                    }
+                }
+                checkpoint(out, file, true);
+            } catch (IOException e) {
+                failure = e;
+                writerFailed = true;
+                // Unblock the reader so the run can end
+                inFlight.release(Integer.MAX_VALUE / 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Only lines that reached the disk are recorded, so a crash can never skip a position
+        private void checkpoint(OutputStream out, FileOutputStream file, boolean complete) throws IOException {
+            out.flush();
+            file.getChannel().force(false);
+            Properties state = new Properties();
+            state.setProperty("input", options.input.toAbsolutePath().toString());
+            state.setProperty("positions", Long.toString(next));
+            state.setProperty("outputBytes", Long.toString(bytes));
+            state.setProperty("complete", Boolean.toString(complete));
+            Path temp = Paths.get(options.checkpoint + ".tmp");
+            try (Writer w = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                state.store(w, "BatchAnalyzer checkpoint");
+            }
+            Files.move(temp, options.checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void report(long positions, long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos / 1e9, 1e-9);
+        System.err.printf("Analyzed %,d positions in %.1f s: %,.1f positions/sec, %,.0f nodes/sec on %d threads%n",
+            positions, seconds, positions / seconds, nodes.get() / seconds, options.threads);
+        if (errors.get() > 0) {
+            System.err.printf("%,d positions could not be loaded (see \"error\" in the output)%n", errors.get());
+        }
+        if (cache != null) {
+            System.err.printf("  cache   %,d entries, %,d hits, %,d misses%n", cache.size(),
+                Metrics.counter("cache.hits").sum(), Metrics.counter("cache.misses").sum());
+        }
+        System.err.println("  parse   " + parseLatency.summary());
+        System.err.println("  queue   " + queueLatency.summary());
+        System.err.println("  search  " + searchLatency.summary());
+        System.err.println("  write   " + writeLatency.summary());
+        System.err.println("  total   " + totalLatency.summary());
+        System.err.printf("  work stealing: %,d tasks stolen%n", pool.getStealCount());
+        if (tablebase != null) {
+            System.err.println("  tablebases: " + tablebase.stats());
+        }
+    }
+
+    // Value of an EPD opcode such as: id "BK.01";
+    static String epdOperand(String epd, String opcode) {
+        int at = (" " + epd).indexOf(" " + opcode + " ");
+        if (at < 0) {
+            return null;
+        }
+        int start = at + opcode.length() + 1;
+        int end = epd.indexOf(';', start);
+        String value = (end < 0 ? epd.substring(start) : epd.substring(start, end)).trim();
+        return value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")
+            ? value.substring(1, value.length() - 1) : value;
+    }
+
+    private static boolean isNumber(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        return !text.isEmpty();
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
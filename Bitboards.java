@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+// Precomputed attack tables for the bitboard move generator.
+// Squares are numbered 0 (a1) to 63 (h8); bit n of a bitboard is square n.
+//
+// Building the magic and line tables takes a few tens of milliseconds on a cold JVM,
+// most of a fast start-up, so the build writes them once ("java Bitboards generate")
+// into the resource TABLE_RESOURCE and class initialization copies them in from
+// there. The resource carries a fingerprint of the magics and table sizes; when it
+// is missing, or stale after a magic changed, the tables are computed as before.
+final class Bitboards {
+    static final String TABLE_RESOURCE = "/bitboards.bin";
+    private static final int TABLE_MAGIC = 0x42425431; // "BBT1"
+    private static final int TABLE_VERSION = 1;
+
+    static final long FILE_A = 0x0101010101010101L;
+    static final long FILE_H = FILE_A << 7;
+    static final long RANK_1 = 0xFFL;
+    static final long RANK_2 = RANK_1 << 8;
+    static final long RANK_4 = RANK_1 << 24;
+    static final long RANK_5 = RANK_1 << 32;
+    static final long RANK_7 = RANK_1 << 48;
+    static final long RANK_8 = RANK_1 << 56;
+
+    static final long[] KNIGHT_ATTACKS = new long[64];
+    static final long[] KING_ATTACKS = new long[64];
+    static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    // Squares strictly between two aligned squares, and the full line through them
+    static final long[][] BETWEEN = new long[64][64];
+    static final long[][] LINE = new long[64][64];
+
+    // Magic bitboards: attacks = TABLE[OFFSET[sq] + ((occ & MASK[sq]) * MAGIC[sq] >>> SHIFT[sq])]
+    static final long[] ROOK_MASKS = new long[64];
+    static final int[] ROOK_SHIFTS = new int[64];
+    static final int[] ROOK_OFFSETS = new int[64];
+    static final long[] BISHOP_MASKS = new long[64];
+    static final int[] BISHOP_SHIFTS = new int[64];
+    static final int[] BISHOP_OFFSETS = new int[64];
+    static final long[] ROOK_TABLE;
+    static final long[] BISHOP_TABLE;
+
+    // Magic multipliers found offline by random search. Any value works as long as it maps
+    // every relevant occupancy of the square to a slot without a conflicting attack set.
+    static final long[] ROOK_MAGICS = {
+        0x0080008020400010L, 0x0040002000401000L, 0x0880100020000884L, 0x5980043800821000L,
+        0x1880080002040180L, 0x1200020008040110L, 0x8880310002000480L, 0x0500008441320300L,
+        0x0900800080204002L, 0x4008401004200046L, 0x0108801003200080L, 0x0200800800801000L,
+        0x0009001104080100L, 0x0408800200805400L, 0x0009002200210004L, 0x2486000100841042L,
+        0x4200888008400028L, 0x10A0808040002004L, 0x1100808010002000L, 0x2400120020420008L,
+        0x0004110008000500L, 0x0032808002000400L, 0x2080040018412210L, 0x1000020020408104L,
+        0xB080208080004000L, 0x0260810300204000L, 0x0002104100200900L, 0x2020090100100420L,
+        0x2241000500500800L, 0x0000040080800200L, 0x0100100400010802L, 0x051030C2000B0084L,
+        0x0010400820800094L, 0x0030004000402000L, 0x0040801022004200L, 0x4000100080800804L,
+        0x0908001109000500L, 0x0004010040400200L, 0x0011A82204005001L, 0x8000004082000401L,
+        0x0900208040008000L, 0x82201004C1234000L, 0xC820008010088020L, 0x10020022100A0040L,
+        0x0008080004008080L, 0x0210201040280124L, 0x8004021081040008L, 0x101000825502001CL,
+        0x01044020810A0200L, 0x4100200082400A80L, 0x0320802010420200L, 0x1000100080080080L,
+        0x5000080004008080L, 0x4C80020080040080L, 0x0082000908242E00L, 0x0005040108884A00L,
+        0x1001048000204013L, 0x1201020010204682L, 0x0040100820010041L, 0x000200900840A006L,
+        0x045A001061480432L, 0x0802005134081002L, 0x00000802100100C4L, 0x80000C8444010022L
+    };
+    static final long[] BISHOP_MAGICS = {
+        0x0220940408004018L, 0x0202080830808000L, 0x2451241082020410L, 0x80C8048112300080L,
+        0x0102021008040300L, 0x0241016010000124L, 0x4104010888041188L, 0x0000820082214002L,
+        0x0004710298082882L, 0x4041043080810308L, 0x7812420A02112100L, 0x0000042502020000L,
+        0x6408040420000802L, 0x1002008804408008L, 0x2201041A01100802L, 0x0204004400880821L,
+        0x1421004202041100L, 0x0183202008020084L, 0x8001203004002042L, 0x000400C241020002L,
+        0x0804000088A00000L, 0x0002010101148A00L, 0x0010804048280880L, 0x0008800852080100L,
+        0x1002410010300202L, 0x004C3048A4108088L, 0x0040404028021042L, 0x0090040100440088L,
+        0x0C81080405004000L, 0x0222082004100800L, 0x8002140000650820L, 0x001202892620A800L,
+        0x4010421000081042L, 0x90A41008000202A0L, 0x0428108204100402L, 0x0002400808108200L,
+        0x0001010400020202L, 0x4000980040220100L, 0x00410801080C9440L, 0x50040040400A0510L,
+        0x00084412480E2000L, 0x0212012460084200L, 0x0002020202002440L, 0x9261082014412800L,
+        0x00000C0504000210L, 0x0020020050402A00L, 0x00423012308D9208L, 0x8841040080804212L,
+        0x0110880410040000L, 0x0802020082488020L, 0x0044A84404042004L, 0x048A00060A020000L,
+        0x0002081102020000L, 0x1029090208020000L, 0x0440300288810000L, 0x002002220A002124L,
+        0x0018110088044100L, 0x0082004044100840L, 0xC8A0000100415000L, 0xA000068083420880L,
+        0x0500000820042401L, 0x7004100A10100080L, 0x0010220801010405L, 0x0050100128102141L
+    };
+
+    private static final int[][] ROOK_DIRECTIONS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    static {
+        initLeaperAttacks();
+        ROOK_TABLE = new long[initLayout(ROOK_DIRECTIONS, ROOK_MASKS, ROOK_SHIFTS, ROOK_OFFSETS)];
+        BISHOP_TABLE = new long[initLayout(BISHOP_DIRECTIONS, BISHOP_MASKS, BISHOP_SHIFTS, BISHOP_OFFSETS)];
+        if (!loadTables()) {
+            fillMagics(ROOK_DIRECTIONS, ROOK_MASKS, ROOK_MAGICS, ROOK_SHIFTS, ROOK_OFFSETS, ROOK_TABLE);
+            fillMagics(BISHOP_DIRECTIONS, BISHOP_MASKS, BISHOP_MAGICS, BISHOP_SHIFTS, BISHOP_OFFSETS, BISHOP_TABLE);
+            initLines(BETWEEN, LINE);
+        }
+    }
+
+    private Bitboards() {
+    }
+
+    static long rookAttacks(int square, long occupied) {
+        return ROOK_TABLE[ROOK_OFFSETS[square]
+            + (int) (((occupied & ROOK_MASKS[square]) * ROOK_MAGICS[square]) >>> ROOK_SHIFTS[square])];
+    }
+
+    static long bishopAttacks(int square, long occupied) {
+        return BISHOP_TABLE[BISHOP_OFFSETS[square]
+            + (int) (((occupied & BISHOP_MASKS[square]) * BISHOP_MAGICS[square]) >>> BISHOP_SHIFTS[square])];
+    }
+
+    static long queenAttacks(int square, long occupied) {
+        return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+    }
+
+    static long squareBit(int square) {
+        return 1L << square;
+    }
+
+    private static void initLeaperAttacks() {
+        int[][] knightSteps = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+        int[][] kingSteps = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+
+        for (int square = 0; square < 64; square++) {
+            int row = square >>> 3, col = square & 7;
+            KNIGHT_ATTACKS[square] = stepTargets(row, col, knightSteps);
+            KING_ATTACKS[square] = stepTargets(row, col, kingSteps);
+            PAWN_ATTACKS[0][square] = stepTargets(row, col, new int[][] {{1, -1}, {1, 1}});
+            PAWN_ATTACKS[1][square] = stepTargets(row, col, new int[][] {{-1, -1}, {-1, 1}});
+        }
+    }
+
+    private static long stepTargets(int row, int col, int[][] steps) {
+        long targets = 0L;
+        for (int[] step : steps) {
+            int r = row + step[0], c = col + step[1];
+            if (r >= 0 && r < 8 && c >= 0 && c < 8) {
+                targets |= 1L << (r * 8 + c);
+            }
+        }
+        return targets;
+    }
+
+    // Ray attacks computed the slow way; only used while building the tables
+    private static long slidingAttacks(int square, long occupied, int[][] directions) {
+        long attacks = 0L;
+        for (int[] dir : directions) {
+            int r = (square >>> 3) + dir[0], c = (square & 7) + dir[1];
+            while (r >= 0 && r < 8 && c >= 0 && c < 8) {
+                long bit = 1L << (r * 8 + c);
+                attacks |= bit;
+                if ((occupied & bit) != 0) {
+                    break;
+                }
+                r += dir[0];
+                c += dir[1];
+            }
+        }
+        return attacks;
+    }
+
+    // Relevant occupancy: the rays minus their final edge square
+    private static long relevantMask(int square, int[][] directions) {
+        long mask = 0L;
+        for (int[] dir : directions) {
+            int r = (square >>> 3) + dir[0], c = (square & 7) + dir[1];
+            while (r + dir[0] >= 0 && r + dir[0] < 8 && c + dir[1] >= 0 && c + dir[1] < 8) {
+                mask |= 1L << (r * 8 + c);
+                r += dir[0];
+                c += dir[1];
+            }
+        }
+        return mask;
+    }
+
+    // Masks, shifts and offsets, which are cheap; returns the table size
+    private static int initLayout(int[][] directions, long[] masks, int[] shifts, int[] offsets) {
+        int total = 0;
+        for (int square = 0; square < 64; square++) {
+            long mask = relevantMask(square, directions);
+            masks[square] = mask;
+            shifts[square] = 64 - Long.bitCount(mask);
+            offsets[square] = total;
+            total += 1 << Long.bitCount(mask);
+        }
+        return total;
+    }
+
+    private static void fillMagics(int[][] directions, long[] masks, long[] magics, int[] shifts, int[] offsets,
+                                   long[] table) {
+        for (int square = 0; square < 64; square++) {
+            long mask = masks[square];
+            // Enumerate every subset of the mask (Carry-Rippler)
+            long subset = 0L;
+            do {
+                long attacks = slidingAttacks(square, subset, directions);
+                int index = offsets[square] + (int) ((subset * magics[square]) >>> shifts[square]);
+                long existing = table[index];
+                if (existing != 0 && existing != attacks) {
+                    throw new IllegalStateException("Bad magic for square " + square);
+                }
+                table[index] = attacks;
+                subset = (subset - mask) & mask;
+            } while (subset != 0);
+        }
+    }
+
+    private static void initLines(long[][] between, long[][] line) {
+        for (int a = 0; a < 64; a++) {
+            for (int b = 0; b < 64; b++) {
+                if (a == b) {
+                    continue;
+                }
+                long bBit = 1L << b;
+                if ((slidingAttacks(a, 0L, ROOK_DIRECTIONS) & bBit) != 0) {
+                    between[a][b] = slidingAttacks(a, bBit, ROOK_DIRECTIONS) & slidingAttacks(b, 1L << a, ROOK_DIRECTIONS);
+                    line[a][b] = (slidingAttacks(a, 0L, ROOK_DIRECTIONS) & slidingAttacks(b, 0L, ROOK_DIRECTIONS))
+                        | (1L << a) | bBit;
+                } else if ((slidingAttacks(a, 0L, BISHOP_DIRECTIONS) & bBit) != 0) {
+                    between[a][b] = slidingAttacks(a, bBit, BISHOP_DIRECTIONS) & slidingAttacks(b, 1L << a, BISHOP_DIRECTIONS);
+                    line[a][b] = (slidingAttacks(a, 0L, BISHOP_DIRECTIONS) & slidingAttacks(b, 0L, BISHOP_DIRECTIONS))
+                        | (1L << a) | bBit;
+                }
+            }
+        }
+    }
+
+    // Changes whenever a magic or a table size does, so a resource built for other
+    // magics is never used
+    private static long fingerprint() {
+        long hash = TABLE_VERSION;
+        for (long magic : ROOK_MAGICS) {
+            hash = hash * 0x9E3779B97F4A7C15L + magic;
+        }
+        for (long magic : BISHOP_MAGICS) {
+            hash = hash * 0x9E3779B97F4A7C15L + magic;
+        }
+        return hash * 31 + ROOK_TABLE.length * 131L + BISHOP_TABLE.length;
+    }
+
+    private static int tableBytes() {
+        return 16 + 8 * (ROOK_TABLE.length + BISHOP_TABLE.length + 2 * 64 * 64);
+    }
+
+    // Fills the tables from TABLE_RESOURCE; false, with nothing written, if it is
+    // missing, truncated or was built for other magics
+    private static boolean loadTables() {
+        byte[] bytes;
+        try (InputStream in = Bitboards.class.getResourceAsStream(TABLE_RESOURCE)) {
+            if (in == null) {
+                return false;
+            }
+            bytes = in.readAllBytes();
+        } catch (IOException e) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length != tableBytes() || buffer.getInt() != TABLE_MAGIC || buffer.getInt() != TABLE_VERSION
+                || buffer.getLong() != fingerprint()) {
+            return false;
+        }
+        LongBuffer longs = buffer.asLongBuffer();
+        longs.get(ROOK_TABLE);
+        longs.get(BISHOP_TABLE);
+        for (long[] row : BETWEEN) {
+            longs.get(row);
+        }
+        for (long[] row : LINE) {
+            longs.get(row);
+        }
+        return true;
+    }
+
+    // Computes the tables afresh, whatever this class was initialized from, and writes them
+    private static void writeTables(Path file) throws IOException {
+        long[] rook = new long[ROOK_TABLE.length], bishop = new long[BISHOP_TABLE.length];
+        long[][] between = new long[64][64], line = new long[64][64];
+        fillMagics(ROOK_DIRECTIONS, ROOK_MASKS, ROOK_MAGICS, ROOK_SHIFTS, ROOK_OFFSETS, rook);
+        fillMagics(BISHOP_DIRECTIONS, BISHOP_MASKS, BISHOP_MAGICS, BISHOP_SHIFTS, BISHOP_OFFSETS, bishop);
+        initLines(between, line);
+
+        ByteBuffer buffer = ByteBuffer.allocate(tableBytes());
+        buffer.putInt(TABLE_MAGIC).putInt(TABLE_VERSION).putLong(fingerprint());
+        LongBuffer longs = buffer.asLongBuffer();
+        longs.put(rook).put(bishop);
+        for (long[] row : between) {
+            longs.put(row);
+        }
+        for (long[] row : line) {
+            longs.put(row);
+        }
+
+        Path absolute = file.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        Files.write(temp, buffer.array());
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // java Bitboards generate <file>: the resource the build packages as TABLE_RESOURCE
+    public static void main(String[] args) {
+        if (args.length != 2 || !args[0].equals("generate")) {
+            System.err.println("Usage: java Bitboards generate <file>");
+            System.exit(2);
+            return;
+        }
+        try {
+            writeTables(Paths.get(args[1]));
+        } catch (IOException e) {
+            System.err.println("Could not write " + args[1] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+import java.util.function.IntConsumer;
+import javafx.animation.AnimationTimer;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+// The board drawn on one Canvas, a1 bottom left, instead of 64 nodes in the scene graph.
+//
+// Every square remembers what was last painted on it as a small int (piece, highlight,
+// hidden under a moving piece), and render() repaints only the squares whose value
+// changed, plus those under an overlay that moved. playMove copies just the squares
+// the move changed (Move.touchedSquares) out of the game, so a move repaints two to
+// four squares. Arrows and the sliding piece are overlays drawn last; a square under
+// an overlay is repainted whole, with the overlay drawn over it again, so nothing is
+// blended twice.
+//
+// Piece glyphs are rasterized once per square size and then copied with drawImage.
+// Moves animate over ANIMATION_NANOS on an AnimationTimer, which runs at the display's
+// pulse (60 fps) only while a piece is moving. A new move finishes the running
+// animation first, so replaying a game quickly never queues animations up.
+final class BoardCanvas extends Canvas {
+    static final long ANIMATION_NANOS = 150_000_000L;
+
+    private static final String[] GLYPHS = {
+        "♙", "♘", "♗", "♖", "♕", "♔",
+        "♟", "♞", "♝", "♜", "♛", "♚"
+    };
+    private static final Color LIGHT = Color.WHITE;
+    private static final Color DARK = Color.GRAY;
+    private static final Color SELECTED = Color.GOLD;
+    private static final Color LAST_MOVE_LIGHT = Color.rgb(246, 246, 150);
+    private static final Color LAST_MOVE_DARK = Color.rgb(186, 186, 90);
+    private static final Color ARROW = Color.rgb(20, 130, 60, 0.6);
+
+    // Bits of a square's look above the piece (piece + 1, 0 for empty, in the low 4 bits)
+    private static final int LOOK_SELECTED = 1 << 4;
+    private static final int LOOK_LAST_MOVE = 1 << 5;
+    private static final int NOT_DRAWN = -1;
+
+    private static final java.util.concurrent.atomic.LongAdder SQUARES_PAINTED = Metrics.counter("ui.squares");
+
+    private final double squareSize;
+    private final Image[] glyphs = new Image[GLYPHS.length];
+
+    private final int[] pieces = new int[64];
+    private final int[] painted = new int[64];
+    private final int[] looks = new int[64];
+    private int selected = -1;
+    private long lastMove;
+    private int arrowFrom = -1;
+    private int arrowTo = -1;
+    // Squares to repaint whatever their look, for overlays that moved
+    private long dirty;
+
+    // The piece in flight: its destination square is drawn empty until it lands
+    private int spritePiece = ChessGame.EMPTY;
+    private int spriteFrom;
+    private int spriteTo;
+    private long spriteStart;
+    private long spriteSquares;
+    private double spriteX;
+    private double spriteY;
+    private final AnimationTimer animation = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            step(now);
+        }
+    };
+
+    BoardCanvas(double squareSize) {
+        super(squareSize * 8, squareSize * 8);
+        this.squareSize = squareSize;
+        java.util.Arrays.fill(pieces, ChessGame.EMPTY);
+        java.util.Arrays.fill(painted, NOT_DRAWN);
+    }
+
+    // Square index (row * 8 + col) of each click
+    void setOnSquareClicked(IntConsumer handler) {
+        setOnMouseClicked(e -> {
+            int col = (int) (e.getX() / squareSize), row = 7 - (int) (e.getY() / squareSize);
+            if (col >= 0 && col < 8 && row >= 0 && row < 8) {
+                handler.accept(row * 8 + col);
+            }
+        });
+    }
+
+    // Takes every square from the game, e.g. for a new game or a jump while replaying
+    void setPosition(ChessGame game) {
+        finishAnimation();
+        for (int square = 0; square < 64; square++) {
+            pieces[square] = game.pieceAt(square);
+        }
+        lastMove = 0;
+    }
+
+    // Takes only the squares the move changed from game, which has just made it
+    void playMove(ChessGame game, int move, boolean animate) {
+        finishAnimation();
+        long touched = Move.touchedSquares(move);
+        for (long bits = touched; bits != 0; bits &= bits - 1) {
+            int square = Long.numberOfTrailingZeros(bits);
+            pieces[square] = game.pieceAt(square);
+        }
+        lastMove = (1L << Move.from(move)) | (1L << Move.to(move));
+        if (animate) {
+            spritePiece = pieces[Move.to(move)];
+            spriteFrom = Move.from(move);
+            spriteTo = Move.to(move);
+            spriteStart = System.nanoTime();
+            spriteX = x(spriteFrom);
+            spriteY = y(spriteFrom);
+            spriteSquares = squaresUnder(spriteX, spriteY);
+            animation.start();
+        }
+    }
+
+    // -1 for none
+    void setSelected(int square) {
+        selected = square;
+    }
+
+    // Move.NONE for none
+    void setArrow(int move) {
+        int from = move == Move.NONE ? -1 : Move.from(move), to = move == Move.NONE ? -1 : Move.to(move);
+        if (from != arrowFrom || to != arrowTo) {
+            dirty |= arrowSquares();
+            arrowFrom = from;
+            arrowTo = to;
+            dirty |= arrowSquares();
+        }
+    }
+
+    // Repaints what changed since the last call; cheap to call when nothing did
+    void render() {
+        long repaint = dirty;
+        dirty = 0;
+        for (int square = 0; square < 64; square++) {
+            looks[square] = look(square);
+            if (looks[square] != painted[square]) {
+                repaint |= 1L << square;
+            }
+        }
+        // Redrawn every time it is drawn at all, so it is never painted over itself
+        if (spritePiece != ChessGame.EMPTY) {
+            repaint |= spriteSquares;
+        }
+        long arrow = arrowSquares();
+        if ((repaint & arrow) != 0) {
+            repaint |= arrow;
+        }
+        if (repaint == 0) {
+            return;
+        }
+
+        GraphicsContext gc = getGraphicsContext2D();
+        for (long bits = repaint; bits != 0; bits &= bits - 1) {
+            int square = Long.numberOfTrailingZeros(bits);
+            paintSquare(gc, square, looks[square]);
+            painted[square] = looks[square];
+        }
+        if (Metrics.ENABLED) {
+            SQUARES_PAINTED.add(Long.bitCount(repaint));
+        }
+        // Only over freshly painted squares: the arrow is translucent and would darken
+        if ((repaint & arrow) != 0) {
+            paintArrow(gc);
+        }
+        if (spritePiece != ChessGame.EMPTY) {
+            paintGlyph(gc, spritePiece, spriteX, spriteY);
+        }
+    }
+
+    private int look(int square) {
+        boolean hidden = spritePiece != ChessGame.EMPTY && square == spriteTo;
+        int look = hidden ? 0 : pieces[square] + 1;
+        if (square == selected) {
+            look |= LOOK_SELECTED;
+        }
+        if ((lastMove & (1L << square)) != 0) {
+            look |= LOOK_LAST_MOVE;
+        }
+        return look;
+    }
+
+    private void step(long now) {
+        double t = Math.min(1.0, (now - spriteStart) / (double) ANIMATION_NANOS);
+        if (t >= 1.0) {
+            finishAnimation();
+        } else {
+            // Ease out: quick start, gentle landing
+            double eased = 1 - (1 - t) * (1 - t) * (1 - t);
+            dirty |= spriteSquares;
+            spriteX = x(spriteFrom) + (x(spriteTo) - x(spriteFrom)) * eased;
+            spriteY = y(spriteFrom) + (y(spriteTo) - y(spriteFrom)) * eased;
+            spriteSquares = squaresUnder(spriteX, spriteY);
+            dirty |= spriteSquares;
+        }
+        render();
+    }
+
+    private void finishAnimation() {
+        if (spritePiece != ChessGame.EMPTY) {
+            animation.stop();
+            dirty |= spriteSquares;
+            spritePiece = ChessGame.EMPTY;
+        }
+    }
+
+    private void paintSquare(GraphicsContext gc, int square, int look) {
+        double x = x(square), y = y(square);
+        boolean light = ((square >>> 3) + (square & 7)) % 2 != 0;
+        Color fill;
+        if ((look & LOOK_SELECTED) != 0) {
+            fill = SELECTED;
+        } else if ((look & LOOK_LAST_MOVE) != 0) {
+            fill = light ? LAST_MOVE_LIGHT : LAST_MOVE_DARK;
+        } else {
+            fill = light ? LIGHT : DARK;
+        }
+        gc.setFill(fill);
+        gc.fillRect(x, y, squareSize, squareSize);
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(1);
+        gc.strokeRect(x + 0.5, y + 0.5, squareSize - 1, squareSize - 1);
+        int piece = (look & 15) - 1;
+        if (piece != ChessGame.EMPTY) {
+            paintGlyph(gc, piece, x, y);
+        }
+    }
+
+    private void paintGlyph(GraphicsContext gc, int piece, double x, double y) {
+        Image glyph = glyphs[piece];
+        if (glyph == null) {
+            Text text = new Text(GLYPHS[piece]);
+            text.setFont(Font.font("Arial", squareSize * 2 / 3));
+            SnapshotParameters parameters = new SnapshotParameters();
+            parameters.setFill(Color.TRANSPARENT);
+            glyph = glyphs[piece] = text.snapshot(parameters, null);
+        }
+        gc.drawImage(glyph, x + (squareSize - glyph.getWidth()) / 2, y + (squareSize - glyph.getHeight()) / 2);
+    }
+
+    private void paintArrow(GraphicsContext gc) {
+        double half = squareSize / 2;
+        double x1 = x(arrowFrom) + half, y1 = y(arrowFrom) + half;
+        double x2 = x(arrowTo) + half, y2 = y(arrowTo) + half;
+        double angle = Math.atan2(y2 - y1, x2 - x1);
+        double head = squareSize * 0.35;
+        // Stop the shaft where the head starts, so the two don't overlap and darken
+        double shaftX = x2 - Math.cos(angle) * head * 0.8, shaftY = y2 - Math.sin(angle) * head * 0.8;
+        gc.setStroke(ARROW);
+        gc.setLineWidth(squareSize * 0.15);
+        gc.strokeLine(x1, y1, shaftX, shaftY);
+        gc.setFill(ARROW);
+        gc.fillPolygon(
+            new double[] {x2, x2 - head * Math.cos(angle - 0.5), x2 - head * Math.cos(angle + 0.5)},
+            new double[] {y2, y2 - head * Math.sin(angle - 0.5), y2 - head * Math.sin(angle + 0.5)}, 3);
+    }
+
+    // The rectangle spanned by the arrow's two squares, which contains all of it
+    private long arrowSquares() {
+        if (arrowFrom < 0) {
+            return 0;
+        }
+        int minRow = Math.min(arrowFrom, arrowTo) >>> 3, maxRow = Math.max(arrowFrom, arrowTo) >>> 3;
+        int minCol = Math.min(arrowFrom & 7, arrowTo & 7), maxCol = Math.max(arrowFrom & 7, arrowTo & 7);
+        long squares = 0;
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                squares |= 1L << (row * 8 + col);
+            }
+        }
+        return squares;
+    }
+
+    // Up to four squares under a square-sized sprite with its top left corner at (x, y)
+    private long squaresUnder(double x, double y) {
+        long squares = 0;
+        int left = (int) (x / squareSize), top = (int) (y / squareSize);
+        int right = (int) Math.ceil((x + squareSize) / squareSize) - 1;
+        int bottom = (int) Math.ceil((y + squareSize) / squareSize) - 1;
+        for (int screenRow = Math.max(0, top); screenRow <= Math.min(7, bottom); screenRow++) {
+            for (int col = Math.max(0, left); col <= Math.min(7, right); col++) {
+                squares |= 1L << ((7 - screenRow) * 8 + col);
+            }
+        }
+        return squares;
+    }
+
+    private double x(int square) {
+        return (square & 7) * squareSize;
+    }
+
+    private double y(int square) {
+        return (7 - (square >>> 3)) * squareSize;
+    }
+}
@@ -0,0 +1,1043 @@
+// Chess Game Logic
+// Bitboard position: one 64-bit set per piece type and color, plus a square-indexed
+// mailbox for O(1) "what is on this square" lookups. Rows are ranks (0 = rank 1).
+// Moves are applied in place and reverted from a primitive undo stack; the Zobrist
+// key is updated incrementally so neither direction allocates or copies the board.
+class ChessGame {
+    static final int WHITE = 0;
+    static final int BLACK = 1;
+
+    static final int PAWN = 0;
+    static final int KNIGHT = 1;
+    static final int BISHOP = 2;
+    static final int ROOK = 3;
+    static final int QUEEN = 4;
+    static final int KING = 5;
+
+    static final int EMPTY = -1;
+
+    static final int WHITE_KINGSIDE = 1;
+    static final int WHITE_QUEENSIDE = 2;
+    static final int BLACK_KINGSIDE = 4;
+    static final int BLACK_QUEENSIDE = 8;
+
+    static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private static final int[] BACK_RANK = {ROOK, KNIGHT, BISHOP, QUEEN, KING, BISHOP, KNIGHT, ROOK};
+    private static final String PIECE_CHARS = "PNBRQKpnbrqk";
+
+    // Castling rights that survive a move touching the given square
+    private static final int[] CASTLING_MASK = new int[64];
+
+    static {
+        java.util.Arrays.fill(CASTLING_MASK, 15);
+        CASTLING_MASK[0] = 15 & ~WHITE_QUEENSIDE;
+        CASTLING_MASK[4] = 15 & ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+        CASTLING_MASK[7] = 15 & ~WHITE_KINGSIDE;
+        CASTLING_MASK[56] = 15 & ~BLACK_QUEENSIDE;
+        CASTLING_MASK[60] = 15 & ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+        CASTLING_MASK[63] = 15 & ~BLACK_KINGSIDE;
+    }
+
+    private final long[] pieces = new long[12];
+    private final long[] colors = new long[2];
+    private long occupied;
+    private final byte[] squares = new byte[64];
+    private int sideToMove;
+    private int castlingRights;
+    private int epSquare;
+    private int halfmoveClock;
+    private int fullmoveNumber;
+    private long hash;
+
+    // Undo entries: captured piece + 1 (bits 0-3), castling (4-7), ep square + 1 (8-14),
+    // halfmove clock (15+). hashStack holds the key from before each move.
+    private long[] undoStack = new long[256];
+    private long[] hashStack = new long[256];
+    private int undoTop;
+
+    private final MoveList scratch = new MoveList();
+
+    public ChessGame() {
+        initializeBoard();
+    }
+
+    public ChessGame(String fen) {
+        setFen(fen);
+    }
+
+    private void initializeBoard() {
+        clear();
+        for (int col = 0; col < 8; col++) {
+            putPiece(col, piece(WHITE, BACK_RANK[col]));
+            putPiece(8 + col, piece(WHITE, PAWN));
+            putPiece(48 + col, piece(BLACK, PAWN));
+            putPiece(56 + col, piece(BLACK, BACK_RANK[col]));
+        }
+        castlingRights = WHITE_KINGSIDE | WHITE_QUEENSIDE | BLACK_KINGSIDE | BLACK_QUEENSIDE;
+        hash = computeHash();
+    }
+
+    private void clear() {
+        java.util.Arrays.fill(pieces, 0L);
+        colors[WHITE] = 0L;
+        colors[BLACK] = 0L;
+        occupied = 0L;
+        java.util.Arrays.fill(squares, (byte) EMPTY);
+        sideToMove = WHITE;
+        castlingRights = 0;
+        epSquare = -1;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+        hash = 0L;
+        undoTop = 0;
+    }
+
+    public void setFen(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+
+        byte[] board = new byte[64];
+        java.util.Arrays.fill(board, (byte) EMPTY);
+        int row = 7, col = 0;
+        for (char ch : fields[0].toCharArray()) {
+            if (ch == '/') {
+                row--;
+                col = 0;
+            } else if (ch >= '1' && ch <= '8') {
+                col += ch - '0';
+            } else {
+                int piece = PIECE_CHARS.indexOf(ch);
+                if (piece < 0 || row < 0 || col > 7) {
+                    throw new IllegalArgumentException("Invalid FEN placement: " + fen);
+                }
+                board[row * 8 + col] = (byte) piece;
+                col++;
+            }
+        }
+
+        int side;
+        switch (fields[1]) {
+            case "w":
+                side = WHITE;
+                break;
+            case "b":
+                side = BLACK;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid FEN side to move: " + fen);
+        }
+
+        int castling = 0;
+        for (char ch : fields[2].toCharArray()) {
+            switch (ch) {
+                case 'K': castling |= WHITE_KINGSIDE; break;
+                case 'Q': castling |= WHITE_QUEENSIDE; break;
+                case 'k': castling |= BLACK_KINGSIDE; break;
+                case 'q': castling |= BLACK_QUEENSIDE; break;
+                case '-': break;
+                default: throw new IllegalArgumentException("Invalid FEN castling rights: " + fen);
+            }
+        }
+
+        int ep = fields[3].equals("-") ? -1 : Move.parseSquare(fields[3]);
+        int halfmove, fullmove;
+        try {
+            halfmove = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
+            fullmove = fields.length > 5 ? Integer.parseInt(fields[5]) : 1;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid FEN move counters: " + fen, e);
+        }
+
+        try {
+            setPosition(board, side, castling, ep, halfmove, fullmove);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("FEN " + e.getMessage() + ": " + fen);
+        }
+    }
+
+    // Loads a position from its raw fields: piece codes per square (EMPTY for none), side to move,
+    // castling bits, en passant target (-1 for none) and move counters. Shared by setFen and the
+    // binary position format; rejects positions the move generator cannot handle, leaving the
+    // current position as it was. Castling rights whose king or rook is not at home are dropped,
+    // and so is an en passant target no pawn could have just crossed.
+    void setPosition(byte[] board, int side, int castling, int ep, int halfmove, int fullmove) {
+        long[] bitboards = new long[12];
+        long occupancy = 0L;
+        for (int square = 0; square < 64; square++) {
+            int piece = board[square];
+            if (piece != EMPTY) {
+                if (piece < 0 || piece >= 12) {
+                    throw new IllegalArgumentException("has an invalid piece code " + piece);
+                }
+                if (typeOf(piece) == PAWN && (square < 8 || square >= 56)) {
+                    throw new IllegalArgumentException("has a pawn on the first or last rank");
+                }
+                bitboards[piece] |= 1L << square;
+                occupancy |= 1L << square;
+            }
+        }
+        if (Long.bitCount(bitboards[piece(WHITE, KING)]) != 1 || Long.bitCount(bitboards[piece(BLACK, KING)]) != 1) {
+            throw new IllegalArgumentException("must have exactly one king per side");
+        }
+        if (side != WHITE && side != BLACK) {
+            throw new IllegalArgumentException("has an invalid side to move " + side);
+        }
+        int theirKing = Long.numberOfTrailingZeros(bitboards[piece(side ^ 1, KING)]);
+        if (isSquareAttacked(bitboards, theirKing, side, occupancy)) {
+            throw new IllegalArgumentException("leaves the side not to move in check");
+        }
+        castling &= 15;
+        if (board[4] != piece(WHITE, KING)) {
+            castling &= ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+        }
+        if (board[7] != piece(WHITE, ROOK)) {
+            castling &= ~WHITE_KINGSIDE;
+        }
+        if (board[0] != piece(WHITE, ROOK)) {
+            castling &= ~WHITE_QUEENSIDE;
+        }
+        if (board[60] != piece(BLACK, KING)) {
+            castling &= ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+        }
+        if (board[63] != piece(BLACK, ROOK)) {
+            castling &= ~BLACK_KINGSIDE;
+        }
+        if (board[56] != piece(BLACK, ROOK)) {
+            castling &= ~BLACK_QUEENSIDE;
+        }
+        // An en passant target needs the pawn that just double-pushed past it, the
+        // squares it crossed empty, and a pawn that can take it; otherwise it is ignored
+        if (ep >= 0 && !(ep < 64 && ep >> 3 == (side == WHITE ? 5 : 2)
+                && board[ep] == EMPTY && board[side == WHITE ? ep + 8 : ep - 8] == EMPTY
+                && board[ep ^ 8] == piece(side ^ 1, PAWN)
+                && (Bitboards.PAWN_ATTACKS[side ^ 1][ep] & bitboards[piece(side, PAWN)]) != 0)) {
+            ep = -1;
+        }
+
+        clear();
+        for (int square = 0; square < 64; square++) {
+            if (board[square] != EMPTY) {
+                putPiece(square, board[square]);
+            }
+        }
+        sideToMove = side;
+        castlingRights = castling;
+        epSquare = ep;
+        halfmoveClock = halfmove;
+        fullmoveNumber = fullmove;
+        hash = computeHash();
+    }
+
+    public String toFen() {
+        StringBuilder sb = new StringBuilder(90);
+        for (int row = 7; row >= 0; row--) {
+            int empty = 0;
+            for (int col = 0; col < 8; col++) {
+                int piece = squares[row * 8 + col];
+                if (piece == EMPTY) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    sb.append(empty);
+                    empty = 0;
+                }
+                sb.append(PIECE_CHARS.charAt(piece));
+            }
+            if (empty > 0) {
+                sb.append(empty);
+            }
+            if (row > 0) {
+                sb.append('/');
+            }
+        }
+
+        sb.append(sideToMove == WHITE ? " w " : " b ");
+        if (castlingRights == 0) {
+            sb.append('-');
+        } else {
+            if ((castlingRights & WHITE_KINGSIDE) != 0) sb.append('K');
+            if ((castlingRights & WHITE_QUEENSIDE) != 0) sb.append('Q');
+            if ((castlingRights & BLACK_KINGSIDE) != 0) sb.append('k');
+            if ((castlingRights & BLACK_QUEENSIDE) != 0) sb.append('q');
+        }
+        sb.append(' ').append(epSquare < 0 ? "-" : Move.squareName(epSquare));
+        sb.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber);
+        return sb.toString();
+    }
+
+    void copyFrom(ChessGame other) {
+        System.arraycopy(other.pieces, 0, pieces, 0, pieces.length);
+        colors[WHITE] = other.colors[WHITE];
+        colors[BLACK] = other.colors[BLACK];
+        occupied = other.occupied;
+        System.arraycopy(other.squares, 0, squares, 0, 64);
+        sideToMove = other.sideToMove;
+        castlingRights = other.castlingRights;
+        epSquare = other.epSquare;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        hash = other.hash;
+        undoTop = other.undoTop;
+        if (undoStack.length < other.undoStack.length) {
+            undoStack = new long[other.undoStack.length];
+            hashStack = new long[other.undoStack.length];
+        }
+        System.arraycopy(other.undoStack, 0, undoStack, 0, undoTop);
+        System.arraycopy(other.hashStack, 0, hashStack, 0, undoTop);
+    }
+
+    // Full recomputation; make/unmake keep the same value up to date incrementally
+    long computeHash() {
+        long key = 0L;
+        for (int square = 0; square < 64; square++) {
+            if (squares[square] != EMPTY) {
+                key ^= Zobrist.pieceSquare(squares[square], square);
+            }
+        }
+        key ^= Zobrist.CASTLING[castlingRights];
+        if (epSquare >= 0) {
+            key ^= Zobrist.EN_PASSANT_FILE[epSquare & 7];
+        }
+        if (sideToMove == BLACK) {
+            key ^= Zobrist.SIDE_TO_MOVE;
+        }
+        return key;
+    }
+
+    static int piece(int color, int type) {
+        return color * 6 + type;
+    }
+
+    static int colorOf(int piece) {
+        return piece < 6 ? WHITE : BLACK;
+    }
+
+    static int typeOf(int piece) {
+        return piece < 6 ? piece : piece - 6;
+    }
+
+    // Accessors
+
+    int pieceAt(int square) {
+        return squares[square];
+    }
+
+    public int getPiece(int row, int col) {
+        return squares[row * 8 + col];
+    }
+
+    long pieces(int color, int type) {
+        return pieces[color * 6 + type];
+    }
+
+    long colorOccupancy(int color) {
+        return colors[color];
+    }
+
+    long occupied() {
+        return occupied;
+    }
+
+    int sideToMove() {
+        return sideToMove;
+    }
+
+    public boolean isWhiteTurn() {
+        return sideToMove == WHITE;
+    }
+
+    int castlingRights() {
+        return castlingRights;
+    }
+
+    int epSquare() {
+        return epSquare;
+    }
+
+    int halfmoveClock() {
+        return halfmoveClock;
+    }
+
+    int fullmoveNumber() {
+        return fullmoveNumber;
+    }
+
+    long hash() {
+        return hash;
+    }
+
+    // Number of moves that can currently be unmade
+    int historySize() {
+        return undoTop;
+    }
+
+    int kingSquare(int color) {
+        return Long.numberOfTrailingZeros(pieces[color * 6 + KING]);
+    }
+
+    // Board updates
+
+    private void putPiece(int square, int piece) {
+        long bit = 1L << square;
+        pieces[piece] |= bit;
+        colors[colorOf(piece)] |= bit;
+        occupied |= bit;
+        squares[square] = (byte) piece;
+        hash ^= Zobrist.pieceSquare(piece, square);
+    }
+
+    private void removePiece(int square) {
+        int piece = squares[square];
+        long bit = ~(1L << square);
+        pieces[piece] &= bit;
+        colors[colorOf(piece)] &= bit;
+        occupied &= bit;
+        squares[square] = (byte) EMPTY;
+        hash ^= Zobrist.pieceSquare(piece, square);
+    }
+
+    private void movePiece(int from, int to) {
+        int piece = squares[from];
+        long fromTo = (1L << from) | (1L << to);
+        pieces[piece] ^= fromTo;
+        colors[colorOf(piece)] ^= fromTo;
+        occupied ^= fromTo;
+        squares[from] = (byte) EMPTY;
+        squares[to] = (byte) piece;
+        hash ^= Zobrist.pieceSquare(piece, from) ^ Zobrist.pieceSquare(piece, to);
+    }
+
+    // Attack queries
+
+    long attackersTo(int square, long occupancy) {
+        return (Bitboards.PAWN_ATTACKS[BLACK][square] & pieces[piece(WHITE, PAWN)])
+            | (Bitboards.PAWN_ATTACKS[WHITE][square] & pieces[piece(BLACK, PAWN)])
+            | (Bitboards.KNIGHT_ATTACKS[square] & (pieces[piece(WHITE, KNIGHT)] | pieces[piece(BLACK, KNIGHT)]))
+            | (Bitboards.KING_ATTACKS[square] & (pieces[piece(WHITE, KING)] | pieces[piece(BLACK, KING)]))
+            | (Bitboards.bishopAttacks(square, occupancy) & (pieces[piece(WHITE, BISHOP)] | pieces[piece(BLACK, BISHOP)]
+                | pieces[piece(WHITE, QUEEN)] | pieces[piece(BLACK, QUEEN)]))
+            | (Bitboards.rookAttacks(square, occupancy) & (pieces[piece(WHITE, ROOK)] | pieces[piece(BLACK, ROOK)]
+                | pieces[piece(WHITE, QUEEN)] | pieces[piece(BLACK, QUEEN)]));
+    }
+
+    boolean isSquareAttacked(int square, int byColor, long occupancy) {
+        return isSquareAttacked(pieces, square, byColor, occupancy);
+    }
+
+    private static boolean isSquareAttacked(long[] pieces, int square, int byColor, long occupancy) {
+        int base = byColor * 6;
+        return (Bitboards.PAWN_ATTACKS[byColor ^ 1][square] & pieces[base + PAWN]) != 0
+            || (Bitboards.KNIGHT_ATTACKS[square] & pieces[base + KNIGHT]) != 0
+            || (Bitboards.KING_ATTACKS[square] & pieces[base + KING]) != 0
+            || (Bitboards.bishopAttacks(square, occupancy) & (pieces[base + BISHOP] | pieces[base + QUEEN])) != 0
+            || (Bitboards.rookAttacks(square, occupancy) & (pieces[base + ROOK] | pieces[base + QUEEN])) != 0;
+    }
+
+    boolean inCheck() {
+        return isSquareAttacked(kingSquare(sideToMove), sideToMove ^ 1, occupied);
+    }
+
+    // Pieces of the side to move that are pinned against their own king
+    private long pinnedPieces(int us, int king) {
+        int base = (us ^ 1) * 6;
+        long snipers = (Bitboards.rookAttacks(king, 0L) & (pieces[base + ROOK] | pieces[base + QUEEN]))
+            | (Bitboards.bishopAttacks(king, 0L) & (pieces[base + BISHOP] | pieces[base + QUEEN]));
+        long pinned = 0L;
+        while (snipers != 0) {
+            int sniper = Long.numberOfTrailingZeros(snipers);
+            snipers &= snipers - 1;
+            long blockers = Bitboards.BETWEEN[king][sniper] & occupied;
+            if (blockers != 0 && (blockers & (blockers - 1)) == 0 && (blockers & colors[us]) != 0) {
+                pinned |= blockers;
+            }
+        }
+        return pinned;
+    }
+
+    // Move generation
+
+    void generateLegalMoves(MoveList list) {
+        generate(list, true, false);
+    }
+
+    // Legal captures and promotions only, for quiescence search
+    void generateLegalCaptures(MoveList list) {
+        generate(list, true, true);
+    }
+
+    // King safety is not checked, except that castling never passes through check
+    void generatePseudoLegalMoves(MoveList list) {
+        generate(list, false, false);
+    }
+
+    private void generate(MoveList list, boolean legal, boolean noisyOnly) {
+        list.clear();
+        int us = sideToMove;
+        int them = us ^ 1;
+        int king = kingSquare(us);
+        long own = colors[us];
+        long checkMask = -1L;
+        long pinned = 0L;
+        boolean inCheck;
+
+        if (legal) {
+            long checkers = attackersTo(king, occupied) & colors[them];
+            inCheck = checkers != 0;
+            if (inCheck) {
+                if ((checkers & (checkers - 1)) != 0) {
+                    // Double check: only the king can move
+                    generateKingMoves(list, us, king, true, noisyOnly);
+                    return;
+                }
+                checkMask = checkers | Bitboards.BETWEEN[king][Long.numberOfTrailingZeros(checkers)];
+            }
+            pinned = pinnedPieces(us, king);
+        } else {
+            inCheck = isSquareAttacked(king, them, occupied);
+        }
+
+        long targets = (noisyOnly ? colors[them] : ~own) & checkMask;
+        generatePawnMoves(list, us, king, checkMask, pinned, legal, noisyOnly);
+
+        long knights = pieces[us * 6 + KNIGHT] & ~pinned;
+        while (knights != 0) {
+            int from = Long.numberOfTrailingZeros(knights);
+            knights &= knights - 1;
+            addMoves(list, from, Bitboards.KNIGHT_ATTACKS[from] & targets);
+        }
+
+        long diagonal = pieces[us * 6 + BISHOP] | pieces[us * 6 + QUEEN];
+        while (diagonal != 0) {
+            int from = Long.numberOfTrailingZeros(diagonal);
+            diagonal &= diagonal - 1;
+            long attacks = Bitboards.bishopAttacks(from, occupied) & targets;
+            if ((pinned & (1L << from)) != 0) {
+                attacks &= Bitboards.LINE[king][from];
+            }
+            addMoves(list, from, attacks);
+        }
+
+        long straight = pieces[us * 6 + ROOK] | pieces[us * 6 + QUEEN];
+        while (straight != 0) {
+            int from = Long.numberOfTrailingZeros(straight);
+            straight &= straight - 1;
+            long attacks = Bitboards.rookAttacks(from, occupied) & targets;
+            if ((pinned & (1L << from)) != 0) {
+                attacks &= Bitboards.LINE[king][from];
+            }
+            addMoves(list, from, attacks);
+        }
+
+        generateKingMoves(list, us, king, legal, noisyOnly);
+        if (!inCheck && !noisyOnly) {
+            generateCastling(list, us);
+        }
+    }
+
+    private void addMoves(MoveList list, int from, long targets) {
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            list.add(Move.encode(from, to, squares[to] == EMPTY ? Move.QUIET : Move.CAPTURE));
+        }
+    }
+
+    private void addPromotions(MoveList list, int from, int to, int baseFlag) {
+        list.add(Move.encode(from, to, baseFlag | 3));
+        list.add(Move.encode(from, to, baseFlag));
+        list.add(Move.encode(from, to, baseFlag | 2));
+        list.add(Move.encode(from, to, baseFlag | 1));
+    }
+
+    private void generatePawnMoves(MoveList list, int us, int king, long checkMask, long pinned, boolean legal,
+                                   boolean noisyOnly) {
+        long pawns = pieces[us * 6 + PAWN];
+        long enemy = colors[us ^ 1];
+        int forward = us == WHITE ? 8 : -8;
+        long startRank = us == WHITE ? Bitboards.RANK_2 : Bitboards.RANK_7;
+        long promotionRank = us == WHITE ? Bitboards.RANK_8 : Bitboards.RANK_1;
+
+        while (pawns != 0) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            pawns &= pawns - 1;
+            long allowed = checkMask;
+            if ((pinned & (1L << from)) != 0) {
+                allowed &= Bitboards.LINE[king][from];
+            }
+
+            int to = from + forward;
+            if (squares[to] == EMPTY) {
+                if ((allowed & (1L << to)) != 0) {
+                    if (((1L << to) & promotionRank) != 0) {
+                        addPromotions(list, from, to, Move.PROMOTION);
+                    } else if (!noisyOnly) {
+                        list.add(Move.encode(from, to, Move.QUIET));
+                    }
+                }
+                int doubleTo = to + forward;
+                if (!noisyOnly && ((1L << from) & startRank) != 0 && squares[doubleTo] == EMPTY
+                        && (allowed & (1L << doubleTo)) != 0) {
+                    list.add(Move.encode(from, doubleTo, Move.DOUBLE_PUSH));
+                }
+            }
+
+            long captures = Bitboards.PAWN_ATTACKS[us][from] & enemy & allowed;
+            while (captures != 0) {
+                int target = Long.numberOfTrailingZeros(captures);
+                captures &= captures - 1;
+                if (((1L << target) & promotionRank) != 0) {
+                    addPromotions(list, from, target, Move.PROMOTION_CAPTURE);
+                } else {
+                    list.add(Move.encode(from, target, Move.CAPTURE));
+                }
+            }
+
+            if (epSquare >= 0 && (Bitboards.PAWN_ATTACKS[us][from] & (1L << epSquare)) != 0) {
+                int move = Move.encode(from, epSquare, Move.EN_PASSANT);
+                if (!legal || isEnPassantLegal(move)) {
+                    list.add(move);
+                }
+            }
+        }
+    }
+
+    // En passant removes two pieces from one rank, so the pin and check masks can't
+    // describe it; test the resulting occupancy directly.
+    private boolean isEnPassantLegal(int move) {
+        int us = sideToMove;
+        int from = Move.from(move), to = Move.to(move);
+        int capturedSquare = to ^ 8;
+        long capturedBit = 1L << capturedSquare;
+        long occupancy = (occupied ^ (1L << from) ^ capturedBit) | (1L << to);
+        return (attackersTo(kingSquare(us), occupancy) & colors[us ^ 1] & ~capturedBit) == 0;
+    }
+
+    private void generateKingMoves(MoveList list, int us, int king, boolean legal, boolean noisyOnly) {
+        long targets = Bitboards.KING_ATTACKS[king] & (noisyOnly ? colors[us ^ 1] : ~colors[us]);
+        long occupancy = occupied ^ (1L << king);
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            if (!legal || !isSquareAttacked(to, us ^ 1, occupancy)) {
+                list.add(Move.encode(king, to, squares[to] == EMPTY ? Move.QUIET : Move.CAPTURE));
+            }
+        }
+    }
+
+    private void generateCastling(MoveList list, int us) {
+        int them = us ^ 1;
+        if (us == WHITE) {
+            if ((castlingRights & WHITE_KINGSIDE) != 0 && (occupied & 0x60L) == 0
+                    && !isSquareAttacked(5, them, occupied) && !isSquareAttacked(6, them, occupied)) {
+                list.add(Move.encode(4, 6, Move.KING_CASTLE));
+            }
+            if ((castlingRights & WHITE_QUEENSIDE) != 0 && (occupied & 0x0EL) == 0
+                    && !isSquareAttacked(3, them, occupied) && !isSquareAttacked(2, them, occupied)) {
+                list.add(Move.encode(4, 2, Move.QUEEN_CASTLE));
+            }
+        } else {
+            if ((castlingRights & BLACK_KINGSIDE) != 0 && (occupied & (0x60L << 56)) == 0
+                    && !isSquareAttacked(61, them, occupied) && !isSquareAttacked(62, them, occupied)) {
+                list.add(Move.encode(60, 62, Move.KING_CASTLE));
+            }
+            if ((castlingRights & BLACK_QUEENSIDE) != 0 && (occupied & (0x0EL << 56)) == 0
+                    && !isSquareAttacked(59, them, occupied) && !isSquareAttacked(58, them, occupied)) {
+                list.add(Move.encode(60, 58, Move.QUEEN_CASTLE));
+            }
+        }
+    }
+
+    // Legality test for a move produced by generatePseudoLegalMoves
+    boolean isLegal(int move) {
+        int us = sideToMove;
+        int from = Move.from(move), to = Move.to(move);
+        int king = kingSquare(us);
+        if (Move.flags(move) == Move.EN_PASSANT) {
+            return isEnPassantLegal(move);
+        }
+        if (from == king) {
+            return Move.isCastle(move) || !isSquareAttacked(to, us ^ 1, occupied ^ (1L << from));
+        }
+        long occupancy = (occupied ^ (1L << from)) | (1L << to);
+        return (attackersTo(king, occupancy) & colors[us ^ 1] & ~(1L << to)) == 0;
+    }
+
+    boolean hasLegalMoves() {
+        generateLegalMoves(scratch);
+        return scratch.size() > 0;
+    }
+
+    public boolean isCheckmate() {
+        return inCheck() && !hasLegalMoves();
+    }
+
+    public boolean isStalemate() {
+        return !inCheck() && !hasLegalMoves();
+    }
+
+    // Making moves
+
+    // Applies a legal move produced by the generator; revert with unmakeMove
+    void makeMove(int move) {
+        int from = Move.from(move), to = Move.to(move), flags = Move.flags(move);
+        int us = sideToMove;
+        int moving = squares[from];
+        int captured = flags == Move.EN_PASSANT ? EMPTY : squares[to];
+
+        if (undoTop == undoStack.length) {
+            undoStack = java.util.Arrays.copyOf(undoStack, undoTop * 2);
+            hashStack = java.util.Arrays.copyOf(hashStack, undoTop * 2);
+        }
+        undoStack[undoTop] = (captured + 1) | (castlingRights << 4) | ((epSquare + 1) << 8)
+            | ((long) halfmoveClock << 15);
+        hashStack[undoTop++] = hash;
+
+        if (epSquare >= 0) {
+            hash ^= Zobrist.EN_PASSANT_FILE[epSquare & 7];
+        }
+        hash ^= Zobrist.CASTLING[castlingRights] ^ Zobrist.SIDE_TO_MOVE;
+
+        halfmoveClock++;
+        if (flags == Move.EN_PASSANT) {
+            removePiece(to ^ 8);
+        } else if (captured != EMPTY) {
+            removePiece(to);
+            halfmoveClock = 0;
+        }
+        movePiece(from, to);
+
+        if (typeOf(moving) == PAWN) {
+            halfmoveClock = 0;
+            if ((flags & Move.PROMOTION) != 0) {
+                removePiece(to);
+                putPiece(to, piece(us, Move.promotionType(move)));
+            }
+        } else if (flags == Move.KING_CASTLE) {
+            movePiece(to + 1, to - 1);
+        } else if (flags == Move.QUEEN_CASTLE) {
+            movePiece(to - 2, to + 1);
+        }
+
+        // Only record an en passant square that can actually be used, so transpositions hash alike
+        epSquare = -1;
+        if (flags == Move.DOUBLE_PUSH && canCaptureEnPassant((from + to) >>> 1, us ^ 1)) {
+            epSquare = (from + to) >>> 1;
+            hash ^= Zobrist.EN_PASSANT_FILE[epSquare & 7];
+        }
+        castlingRights &= CASTLING_MASK[from] & CASTLING_MASK[to];
+        hash ^= Zobrist.CASTLING[castlingRights];
+        if (us == BLACK) {
+            fullmoveNumber++;
+        }
+        sideToMove = us ^ 1;
+    }
+
+    // Reverts the most recent makeMove, which must have been given the same move
+    void unmakeMove(int move) {
+        int from = Move.from(move), to = Move.to(move), flags = Move.flags(move);
+        int us = sideToMove ^ 1;
+        long undo = undoStack[--undoTop];
+
+        if ((flags & Move.PROMOTION) != 0) {
+            removePiece(to);
+            putPiece(to, piece(us, PAWN));
+        } else if (flags == Move.KING_CASTLE) {
+            movePiece(to - 1, to + 1);
+        } else if (flags == Move.QUEEN_CASTLE) {
+            movePiece(to + 1, to - 2);
+        }
+        movePiece(to, from);
+
+        int captured = (int) (undo & 15) - 1;
+        if (flags == Move.EN_PASSANT) {
+            putPiece(to ^ 8, piece(us ^ 1, PAWN));
+        } else if (captured != EMPTY) {
+            putPiece(to, captured);
+        }
+
+        castlingRights = (int) (undo >>> 4) & 15;
+        epSquare = (int) ((undo >>> 8) & 127) - 1;
+        halfmoveClock = (int) (undo >>> 15);
+        hash = hashStack[undoTop];
+        if (us == BLACK) {
+            fullmoveNumber--;
+        }
+        sideToMove = us;
+    }
+
+    // Passes the turn; used by null-move pruning. Revert with unmakeNullMove
+    void makeNullMove() {
+        if (undoTop == undoStack.length) {
+            undoStack = java.util.Arrays.copyOf(undoStack, undoTop * 2);
+            hashStack = java.util.Arrays.copyOf(hashStack, undoTop * 2);
+        }
+        undoStack[undoTop] = (castlingRights << 4) | ((epSquare + 1) << 8) | ((long) halfmoveClock << 15);
+        hashStack[undoTop++] = hash;
+
+        if (epSquare >= 0) {
+            hash ^= Zobrist.EN_PASSANT_FILE[epSquare & 7];
+            epSquare = -1;
+        }
+        hash ^= Zobrist.SIDE_TO_MOVE;
+        halfmoveClock++;
+        sideToMove ^= 1;
+    }
+
+    void unmakeNullMove() {
+        long undo = undoStack[--undoTop];
+        epSquare = (int) ((undo >>> 8) & 127) - 1;
+        halfmoveClock = (int) (undo >>> 15);
+        hash = hashStack[undoTop];
+        sideToMove ^= 1;
+    }
+
+    // True if the current position already occurred since the last irreversible move
+    boolean isRepetition() {
+        int limit = Math.max(0, undoTop - halfmoveClock);
+        for (int i = undoTop - 2; i >= limit; i -= 2) {
+            if (hashStack[i] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean hasNonPawnMaterial(int color) {
+        int base = color * 6;
+        return (pieces[base + KNIGHT] | pieces[base + BISHOP] | pieces[base + ROOK] | pieces[base + QUEEN]) != 0;
+    }
+
+    // Resolves long algebraic notation ("e2e4", "e7e8q") to a legal move, or Move.NONE
+    int parseUciMove(String text) {
+        if (text.length() < 4 || text.length() > 5) {
+            return Move.NONE;
+        }
+        int from = Move.parseSquare(text.substring(0, 2));
+        int to = Move.parseSquare(text.substring(2, 4));
+        generateLegalMoves(scratch);
+        for (int i = 0; i < scratch.size(); i++) {
+            int move = scratch.get(i);
+            if (Move.from(move) == from && Move.to(move) == to
+                    && (text.length() == 5) == Move.isPromotion(move)
+                    && Move.toUci(move).equals(text)) {
+                return move;
+            }
+        }
+        return Move.NONE;
+    }
+
+    // Resolves standard algebraic notation ("Nbd7", "exd8=Q+", "O-O") to a legal move, or Move.NONE.
+    // Check marks and annotations are ignored; "0-0" castling and a missing '=' are accepted.
+    int parseSanMove(String text) {
+        int end = text.length();
+        while (end > 0 && "+#!?".indexOf(text.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        String san = text.substring(0, end);
+        if (san.equals("O-O") || san.equals("0-0") || san.equals("O-O-O") || san.equals("0-0-0")) {
+            return findCastle(san.length() == 3 ? Move.KING_CASTLE : Move.QUEEN_CASTLE);
+        }
+
+        int promotion = EMPTY;
+        if (end >= 3 && "NBRQ".indexOf(san.charAt(end - 1)) >= 0) {
+            int rankAt = san.charAt(end - 2) == '=' ? end - 3 : end - 2;
+            if (Character.isDigit(san.charAt(rankAt))) {
+                promotion = "PNBRQK".indexOf(san.charAt(end - 1));
+                end = rankAt + 1;
+            }
+        }
+        if (end < 2) {
+            return Move.NONE;
+        }
+        int to = Move.parseSquare(san.substring(end - 2, end));
+        if (to < 0) {
+            return Move.NONE;
+        }
+
+        int start = 0;
+        int type = PAWN;
+        if ("NBRQK".indexOf(san.charAt(0)) >= 0) {
+            type = "PNBRQK".indexOf(san.charAt(0));
+            start = 1;
+        }
+        // Whatever is left between the piece letter and the destination: disambiguation and 'x'
+        int fromFile = -1, fromRank = -1;
+        for (int i = start; i < end - 2; i++) {
+            char c = san.charAt(i);
+            if (c >= 'a' && c <= 'h') {
+                fromFile = c - 'a';
+            } else if (c >= '1' && c <= '8') {
+                fromRank = c - '1';
+            } else if (c != 'x' && c != ':' && c != '-') {
+                return Move.NONE;
+            }
+        }
+        return findMove(type, fromFile, fromRank, to, promotion);
+    }
+
+    // The legal castling move with the given flag, or Move.NONE
+    int findCastle(int flag) {
+        generateLegalMoves(scratch);
+        for (int i = 0; i < scratch.size(); i++) {
+            if (Move.flags(scratch.get(i)) == flag) {
+                return scratch.get(i);
+            }
+        }
+        return Move.NONE;
+    }
+
+    // The one legal non-castling move matching a decoded SAN move, or Move.NONE if none or several do.
+    // fromFile / fromRank are -1 when not given; promotion is EMPTY for non-promotions.
+    // Works backwards from the destination through the attack tables instead of generating
+    // every legal move, since PGN import resolves millions of these.
+    int findMove(int type, int fromFile, int fromRank, int to, int promotion) {
+        int us = sideToMove, them = us ^ 1;
+        long toBit = 1L << to;
+        if ((colors[us] & toBit) != 0) {
+            return Move.NONE;
+        }
+        boolean capture = (colors[them] & toBit) != 0;
+
+        long sources;
+        switch (type) {
+            case PAWN:
+                if (capture || to == epSquare) {
+                    sources = Bitboards.PAWN_ATTACKS[them][to];
+                } else {
+                    int single = us == WHITE ? to - 8 : to + 8;
+                    sources = single >= 0 && single < 64 ? 1L << single : 0L;
+                    long startRank = us == WHITE ? Bitboards.RANK_4 : Bitboards.RANK_5;
+                    if ((toBit & startRank) != 0 && (occupied & sources) == 0) {
+                        sources = 1L << (us == WHITE ? to - 16 : to + 16);
+                    }
+                }
+                break;
+            case KNIGHT: sources = Bitboards.KNIGHT_ATTACKS[to]; break;
+            case BISHOP: sources = Bitboards.bishopAttacks(to, occupied); break;
+            case ROOK: sources = Bitboards.rookAttacks(to, occupied); break;
+            case QUEEN: sources = Bitboards.queenAttacks(to, occupied); break;
+            default: sources = Bitboards.KING_ATTACKS[to]; break;
+        }
+        sources &= pieces[us * 6 + type];
+        if (fromFile >= 0) {
+            sources &= Bitboards.FILE_A << fromFile;
+        }
+        if (fromRank >= 0) {
+            sources &= Bitboards.RANK_1 << (8 * fromRank);
+        }
+
+        boolean promotes = type == PAWN && (toBit & (Bitboards.RANK_1 | Bitboards.RANK_8)) != 0;
+        if (promotes != (promotion != EMPTY)) {
+            return Move.NONE;
+        }
+        int flags;
+        if (promotes) {
+            flags = (capture ? Move.PROMOTION_CAPTURE : Move.PROMOTION) | (promotion - KNIGHT);
+        } else if (type == PAWN && to == epSquare && !capture) {
+            flags = Move.EN_PASSANT;
+        } else {
+            flags = capture ? Move.CAPTURE : Move.QUIET;
+        }
+
+        int found = Move.NONE;
+        while (sources != 0) {
+            int from = Long.numberOfTrailingZeros(sources);
+            sources &= sources - 1;
+            int moveFlags = flags == Move.QUIET && type == PAWN && Math.abs(to - from) == 16 ? Move.DOUBLE_PUSH : flags;
+            int move = Move.encode(from, to, moveFlags);
+            if (!isLegal(move)) {
+                continue;
+            }
+            if (found != Move.NONE) {
+                return Move.NONE; // ambiguous
+            }
+            found = move;
+        }
+        return found;
+    }
+
+    // Standard algebraic notation for a legal move in the current position, with check marks
+    String toSan(int move) {
+        int from = Move.from(move), to = Move.to(move);
+        StringBuilder sb = new StringBuilder(8);
+        if (Move.flags(move) == Move.KING_CASTLE) {
+            sb.append("O-O");
+        } else if (Move.flags(move) == Move.QUEEN_CASTLE) {
+            sb.append("O-O-O");
+        } else {
+            int type = typeOf(squares[from]);
+            if (type == PAWN) {
+                if (Move.isCapture(move)) {
+                    sb.append((char) ('a' + (from & 7)));
+                }
+            } else {
+                sb.append("PNBRQK".charAt(type));
+                // Disambiguate by file, then rank, then both
+                boolean sameFile = false, sameRank = false, ambiguous = false;
+                generateLegalMoves(scratch);
+                for (int i = 0; i < scratch.size(); i++) {
+                    int other = scratch.get(i);
+                    int otherFrom = Move.from(other);
+                    if (otherFrom != from && Move.to(other) == to && squares[otherFrom] == squares[from]) {
+                        ambiguous = true;
+                        sameFile |= (otherFrom & 7) == (from & 7);
+                        sameRank |= (otherFrom >>> 3) == (from >>> 3);
+                    }
+                }
+                if (ambiguous) {
+                    if (!sameFile) {
+                        sb.append((char) ('a' + (from & 7)));
+                    } else if (!sameRank) {
+                        sb.append((char) ('1' + (from >>> 3)));
+                    } else {
+                        sb.append(Move.squareName(from));
+                    }
+                }
+            }
+            if (Move.isCapture(move)) {
+                sb.append('x');
+            }
+            sb.append(Move.squareName(to));
+            if (Move.isPromotion(move)) {
+                sb.append('=').append("PNBRQK".charAt(Move.promotionType(move)));
+            }
+        }
+
+        makeMove(move);
+        if (inCheck()) {
+            sb.append(hasLegalMoves() ? '+' : '#');
+        }
+        unmakeMove(move);
+        return sb.toString();
+    }
+
+    private boolean canCaptureEnPassant(int epTarget, int capturingColor) {
+        return (Bitboards.PAWN_ATTACKS[capturingColor ^ 1][epTarget] & pieces[capturingColor * 6 + PAWN]) != 0;
+    }
+
+    public boolean makeMove(int fromRow, int fromCol, int toRow, int toCol) {
+        int move = legalMove(fromRow * 8 + fromCol, toRow * 8 + toCol);
+        if (move == Move.NONE) {
+            return false;
+        }
+        makeMove(move);
+        return true;
+    }
+
+    // The legal move between two squares, or Move.NONE
+    int legalMove(int from, int to) {
+        generateLegalMoves(scratch);
+        for (int i = 0; i < scratch.size(); i++) {
+            int move = scratch.get(i);
+            // Promotions are listed queen first, so the first match auto-queens
+            if (Move.from(move) == from && Move.to(move) == to) {
+                return move;
+            }
+        }
+        return Move.NONE;
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// Storage Service
+//
+// Lesson progress for the desktop and console apps, kept in a ProgressStore under
+// ~/.chess-learning/progress so it survives restarts and crashes. Both apps have a
+// single local learner; servers hosting many sessions open a ProgressStore directly.
+class ChessStorage {
+    static final Path DATA_DIRECTORY = Paths.get(System.getProperty("user.home"), ".chess-learning");
+    static final String LOCAL_USER = "local";
+
+    private static ProgressStore store;
+
+    // Loads saved progress; safe to call more than once
+    public static synchronized void initialize() {
+        if (store == null) {
+            try {
+                store = ProgressStore.open(DATA_DIRECTORY.resolve("progress"));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open progress store in " + DATA_DIRECTORY, e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(ChessStorage::close, "progress-close"));
+        }
+    }
+
+    static synchronized ProgressStore store() {
+        initialize();
+        return store;
+    }
+
+    // Durable when it returns; repeating a lesson updates its result without adding progress
+    public static void completeLesson(String lessonId, int accuracy, int timeTaken, int hintsUsed) {
+        try {
+            store().completeLesson(LOCAL_USER, lessonId, accuracy, timeTaken, hintsUsed);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot save lesson " + lessonId, e);
+        }
+    }
+
+    public static double getProgress() {
+        return store().progress(LOCAL_USER);
+    }
+
+    public static int getCompletedLessons() {
+        return store().user(LOCAL_USER).lessons.size();
+    }
+
+    public static void resetProgress() {
+        try {
+            store().reset(LOCAL_USER);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot reset progress", e);
+        }
+    }
+
+    static synchronized void close() {
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                // Everything acknowledged is already in the log
+            }
+            store = null;
+        }
+    }
+
+    // Completes a lesson in a scratch store, reopens it and checks the result came back,
+    // so the test panels can exercise persistence without touching the learner's progress
+    static boolean selfTest() {
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("chess-progress-test");
+            try (ProgressStore scratch = ProgressStore.open(dir)) {
+                scratch.completeLesson(LOCAL_USER, "test-lesson", 85, 120, 1);
+                scratch.completeLesson(LOCAL_USER, "test-lesson", 90, 100, 0);
+            }
+            try (ProgressStore reopened = ProgressStore.open(dir)) {
+                ProgressStore.LessonResult result = reopened.user(LOCAL_USER).lessons.get("test-lesson");
+                return reopened.progress(LOCAL_USER) == ProgressStore.PROGRESS_PER_LESSON
+                    && result != null && result.attempts == 2 && result.accuracy == 90;
+            }
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (dir != null) {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                } catch (IOException e) {
+                    // Temporary directory; leaving it behind is harmless
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+// Static evaluation for the search: centipawns from the side to move. Evaluators that
+// cache per-position state (the network's accumulator) are kept in step with the board
+// through reset/push/pop; stateless ones ignore those calls and can be shared.
+interface Evaluator {
+    int evaluate(ChessGame game);
+
+    // A new search root; anything incremental is rebuilt from scratch here
+    default void reset(ChessGame game) {
+    }
+
+    // Called with the board still before the move, just ahead of game.makeMove(move)
+    default void push(ChessGame game, int move) {
+    }
+
+    // Called right after game.unmakeMove for the move most recently pushed
+    default void pop() {
+    }
+
+    // An instance one search thread may own; shares any read-only data with this one
+    default Evaluator newInstance() {
+        return this;
+    }
+}
@@ -0,0 +1,148 @@
+import java.nio.ByteBuffer;
+
+// Binary form of a game: one byte per move, the move's index in the position's legal
+// moves sorted by their int encoding. Sorting makes the format independent of the
+// order the generator happens to produce moves in; a position never has more than
+// 218 legal moves, so an index always fits in a byte.
+//
+//   byte 0     result (PgnParser.RESULT_*) in bits 0-1, bit 2 set if a start position follows
+//   varint     move count
+//   32 bytes   start position (PositionCodec), only when bit 2 is set
+//   n bytes    move indices
+//
+// A typical 80-ply game takes about 82 bytes, against 500-900 bytes of PGN.
+final class GameCodec {
+    private static final int CUSTOM_START = 4;
+    // Only ever read, so it can be shared by decoders on any thread
+    private static final ChessGame START = new ChessGame();
+
+    // Reusable decoding target: the start position, the moves, and the result
+    static final class Game {
+        final ChessGame start = new ChessGame();
+        int[] moves = new int[256];
+        int moveCount;
+        int result;
+        private final ChessGame board = new ChessGame();
+        private final MoveList legal = new MoveList();
+
+        // Board at the end of the game, replayed from the start position
+        ChessGame finalPosition() {
+            ChessGame board = new ChessGame();
+            board.copyFrom(start);
+            for (int i = 0; i < moveCount; i++) {
+                board.makeMove(moves[i]);
+            }
+            return board;
+        }
+    }
+
+    private GameCodec() {
+    }
+
+    // start is left unchanged; moves must be legal in sequence from it
+    static byte[] encode(ChessGame start, int[] moves, int moveCount, int result) {
+        boolean custom = start.hash() != START.hash() || start.halfmoveClock() != 0 || start.fullmoveNumber() != 1;
+        ByteBuffer out = ByteBuffer.allocate(1 + 5 + (custom ? PositionCodec.SIZE : 0) + moveCount);
+        out.put((byte) ((result & 3) | (custom ? CUSTOM_START : 0)));
+        putVarint(out, moveCount);
+        if (custom) {
+            PositionCodec.encode(start, out);
+        }
+
+        ChessGame board = new ChessGame();
+        board.copyFrom(start);
+        MoveList legal = new MoveList();
+        for (int i = 0; i < moveCount; i++) {
+            sortedLegalMoves(board, legal);
+            int index = indexOf(legal, moves[i]);
+            if (index < 0) {
+                throw new IllegalArgumentException("Illegal move " + Move.toUci(moves[i]) + " at ply " + (i + 1)
+                    + " in " + board.toFen());
+            }
+            out.put((byte) index);
+            board.makeMove(moves[i]);
+        }
+
+        byte[] bytes = new byte[out.position()];
+        out.flip();
+        out.get(bytes);
+        return bytes;
+    }
+
+    // Decodes the game at the given absolute offset; returns the offset just past it
+    static int decode(ByteBuffer in, int offset, Game into) {
+        int flags = in.get(offset++);
+        into.result = flags & 3;
+        long header = getVarint(in, offset);
+        int moveCount = (int) header;
+        offset = (int) (header >>> 32);
+        if ((flags & CUSTOM_START) != 0) {
+            PositionCodec.decode(in, offset, into.start);
+            offset += PositionCodec.SIZE;
+        } else {
+            into.start.copyFrom(START);
+        }
+        if (into.moves.length < moveCount) {
+            into.moves = new int[Math.max(moveCount, into.moves.length * 2)];
+        }
+
+        ChessGame board = into.board;
+        MoveList legal = into.legal;
+        board.copyFrom(into.start);
+        for (int i = 0; i < moveCount; i++) {
+            sortedLegalMoves(board, legal);
+            int index = in.get(offset++) & 0xFF;
+            if (index >= legal.size()) {
+                throw new IllegalArgumentException("Corrupt game record: move index " + index + " at ply " + (i + 1));
+            }
+            into.moves[i] = legal.get(index);
+            board.makeMove(legal.get(index));
+        }
+        into.moveCount = moveCount;
+        return offset;
+    }
+
+    static void sortedLegalMoves(ChessGame board, MoveList list) {
+        board.generateLegalMoves(list);
+        int[] moves = list.moves;
+        for (int i = 1; i < list.size(); i++) {
+            int move = moves[i];
+            int j = i - 1;
+            while (j >= 0 && moves[j] > move) {
+                moves[j + 1] = moves[j];
+                j--;
+            }
+            moves[j + 1] = move;
+        }
+    }
+
+    private static int indexOf(MoveList list, int move) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == move) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    // Returns the value in the low 32 bits and the offset after it in the high 32 bits
+    static long getVarint(ByteBuffer in, int offset) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get(offset++);
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0 && shift < 35);
+        return (value & 0xFFFFFFFFL) | ((long) offset << 32);
+    }
+}
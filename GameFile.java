@@ -0,0 +1,372 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Append-only store of GameCodec records with a dense offset index.
+//
+//   java GameFile import <games.pgn> <base>   convert a PGN archive
+//   java GameFile scan <base>                 decode every game, report speed
+//   java GameFile show <base> <n>             print game n as SAN
+//
+// <base>.games holds the records back to back, each prefixed by its varint length;
+// <base>.index holds one 8-byte offset per game, so game n is found with one lookup.
+// Records are written before their index entry, and a Writer opened on an existing
+// store first drops anything a crash left half-written, so the two files always agree.
+// <base>.sources lists the PGN files already imported (length and CRC-32C, then path),
+// so importing the same archive twice does not duplicate its games.
+final class GameFile {
+    static final int MAX_RECORD_BYTES = 1 << 16;
+
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private GameFile() {
+    }
+
+    static Path dataPath(Path base) {
+        return Paths.get(base + ".games");
+    }
+
+    static Path indexPath(Path base) {
+        return Paths.get(base + ".index");
+    }
+
+    static Path sourcesPath(Path base) {
+        return Paths.get(base + ".sources");
+    }
+
+    static final class Writer implements Closeable {
+        private final FileChannel data;
+        private final FileChannel index;
+        // Room for one record of the largest size and its varint length
+        private final ByteBuffer dataBuffer = ByteBuffer.allocate(MAX_RECORD_BYTES + 5);
+        private final ByteBuffer indexBuffer = ByteBuffer.allocate(1 << 13);
+        private long dataSize;
+        private long count;
+
+        Writer(Path base) throws IOException {
+            data = FileChannel.open(dataPath(base), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index = FileChannel.open(indexPath(base), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            recover();
+        }
+
+        // Keeps the longest prefix of indexed records that are fully present in the data file
+        private void recover() throws IOException {
+            long total = data.size();
+            count = index.size() / 8;
+            long end = 0;
+            ByteBuffer entry = ByteBuffer.allocate(8);
+            ByteBuffer header = ByteBuffer.allocate(5);
+            while (count > 0) {
+                entry.clear();
+                index.read(entry, (count - 1) * 8);
+                long offset = entry.getLong(0);
+                header.clear();
+                if (offset >= 0 && offset < total && data.read(header, offset) > 0) {
+                    long length = GameCodec.getVarint(header, 0);
+                    end = offset + (length >>> 32) + (int) length;
+                    if (end <= total) {
+                        break;
+                    }
+                }
+                count--;
+                end = 0;
+            }
+            dataSize = end;
+            data.truncate(dataSize);
+            index.truncate(count * 8);
+            data.position(dataSize);
+            index.position(count * 8);
+        }
+
+        // Returns the game number
+        long append(byte[] record) throws IOException {
+            if (record.length > MAX_RECORD_BYTES) {
+                throw new IllegalArgumentException("Game record of " + record.length + " bytes is too large");
+            }
+            if (dataBuffer.remaining() < record.length + 5) {
+                flush();
+            }
+            if (indexBuffer.remaining() < 8) {
+                flush();
+            }
+            indexBuffer.putLong(dataSize + dataBuffer.position());
+            GameCodec.putVarint(dataBuffer, record.length);
+            dataBuffer.put(record);
+            return count++;
+        }
+
+        long append(ChessGame start, int[] moves, int moveCount, int result) throws IOException {
+            return append(GameCodec.encode(start, moves, moveCount, result));
+        }
+
+        long count() {
+            return count;
+        }
+
+        // Records go out before the index entries that point at them
+        void flush() throws IOException {
+            dataBuffer.flip();
+            dataSize += dataBuffer.remaining();
+            while (dataBuffer.hasRemaining()) {
+                data.write(dataBuffer);
+            }
+            dataBuffer.clear();
+            indexBuffer.flip();
+            while (indexBuffer.hasRemaining()) {
+                index.write(indexBuffer);
+            }
+            indexBuffer.clear();
+        }
+
+        void sync() throws IOException {
+            flush();
+            data.force(false);
+            index.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                data.close();
+                index.close();
+            }
+        }
+    }
+
+    static final class Reader implements Closeable {
+        private final FileChannel data;
+        private final FileChannel index;
+        private final MappedByteBuffer[] dataSegments;
+        private final MappedByteBuffer[] indexSegments;
+        private final long count;
+
+        Reader(Path base) throws IOException {
+            data = FileChannel.open(dataPath(base), StandardOpenOption.READ);
+            index = FileChannel.open(indexPath(base), StandardOpenOption.READ);
+            count = index.size() / 8;
+            // Data segments overlap by the largest record, so every record lies inside one mapping
+            dataSegments = map(data, data.size(), MAX_RECORD_BYTES + 5);
+            indexSegments = map(index, count * 8, 0);
+        }
+
+        private static MappedByteBuffer[] map(FileChannel channel, long size, long overlap) throws IOException {
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES + overlap, size - start));
+            }
+            return segments;
+        }
+
+        long count() {
+            return count;
+        }
+
+        // Replays the game's moves, so this costs a legal move generation per ply. Safe to call
+        // from several threads at once as long as each passes its own Game.
+        void read(long game, GameCodec.Game into) {
+            long offset = recordOffset(game);
+            GameCodec.decode(dataSegments[(int) (offset / SEGMENT_BYTES)], (int) (offset % SEGMENT_BYTES), into);
+        }
+
+        // Header fields read without decoding any moves, for filtering at disk speed
+        int result(long game) {
+            long offset = recordOffset(game);
+            return dataSegments[(int) (offset / SEGMENT_BYTES)].get((int) (offset % SEGMENT_BYTES)) & 3;
+        }
+
+        int moveCount(long game) {
+            long offset = recordOffset(game);
+            return (int) GameCodec.getVarint(dataSegments[(int) (offset / SEGMENT_BYTES)], (int) (offset % SEGMENT_BYTES) + 1);
+        }
+
+        // File offset of the record itself, past its length prefix
+        private long recordOffset(long game) {
+            if (game < 0 || game >= count) {
+                throw new IndexOutOfBoundsException("Game " + game + " of " + count);
+            }
+            long entry = game * 8;
+            long offset = indexSegments[(int) (entry / SEGMENT_BYTES)].getLong((int) (entry % SEGMENT_BYTES));
+            long prefix = GameCodec.getVarint(dataSegments[(int) (offset / SEGMENT_BYTES)], (int) (offset % SEGMENT_BYTES));
+            return offset + ((prefix >>> 32) - offset % SEGMENT_BYTES);
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+            index.close();
+        }
+    }
+
+    // Appends a PGN archive's games, unless a file with the same contents was imported
+    // before; returns the number of games in the store, or -1 when the import was skipped
+    static long importPgn(Path pgn, Path base) throws IOException {
+        String source = sourceKey(pgn);
+        Path sources = sourcesPath(base);
+        List<String> imported = Files.exists(sources) ? Files.readAllLines(sources, StandardCharsets.UTF_8) : new ArrayList<>();
+        for (String line : imported) {
+            if (line.startsWith(source + " ")) {
+                return -1;
+            }
+        }
+        long games = appendPgn(pgn, base);
+        // Recorded only once the games are synced: a crash in between re-imports rather than loses them
+        imported.add(source + " " + pgn.toAbsolutePath());
+        Path temp = Paths.get(sources + ".tmp");
+        Files.write(temp, imported, StandardCharsets.UTF_8);
+        Files.move(temp, sources, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return games;
+    }
+
+    // Length and CRC-32C of the contents, so a renamed or copied archive is still recognized
+    private static String sourceKey(Path pgn) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(pgn, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+            return channel.size() + " " + Long.toHexString(crc.getValue());
+        }
+    }
+
+    // Games with illegal moves are skipped
+    private static long appendPgn(Path pgn, Path base) throws IOException {
+        try (Writer writer = new Writer(base)) {
+            class Collector implements PgnParser.Visitor {
+                final ChessGame start = new ChessGame();
+                int[] moves = new int[256];
+                int moveCount;
+                boolean failed;
+                IOException writeError;
+
+                @Override
+                public void startGame(long offset) {
+                    moveCount = 0;
+                    failed = false;
+                }
+
+                @Override
+                public boolean move(ChessGame board, int move) {
+                    if (moveCount == 0) {
+                        start.copyFrom(board);
+                    }
+                    if (moveCount == moves.length) {
+                        moves = java.util.Arrays.copyOf(moves, moves.length * 2);
+                    }
+                    moves[moveCount++] = move;
+                    return true;
+                }
+
+                @Override
+                public void error(long offset, String message) {
+                    failed = true;
+                }
+
+                @Override
+                public void endGame(int result) {
+                    if (failed || moveCount == 0 || writeError != null) {
+                        return;
+                    }
+                    try {
+                        writer.append(start, moves, moveCount, result);
+                    } catch (IOException e) {
+                        writeError = e;
+                    }
+                }
+            }
+            Collector collector = new Collector();
+            PgnParser.parseFile(pgn, true, collector);
+            if (collector.writeError != null) {
+                throw collector.writeError;
+            }
+            writer.sync();
+            return writer.count();
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            switch (args[0]) {
+                case "import": {
+                    Path pgn = Paths.get(args[1]), base = Paths.get(args[2]);
+                    long start = System.nanoTime();
+                    long games = importPgn(pgn, base);
+                    if (games < 0) {
+                        System.out.println(pgn + " is already in " + base + "; nothing imported");
+                        break;
+                    }
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    long pgnBytes = Files.size(pgn);
+                    long binaryBytes = Files.size(dataPath(base)) + Files.size(indexPath(base));
+                    System.out.printf("%,d games in %.1f s; %,d bytes of PGN -> %,d bytes (%.1f%%, %.1f bytes/game)%n",
+                        games, seconds, pgnBytes, binaryBytes, 100.0 * binaryBytes / pgnBytes,
+                        games == 0 ? 0.0 : (double) binaryBytes / games);
+                    break;
+                }
+                case "scan": {
+                    try (Reader reader = new Reader(Paths.get(args[1]))) {
+                        long start = System.nanoTime();
+                        long[] results = new long[4];
+                        for (long n = 0; n < reader.count(); n++) {
+                            results[reader.result(n)]++;
+                        }
+                        System.out.printf("Headers: %,d games in %.2f s (1-0 %,d, 0-1 %,d, draws %,d, unknown %,d)%n",
+                            reader.count(), (System.nanoTime() - start) / 1e9, results[1], results[2], results[3], results[0]);
+
+                        GameCodec.Game game = new GameCodec.Game();
+                        long moves = 0;
+                        start = System.nanoTime();
+                        for (long n = 0; n < reader.count(); n++) {
+                            reader.read(n, game);
+                            moves += game.moveCount;
+                        }
+                        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+                        System.out.printf("%,d games, %,d moves in %.2f s (%,.0f games/sec, %,.0f moves/sec)%n",
+                            reader.count(), moves, seconds, reader.count() / seconds, moves / seconds);
+                    }
+                    break;
+                }
+                case "show": {
+                    try (Reader reader = new Reader(Paths.get(args[1]))) {
+                        GameCodec.Game game = new GameCodec.Game();
+                        reader.read(Long.parseLong(args[2]), game);
+                        ChessGame board = new ChessGame();
+                        board.copyFrom(game.start);
+                        System.out.println(board.toFen());
+                        StringBuilder line = new StringBuilder();
+                        for (int i = 0; i < game.moveCount; i++) {
+                            if (board.sideToMove() == ChessGame.WHITE || i == 0) {
+                                line.append(board.fullmoveNumber()).append(board.sideToMove() == ChessGame.WHITE ? ". " : "... ");
+                            }
+                            line.append(board.toSan(game.moves[i])).append(' ');
+                            board.makeMove(game.moves[i]);
+                        }
+                        line.append(new String[] {"*", "1-0", "0-1", "1/2-1/2"}[game.result]);
+                        System.out.println(line);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown command " + args[0]);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            System.err.println("Usage: java GameFile import <games.pgn> <base> | scan <base> | show <base> <n>");
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,718 @@
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Multi-game server: any number of games and lesson sessions over a line protocol on a
+// local socket, one connection per session.
+//
+// Sessions mostly wait on their client, so each one gets its own thread: a virtual
+// thread where the runtime has them (Java 21+), a pooled platform thread otherwise.
+// Searches are CPU-bound and never run on session threads. A session that asks for an
+// engine move queues a request for a fixed pool of search threads, one single-threaded
+// engine each. The queue is fair across sessions: requests are ordered by the engine
+// time their session has already used (start-time fair queuing). A session that keeps
+// asking for long searches waits behind ones that have had less. That ordering is only
+// followed while every queued request can still start by its latency deadline;
+// otherwise the earliest deadline goes next.
+//
+// Admission control keeps the move latency near a target instead of letting the queue
+// grow without bound:
+// - past maxSessions, new connections are refused;
+// - a search is given at most what remains of the target after twice the expected queue wait;
+// - if even the minimum search time would miss the target, the request gets "busy".
+// Each session also has an engine-time quota and a per-move cap.
+//
+// Results are kept in an AnalysisCache by position and move time, so a position any
+// session has had searched (an opening, a lesson position) is answered without a
+// search, a queue wait or quota. The cache is loaded from --cache at startup and saved
+// back on shutdown.
+//
+//   java GameServer serve [port] [options]
+//   java GameServer bench [sessions] [seconds] [options]
+//
+// Protocol, one command per line, one reply line each:
+//   new [fen]             -> ok
+//   move <uci>            -> ok [checkmate|stalemate|draw]
+//   go [movetime <ms>]    -> bestmove <uci> score <cp> time <ms> wait <ms> [checkmate|stalemate|draw]
+//                            or busy retry <ms> / error ...
+//   analyze [movetime <ms>] -> analysis <uci> score <cp> depth <d> pv <uci>...  (the move is not played)
+//   fen                   -> fen <fen>
+//   quota                 -> quota <ms left>
+//   user <id>             -> ok
+//   complete <lesson> <accuracy> <seconds> <hints>  -> ok <progress %>
+//   analytics [lesson|*] [cohort|*]  -> analytics events <n> learners <n> accuracy p10 .. p50 .. p90 ..
+//                            seconds p50 .. p90 .. p99 .. hints mean .. none <%>  (see LearningAnalytics;
+//                            a user id "cohort/name" puts the session's completions in that cohort)
+//   stats                 -> stats ...
+//   quit
+public class GameServer implements Closeable {
+    static final int DEFAULT_PORT = 7878;
+    static final int IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+    static final class Config {
+        int port = DEFAULT_PORT;
+        int searchThreads = Runtime.getRuntime().availableProcessors();
+        int hashMb = 16;
+        int maxSessions = 10_000;
+        long targetMs = 1000;
+        long quotaMs = 300_000;
+        long maxMoveTimeMs = 2000;
+        long minMoveTimeMs = 10;
+        long defaultMoveTimeMs = 200;
+        Path progress;
+        // Null for the default: AnalysisCache.DEFAULT_PATH when serving; bench runs without
+        // a cache unless given one, since cached replies would hide the queueing it measures
+        Path cache;
+        // 0 turns the cache off
+        long cacheMb = AnalysisCache.DEFAULT_BYTES >> 20;
+
+        // Parses the --options after the positional arguments; returns the positional ones
+        List<String> parse(String[] args, int from) {
+            List<String> positional = new ArrayList<>();
+            for (int i = from; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads": searchThreads = Math.max(1, Integer.parseInt(args[++i])); break;
+                    case "--hash": hashMb = Integer.parseInt(args[++i]); break;
+                    case "--max-sessions": maxSessions = Integer.parseInt(args[++i]); break;
+                    case "--target-ms": targetMs = Long.parseLong(args[++i]); break;
+                    case "--quota-ms": quotaMs = Long.parseLong(args[++i]); break;
+                    case "--max-movetime": maxMoveTimeMs = Long.parseLong(args[++i]); break;
+                    case "--movetime": defaultMoveTimeMs = Long.parseLong(args[++i]); break;
+                    case "--progress": progress = Paths.get(args[++i]); break;
+                    case "--cache": cache = Paths.get(args[++i]); break;
+                    case "--cache-mb": cacheMb = Long.parseLong(args[++i]); break;
+                    case "--no-cache": cacheMb = 0; break;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        positional.add(args[i]);
+                }
+            }
+            return positional;
+        }
+    }
+
+    // One engine move waiting for a search thread; ordered by the session's virtual time
+    private static final class SearchRequest implements Comparable<SearchRequest> {
+        final Session session;
+        final ChessGame game;
+        final long moveTimeMs;
+        final long virtualTime;
+        final long sequence;
+        final long enqueuedNanos = System.nanoTime();
+        final long deadlineNanos;
+        final CompletableFuture<SearchResult> result = new CompletableFuture<>();
+
+        SearchRequest(Session session, ChessGame game, long moveTimeMs, long virtualTime, long sequence,
+                long maxWaitMs) {
+            this.session = session;
+            this.game = game;
+            this.moveTimeMs = moveTimeMs;
+            this.virtualTime = virtualTime;
+            this.sequence = sequence;
+            this.deadlineNanos = enqueuedNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        }
+
+        @Override
+        public int compareTo(SearchRequest other) {
+            int order = Long.compare(virtualTime, other.virtualTime);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    // Lowest virtual time first, unless running it would make a queued request start after
+    // its deadline; then earliest deadline first. Short critical sections only, so session
+    // threads of either kind can add without contention mattering
+    private static final class FairQueue {
+        private final TreeSet<SearchRequest> byVirtualTime = new TreeSet<>();
+        private final TreeSet<SearchRequest> byDeadline = new TreeSet<>(
+            Comparator.comparingLong((SearchRequest request) -> request.deadlineNanos)
+                .thenComparingLong(request -> request.sequence));
+
+        synchronized void add(SearchRequest request) {
+            byVirtualTime.add(request);
+            byDeadline.add(request);
+            notify();
+        }
+
+        // slotNanos is how long each search holds the pool: service time over thread count
+        synchronized SearchRequest take(long slotNanos) throws InterruptedException {
+            while (byVirtualTime.isEmpty()) {
+                wait();
+            }
+            SearchRequest fair = byVirtualTime.first();
+            long start = System.nanoTime() + slotNanos;
+            for (SearchRequest request : byDeadline) {
+                if (request == fair) {
+                    continue;
+                }
+                if (start > request.deadlineNanos) {
+                    fair = byDeadline.first();
+                    break;
+                }
+                start += slotNanos;
+            }
+            byVirtualTime.remove(fair);
+            byDeadline.remove(fair);
+            return fair;
+        }
+
+        synchronized int size() {
+            return byVirtualTime.size();
+        }
+
+        synchronized List<SearchRequest> drain() {
+            List<SearchRequest> all = new ArrayList<>(byVirtualTime);
+            byVirtualTime.clear();
+            byDeadline.clear();
+            return all;
+        }
+    }
+
+    private final Config config;
+    private final ServerSocket server;
+    private final ExecutorService sessionThreads;
+    private final Thread[] searchThreads;
+    private final SearchEngine[] engines;
+    private final FairQueue queue = new FairQueue();
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ProgressStore progress;
+    private final AnalysisCache cache;
+    // Part of every cache key, so results of another evaluator are never mixed in
+    private final String evaluatorTag;
+    private volatile boolean running = true;
+    // Virtual time of the most recently started search; new sessions start here so they
+    // can't jump ahead of everyone who has already waited
+    private volatile long virtualClock;
+    // Smoothed search service time in ms, for estimating the queue wait. Written by every
+    // search thread without coordination; a lost update only delays the estimate a little
+    private volatile double serviceMs;
+
+    // Registered with Metrics, so they are shared if a process runs more than one server
+    final LatencyHistogram moveLatency = Metrics.histogram("server.move");
+    final LatencyHistogram queueLatency = Metrics.histogram("server.queue");
+    final LongAdder searches = Metrics.counter("server.searches");
+    final LongAdder refusedSessions = Metrics.counter("server.refused");
+    final LongAdder busyReplies = Metrics.counter("server.busy");
+    final LongAdder shortenedSearches = Metrics.counter("server.shortened");
+    final LongAdder cacheHits = Metrics.counter("cache.hits");
+    final LongAdder cacheMisses = Metrics.counter("cache.misses");
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AtomicInteger peakSessions = new AtomicInteger();
+
+    GameServer(Config config) throws IOException {
+        this.config = config;
+        this.serviceMs = config.defaultMoveTimeMs;
+        this.progress = config.progress != null ? ProgressStore.open(config.progress) : null;
+        if (config.cacheMb <= 0) {
+            cache = null;
+        } else if (config.cache != null) {
+            cache = AnalysisCache.open(config.cache, config.cacheMb << 20);
+        } else {
+            cache = new AnalysisCache(config.cacheMb << 20);
+        }
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.port), 1024);
+        sessionThreads = sessionExecutor();
+        engines = new SearchEngine[config.searchThreads];
+        searchThreads = new Thread[config.searchThreads];
+        for (int i = 0; i < searchThreads.length; i++) {
+            engines[i] = new SearchEngine(1, config.hashMb);
+            SearchEngine engine = engines[i];
+            searchThreads[i] = new Thread(() -> searchLoop(engine), "game-search-" + i);
+            searchThreads[i].setDaemon(true);
+            searchThreads[i].start();
+        }
+        evaluatorTag = engines[0].evaluator().getClass().getName();
+        Metrics.gauge("server.sessions", activeSessions::get);
+        Metrics.gauge("server.queued", queue::size);
+        Thread acceptor = new Thread(this::acceptLoop, "game-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    // Virtual threads through reflection so the tree still builds and runs on Java 17
+    static ExecutorService sessionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(SearchEngine.daemonThreads("game-session"));
+        }
+    }
+
+    static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Accept failed: " + e.getMessage());
+                }
+                continue;
+            }
+            if (activeSessions.incrementAndGet() > config.maxSessions) {
+                activeSessions.decrementAndGet();
+                refusedSessions.increment();
+                refuse(socket);
+                continue;
+            }
+            peakSessions.accumulateAndGet(activeSessions.get(), Math::max);
+            Session session = new Session(socket);
+            sessions.add(session);
+            try {
+                sessionThreads.execute(session);
+            } catch (RejectedExecutionException e) {
+                session.close();
+            }
+        }
+    }
+
+    private static void refuse(Socket socket) {
+        try (Socket s = socket) {
+            s.getOutputStream().write("busy too many sessions\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The client is told by the closed connection either way
+        }
+    }
+
+    private void searchLoop(SearchEngine engine) {
+        while (running) {
+            SearchRequest request;
+            try {
+                request = queue.take((long) (serviceMs * 1e6 / searchThreads.length));
+            } catch (InterruptedException e) {
+                return;
+            }
+            virtualClock = Math.max(virtualClock, request.virtualTime);
+            queueLatency.record(System.nanoTime() - request.enqueuedNanos);
+            long started = System.nanoTime();
+            try {
+                SearchResult result = engine.search(request.game, SearchLimits.moveTime(request.moveTimeMs), null);
+                // Wall time, not the engine's own clock: under load the thread loses CPU too
+                serviceMs += ((System.nanoTime() - started) / 1e6 - serviceMs) / 16;
+                searches.increment();
+                request.result.complete(result);
+            } catch (Throwable e) {
+                // The session waits on this future; it has to complete whatever went wrong
+                request.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Search time the move can have and still meet the latency target, or -1 for "busy".
+    // The queue wait estimate is counted twice, leaving as much again for the spread of
+    // actual waits, so the target holds at the tail and not just on average
+    private long admit(long requestedMs) {
+        long budget = (long) (config.targetMs - 2 * expectedWaitMs());
+        if (budget < config.minMoveTimeMs) {
+            busyReplies.increment();
+            return -1;
+        }
+        if (requestedMs > budget) {
+            shortenedSearches.increment();
+            return budget;
+        }
+        return requestedMs;
+    }
+
+    // Everything queued, plus on average half of the searches already running
+    private double expectedWaitMs() {
+        return (queue.size() + 0.5 * searchThreads.length) / searchThreads.length * serviceMs;
+    }
+
+    String stats() {
+        return String.format("stats sessions %d peak %d searches %d queued %d busy %d shortened %d refused %d"
+                + " cache hits %d misses %d move p50 %.1f p99 %.1f wait p99 %.1f",
+            activeSessions.get(), peakSessions.get(), searches.sum(), queue.size(), busyReplies.sum(),
+            shortenedSearches.sum(), refusedSessions.sum(), cacheHits.sum(), cacheMisses.sum(),
+            moveLatency.percentile(50) / 1e6, moveLatency.percentile(99) / 1e6, queueLatency.percentile(99) / 1e6);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        for (Session session : sessions) {
+            session.close();
+        }
+        sessionThreads.shutdownNow();
+        for (SearchEngine engine : engines) {
+            engine.stop();
+        }
+        for (Thread thread : searchThreads) {
+            thread.interrupt();
+        }
+        for (SearchRequest request : queue.drain()) {
+            request.result.cancel(false);
+        }
+        for (SearchEngine engine : engines) {
+            engine.shutdown();
+        }
+        try {
+            if (cache != null) {
+                cache.close();
+            }
+        } finally {
+            if (progress != null) {
+                progress.close();
+            }
+        }
+    }
+
+    private final class Session implements Runnable {
+        private final Socket socket;
+        private final ChessGame game = new ChessGame();
+        private final MoveList moves = new MoveList();
+        private String user = "anonymous";
+        private long usedMs;
+        private long virtualTime;
+        // This session's own move latency; the server-wide histogram has the distribution
+        private long engineMoves;
+        private long moveNanos;
+        private long maxMoveNanos;
+
+        Session(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try (Socket s = socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)), true)) {
+                s.setSoTimeout(IDLE_TIMEOUT_MS);
+                s.setTcpNoDelay(true);
+                String line;
+                while (running && (line = in.readLine()) != null) {
+                    String reply = handle(line.trim());
+                    if (reply == null) {
+                        break;
+                    }
+                    out.println(reply);
+                }
+            } catch (IOException e) {
+                // Client went away or idled out; nothing to clean up beyond the slot
+            } finally {
+                sessions.remove(this);
+                activeSessions.decrementAndGet();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing to unblock the reader; nothing else to do
+            }
+        }
+
+        // Returns the reply line, or null to end the session
+        private String handle(String line) {
+            String[] tokens = line.split("\\s+");
+            try {
+                switch (tokens[0]) {
+                    case "new":
+                        // Parsed aside: a rejected FEN keeps the current game
+                        game.copyFrom(new ChessGame(tokens.length > 1 ? line.substring(4).trim() : ChessGame.START_FEN));
+                        return "ok";
+                    case "move": {
+                        if (tokens.length < 2) {
+                            return "error move needs a move";
+                        }
+                        int move = game.parseUciMove(tokens[1]);
+                        if (move == Move.NONE) {
+                            return "error illegal move " + tokens[1];
+                        }
+                        game.makeMove(move);
+                        return withStatus("ok");
+                    }
+                    case "go":
+                        return engineMove(tokens, true);
+                    case "analyze":
+                        return engineMove(tokens, false);
+                    case "fen":
+                        return "fen " + game.toFen();
+                    case "quota":
+                        return "quota " + Math.max(0, config.quotaMs - usedMs);
+                    case "user":
+                        if (tokens.length < 2) {
+                            return "error user needs an id";
+                        }
+                        user = tokens[1];
+                        return "ok";
+                    case "complete":
+                        return completeLesson(tokens);
+                    case "analytics":
+                        if (progress == null) {
+                            return "error no progress store";
+                        }
+                        return "analytics " + progress.analytics().summary(
+                            tokens.length > 2 ? tokens[2] : LearningAnalytics.ALL,
+                            tokens.length > 1 ? tokens[1] : LearningAnalytics.ALL);
+                    case "stats":
+                        return stats() + String.format(" session moves %d mean %.1f max %.1f", engineMoves,
+                            engineMoves == 0 ? 0.0 : moveNanos / 1e6 / engineMoves, maxMoveNanos / 1e6);
+                    case "quit":
+                        return null;
+                    case "":
+                        return "error empty command";
+                    default:
+                        return "error unknown command " + tokens[0];
+                }
+            } catch (IllegalArgumentException e) {
+                return "error " + e.getMessage();
+            } catch (RuntimeException e) {
+                // A bug in one command must not take the session down with it
+                return "error internal " + e;
+            }
+        }
+
+        // go plays the move, analyze only reports it
+        private String engineMove(String[] tokens, boolean play) {
+            if (!status().isEmpty()) {
+                return "error game over";
+            }
+            long requested = config.defaultMoveTimeMs;
+            if (tokens.length > 2 && tokens[1].equals("movetime")) {
+                requested = Long.parseLong(tokens[2]);
+            }
+            long wanted = Math.max(config.minMoveTimeMs, Math.min(requested, config.maxMoveTimeMs));
+            long key = AnalysisCache.key(game.hash(), SearchLimits.moveTime(wanted), evaluatorTag);
+            long start = System.nanoTime();
+            // A hit costs no quota and skips the queue
+            SearchResult result = cache != null ? cache.get(key) : null;
+            long engineMs = 0;
+            if (result == null) {
+                long left = config.quotaMs - usedMs;
+                if (left < config.minMoveTimeMs) {
+                    return "error engine quota used up";
+                }
+                long moveTime = admit(Math.min(wanted, left));
+                if (moveTime < 0) {
+                    return "busy retry " + Math.max(config.minMoveTimeMs, (long) expectedWaitMs());
+                }
+
+                // Time spent idle earns no credit: a session is never tagged behind the clock, so a
+                // returning session cannot jump ahead of requests that are already waiting
+                virtualTime = Math.max(virtualTime, virtualClock);
+                SearchRequest request = new SearchRequest(this, game, moveTime, virtualTime, sequence.incrementAndGet(),
+                    config.targetMs - moveTime - (long) serviceMs);
+                queue.add(request);
+                try {
+                    result = request.result.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return "error interrupted";
+                } catch (ExecutionException | CancellationException e) {
+                    return "error search failed";
+                }
+                engineMs = result.timeMs;
+                usedMs += result.timeMs;
+                // At least a millisecond per search, so even instant replies move the session back
+                virtualTime += Math.max(1, result.timeMs);
+                // A search shortened by admission control or the quota is not what the key promises
+                if (cache != null && moveTime == wanted && result.pv.length > 0) {
+                    cache.put(key, result);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            moveLatency.record(elapsed);
+            engineMoves++;
+            moveNanos += elapsed;
+            maxMoveNanos = Math.max(maxMoveNanos, elapsed);
+
+            if (result.pv.length == 0) {
+                return "error no legal move";
+            }
+            int move = result.pv[0];
+            if (!play) {
+                return "analysis " + Move.toUci(move) + " score " + result.score + " depth " + result.depth + " pv "
+                    + result.pvString();
+            }
+            game.makeMove(move);
+            long waitMs = TimeUnit.NANOSECONDS.toMillis(elapsed) - engineMs;
+            return withStatus("bestmove " + Move.toUci(move) + " score " + result.score + " time " + engineMs
+                + " wait " + Math.max(0, waitMs));
+        }
+
+        private String completeLesson(String[] tokens) {
+            if (progress == null) {
+                return "error no progress store";
+            }
+            if (tokens.length < 5) {
+                return "error complete needs lesson, accuracy, seconds and hints";
+            }
+            try {
+                progress.completeLesson(user, tokens[1], Integer.parseInt(tokens[2]), Integer.parseInt(tokens[3]),
+                    Integer.parseInt(tokens[4]));
+            } catch (IOException e) {
+                return "error cannot save progress: " + e.getMessage();
+            }
+            return String.format("ok %.0f", progress.progress(user));
+        }
+
+        private String withStatus(String reply) {
+            String status = status();
+            return status.isEmpty() ? reply : reply + " " + status;
+        }
+
+        private String status() {
+            game.generateLegalMoves(moves);
+            if (moves.size() == 0) {
+                return game.inCheck() ? "checkmate" : "stalemate";
+            }
+            return game.halfmoveClock() >= 100 || game.isRepetition() ? "draw" : "";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = new Config();
+        List<String> positional;
+        try {
+            if (args.length == 0 || !(args[0].equals("serve") || args[0].equals("bench"))) {
+                throw new IllegalArgumentException("Expected serve or bench");
+            }
+            positional = config.parse(args, 1);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: java GameServer serve [port] [options]");
+            System.err.println("       java GameServer bench [sessions] [seconds] [options]");
+            System.err.println("Options: --threads N --hash MB --max-sessions N --target-ms MS --quota-ms MS");
+            System.err.println("         --max-movetime MS --movetime MS --progress DIR --cache FILE --cache-mb MB --no-cache");
+            System.exit(2);
+            return;
+        }
+
+        Metrics.start();
+        if (args[0].equals("serve")) {
+            if (!positional.isEmpty()) {
+                config.port = Integer.parseInt(positional.get(0));
+            }
+            if (config.cache == null) {
+                config.cache = AnalysisCache.DEFAULT_PATH;
+            }
+            GameServer server;
+            try {
+                server = new GameServer(config);
+            } catch (IOException e) {
+                System.err.println("Cannot start server: " + e.getMessage());
+                System.exit(1);
+                return;
+            }
+            System.err.printf("Listening on %d: %d search threads, %s sessions, target %d ms%n", server.port(),
+                config.searchThreads, virtualThreadsAvailable() ? "virtual-thread" : "platform-thread", config.targetMs);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    System.err.println("Shutdown incomplete: " + e.getMessage());
+                }
+            }, "game-server-close"));
+            Thread.currentThread().join();
+            return;
+        }
+
+        int clients = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : 1000;
+        int seconds = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 10;
+        config.port = 0;
+        config.maxSessions = Math.max(config.maxSessions, clients);
+        if (config.cache == null) {
+            config.cacheMb = 0;
+        }
+        bench(config, clients, seconds);
+    }
+
+    // Every client plays engine-vs-engine games over its own connection: connect, "new",
+    // then "go" until the game ends. On "busy" it waits the suggested time, doubled for
+    // each busy in a row and jittered, as a well-behaved client would
+    private static void bench(Config config, int clients, int seconds) throws Exception {
+        GameServer server = new GameServer(config);
+        System.out.printf("%d clients for %d s: %d search threads, %s sessions, movetime %d ms, target %d ms%n",
+            clients, seconds, config.searchThreads, virtualThreadsAvailable() ? "virtual-thread" : "platform-thread",
+            config.defaultMoveTimeMs, config.targetMs);
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder moves = new LongAdder(), busy = new LongAdder(), games = new LongAdder(), failures = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService clientThreads = sessionExecutor();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            int id = c;
+            clientThreads.execute(() -> {
+                Random random = new Random(id);
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                     PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+                    out.println("new");
+                    in.readLine();
+                    int busyInRow = 0;
+                    while (System.nanoTime() < deadline) {
+                        long begin = System.nanoTime();
+                        out.println("go");
+                        String reply = in.readLine();
+                        if (reply == null) {
+                            failures.increment();
+                            return;
+                        }
+                        if (reply.startsWith("busy")) {
+                            busy.increment();
+                            long hint = Long.parseLong(reply.substring(reply.lastIndexOf(' ') + 1));
+                            long backoff = Math.min(hint << Math.min(busyInRow++, 6), 10_000);
+                            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                            Thread.sleep(Math.max(0, Math.min(remaining, backoff / 2 + random.nextInt((int) backoff + 1))));
+                            continue;
+                        }
+                        busyInRow = 0;
+                        if (reply.startsWith("bestmove")) {
+                            latency.record(System.nanoTime() - begin);
+                            moves.increment();
+                        }
+                        if (!reply.startsWith("bestmove") || reply.endsWith("mate") || reply.endsWith("draw")) {
+                            games.increment();
+                            out.println("new");
+                            in.readLine();
+                        }
+                    }
+                    out.println("quit");
+                } catch (IOException e) {
+                    failures.increment();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        clientThreads.shutdown();
+        clientThreads.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d engine moves in %.1f s (%,.1f/sec), %,d games finished, %,d busy replies, %d failed clients%n",
+            moves.sum(), elapsed, moves.sum() / elapsed, games.sum(), busy.sum(), failures.sum());
+        System.out.println("Move latency: " + latency.summary());
+        System.out.println("Queue wait:   " + server.queueLatency.summary());
+        System.out.println(server.stats());
+        server.close();
+    }
+}
@@ -0,0 +1,563 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Instructor roll-ups over lesson completions: accuracy and time-taken percentiles,
+// hint usage and distinct learners, per lesson, per cohort, and over all of either.
+//
+// Nothing is kept per event. Each (cohort, lesson) pair has a Rollup of fixed-size,
+// mergeable sketches: a t-digest each for accuracy and seconds taken, exact counts
+// for 0..MAX_HINTS hints, and a HyperLogLog of learner ids. Every event updates four
+// of them: its own pair, its cohort over all lessons, its lesson over all cohorts,
+// and everything. A query copies that key's rollup, so its cost depends on the
+// sketch sizes, never on how many events came in.
+//
+// The rollups are guarded by one lock. ProgressStore records from its log thread
+// only, so writers never contend; a query holds the lock for one merge.
+//
+// Every completion counts, repeats included, so these describe attempts rather than
+// learners' latest results. A progress reset does not remove past events.
+//
+// Cohorts come from user ids: "cohort/learner" is in cohort "cohort", an id without
+// a slash in DEFAULT_COHORT. ALL stands for every lesson or every cohort.
+//
+//   java LearningAnalytics report <progress-dir> [cohort]
+//   java LearningAnalytics bench [threads] [events]
+final class LearningAnalytics {
+    static final String ALL = "*";
+    static final String DEFAULT_COHORT = "default";
+    static final int MAX_HINTS = 10;
+    static final double COMPRESSION = 100;
+
+    // Merging t-digest: adds go into a small buffer, which is sorted and merged into the
+    // centroids when it fills. Centroids may not cross a unit of the arcsine scale
+    // function (k1), so those near the tails stay small and extreme percentiles are the
+    // most accurate; at most COMPRESSION / 2 or so survive a merge. The unit boundaries
+    // are fixed quantiles, computed once, so a merge does no trigonometry.
+    static final class TDigest {
+        private static final int BUFFER = 128;
+        private static final double[] BOUNDARIES = boundaries();
+
+        private double[] means = new double[0];
+        private double[] weights = new double[0];
+        private int centroids;
+        private final double[] buffer = new double[BUFFER];
+        private int buffered;
+        private long count;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        void add(double value) {
+            if (buffered == BUFFER) {
+                compress();
+            }
+            buffer[buffered++] = value;
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        void merge(TDigest other) {
+            if (other.count == 0) {
+                return;
+            }
+            other.compress();
+            compress();
+            mergeCentroids(other.means, other.weights, other.centroids);
+            count += other.count;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        long count() {
+            return count;
+        }
+
+        // Estimated value at quantile q in [0, 1]; NaN when empty
+        double quantile(double q) {
+            compress();
+            if (count == 0) {
+                return Double.NaN;
+            }
+            if (centroids == 1) {
+                return means[0];
+            }
+            double index = q * count;
+            // Between the minimum and the first centroid's center, which holds half its weight
+            if (index < weights[0] / 2) {
+                return min + (means[0] - min) * index / (weights[0] / 2);
+            }
+            double cumulative = weights[0] / 2;
+            for (int i = 0; i < centroids - 1; i++) {
+                double gap = (weights[i] + weights[i + 1]) / 2;
+                if (cumulative + gap > index) {
+                    return means[i] + (means[i + 1] - means[i]) * (index - cumulative) / gap;
+                }
+                cumulative += gap;
+            }
+            double last = weights[centroids - 1] / 2;
+            return means[centroids - 1] + (max - means[centroids - 1]) * Math.min(1.0, (index - cumulative) / last);
+        }
+
+        double mean() {
+            compress();
+            double sum = 0;
+            for (int i = 0; i < centroids; i++) {
+                sum += means[i] * weights[i];
+            }
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        private void compress() {
+            if (buffered == 0) {
+                return;
+            }
+            Arrays.sort(buffer, 0, buffered);
+            int n = buffered;
+            buffered = 0;
+            mergeCentroids(buffer, null, n);
+        }
+
+        // Merges sorted (mean, weight) pairs into the centroids, then collapses neighbours
+        // for as long as each centroid stays within one unit of the scale function.
+        // Null weights are all 1.
+        private void mergeCentroids(double[] otherMeans, double[] otherWeights, int otherCount) {
+            int total = centroids + otherCount;
+            double[] m = new double[total], w = new double[total];
+            double weight = 0;
+            for (int i = 0, a = 0, b = 0; i < total; i++) {
+                if (b == otherCount || (a < centroids && means[a] <= otherMeans[b])) {
+                    m[i] = means[a];
+                    w[i] = weights[a++];
+                } else {
+                    m[i] = otherMeans[b];
+                    w[i] = otherWeights == null ? 1.0 : otherWeights[b];
+                    b++;
+                }
+                weight += w[i];
+            }
+
+            int out = 0;
+            double before = 0;
+            int cell = 1;
+            double limit = weight * BOUNDARIES[cell];
+            for (int i = 1; i < total; i++) {
+                double proposed = w[out] + w[i];
+                if (before + proposed <= limit) {
+                    m[out] += (m[i] - m[out]) * w[i] / proposed;
+                    w[out] = proposed;
+                } else {
+                    before += w[out];
+                    out++;
+                    m[out] = m[i];
+                    w[out] = w[i];
+                    while (cell < BOUNDARIES.length - 1 && weight * BOUNDARIES[cell] <= before) {
+                        cell++;
+                    }
+                    limit = weight * BOUNDARIES[cell];
+                }
+            }
+            centroids = out + 1;
+            means = Arrays.copyOf(m, centroids);
+            weights = Arrays.copyOf(w, centroids);
+        }
+
+        // Quantiles where the arcsine scale k(q) = COMPRESSION / 2pi * asin(2q - 1) crosses
+        // an integer, from q = 0 to q = 1
+        private static double[] boundaries() {
+            int cells = (int) (COMPRESSION / 2);
+            double[] boundaries = new double[cells + 1];
+            for (int j = 0; j <= cells; j++) {
+                boundaries[j] = (1 + Math.sin(2 * Math.PI * (j - COMPRESSION / 4) / COMPRESSION)) / 2;
+            }
+            boundaries[cells] = 1.0;
+            return boundaries;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            compress();
+            out.writeLong(count);
+            out.writeDouble(min);
+            out.writeDouble(max);
+            out.writeInt(centroids);
+            for (int i = 0; i < centroids; i++) {
+                out.writeDouble(means[i]);
+                out.writeDouble(weights[i]);
+            }
+        }
+
+        static TDigest read(DataInputStream in) throws IOException {
+            TDigest digest = new TDigest();
+            digest.count = in.readLong();
+            digest.min = in.readDouble();
+            digest.max = in.readDouble();
+            int centroids = in.readInt();
+            if (centroids < 0 || centroids > 100_000) {
+                throw new IOException("Bad t-digest centroid count " + centroids);
+            }
+            digest.centroids = centroids;
+            digest.means = new double[centroids];
+            digest.weights = new double[centroids];
+            for (int i = 0; i < centroids; i++) {
+                digest.means[i] = in.readDouble();
+                digest.weights[i] = in.readDouble();
+            }
+            return digest;
+        }
+    }
+
+    // Distinct count with 2^PRECISION one-byte registers, about 2.3% standard error
+    static final class HyperLogLog {
+        private static final int PRECISION = 11;
+        private static final int REGISTERS = 1 << PRECISION;
+
+        private final byte[] registers = new byte[REGISTERS];
+
+        void add(long hash) {
+            int index = (int) (hash >>> (64 - PRECISION));
+            // Leading zeros of the remaining bits, plus one; the sentinel caps it
+            int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+            if (rank > registers[index]) {
+                registers[index] = (byte) rank;
+            }
+        }
+
+        void merge(HyperLogLog other) {
+            for (int i = 0; i < REGISTERS; i++) {
+                if (other.registers[i] > registers[i]) {
+                    registers[i] = other.registers[i];
+                }
+            }
+        }
+
+        long estimate() {
+            double sum = 0;
+            int zeros = 0;
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+            double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+            double estimate = alpha * REGISTERS * REGISTERS / sum;
+            // Linear counting is the better estimate while many registers are still empty
+            if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+                estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+            }
+            return Math.round(estimate);
+        }
+    }
+
+    // One key's sketches
+    static final class Rollup {
+        private final TDigest accuracy = new TDigest();
+        private final TDigest seconds = new TDigest();
+        private final long[] hints = new long[MAX_HINTS + 2];
+        private long hintTotal;
+        private final HyperLogLog learners = new HyperLogLog();
+
+        void add(long learnerHash, int accuracy, int timeTakenSeconds, int hintsUsed) {
+            this.accuracy.add(accuracy);
+            seconds.add(timeTakenSeconds);
+            hints[Math.max(0, Math.min(hintsUsed, MAX_HINTS + 1))]++;
+            hintTotal += Math.max(0, hintsUsed);
+            learners.add(learnerHash);
+        }
+
+        void merge(Rollup other) {
+            accuracy.merge(other.accuracy);
+            seconds.merge(other.seconds);
+            for (int i = 0; i < hints.length; i++) {
+                hints[i] += other.hints[i];
+            }
+            hintTotal += other.hintTotal;
+            learners.merge(other.learners);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            accuracy.write(out);
+            seconds.write(out);
+            for (long count : hints) {
+                out.writeLong(count);
+            }
+            out.writeLong(hintTotal);
+            out.write(learners.registers);
+        }
+
+        static Rollup read(DataInputStream in) throws IOException {
+            Rollup rollup = new Rollup();
+            rollup.accuracy.merge(TDigest.read(in));
+            rollup.seconds.merge(TDigest.read(in));
+            for (int i = 0; i < rollup.hints.length; i++) {
+                rollup.hints[i] = in.readLong();
+            }
+            rollup.hintTotal = in.readLong();
+            in.readFully(rollup.learners.registers);
+            return rollup;
+        }
+    }
+
+    // A merged, private copy of one key's rollup: reading it takes no locks
+    static final class Summary {
+        private final Rollup rollup;
+
+        private Summary(Rollup rollup) {
+            this.rollup = rollup;
+        }
+
+        long events() {
+            return rollup.accuracy.count();
+        }
+
+        long learners() {
+            return events() == 0 ? 0 : rollup.learners.estimate();
+        }
+
+        double accuracy(double quantile) {
+            return rollup.accuracy.quantile(quantile);
+        }
+
+        double secondsTaken(double quantile) {
+            return rollup.seconds.quantile(quantile);
+        }
+
+        double meanHints() {
+            return events() == 0 ? Double.NaN : (double) rollup.hintTotal / events();
+        }
+
+        // Events with exactly this many hints; MAX_HINTS + 1 counts every event with more
+        long withHints(int hints) {
+            return rollup.hints[Math.max(0, Math.min(hints, MAX_HINTS + 1))];
+        }
+
+        @Override
+        public String toString() {
+            if (events() == 0) {
+                return "events 0";
+            }
+            return String.format("events %d learners %d accuracy p10 %.0f p50 %.0f p90 %.0f"
+                    + " seconds p50 %.0f p90 %.0f p99 %.0f hints mean %.2f none %.0f%%",
+                events(), learners(), accuracy(0.10), accuracy(0.50), accuracy(0.90),
+                secondsTaken(0.50), secondsTaken(0.90), secondsTaken(0.99), meanHints(), 100.0 * withHints(0) / events());
+        }
+    }
+
+    private final Map<String, Rollup> rollups = new HashMap<>();
+
+    static String cohortOf(String user) {
+        int slash = user.indexOf('/');
+        return slash > 0 ? user.substring(0, slash) : DEFAULT_COHORT;
+    }
+
+    void record(String user, String lessonId, int accuracy, int timeTakenSeconds, int hintsUsed) {
+        String cohort = cohortOf(user);
+        long learner = hash(user);
+        synchronized (rollups) {
+            rollup(cohort, lessonId).add(learner, accuracy, timeTakenSeconds, hintsUsed);
+            rollup(cohort, ALL).add(learner, accuracy, timeTakenSeconds, hintsUsed);
+            rollup(ALL, lessonId).add(learner, accuracy, timeTakenSeconds, hintsUsed);
+            rollup(ALL, ALL).add(learner, accuracy, timeTakenSeconds, hintsUsed);
+        }
+    }
+
+    // cohort and lessonId may be ALL
+    Summary summary(String cohort, String lessonId) {
+        Rollup copy = new Rollup();
+        synchronized (rollups) {
+            Rollup rollup = rollups.get(key(cohort, lessonId));
+            if (rollup != null) {
+                copy.merge(rollup);
+            }
+        }
+        return new Summary(copy);
+    }
+
+    // Lessons with at least one event in the cohort (or in any, for ALL), sorted
+    List<String> lessons(String cohort) {
+        return column(cohort, true);
+    }
+
+    List<String> cohorts() {
+        return column(ALL, false);
+    }
+
+    LearningAnalytics copy() {
+        LearningAnalytics copy = new LearningAnalytics();
+        synchronized (rollups) {
+            for (Map.Entry<String, Rollup> entry : rollups.entrySet()) {
+                copy.rollups.computeIfAbsent(entry.getKey(), k -> new Rollup()).merge(entry.getValue());
+            }
+        }
+        return copy;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        // Written from a copy so the lock is not held across I/O
+        Map<String, Rollup> snapshot = copy().rollups;
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, Rollup> entry : snapshot.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().write(out);
+        }
+    }
+
+    // Adds the rollups written by write() to these
+    void read(DataInputStream in) throws IOException {
+        int keys = in.readInt();
+        if (keys < 0) {
+            throw new IOException("Bad analytics key count " + keys);
+        }
+        for (int i = 0; i < keys; i++) {
+            String key = in.readUTF();
+            Rollup rollup = Rollup.read(in);
+            synchronized (rollups) {
+                rollups.computeIfAbsent(key, k -> new Rollup()).merge(rollup);
+            }
+        }
+    }
+
+    private List<String> column(String cohort, boolean lessons) {
+        Set<String> values = new TreeSet<>();
+        synchronized (rollups) {
+            for (String key : rollups.keySet()) {
+                int split = key.indexOf('\0');
+                String keyCohort = key.substring(0, split), keyLesson = key.substring(split + 1);
+                if (lessons && keyCohort.equals(cohort) && !keyLesson.equals(ALL)) {
+                    values.add(keyLesson);
+                } else if (!lessons && keyLesson.equals(ALL) && !keyCohort.equals(ALL)) {
+                    values.add(keyCohort);
+                }
+            }
+        }
+        return new ArrayList<>(values);
+    }
+
+    // Callers hold the lock
+    private Rollup rollup(String cohort, String lessonId) {
+        return rollups.computeIfAbsent(key(cohort, lessonId), k -> new Rollup());
+    }
+
+    private static String key(String cohort, String lessonId) {
+        return cohort + '\0' + lessonId;
+    }
+
+    // 64-bit FNV-1a with a final mix; String.hashCode's 32 bits collide too often for millions of learners
+    static long hash(String value) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 2 && args[0].equals("report")) {
+            report(Paths.get(args[1]), args.length > 2 ? args[2] : ALL);
+        } else if (args.length >= 1 && args[0].equals("bench")) {
+            bench(args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors(),
+                args.length > 2 ? Long.parseLong(args[2]) : 4_000_000);
+        } else {
+            System.err.println("Usage: java LearningAnalytics report <progress-dir> [cohort]");
+            System.err.println("       java LearningAnalytics bench [threads] [events]");
+            System.exit(2);
+        }
+    }
+
+    private static void report(Path directory, String cohort) {
+        try (ProgressStore store = ProgressStore.open(directory)) {
+            LearningAnalytics analytics = store.analytics();
+            System.out.println("Cohorts: " + String.join(" ", analytics.cohorts()));
+            System.out.printf("%-28s %8s %8s %5s %5s %5s %7s %7s %6s%n",
+                "lesson", "events", "learners", "acc10", "acc50", "acc90", "sec50", "sec90", "hints");
+            List<String> lessons = analytics.lessons(cohort);
+            lessons.add(ALL);
+            for (String lesson : lessons) {
+                Summary summary = analytics.summary(cohort, lesson);
+                System.out.printf("%-28s %8d %8d %5.0f %5.0f %5.0f %7.0f %7.0f %6.2f%n", lesson, summary.events(),
+                    summary.learners(), summary.accuracy(0.1), summary.accuracy(0.5), summary.accuracy(0.9),
+                    summary.secondsTaken(0.5), summary.secondsTaken(0.9), summary.meanHints());
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read progress in " + directory + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Synthetic events from several threads, then query latency and error against exact answers
+    private static void bench(int threads, long events) throws Exception {
+        LearningAnalytics analytics = new LearningAnalytics();
+        ExecutorService feeders = Executors.newFixedThreadPool(threads);
+        List<Future<long[]>> parts = new ArrayList<>();
+        Set<String> exactLearners = ConcurrentHashMap.newKeySet();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int feeder = t;
+            parts.add(feeders.submit(() -> {
+                Random random = new Random(feeder);
+                // Exact accuracy counts for "lesson-0" across all cohorts, to check the digest
+                long[] exact = new long[101];
+                for (long i = feeder; i < events; i += threads) {
+                    String user = "cohort-" + random.nextInt(20) + "/user-" + random.nextInt(200_000);
+                    int lesson = random.nextInt(50);
+                    int accuracy = (int) Math.max(0, Math.min(100, 75 + random.nextGaussian() * 15));
+                    int seconds = (int) Math.exp(4.5 + random.nextGaussian() * 0.8);
+                    int hints = random.nextInt(4) == 0 ? random.nextInt(5) : 0;
+                    analytics.record(user, "lesson-" + lesson, accuracy, seconds, hints);
+                    if (lesson == 0) {
+                        exact[accuracy]++;
+                        exactLearners.add(user);
+                    }
+                }
+                return exact;
+            }));
+        }
+        long[] exact = new long[101];
+        for (Future<long[]> part : parts) {
+            long[] counts = part.get();
+            for (int i = 0; i < exact.length; i++) {
+                exact[i] += counts[i];
+            }
+        }
+        feeders.shutdown();
+        feeders.awaitTermination(1, TimeUnit.MINUTES);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d events in %.2f s (%,.0f/sec) on %d threads%n", events, elapsed, events / elapsed, threads);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        Summary summary = null;
+        for (int i = 0; i < 1000; i++) {
+            long begin = System.nanoTime();
+            summary = analytics.summary(ALL, "lesson-" + (i % 50));
+            summary.accuracy(0.5);
+            latency.record(System.nanoTime() - begin);
+        }
+        System.out.println("Query latency: " + latency.summary());
+
+        summary = analytics.summary(ALL, "lesson-0");
+        long total = Arrays.stream(exact).sum();
+        System.out.println("lesson-0: " + summary);
+        for (double q : new double[] {0.01, 0.1, 0.5, 0.9, 0.99}) {
+            long rank = (long) Math.ceil(q * total), seen = 0;
+            int value = 0;
+            while (seen + exact[value] < rank) {
+                seen += exact[value++];
+            }
+            System.out.printf("  accuracy p%-4s exact %3d  digest %6.2f%n",
+                String.valueOf(q * 100).replaceAll("\\.0$", ""), value, summary.accuracy(q));
+        }
+        System.out.printf("  learners exact %,d  estimated %,d%n", exactLearners.size(), summary.learners());
+    }
+}
@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+// Process-wide metrics: named LongAdder counters, gauges and LatencyHistograms, created
+// on first use and shared by every component that asks for the same name.
+//
+// Hot loops don't touch this directly. The search counts into plain fields of its own
+// worker and adds them here every 64K nodes and when the search ends; move generation is timed on a sample of
+// calls. So the cost per node is a field increment whether metrics are read or not.
+//
+// Readers: JMX (MBean "chess:type=Metrics", one attribute per value), and an optional
+// periodic dump configured with system properties:
+//   -Dchess.metrics.dump=stderr|<file.json>   text lines to stderr, or JSON replaced atomically
+//   -Dchess.metrics.interval=<seconds>        default 10
+//   -Dchess.metrics.enabled=false             components skip recording altogether
+final class Metrics {
+    static final boolean ENABLED = !"false".equals(System.getProperty("chess.metrics.enabled"));
+    static final String OBJECT_NAME = "chess:type=Metrics";
+
+    private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, LongSupplier> GAUGES = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+
+    private static boolean started;
+    private static ScheduledExecutorService reporter;
+
+    private Metrics() {
+    }
+
+    static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    // Nanosecond values, as LatencyHistogram records them
+    static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    // Read on every report; must be cheap and thread-safe. A later registration replaces it
+    static void gauge(String name, LongSupplier supplier) {
+        GAUGES.put(name, supplier);
+    }
+
+    // Registers the MBean and starts the dump if one is configured; safe to call more than once
+    static synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException | SecurityException e) {
+            System.err.println("Metrics not registered with JMX: " + e.getMessage());
+        }
+
+        String dump = System.getProperty("chess.metrics.dump");
+        if (dump != null && !dump.isEmpty()) {
+            long seconds = Math.max(1, Long.getLong("chess.metrics.interval", 10));
+            startDump(dump.equals("stderr") ? null : Paths.get(dump), seconds);
+        }
+    }
+
+    // Text to stderr when file is null, otherwise JSON rewritten in place every period
+    static synchronized void startDump(Path file, long periodSeconds) {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(SearchEngine.daemonThreads("metrics-dump"));
+        Map<String, Long> previous = new HashMap<>();
+        long[] previousNanos = {System.nanoTime()};
+        reporter.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            double seconds = (now - previousNanos[0]) / 1e9;
+            previousNanos[0] = now;
+            Map<String, Double> rates = new TreeMap<>();
+            for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+                long value = entry.getValue().sum();
+                Long before = previous.put(entry.getKey(), value);
+                rates.put(entry.getKey(), (value - (before == null ? 0 : before)) / seconds);
+            }
+            try {
+                if (file == null) {
+                    System.err.print(toText(rates));
+                } else {
+                    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                    Files.write(temp, toJson(rates).getBytes(StandardCharsets.UTF_8));
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Metrics dump failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    // One line per metric; rates are per second over the last period, or null for none
+    static String toText(Map<String, Double> rates) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("-- metrics ").append(java.time.LocalTime.now().withNano(0)).append('\n');
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            sb.append(String.format("%-28s %,16d", entry.getKey(), entry.getValue().sum()));
+            if (rates != null) {
+                sb.append(String.format("  %,14.1f/s", rates.getOrDefault(entry.getKey(), 0.0)));
+            }
+            sb.append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> entry : GAUGES.entrySet()) {
+            sb.append(String.format("%-28s %,16d%n", entry.getKey(), entry.getValue().getAsLong()));
+        }
+        // Microseconds: fine enough for move generation, still readable for whole searches
+        for (Map.Entry<String, LatencyHistogram> entry : HISTOGRAMS.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            sb.append(String.format("%-28s n=%d mean=%.1f p50=%.1f p99=%.1f max=%.1f us%n", entry.getKey(), h.count(),
+                h.mean() / 1e3, h.percentile(50) / 1e3, h.percentile(99) / 1e3, h.max() / 1e3));
+        }
+        return sb.toString();
+    }
+
+    static String toJson(Map<String, Double> rates) {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\"timestamp\":").append(System.currentTimeMillis()).append(",\"counters\":{");
+        String separator = "";
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            sb.append(separator).append('"').append(entry.getKey()).append("\":{\"total\":")
+                .append(entry.getValue().sum());
+            if (rates != null) {
+                sb.append(",\"perSecond\":").append(String.format(Locale.ROOT, "%.1f",
+                    rates.getOrDefault(entry.getKey(), 0.0)));
+            }
+            sb.append('}');
+            separator = ",";
+        }
+        sb.append("},\"gauges\":{");
+        separator = "";
+        for (Map.Entry<String, LongSupplier> entry : GAUGES.entrySet()) {
+            sb.append(separator).append('"').append(entry.getKey()).append("\":").append(entry.getValue().getAsLong());
+            separator = ",";
+        }
+        sb.append("},\"histograms\":{");
+        separator = "";
+        for (Map.Entry<String, LatencyHistogram> entry : HISTOGRAMS.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            sb.append(separator).append('"').append(entry.getKey()).append("\":{\"count\":").append(h.count())
+                .append(",\"meanNanos\":").append((long) h.mean())
+                .append(",\"p50Nanos\":").append(h.percentile(50))
+                .append(",\"p90Nanos\":").append(h.percentile(90))
+                .append(",\"p99Nanos\":").append(h.percentile(99))
+                .append(",\"maxNanos\":").append(h.max()).append('}');
+            separator = ",";
+        }
+        return sb.append("}}\n").toString();
+    }
+
+    // Attributes are discovered on every getMBeanInfo call, so metrics created after
+    // registration show up in JConsole on refresh
+    private static final class MetricsMBean implements DynamicMBean {
+        private static final String[] HISTOGRAM_FIELDS = {"count", "meanMs", "p50Ms", "p90Ms", "p99Ms", "maxMs"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongAdder counter = COUNTERS.get(attribute);
+            if (counter != null) {
+                return counter.sum();
+            }
+            LongSupplier gauge = GAUGES.get(attribute);
+            if (gauge != null) {
+                return gauge.getAsLong();
+            }
+            int dot = attribute.lastIndexOf('.');
+            LatencyHistogram h = dot < 0 ? null : HISTOGRAMS.get(attribute.substring(0, dot));
+            if (h != null) {
+                switch (attribute.substring(dot + 1)) {
+                    case "count": return h.count();
+                    case "meanMs": return h.mean() / 1e6;
+                    case "p50Ms": return h.percentile(50) / 1e6;
+                    case "p90Ms": return h.percentile(90) / 1e6;
+                    case "p99Ms": return h.percentile(99) / 1e6;
+                    case "maxMs": return h.max() / 1e6;
+                    default: break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Per the contract, attributes that can't be read are left out
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            if (action.equals("resetHistograms")) {
+                HISTOGRAMS.values().forEach(LatencyHistogram::reset);
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : COUNTERS.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", "counter", true, false, false));
+            }
+            for (String name : GAUGES.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", "gauge", true, false, false));
+            }
+            for (String name : HISTOGRAMS.keySet()) {
+                for (String field : HISTOGRAM_FIELDS) {
+                    String type = field.equals("count") ? "java.lang.Long" : "java.lang.Double";
+                    attributes.add(new MBeanAttributeInfo(name + "." + field, type, "histogram " + field,
+                        true, false, false));
+                }
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("resetHistograms", "Clears every histogram",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(Metrics.class.getName(), "Chess engine and storage metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] {reset}, null);
+        }
+    }
+}
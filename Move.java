@@ -0,0 +1,95 @@
+// Moves are packed into an int: bits 0-5 from square, 6-11 to square, 12-15 flags.
+final class Move {
+    static final int NONE = 0;
+
+    static final int QUIET = 0;
+    static final int DOUBLE_PUSH = 1;
+    static final int KING_CASTLE = 2;
+    static final int QUEEN_CASTLE = 3;
+    static final int CAPTURE = 4;
+    static final int EN_PASSANT = 5;
+    static final int PROMOTION = 8;
+    static final int PROMOTION_CAPTURE = 12;
+
+    private static final char[] PROMOTION_CHARS = {'n', 'b', 'r', 'q'};
+
+    private Move() {
+    }
+
+    static int encode(int from, int to, int flags) {
+        return from | (to << 6) | (flags << 12);
+    }
+
+    static int from(int move) {
+        return move & 63;
+    }
+
+    static int to(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    static int flags(int move) {
+        return move >>> 12;
+    }
+
+    static boolean isCapture(int move) {
+        return (flags(move) & CAPTURE) != 0;
+    }
+
+    static boolean isPromotion(int move) {
+        return (flags(move) & PROMOTION) != 0;
+    }
+
+    static boolean isCastle(int move) {
+        int flags = flags(move);
+        return flags == KING_CASTLE || flags == QUEEN_CASTLE;
+    }
+
+    // Piece type the pawn becomes (ChessGame.KNIGHT .. ChessGame.QUEEN)
+    static int promotionType(int move) {
+        return ChessGame.KNIGHT + (flags(move) & 3);
+    }
+
+    // Squares whose contents the move changes, as a bitboard: a board view redraws only these
+    static long touchedSquares(int move) {
+        int to = to(move);
+        long squares = (1L << from(move)) | (1L << to);
+        switch (flags(move)) {
+            case KING_CASTLE:
+                return squares | (1L << (to + 1)) | (1L << (to - 1));
+            case QUEEN_CASTLE:
+                return squares | (1L << (to - 2)) | (1L << (to + 1));
+            case EN_PASSANT:
+                return squares | (1L << (to ^ 8));
+            default:
+                return squares;
+        }
+    }
+
+    static String toUci(int move) {
+        if (move == NONE) {
+            return "0000";
+        }
+        StringBuilder sb = new StringBuilder(5);
+        sb.append(squareName(from(move))).append(squareName(to(move)));
+        if (isPromotion(move)) {
+            sb.append(PROMOTION_CHARS[flags(move) & 3]);
+        }
+        return sb.toString();
+    }
+
+    static String squareName(int square) {
+        return "" + (char) ('a' + (square & 7)) + (char) ('1' + (square >>> 3));
+    }
+
+    static int parseSquare(String name) {
+        if (name.length() != 2) {
+            return -1;
+        }
+        int col = name.charAt(0) - 'a', row = name.charAt(1) - '1';
+        if (col < 0 || col > 7 || row < 0 || row > 7) {
+            return -1;
+        }
+        return row * 8 + col;
+    }
+}
@@ -0,0 +1,32 @@
+// Reusable move buffer; generators append into it instead of allocating lists.
+final class MoveList {
+    static final int CAPACITY = 256;
+
+    final int[] moves = new int[CAPACITY];
+    int size;
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(int move) {
+        moves[size++] = move;
+    }
+
+    int get(int index) {
+        return moves[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int move) {
+        for (int i = 0; i < size; i++) {
+            if (moves[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
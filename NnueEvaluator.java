@@ -0,0 +1,430 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.*;
+import java.util.Random;
+
+// Efficiently updatable network evaluation: 768 piece-square inputs per perspective feed a
+// hidden layer of int16 accumulators, one for the side to move and one for the other side,
+// whose clipped activations go through a single output neuron. A move only flips two to
+// four inputs, so the search keeps a stack of accumulators and each push adds and removes
+// those weight rows instead of recomputing the layer; pop just drops back a slot.
+//
+// The row updates and the output dot products run on the Vector API when the
+// jdk.incubator.vector module is present (NnueSimd, loaded reflectively so the rest of the
+// tree compiles and runs without it) and on plain loops otherwise.
+final class NnueEvaluator implements Evaluator {
+    static final int INPUTS = 768;
+    static final int QA = 255;
+    static final int QB = 64;
+    static final int SCALE = 400;
+    static final int MAX_HIDDEN = 4096;
+    static final String EXTENSION = ".nnue";
+
+    private static final int MAGIC = 0x45554E43; // "CNUE" little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int EVAL_LIMIT = SearchEngine.MATE_BOUND - 1;
+
+    // Input index for [perspective][piece code * 64 + square]: each side sees the board from
+    // its own end, with its own pieces first, so one set of weights serves both perspectives
+    private static final int[][] FEATURES = new int[2][12 * 64];
+
+    static {
+        for (int piece = 0; piece < 12; piece++) {
+            int color = ChessGame.colorOf(piece), type = ChessGame.typeOf(piece);
+            for (int square = 0; square < 64; square++) {
+                FEATURES[ChessGame.WHITE][piece * 64 + square] = (color * 6 + type) * 64 + square;
+                FEATURES[ChessGame.BLACK][piece * 64 + square] = ((color ^ 1) * 6 + type) * 64 + (square ^ 56);
+            }
+        }
+    }
+
+    static final Kernels SCALAR = new ScalarKernels();
+    static final Kernels KERNELS = loadKernels();
+
+    private final Network network;
+    private final Kernels kernels;
+    private final int hidden;
+    private final short[] weights;
+    // Slot s holds the white-perspective accumulator at (2s) * hidden and black's right after
+    private final short[] stack;
+    private int top;
+
+    NnueEvaluator(Network network) {
+        this(network, KERNELS);
+    }
+
+    NnueEvaluator(Network network, Kernels kernels) {
+        this.network = network;
+        this.kernels = kernels;
+        this.hidden = network.hidden;
+        this.weights = network.featureWeights;
+        this.stack = new short[(SearchEngine.MAX_PLY + 2) * 2 * hidden];
+    }
+
+    Network network() {
+        return network;
+    }
+
+    @Override
+    public Evaluator newInstance() {
+        return new NnueEvaluator(network, kernels);
+    }
+
+    @Override
+    public void reset(ChessGame game) {
+        top = 0;
+        refresh(game, 0);
+    }
+
+    private void refresh(ChessGame game, int slot) {
+        for (int perspective = 0; perspective < 2; perspective++) {
+            int offset = (slot * 2 + perspective) * hidden;
+            System.arraycopy(network.featureBias, 0, stack, offset, hidden);
+            int[] features = FEATURES[perspective];
+            long occupied = game.occupied();
+            while (occupied != 0) {
+                int square = Long.numberOfTrailingZeros(occupied);
+                kernels.add(stack, offset, weights, features[game.pieceAt(square) * 64 + square] * hidden, hidden);
+                occupied &= occupied - 1;
+            }
+        }
+    }
+
+    @Override
+    public void push(ChessGame game, int move) {
+        if (top + 1 >= SearchEngine.MAX_PLY + 2) {
+            throw new IllegalStateException("Accumulator stack overflow");
+        }
+        int from = Move.from(move), to = Move.to(move), flags = Move.flags(move);
+        int moving = game.pieceAt(from);
+        int us = ChessGame.colorOf(moving);
+        int source = top * 2 * hidden;
+        int target = source + 2 * hidden;
+        top++;
+
+        if (Move.isCastle(move)) {
+            int rook = ChessGame.piece(us, ChessGame.ROOK);
+            int rookFrom = flags == Move.KING_CASTLE ? to + 1 : to - 2;
+            int rookTo = flags == Move.KING_CASTLE ? to - 1 : to + 1;
+            for (int p = 0; p < 2; p++) {
+                int[] features = FEATURES[p];
+                kernels.addAddSubSub(stack, target + p * hidden, source + p * hidden, weights,
+                    features[moving * 64 + to] * hidden, features[rook * 64 + rookTo] * hidden,
+                    features[moving * 64 + from] * hidden, features[rook * 64 + rookFrom] * hidden, hidden);
+            }
+            return;
+        }
+
+        int placed = Move.isPromotion(move) ? ChessGame.piece(us, Move.promotionType(move)) : moving;
+        int captureSquare = flags == Move.EN_PASSANT ? to ^ 8 : to;
+        int captured = Move.isCapture(move) ? game.pieceAt(captureSquare) : ChessGame.EMPTY;
+        for (int p = 0; p < 2; p++) {
+            int[] features = FEATURES[p];
+            int add = features[placed * 64 + to] * hidden;
+            int sub = features[moving * 64 + from] * hidden;
+            if (captured == ChessGame.EMPTY) {
+                kernels.addSub(stack, target + p * hidden, source + p * hidden, weights, add, sub, hidden);
+            } else {
+                kernels.addSubSub(stack, target + p * hidden, source + p * hidden, weights, add, sub,
+                    features[captured * 64 + captureSquare] * hidden, hidden);
+            }
+        }
+    }
+
+    @Override
+    public void pop() {
+        top--;
+    }
+
+    @Override
+    public int evaluate(ChessGame game) {
+        int us = game.sideToMove();
+        int base = top * 2 * hidden;
+        long sum = (long) kernels.dot(stack, base + us * hidden, network.outputWeights, 0, hidden)
+            + kernels.dot(stack, base + (us ^ 1) * hidden, network.outputWeights, hidden, hidden)
+            + network.outputBias;
+        int score = (int) (sum * SCALE / (QA * QB));
+        return Math.max(-EVAL_LIMIT, Math.min(EVAL_LIMIT, score));
+    }
+
+    private static Kernels loadKernels() {
+        if (!Boolean.getBoolean("chess.nnue.scalar")
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (Kernels) Class.forName("NnueSimd").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Compiled without the module or not supported here; the loops below are exact too
+            }
+        }
+        return SCALAR;
+    }
+
+    // Row arithmetic on the accumulators. Offsets index into the arrays; n is the hidden size
+    interface Kernels {
+        String name();
+
+        // acc[dst..] += w[add..]
+        void add(short[] acc, int dst, short[] w, int add, int n);
+
+        // acc[dst..] = acc[src..] + w[add..] - w[sub..]
+        void addSub(short[] acc, int dst, int src, short[] w, int add, int sub, int n);
+
+        void addSubSub(short[] acc, int dst, int src, short[] w, int add, int sub1, int sub2, int n);
+
+        void addAddSubSub(short[] acc, int dst, int src, short[] w, int add1, int add2, int sub1, int sub2, int n);
+
+        // Sum of clamp(acc[i], 0, QA) * w[i]
+        int dot(short[] acc, int offset, short[] w, int wOffset, int n);
+    }
+
+    static final class ScalarKernels implements Kernels {
+        @Override
+        public String name() {
+            return "scalar";
+        }
+
+        @Override
+        public void add(short[] acc, int dst, short[] w, int add, int n) {
+            for (int i = 0; i < n; i++) {
+                acc[dst + i] += w[add + i];
+            }
+        }
+
+        @Override
+        public void addSub(short[] acc, int dst, int src, short[] w, int add, int sub, int n) {
+            for (int i = 0; i < n; i++) {
+                acc[dst + i] = (short) (acc[src + i] + w[add + i] - w[sub + i]);
+            }
+        }
+
+        @Override
+        public void addSubSub(short[] acc, int dst, int src, short[] w, int add, int sub1, int sub2, int n) {
+            for (int i = 0; i < n; i++) {
+                acc[dst + i] = (short) (acc[src + i] + w[add + i] - w[sub1 + i] - w[sub2 + i]);
+            }
+        }
+
+        @Override
+        public void addAddSubSub(short[] acc, int dst, int src, short[] w, int add1, int add2, int sub1, int sub2,
+                int n) {
+            for (int i = 0; i < n; i++) {
+                acc[dst + i] = (short) (acc[src + i] + w[add1 + i] + w[add2 + i] - w[sub1 + i] - w[sub2 + i]);
+            }
+        }
+
+        @Override
+        public int dot(short[] acc, int offset, short[] w, int wOffset, int n) {
+            int sum = 0;
+            for (int i = 0; i < n; i++) {
+                int value = Math.max(0, Math.min(QA, acc[offset + i]));
+                sum += value * w[wOffset + i];
+            }
+            return sum;
+        }
+    }
+
+    // Quantized weights: input rows are in units of 1/QA, output weights 1/QB, and the output
+    // bias 1/(QA*QB), so the integer result times SCALE / (QA*QB) is centipawns.
+    // Immutable once loaded; any number of evaluators share one
+    static final class Network {
+        final int hidden;
+        final short[] featureWeights; // [INPUTS][hidden], one contiguous row per input
+        final short[] featureBias;    // [hidden]
+        final short[] outputWeights;  // [2 * hidden]: side to move first, then the other side
+        final int outputBias;
+
+        Network(int hidden, short[] featureWeights, short[] featureBias, short[] outputWeights, int outputBias) {
+            if (hidden < 1 || hidden > MAX_HIDDEN || featureWeights.length != INPUTS * hidden
+                    || featureBias.length != hidden || outputWeights.length != 2 * hidden) {
+                throw new IllegalArgumentException("Inconsistent network shape for hidden size " + hidden);
+            }
+            this.hidden = hidden;
+            this.featureWeights = featureWeights;
+            this.featureBias = featureBias;
+            this.outputWeights = outputWeights;
+            this.outputBias = outputBias;
+        }
+
+        // Our own header format, or a headerless little-endian dump in the same order
+        // (input weights, input bias, output weights, output bias) padded to 64 bytes,
+        // which is what common trainers write for a (768 -> N)x2 -> 1 net
+        static Network load(Path file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+            int hidden;
+            if (buffer.remaining() >= HEADER_BYTES && buffer.getInt(0) == MAGIC) {
+                int version = buffer.getInt(4);
+                hidden = buffer.getInt(8);
+                if (version != VERSION || hidden < 1 || hidden > MAX_HIDDEN
+                        || buffer.remaining() != HEADER_BYTES + 2 * shorts(hidden)) {
+                    throw new IOException(file + ": unsupported version " + version + " or bad size");
+                }
+                buffer.position(HEADER_BYTES);
+            } else {
+                int count = buffer.remaining() / 2;
+                hidden = (count - 1) / (INPUTS + 3);
+                if (hidden < 1 || hidden > MAX_HIDDEN || count < shorts(hidden) || count >= shorts(hidden) + 32) {
+                    throw new IOException(file + ": not a network file (" + buffer.remaining() + " bytes)");
+                }
+            }
+            short[] featureWeights = new short[INPUTS * hidden];
+            short[] featureBias = new short[hidden];
+            short[] outputWeights = new short[2 * hidden];
+            buffer.asShortBuffer().get(featureWeights).get(featureBias).get(outputWeights);
+            int outputBias = buffer.getShort(buffer.position() + 2 * (shorts(hidden) - 1));
+            return new Network(hidden, featureWeights, featureBias, outputWeights, outputBias);
+        }
+
+        private static int shorts(int hidden) {
+            return INPUTS * hidden + hidden + 2 * hidden + 1;
+        }
+
+        void save(Path file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 2 * shorts(hidden)).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(hidden);
+            buffer.asShortBuffer().put(featureWeights).put(featureBias).put(outputWeights).put((short) outputBias);
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, buffer.array());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // Small random weights; only good for timing and for exercising the update code
+        static Network random(int hidden, long seed) {
+            Random random = new Random(seed);
+            short[] featureWeights = new short[INPUTS * hidden];
+            short[] featureBias = new short[hidden];
+            short[] outputWeights = new short[2 * hidden];
+            for (int i = 0; i < featureWeights.length; i++) {
+                featureWeights[i] = (short) (random.nextInt(65) - 32);
+            }
+            for (int i = 0; i < hidden; i++) {
+                featureBias[i] = (short) random.nextInt(128);
+                outputWeights[i] = (short) (random.nextInt(129) - 64);
+                outputWeights[hidden + i] = (short) (random.nextInt(129) - 64);
+            }
+            return new Network(hidden, featureWeights, featureBias, outputWeights, 0);
+        }
+    }
+
+    // java NnueEvaluator bench [weights.nnue] [seconds]
+    // java NnueEvaluator eval <weights.nnue> [fen]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || (args[0].equals("eval") && args.length < 2)
+                || (!args[0].equals("bench") && !args[0].equals("eval"))) {
+            System.err.println("Usage: java NnueEvaluator bench [weights" + EXTENSION + "] [seconds]");
+            System.err.println("       java NnueEvaluator eval <weights" + EXTENSION + "> [fen]");
+            System.exit(2);
+        }
+        Network network;
+        double seconds = 3;
+        try {
+            if (args[0].equals("bench") && (args.length < 2 || args[1].matches("\\d+(\\.\\d+)?"))) {
+                network = Network.random(256, 1);
+                seconds = args.length > 1 ? Double.parseDouble(args[1]) : seconds;
+                System.out.println("network: random, 256 hidden");
+            } else {
+                network = Network.load(Paths.get(args[1]));
+                seconds = args.length > 2 && args[0].equals("bench") ? Double.parseDouble(args[2]) : seconds;
+                System.out.println("network: " + args[1] + ", " + network.hidden + " hidden");
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Cannot load network: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        if (args[0].equals("eval")) {
+            ChessGame game = new ChessGame(args.length > 2
+                ? String.join(" ", java.util.Arrays.copyOfRange(args, 2, args.length)) : ChessGame.START_FEN);
+            NnueEvaluator evaluator = new NnueEvaluator(network);
+            evaluator.reset(game);
+            System.out.println("nnue: " + evaluator.evaluate(game) + "  classical: "
+                + ClassicalEvaluator.INSTANCE.evaluate(game));
+            return;
+        }
+
+        System.out.println("kernels: " + KERNELS.name());
+        long mismatches = verify(network);
+        System.out.println("incremental vs refresh: " + (mismatches == 0 ? "identical" : mismatches + " mismatches"));
+        long nanos = (long) (seconds * 1e9);
+        bench("classical", ClassicalEvaluator.INSTANCE, false, nanos);
+        bench("nnue " + SCALAR.name() + ", incremental", new NnueEvaluator(network, SCALAR), false, nanos);
+        if (KERNELS != SCALAR) {
+            bench("nnue " + KERNELS.name() + ", incremental", new NnueEvaluator(network, KERNELS), false, nanos);
+        }
+        bench("nnue " + KERNELS.name() + ", full refresh", new NnueEvaluator(network, KERNELS), true, nanos);
+    }
+
+    // Plays random games, checking the pushed accumulators against a fresh build at every ply
+    private static long verify(Network network) {
+        Random random = new Random(7);
+        NnueEvaluator incremental = new NnueEvaluator(network);
+        NnueEvaluator fresh = new NnueEvaluator(network, SCALAR);
+        MoveList moves = new MoveList();
+        long mismatches = 0;
+        for (String[] entry : Perft.SUITE) {
+            for (int game = 0; game < 20; game++) {
+                ChessGame board = new ChessGame(entry[0]);
+                incremental.reset(board);
+                for (int ply = 0; ply < SearchEngine.MAX_PLY; ply++) {
+                    board.generateLegalMoves(moves);
+                    if (moves.size() == 0) {
+                        break;
+                    }
+                    int move = moves.get(random.nextInt(moves.size()));
+                    incremental.push(board, move);
+                    board.makeMove(move);
+                    fresh.reset(board);
+                    if (incremental.evaluate(board) != fresh.evaluate(board)) {
+                        mismatches++;
+                    }
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    // Search-shaped load: at every position of the suite, each legal move is pushed, made,
+    // evaluated and taken back, which is what the leaves of an alpha-beta search do
+    private static void bench(String label, Evaluator evaluator, boolean refresh, long nanos) {
+        ChessGame[] positions = new ChessGame[Perft.SUITE.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new ChessGame(Perft.SUITE[i][0]);
+        }
+        MoveList moves = new MoveList();
+        long evals = 0, checksum = 0;
+        long start = System.nanoTime(), warmupEnd = start + nanos / 3, end = warmupEnd + nanos;
+        long measuredStart = 0, measuredEvals = 0;
+        for (int index = 0; ; index = (index + 1) % positions.length) {
+            long now = System.nanoTime();
+            if (measuredStart == 0 && now >= warmupEnd) {
+                measuredStart = now;
+                measuredEvals = evals;
+            } else if (now >= end) {
+                double rate = (evals - measuredEvals) / ((now - measuredStart) / 1e9);
+                System.out.printf("%-32s %,14.0f evals/sec  (checksum %d)%n", label, rate, checksum);
+                return;
+            }
+            ChessGame board = positions[index];
+            evaluator.reset(board);
+            board.generateLegalMoves(moves);
+            for (int i = 0; i < moves.size(); i++) {
+                int move = moves.get(i);
+                if (refresh) {
+                    board.makeMove(move);
+                    evaluator.reset(board);
+                    checksum += evaluator.evaluate(board);
+                    board.unmakeMove(move);
+                } else {
+                    evaluator.push(board, move);
+                    board.makeMove(move);
+                    checksum += evaluator.evaluate(board);
+                    board.unmakeMove(move);
+                    evaluator.pop();
+                }
+                evals++;
+            }
+        }
+    }
+}
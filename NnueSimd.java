@@ -0,0 +1,106 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Vector API versions of the accumulator kernels, at the widest shape the CPU offers.
+// Needs --add-modules jdk.incubator.vector to compile and run; NnueEvaluator only loads
+// it reflectively, so nothing else depends on the module being present. Results are
+// bit-for-bit the scalar ones: the same wrapping int16 adds and int32 dot products.
+final class NnueSimd implements NnueEvaluator.Kernels {
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    // Half as many lanes in the same width, so one short vector widens into parts 0 and 1
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SHORTS.length();
+
+    NnueSimd() {
+        if (INTS.length() * 2 != LANES) {
+            throw new UnsupportedOperationException("Unexpected vector shapes " + SHORTS + ", " + INTS);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector " + SHORTS.vectorBitSize() + "-bit";
+    }
+
+    @Override
+    public void add(short[] acc, int dst, short[] w, int add, int n) {
+        int i = 0;
+        for (int bound = SHORTS.loopBound(n); i < bound; i += LANES) {
+            ShortVector.fromArray(SHORTS, acc, dst + i)
+                .add(ShortVector.fromArray(SHORTS, w, add + i))
+                .intoArray(acc, dst + i);
+        }
+        for (; i < n; i++) {
+            acc[dst + i] += w[add + i];
+        }
+    }
+
+    @Override
+    public void addSub(short[] acc, int dst, int src, short[] w, int add, int sub, int n) {
+        int i = 0;
+        for (int bound = SHORTS.loopBound(n); i < bound; i += LANES) {
+            ShortVector.fromArray(SHORTS, acc, src + i)
+                .add(ShortVector.fromArray(SHORTS, w, add + i))
+                .sub(ShortVector.fromArray(SHORTS, w, sub + i))
+                .intoArray(acc, dst + i);
+        }
+        for (; i < n; i++) {
+            acc[dst + i] = (short) (acc[src + i] + w[add + i] - w[sub + i]);
+        }
+    }
+
+    @Override
+    public void addSubSub(short[] acc, int dst, int src, short[] w, int add, int sub1, int sub2, int n) {
+        int i = 0;
+        for (int bound = SHORTS.loopBound(n); i < bound; i += LANES) {
+            ShortVector.fromArray(SHORTS, acc, src + i)
+                .add(ShortVector.fromArray(SHORTS, w, add + i))
+                .sub(ShortVector.fromArray(SHORTS, w, sub1 + i))
+                .sub(ShortVector.fromArray(SHORTS, w, sub2 + i))
+                .intoArray(acc, dst + i);
+        }
+        for (; i < n; i++) {
+            acc[dst + i] = (short) (acc[src + i] + w[add + i] - w[sub1 + i] - w[sub2 + i]);
+        }
+    }
+
+    @Override
+    public void addAddSubSub(short[] acc, int dst, int src, short[] w, int add1, int add2, int sub1, int sub2, int n) {
+        int i = 0;
+        for (int bound = SHORTS.loopBound(n); i < bound; i += LANES) {
+            ShortVector.fromArray(SHORTS, acc, src + i)
+                .add(ShortVector.fromArray(SHORTS, w, add1 + i))
+                .add(ShortVector.fromArray(SHORTS, w, add2 + i))
+                .sub(ShortVector.fromArray(SHORTS, w, sub1 + i))
+                .sub(ShortVector.fromArray(SHORTS, w, sub2 + i))
+                .intoArray(acc, dst + i);
+        }
+        for (; i < n; i++) {
+            acc[dst + i] = (short) (acc[src + i] + w[add1 + i] + w[add2 + i] - w[sub1 + i] - w[sub2 + i]);
+        }
+    }
+
+    @Override
+    public int dot(short[] acc, int offset, short[] w, int wOffset, int n) {
+        IntVector sum = IntVector.zero(INTS);
+        int i = 0;
+        for (int bound = SHORTS.loopBound(n); i < bound; i += LANES) {
+            ShortVector value = ShortVector.fromArray(SHORTS, acc, offset + i)
+                .max((short) 0).min((short) NnueEvaluator.QA);
+            ShortVector weight = ShortVector.fromArray(SHORTS, w, wOffset + i);
+            // Widen before multiplying: 255 times a weight does not fit in 16 bits
+            IntVector v0 = (IntVector) value.convertShape(VectorOperators.S2I, INTS, 0);
+            IntVector v1 = (IntVector) value.convertShape(VectorOperators.S2I, INTS, 1);
+            IntVector w0 = (IntVector) weight.convertShape(VectorOperators.S2I, INTS, 0);
+            IntVector w1 = (IntVector) weight.convertShape(VectorOperators.S2I, INTS, 1);
+            sum = sum.add(v0.mul(w0)).add(v1.mul(w1));
+        }
+        int total = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            total += Math.max(0, Math.min(NnueEvaluator.QA, acc[offset + i])) * w[wOffset + i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,495 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Opening book in the Polyglot layout: a file of 16-byte entries sorted by key,
+//
+//   0-7    position key (unsigned order)
+//   8-9    move: to file | to rank << 3 | from file << 6 | from rank << 9 | promotion << 12
+//   10-11  weight
+//   12-15  number of games the move was played in
+//
+// with castling written as the king taking its own rook, as Polyglot does. Keys are
+// this engine's Zobrist hashes rather than the Polyglot random table, so books are
+// built with the command below rather than downloaded.
+//
+//   java OpeningBook build <book.bin> <games.pgn>... [--threads N] [--max-ply N] [--min-games N]
+//   java OpeningBook probe <book.bin> [fen]
+//   java OpeningBook bench <book.bin>
+//
+// The file is mapped once and probed with a binary search over the mapping, so a
+// lookup touches a few pages and allocates nothing.
+final class OpeningBook implements Closeable {
+    static final int ENTRY_SIZE = 16;
+    static final int DEFAULT_MAX_PLY = 24;
+    static final int DEFAULT_MIN_GAMES = 3;
+    static final int MAX_PLY_LIMIT = 1024;
+
+    private static final ThreadLocal<MoveList> LEGAL = ThreadLocal.withInitial(MoveList::new);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer entries;
+    private final int count;
+
+    private OpeningBook(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long size = channel.size();
+        if (size % ENTRY_SIZE != 0) {
+            throw new IOException("Book size " + size + " is not a multiple of " + ENTRY_SIZE);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Book of " + size + " bytes is larger than 2 GB");
+        }
+        entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        count = (int) (size / ENTRY_SIZE);
+    }
+
+    static OpeningBook open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new OpeningBook(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    // Picks a book move with probability proportional to its weight; Move.NONE when out of book
+    int probe(ChessGame game) {
+        int first = firstEntry(game.hash());
+        if (first < 0) {
+            return Move.NONE;
+        }
+        long total = 0;
+        int end = first;
+        while (end < count && keyAt(end) == game.hash()) {
+            total += weightAt(end);
+            end++;
+        }
+        if (total == 0) {
+            return Move.NONE;
+        }
+        long pick = ThreadLocalRandom.current().nextLong(total);
+        for (int i = first; i < end; i++) {
+            pick -= weightAt(i);
+            if (pick < 0) {
+                return toMove(game, moveAt(i));
+            }
+        }
+        return Move.NONE;
+    }
+
+    // Fills moves/weights with every legal book move for the position, heaviest first; returns how many
+    int entries(ChessGame game, int[] moves, int[] weights) {
+        int first = firstEntry(game.hash());
+        int found = 0;
+        for (int i = first; i >= 0 && i < count && keyAt(i) == game.hash() && found < moves.length; i++) {
+            int move = toMove(game, moveAt(i));
+            if (move != Move.NONE) {
+                moves[found] = move;
+                weights[found] = weightAt(i);
+                found++;
+            }
+        }
+        return found;
+    }
+
+    // Index of the first entry with this key, or -1
+    private int firstEntry(long key) {
+        int low = 0, high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(keyAt(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < count && keyAt(low) == key ? low : -1;
+    }
+
+    private long keyAt(int index) {
+        return entries.getLong(index * ENTRY_SIZE);
+    }
+
+    private int moveAt(int index) {
+        return entries.getShort(index * ENTRY_SIZE + 8) & 0xFFFF;
+    }
+
+    private int weightAt(int index) {
+        return entries.getShort(index * ENTRY_SIZE + 10) & 0xFFFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Move encoding
+
+    static int encodeMove(int move) {
+        int from = Move.from(move), to = Move.to(move);
+        if (Move.isCastle(move)) {
+            to = (from & 56) | (Move.flags(move) == Move.KING_CASTLE ? 7 : 0);
+        }
+        int promotion = Move.isPromotion(move) ? Move.promotionType(move) - ChessGame.KNIGHT + 1 : 0;
+        return (to & 7) | (to >>> 3) << 3 | (from & 7) << 6 | (from >>> 3) << 9 | promotion << 12;
+    }
+
+    // Matches a book move against the legal moves, so a corrupt or colliding entry is never played
+    static int toMove(ChessGame game, int bookMove) {
+        MoveList legal = LEGAL.get();
+        game.generateLegalMoves(legal);
+        for (int i = 0; i < legal.size(); i++) {
+            if (encodeMove(legal.get(i)) == bookMove) {
+                return legal.get(i);
+            }
+        }
+        return Move.NONE;
+    }
+
+    // Building
+
+    // Outcome of a book move for the side that played it, stored in the low bits of a raw record
+    private static final int LOSS = 0;
+    private static final int DRAW = 1;
+    private static final int WIN = 2;
+
+    // Collects one raw record per opening move of every game in a chunk
+    private static final class Collector implements PgnParser.Visitor {
+        private final int maxPly;
+        long[] keys = new long[1 << 16];
+        long[] values = new long[1 << 16];
+        int size;
+        private final long[] gameKeys = new long[MAX_PLY_LIMIT];
+        private final int[] gameMoves = new int[MAX_PLY_LIMIT];
+        private final int[] gameSides = new int[MAX_PLY_LIMIT];
+        private int plies;
+        private boolean failed;
+
+        Collector(int maxPly) {
+            this.maxPly = maxPly;
+        }
+
+        @Override
+        public void startGame(long offset) {
+            plies = 0;
+            failed = false;
+        }
+
+        @Override
+        public boolean move(ChessGame board, int move) {
+            gameKeys[plies] = board.hash();
+            gameMoves[plies] = encodeMove(move);
+            gameSides[plies] = board.sideToMove();
+            plies++;
+            return plies < maxPly;
+        }
+
+        @Override
+        public void error(long offset, String message) {
+            failed = true;
+        }
+
+        @Override
+        public void endGame(int result) {
+            if (failed || result == PgnParser.RESULT_UNKNOWN) {
+                return;
+            }
+            if (size + plies > keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(size + plies, keys.length * 2));
+                values = Arrays.copyOf(values, keys.length);
+            }
+            int winner = result == PgnParser.RESULT_WHITE_WINS ? ChessGame.WHITE
+                : result == PgnParser.RESULT_BLACK_WINS ? ChessGame.BLACK : -1;
+            for (int i = 0; i < plies; i++) {
+                keys[size] = gameKeys[i];
+                values[size] = (long) gameMoves[i] << 2 | (winner < 0 ? DRAW : winner == gameSides[i] ? WIN : LOSS);
+                size++;
+            }
+        }
+    }
+
+    // Parses the archives on several threads and writes the book; returns the entry count.
+    // A move's weight is 2 per win plus 1 per draw for the side that played it, scaled per
+    // position to fit 16 bits. Moves seen in fewer than minGames decided games, or that never
+    // scored, are left out. Every opening move becomes a raw (key, move, outcome) record;
+    // sorting the records brings each position's moves together for counting.
+    static int build(List<Path> pgns, Path book, int threads, int maxPly, int minGames) throws IOException {
+        if (maxPly < 1 || maxPly > MAX_PLY_LIMIT) {
+            throw new IllegalArgumentException("max ply must be between 1 and " + MAX_PLY_LIMIT);
+        }
+        List<Collector> collectors = Collections.synchronizedList(new ArrayList<>());
+        for (Path pgn : pgns) {
+            PgnParser.parseFile(pgn, threads, true, () -> {
+                Collector collector = new Collector(maxPly);
+                collectors.add(collector);
+                return collector;
+            });
+        }
+        long records = 0;
+        for (Collector collector : collectors) {
+            records += collector.size;
+        }
+        if (records > Integer.MAX_VALUE - 8) {
+            throw new IOException("Too many opening moves (" + records + "); lower --max-ply");
+        }
+        long[] keys = new long[(int) records];
+        long[] values = new long[(int) records];
+        int n = 0;
+        for (Collector collector : collectors) {
+            System.arraycopy(collector.keys, 0, keys, n, collector.size);
+            System.arraycopy(collector.values, 0, values, n, collector.size);
+            n += collector.size;
+            collector.keys = collector.values = null;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new SortTask(keys, values, 0, n - 1));
+        } finally {
+            pool.shutdown();
+        }
+
+        // Count each (key, move) run into a finished entry, written over the front of the arrays:
+        // values become weight << 32 | move << 16 | games
+        int entries = 0;
+        for (int start = 0; start < n; ) {
+            int end = start;
+            long weight = 0;
+            int games = 0;
+            while (end < n && keys[end] == keys[start] && values[end] >>> 2 == values[start] >>> 2) {
+                int outcome = (int) (values[end] & 3);
+                weight += outcome == WIN ? 2 : outcome == DRAW ? 1 : 0;
+                games++;
+                end++;
+            }
+            if (games >= minGames && weight > 0) {
+                keys[entries] = keys[start];
+                values[entries] = Math.min(weight, 0xFFFFFFFFL) << 32 | (values[start] >>> 2) << 16 | Math.min(games, 0xFFFF);
+                entries++;
+            }
+            start = end;
+        }
+
+        Path temp = book.resolveSibling(book.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE * 4096);
+            for (int start = 0; start < entries; ) {
+                int end = start;
+                long heaviest = 0;
+                while (end < entries && keys[end] == keys[start]) {
+                    heaviest = Math.max(heaviest, values[end] >>> 32);
+                    end++;
+                }
+                // Heaviest move first within a position
+                for (int i = start + 1; i < end; i++) {
+                    for (int j = i; j > start && values[j - 1] >>> 32 < values[j] >>> 32; j--) {
+                        swap(keys, values, j - 1, j);
+                    }
+                }
+                for (int i = start; i < end; i++) {
+                    long weight = values[i] >>> 32;
+                    if (heaviest > 0xFFFF) {
+                        weight = Math.max(1, weight * 0xFFFF / heaviest);
+                    }
+                    if (buffer.remaining() < ENTRY_SIZE) {
+                        write(out, buffer);
+                    }
+                    buffer.putLong(keys[i]);
+                    buffer.putShort((short) (values[i] >>> 16));
+                    buffer.putShort((short) weight);
+                    buffer.putInt((int) (values[i] & 0xFFFF));
+                }
+                start = end;
+            }
+            write(out, buffer);
+            out.force(false);
+        }
+        Files.move(temp, book, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return entries;
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Quicksort of the two parallel arrays by unsigned key, then value; large partitions are
+    // sorted as separate tasks. PositionIndex sorts its postings with it too.
+    static final class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int FORK_THRESHOLD = 1 << 16;
+
+        private final long[] keys;
+        private final long[] values;
+        private final int low;
+        private final int high;
+
+        SortTask(long[] keys, long[] values, int low, int high) {
+            this.keys = keys;
+            this.values = values;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        protected void compute() {
+            int low = this.low, high = this.high;
+            List<SortTask> forked = new ArrayList<>();
+            while (high - low > 16) {
+                int mid = (low + high) >>> 1;
+                long pivotKey = keys[mid], pivotValue = values[mid];
+                int i = low, j = high;
+                while (i <= j) {
+                    while (compare(keys[i], values[i], pivotKey, pivotValue) < 0) {
+                        i++;
+                    }
+                    while (compare(keys[j], values[j], pivotKey, pivotValue) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(keys, values, i++, j--);
+                    }
+                }
+                // Hand off the smaller side and keep partitioning the larger one
+                int smallLow = j - low < high - i ? low : i;
+                int smallHigh = j - low < high - i ? j : high;
+                if (smallHigh - smallLow > FORK_THRESHOLD) {
+                    SortTask task = new SortTask(keys, values, smallLow, smallHigh);
+                    task.fork();
+                    forked.add(task);
+                } else {
+                    new SortTask(keys, values, smallLow, smallHigh).compute();
+                }
+                if (smallLow == low) {
+                    low = i;
+                } else {
+                    high = j;
+                }
+            }
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && compare(keys[j - 1], values[j - 1], keys[j], values[j]) > 0; j--) {
+                    swap(keys, values, j - 1, j);
+                }
+            }
+            for (SortTask task : forked) {
+                task.join();
+            }
+        }
+    }
+
+    private static int compare(long keyA, long valueA, long keyB, long valueB) {
+        int byKey = Long.compareUnsigned(keyA, keyB);
+        return byKey != 0 ? byKey : Long.compareUnsigned(valueA, valueB);
+    }
+
+    private static void swap(long[] keys, long[] values, int a, int b) {
+        long key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        long value = values[a];
+        values[a] = values[b];
+        values[b] = value;
+    }
+
+    public static void main(String[] args) {
+        try {
+            switch (args[0]) {
+                case "build": {
+                    Path book = Paths.get(args[1]);
+                    List<Path> pgns = new ArrayList<>();
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    int maxPly = DEFAULT_MAX_PLY, minGames = DEFAULT_MIN_GAMES;
+                    for (int i = 2; i < args.length; i++) {
+                        switch (args[i]) {
+                            case "--threads": threads = Integer.parseInt(args[++i]); break;
+                            case "--max-ply": maxPly = Integer.parseInt(args[++i]); break;
+                            case "--min-games": minGames = Integer.parseInt(args[++i]); break;
+                            default: pgns.add(Paths.get(args[i]));
+                        }
+                    }
+                    if (pgns.isEmpty()) {
+                        throw new IllegalArgumentException("No PGN files given");
+                    }
+                    long start = System.nanoTime();
+                    int entries = build(pgns, book, threads, maxPly, minGames);
+                    System.out.printf("%,d entries (%,d bytes) in %.1f s%n", entries, Files.size(book),
+                        (System.nanoTime() - start) / 1e9);
+                    break;
+                }
+                case "probe": {
+                    try (OpeningBook book = open(Paths.get(args[1]))) {
+                        ChessGame game = args.length > 2
+                            ? new ChessGame(String.join(" ", Arrays.copyOfRange(args, 2, args.length)))
+                            : new ChessGame();
+                        int[] moves = new int[MoveList.CAPACITY], weights = new int[MoveList.CAPACITY];
+                        int found = book.entries(game, moves, weights);
+                        long total = 0;
+                        for (int i = 0; i < found; i++) {
+                            total += weights[i];
+                        }
+                        for (int i = 0; i < found; i++) {
+                            System.out.printf("%-7s %-6s %5.1f%%%n", game.toSan(moves[i]), Move.toUci(moves[i]),
+                                100.0 * weights[i] / total);
+                        }
+                        if (found == 0) {
+                            System.out.println("Out of book");
+                        }
+                    }
+                    break;
+                }
+                case "bench": {
+                    try (OpeningBook book = open(Paths.get(args[1]))) {
+                        // Random book walks from the start position, timing each probe
+                        LatencyHistogram latency = new LatencyHistogram();
+                        ChessGame game = new ChessGame();
+                        long hits = 0, probes = 0;
+                        long deadline = System.nanoTime() + 3_000_000_000L;
+                        while (System.nanoTime() < deadline) {
+                            game.setFen(ChessGame.START_FEN);
+                            while (true) {
+                                long begin = System.nanoTime();
+                                int move = book.probe(game);
+                                latency.record(System.nanoTime() - begin);
+                                probes++;
+                                if (move == Move.NONE) {
+                                    break;
+                                }
+                                hits++;
+                                game.makeMove(move);
+                            }
+                        }
+                        System.out.printf("%,d entries, %,d probes (%,d in book), mean %.2f us, p50 %.2f us, p99 %.2f us%n",
+                            book.size(), probes, hits, latency.mean() / 1e3, latency.percentile(50) / 1e3,
+                            latency.percentile(99) / 1e3);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown command " + args[0]);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            System.err.println("Usage: java OpeningBook build <book.bin> <games.pgn>... [--threads N] [--max-ply N] [--min-games N]");
+            System.err.println("       java OpeningBook probe <book.bin> [fen] | bench <book.bin>");
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
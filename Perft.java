@@ -0,0 +1,152 @@
+import java.util.*;
+
+// Perft: counts the leaves of the legal move tree to verify and time the move generator.
+//
+//   java Perft                      run the standard suite (default depth 4)
+//   java Perft <depth> [fen]        count nodes for one position
+//   java Perft divide <depth> [fen] per-root-move node counts, for diffing against another engine
+public class Perft {
+    static final String[][] SUITE = {
+        // fen, then expected node counts for depth 1, 2, ...
+        {ChessGame.START_FEN,
+            "20", "400", "8902", "197281", "4865609", "119060324"},
+        {"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "48", "2039", "97862", "4085603", "193690690"},
+        {"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "14", "191", "2812", "43238", "674624", "11030083"},
+        {"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "6", "264", "9467", "422333", "15833292"},
+        {"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+            "44", "1486", "62379", "2103487", "89941194"},
+        // En passant targets no pawn could have crossed (wrong rank, no pawn beside it);
+        // they must be ignored, giving the same counts as "-"
+        {"4k3/8/8/8/8/3P4/8/4K3 w - e4 0 1",
+            "6", "30", "215", "1458", "10888"},
+        {"4k3/8/8/3P4/8/8/8/4K3 w - e6 0 1",
+            "6", "29", "218", "1274", "9906"}
+    };
+
+    private static final int MAX_DEPTH = 64;
+
+    private final ChessGame board = new ChessGame();
+    private final MoveList[] moveLists = new MoveList[MAX_DEPTH + 1];
+
+    Perft() {
+        for (int i = 0; i <= MAX_DEPTH; i++) {
+            moveLists[i] = new MoveList();
+        }
+    }
+
+    public static long perft(ChessGame game, int depth) {
+        return new Perft().count(game, depth);
+    }
+
+    long count(ChessGame game, int depth) {
+        if (depth < 1 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Perft depth must be between 1 and " + MAX_DEPTH);
+        }
+        board.copyFrom(game);
+        return search(0, depth);
+    }
+
+    private long search(int ply, int depth) {
+        MoveList moves = moveLists[ply];
+        board.generateLegalMoves(moves);
+        // Bulk counting: the legal move list already is the leaf count
+        if (depth == 1) {
+            return moves.size();
+        }
+
+        long nodes = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            board.makeMove(move);
+            nodes += search(ply + 1, depth - 1);
+            board.unmakeMove(move);
+        }
+        return nodes;
+    }
+
+    // Node count per root move, in generation order
+    LinkedHashMap<String, Long> divide(ChessGame game, int depth) {
+        LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+        MoveList roots = new MoveList();
+        game.generateLegalMoves(roots);
+        for (int i = 0; i < roots.size(); i++) {
+            int move = roots.get(i);
+            game.makeMove(move);
+            counts.put(Move.toUci(move), depth <= 1 ? 1L : count(game, depth - 1));
+            game.unmakeMove(move);
+        }
+        return counts;
+    }
+
+    // Checks every suite position up to maxDepth; returns the number of mismatches
+    static int runSuite(int maxDepth, java.util.function.Consumer<String> out) {
+        Perft perft = new Perft();
+        int failures = 0;
+        long totalNodes = 0;
+        long totalNanos = 0;
+
+        for (String[] entry : SUITE) {
+            ChessGame game = new ChessGame(entry[0]);
+            out.accept(entry[0]);
+            for (int depth = 1; depth <= maxDepth && depth < entry.length; depth++) {
+                long expected = Long.parseLong(entry[depth]);
+                long start = System.nanoTime();
+                long nodes = perft.count(game, depth);
+                long elapsed = System.nanoTime() - start;
+                totalNodes += nodes;
+                totalNanos += elapsed;
+
+                boolean ok = nodes == expected;
+                if (!ok) {
+                    failures++;
+                }
+                out.accept(String.format("  depth %d: %,d nodes %s", depth, nodes,
+                    ok ? "OK" : "FAIL (expected " + String.format("%,d", expected) + ")"));
+            }
+        }
+
+        out.accept(String.format("%,d nodes in %.3f s (%,.0f nodes/sec)", totalNodes, totalNanos / 1e9,
+            totalNodes / Math.max(totalNanos / 1e9, 1e-9)));
+        return failures;
+    }
+
+    public static void main(String[] args) {
+        try {
+            if (args.length == 0 || args[0].equals("suite")) {
+                int depth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+                int failures = runSuite(depth, System.out::println);
+                System.out.println(failures == 0 ? "All perft counts match" : failures + " perft mismatch(es)");
+                System.exit(failures == 0 ? 0 : 1);
+            } else if (args[0].equals("divide")) {
+                int depth = Integer.parseInt(args[1]);
+                ChessGame game = new ChessGame(args.length > 2 ? joinFen(args, 2) : ChessGame.START_FEN);
+                long total = 0;
+                for (Map.Entry<String, Long> entry : new Perft().divide(game, depth).entrySet()) {
+                    System.out.println(entry.getKey() + ": " + entry.getValue());
+                    total += entry.getValue();
+                }
+                System.out.println();
+                System.out.println("Nodes searched: " + total);
+            } else {
+                int depth = Integer.parseInt(args[0]);
+                ChessGame game = new ChessGame(args.length > 1 ? joinFen(args, 1) : ChessGame.START_FEN);
+                long start = System.nanoTime();
+                long nodes = perft(game, depth);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("Nodes: %,d  Time: %.3f s  NPS: %,.0f%n", nodes, seconds, nodes / Math.max(seconds, 1e-9));
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: java Perft [suite [depth]] | <depth> [fen] | divide <depth> [fen]");
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    // FENs contain spaces, so allow them to arrive unquoted as several arguments
+    private static String joinFen(String[] args, int from) {
+        return String.join(" ", Arrays.copyOfRange(args, from, args.length));
+    }
+}
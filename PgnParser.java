@@ -0,0 +1,596 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+// Memory-mapped PGN parser for multi-gigabyte archives.
+//
+//   java PgnParser <file.pgn> [--threads N] [--no-moves]
+//
+// Tokens are read straight out of the mapped file: tag names and values reach the
+// visitor as CharSequence views over the mapping, and SAN moves are decoded from the
+// bytes and resolved against the legal move list without creating a String. Nothing
+// is allocated per move or per tag unless the visitor keeps something.
+//
+// Files are cut into chunks at game boundaries (a '[' line after a blank line) so the
+// chunks can be parsed in parallel, each with its own board and visitor.
+final class PgnParser {
+    static final int RESULT_UNKNOWN = 0;
+    static final int RESULT_WHITE_WINS = 1;
+    static final int RESULT_BLACK_WINS = 2;
+    static final int RESULT_DRAW = 3;
+
+    static final long DEFAULT_CHUNK_BYTES = 64L << 20;
+
+    // Bytes that end a movetext token: whitespace and the structural characters
+    private static final boolean[] DELIMITER = new boolean[256];
+
+    static {
+        for (char c : " \t\r\n{}();[".toCharArray()) {
+            DELIMITER[c] = true;
+        }
+    }
+
+    // Receives one game at a time. The CharSequences are only valid during the call.
+    interface Visitor {
+        // offset is the game's first byte in the file
+        default void startGame(long offset) {
+        }
+
+        default void tag(CharSequence name, CharSequence value) {
+        }
+
+        // board holds the position before the move; return false to skip the rest of the game
+        default boolean move(ChessGame board, int move) {
+            return true;
+        }
+
+        default void endGame(int result) {
+        }
+
+        default void error(long offset, String message) {
+        }
+    }
+
+    // Totals over everything parsed, merged across chunks
+    static final class Stats {
+        long bytes;
+        long games;
+        long moves;
+        long errors;
+        long nanos;
+
+        void add(Stats other) {
+            bytes += other.bytes;
+            games += other.games;
+            moves += other.moves;
+            errors += other.errors;
+        }
+
+        double megabytesPerSecond() {
+            return bytes / 1e6 / Math.max(nanos / 1e9, 1e-9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d games, %,d moves, %,d errors, %,.1f MB in %.3f s (%,.0f MB/s, %,.0f games/sec)",
+                games, moves, errors, bytes / 1e6, nanos / 1e9, megabytesPerSecond(), games / Math.max(nanos / 1e9, 1e-9));
+        }
+    }
+
+    // A window of ASCII/Latin-1 bytes in the mapping, reused for every tag
+    static final class ByteSlice implements CharSequence {
+        private ByteBuffer buffer;
+        private int start;
+        private int length;
+
+        void set(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = end - start;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        boolean contentEquals(String text) {
+            if (text.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(start + i) != text.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Copies out the bytes; PGN in the wild is often UTF-8 despite the standard saying Latin-1
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(start + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final long fileOffset;
+    private final boolean resolveMoves;
+    private final ChessGame board = new ChessGame();
+    private final ChessGame startPosition = new ChessGame();
+    private final ByteSlice tagName = new ByteSlice();
+    private final ByteSlice tagValue = new ByteSlice();
+    private final Stats stats = new Stats();
+
+    // Per-game state
+    private boolean inGame;
+    private boolean inMovetext;
+    private boolean skipping;
+    private int variationDepth;
+    private String setupFen;
+    private long gameOffset;
+
+    // resolveMoves=false only tokenizes, for measuring raw scanning speed
+    PgnParser(ByteBuffer buffer, long fileOffset, boolean resolveMoves) {
+        this.buffer = buffer;
+        this.fileOffset = fileOffset;
+        this.resolveMoves = resolveMoves;
+    }
+
+    Stats stats() {
+        return stats;
+    }
+
+    // Parses the whole buffer, calling the visitor for every game in order
+    void parse(Visitor visitor) {
+        long start = System.nanoTime();
+        ByteBuffer buf = buffer;
+        int pos = buf.position();
+        int limit = buf.limit();
+        while (pos < limit) {
+            byte c = buf.get(pos);
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                pos++;
+            } else if (c == '[' && variationDepth == 0) {
+                if (inMovetext) {
+                    // Movetext without a result: the next tag section starts a new game
+                    finishGame(visitor, RESULT_UNKNOWN);
+                }
+                pos = parseTag(pos, limit, visitor);
+            } else if (c == '{') {
+                pos = skipPast(pos, limit, (byte) '}');
+            } else if (c == ';' || (c == '%' && (pos == 0 || buf.get(pos - 1) == '\n'))) {
+                pos = skipPast(pos, limit, (byte) '\n');
+            } else if (c == '(') {
+                variationDepth++;
+                pos++;
+            } else if (c == ')') {
+                variationDepth = Math.max(0, variationDepth - 1);
+                pos++;
+            } else {
+                int end = tokenEnd(pos, limit);
+                if (end == pos) {
+                    pos++; // a stray '}', or a '[' inside a variation
+                } else {
+                    if (variationDepth == 0) {
+                        token(pos, end, visitor);
+                    }
+                    pos = end;
+                }
+            }
+        }
+        if (inGame) {
+            finishGame(visitor, RESULT_UNKNOWN);
+        }
+        stats.bytes += limit - buffer.position();
+        stats.nanos += System.nanoTime() - start;
+    }
+
+    private int skipPast(int pos, int limit, byte terminator) {
+        while (pos < limit && buffer.get(pos) != terminator) {
+            pos++;
+        }
+        return pos + 1;
+    }
+
+    private int tokenEnd(int pos, int limit) {
+        while (pos < limit && !DELIMITER[buffer.get(pos) & 0xFF]) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private void beginGame(long offset, Visitor visitor) {
+        inGame = true;
+        inMovetext = false;
+        skipping = false;
+        variationDepth = 0;
+        setupFen = null;
+        gameOffset = offset;
+        visitor.startGame(offset);
+    }
+
+    // [Name "Value"]
+    private int parseTag(int pos, int limit, Visitor visitor) {
+        if (!inGame) {
+            beginGame(fileOffset + pos, visitor);
+        }
+        int nameStart = pos + 1;
+        int nameEnd = nameStart;
+        while (nameEnd < limit && buffer.get(nameEnd) > ' ' && buffer.get(nameEnd) != '"') {
+            nameEnd++;
+        }
+        int valueStart = nameEnd;
+        while (valueStart < limit && buffer.get(valueStart) != '"' && buffer.get(valueStart) != '\n') {
+            valueStart++;
+        }
+        if (valueStart >= limit || buffer.get(valueStart) != '"') {
+            return skipPast(pos, limit, (byte) '\n');
+        }
+        valueStart++;
+        int valueEnd = valueStart;
+        while (valueEnd < limit && buffer.get(valueEnd) != '"' && buffer.get(valueEnd) != '\n') {
+            if (buffer.get(valueEnd) == '\\') {
+                valueEnd++;
+            }
+            valueEnd++;
+        }
+        tagName.set(buffer, nameStart, nameEnd);
+        tagValue.set(buffer, valueStart, Math.min(valueEnd, limit));
+        if (tagName.contentEquals("FEN")) {
+            setupFen = tagValue.toString();
+        }
+        visitor.tag(tagName, tagValue);
+        return skipPast(valueEnd, limit, (byte) '\n');
+    }
+
+    private void token(int start, int end, Visitor visitor) {
+        byte first = buffer.get(start);
+        if (!inGame) {
+            beginGame(fileOffset + start, visitor);
+        }
+        if (!inMovetext) {
+            enterMovetext(visitor);
+        }
+
+        // Results, move numbers ("12." / "12..."), NAGs
+        if (first == '*') {
+            finishGame(visitor, RESULT_UNKNOWN);
+            return;
+        }
+        if (first == '$' || first == '.') {
+            return;
+        }
+        if (first >= '0' && first <= '9') {
+            int result = result(start, end);
+            if (result >= 0) {
+                finishGame(visitor, result);
+                return;
+            }
+            int i = start;
+            while (i < end && buffer.get(i) >= '0' && buffer.get(i) <= '9') {
+                i++;
+            }
+            if (i < end && buffer.get(i) == '.') {
+                while (i < end && buffer.get(i) == '.') {
+                    i++;
+                }
+                if (i < end) {
+                    move(i, end, visitor); // "12.Nf3"
+                }
+                return;
+            }
+            // Falls through for "0-0" castling
+        }
+        move(start, end, visitor);
+    }
+
+    private int result(int start, int end) {
+        int length = end - start;
+        if (length == 3 && buffer.get(start + 1) == '-') {
+            byte a = buffer.get(start), b = buffer.get(start + 2);
+            if (a == '1' && b == '0') {
+                return RESULT_WHITE_WINS;
+            }
+            if (a == '0' && b == '1') {
+                return RESULT_BLACK_WINS;
+            }
+        } else if (length == 7 && buffer.get(start) == '1' && buffer.get(start + 1) == '/' && buffer.get(start + 3) == '-') {
+            return RESULT_DRAW;
+        }
+        return -1;
+    }
+
+    private void enterMovetext(Visitor visitor) {
+        inMovetext = true;
+        if (!resolveMoves) {
+            return;
+        }
+        if (setupFen == null) {
+            board.copyFrom(startPosition);
+            return;
+        }
+        try {
+            board.setFen(setupFen);
+        } catch (IllegalArgumentException e) {
+            gameError(visitor, e.getMessage());
+        }
+    }
+
+    private void move(int start, int end, Visitor visitor) {
+        if (skipping) {
+            return;
+        }
+        stats.moves++;
+        if (!resolveMoves) {
+            return;
+        }
+        int move = decodeSan(start, end);
+        if (move == Move.NONE) {
+            gameError(visitor, "Illegal or ambiguous move " + new String(bytes(start, end), StandardCharsets.ISO_8859_1)
+                + " in position " + board.toFen());
+            return;
+        }
+        if (!visitor.move(board, move)) {
+            skipping = true;
+            return;
+        }
+        board.makeMove(move);
+    }
+
+    private void gameError(Visitor visitor, String message) {
+        skipping = true;
+        stats.errors++;
+        visitor.error(gameOffset, message);
+    }
+
+    private void finishGame(Visitor visitor, int result) {
+        visitor.endGame(result);
+        stats.games++;
+        inGame = false;
+        inMovetext = false;
+        variationDepth = 0;
+    }
+
+    // SAN straight from the bytes: [piece][file][rank][x]square[=promotion][+#!?]
+    private int decodeSan(int start, int end) {
+        while (end > start && isSuffix(buffer.get(end - 1))) {
+            end--;
+        }
+        if (end - start < 2) {
+            return Move.NONE;
+        }
+        byte first = buffer.get(start);
+        if (first == 'O' || first == '0') {
+            int length = end - start;
+            if (length == 3) {
+                return board.findCastle(Move.KING_CASTLE);
+            }
+            return length == 5 ? board.findCastle(Move.QUEEN_CASTLE) : Move.NONE;
+        }
+
+        int promotion = ChessGame.EMPTY;
+        byte last = buffer.get(end - 1);
+        int lastType = pieceType(last);
+        if (lastType > ChessGame.PAWN && lastType < ChessGame.KING) {
+            promotion = lastType;
+            end--;
+            if (end > start && buffer.get(end - 1) == '=') {
+                end--;
+            }
+        }
+        if (end - start < 2) {
+            return Move.NONE;
+        }
+        int file = buffer.get(end - 2) - 'a';
+        int rank = buffer.get(end - 1) - '1';
+        if (file < 0 || file > 7 || rank < 0 || rank > 7) {
+            return Move.NONE;
+        }
+
+        int type = pieceType(first);
+        int i = start;
+        if (type > ChessGame.PAWN) {
+            i++;
+        } else {
+            type = ChessGame.PAWN;
+        }
+        int fromFile = -1, fromRank = -1;
+        for (; i < end - 2; i++) {
+            byte c = buffer.get(i);
+            if (c >= 'a' && c <= 'h') {
+                fromFile = c - 'a';
+            } else if (c >= '1' && c <= '8') {
+                fromRank = c - '1';
+            } else if (c != 'x' && c != ':' && c != '-') {
+                return Move.NONE;
+            }
+        }
+        return board.findMove(type, fromFile, fromRank, rank * 8 + file, promotion);
+    }
+
+    private static boolean isSuffix(byte c) {
+        return c == '+' || c == '#' || c == '!' || c == '?';
+    }
+
+    // Upper-case piece letter to type; -1 (so also "not a piece") for anything else
+    private static int pieceType(byte c) {
+        switch (c) {
+            case 'N': return ChessGame.KNIGHT;
+            case 'B': return ChessGame.BISHOP;
+            case 'R': return ChessGame.ROOK;
+            case 'Q': return ChessGame.QUEEN;
+            case 'K': return ChessGame.KING;
+            default: return -1;
+        }
+    }
+
+    private byte[] bytes(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return bytes;
+    }
+
+    // File handling
+
+    // Chunk start offsets (plus the file size at the end), each chunk beginning at a game boundary
+    static long[] split(FileChannel channel, long chunkBytes) throws IOException {
+        long size = channel.size();
+        List<Long> starts = new ArrayList<>();
+        starts.add(0L);
+        long target = chunkBytes;
+        while (target < size) {
+            long boundary = nextGameStart(channel, target, size);
+            if (boundary >= size) {
+                break;
+            }
+            starts.add(boundary);
+            target = boundary + chunkBytes;
+        }
+        long[] offsets = new long[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            offsets[i] = starts.get(i);
+        }
+        offsets[starts.size()] = size;
+        return offsets;
+    }
+
+    // First "\n\n[" (or "\n\r\n[") at or after from; returns the offset of the '['
+    private static long nextGameStart(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(1 << 16);
+        long position = Math.max(0, from - 3);
+        int state = 0; // newlines seen since the last non-blank byte
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte c = window.get(i);
+                if (c == '\n') {
+                    state++;
+                } else if (c == '[' && state >= 2 && position + i >= from) {
+                    return position + i;
+                } else if (c != '\r') {
+                    state = 0;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    // Parses a whole file in order on the calling thread
+    static Stats parseFile(Path path, boolean resolveMoves, Visitor visitor) throws IOException {
+        Stats total = new Stats();
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] chunks = split(channel, DEFAULT_CHUNK_BYTES);
+            for (int i = 0; i + 1 < chunks.length; i++) {
+                PgnParser parser = new PgnParser(map(channel, chunks[i], chunks[i + 1]), chunks[i], resolveMoves);
+                parser.parse(visitor);
+                total.add(parser.stats());
+            }
+        }
+        total.nanos = System.nanoTime() - start;
+        return total;
+    }
+
+    // Parses chunks concurrently; each chunk gets its own visitor, so games arrive out of order
+    static Stats parseFile(Path path, int threads, boolean resolveMoves, Supplier<? extends Visitor> visitors)
+            throws IOException {
+        Stats total = new Stats();
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, SearchEngine.daemonThreads("pgn-parser"));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Several chunks per thread so one slow chunk doesn't leave the others idle
+            long chunkBytes = Math.max(1L << 20, Math.min(DEFAULT_CHUNK_BYTES, channel.size() / (threads * 4L) + 1));
+            long[] chunks = split(channel, chunkBytes);
+            List<Future<Stats>> results = new ArrayList<>();
+            for (int i = 0; i + 1 < chunks.length; i++) {
+                MappedByteBuffer mapped = map(channel, chunks[i], chunks[i + 1]);
+                long offset = chunks[i];
+                results.add(pool.submit(() -> {
+                    PgnParser parser = new PgnParser(mapped, offset, resolveMoves);
+                    parser.parse(visitors.get());
+                    return parser.stats();
+                }));
+            }
+            for (Future<Stats> result : results) {
+                total.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing " + path, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to parse " + path, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        total.nanos = System.nanoTime() - start;
+        return total;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("PGN chunk at " + start + " is larger than 2 GB");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    public static void main(String[] args) {
+        try {
+            Path path = Paths.get(args[0]);
+            int threads = 1;
+            boolean resolveMoves = true;
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--no-moves")) {
+                    resolveMoves = false;
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            Visitor reportErrors = new Visitor() {
+                @Override
+                public void error(long offset, String message) {
+                    System.err.println("Game at byte " + offset + ": " + message);
+                }
+            };
+            Stats stats = threads > 1 ? parseFile(path, threads, resolveMoves, () -> reportErrors)
+                : parseFile(path, resolveMoves, reportErrors);
+            System.out.println(stats);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: java PgnParser <file.pgn> [--threads N] [--no-moves]");
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
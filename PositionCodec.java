@@ -0,0 +1,172 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+// Fixed 32-byte binary form of a position, about a third of a FEN string:
+//
+//   0-7    occupancy bitboard
+//   8-23   one 4-bit piece code per occupied square, in square order (32 pieces max)
+//   24     side to move (bit 0) | castling rights << 1
+//   25     en passant square + 1, 0 for none
+//   26     halfmove clock (saturates at 255)
+//   27-28  fullmove number
+//   29-31  reserved, zero
+//
+// Multi-byte fields are big-endian. Position files are plain arrays of these records,
+// so record n lives at byte n * 32 and needs no separate index.
+final class PositionCodec {
+    static final int SIZE = 32;
+
+    // Keeps every mapped segment under the 2 GB ByteBuffer limit, aligned to whole records
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private PositionCodec() {
+    }
+
+    static void encode(ChessGame game, ByteBuffer out) {
+        long occupied = game.occupied();
+        if (Long.bitCount(occupied) > 32) {
+            throw new IllegalArgumentException("More than 32 pieces: " + game.toFen());
+        }
+        int start = out.position();
+        out.putLong(occupied);
+        byte[] nibbles = new byte[16];
+        int index = 0;
+        for (long bits = occupied; bits != 0; bits &= bits - 1) {
+            int piece = game.pieceAt(Long.numberOfTrailingZeros(bits));
+            nibbles[index >>> 1] |= (byte) ((index & 1) == 0 ? piece : piece << 4);
+            index++;
+        }
+        out.put(nibbles);
+        out.put((byte) (game.sideToMove() | game.castlingRights() << 1));
+        out.put((byte) (game.epSquare() + 1));
+        out.put((byte) Math.min(255, game.halfmoveClock()));
+        out.putShort((short) Math.min(0xFFFF, game.fullmoveNumber()));
+        while (out.position() < start + SIZE) {
+            out.put((byte) 0);
+        }
+    }
+
+    static byte[] encode(ChessGame game) {
+        ByteBuffer out = ByteBuffer.allocate(SIZE);
+        encode(game, out);
+        return out.array();
+    }
+
+    // Reads the record at the given absolute offset into game; IllegalArgumentException if corrupt
+    static void decode(ByteBuffer in, int offset, ChessGame game) {
+        long occupied = in.getLong(offset);
+        if (Long.bitCount(occupied) > 32) {
+            throw new IllegalArgumentException("Corrupt position record: more than 32 pieces");
+        }
+        byte[] board = new byte[64];
+        java.util.Arrays.fill(board, (byte) ChessGame.EMPTY);
+        int index = 0;
+        for (long bits = occupied; bits != 0; bits &= bits - 1) {
+            int packed = in.get(offset + 8 + (index >>> 1));
+            board[Long.numberOfTrailingZeros(bits)] = (byte) ((index & 1) == 0 ? packed & 15 : (packed >>> 4) & 15);
+            index++;
+        }
+        int flags = in.get(offset + 24);
+        int ep = (in.get(offset + 25) & 0xFF) - 1;
+        int halfmove = in.get(offset + 26) & 0xFF;
+        int fullmove = in.getShort(offset + 27) & 0xFFFF;
+        try {
+            game.setPosition(board, flags & 1, (flags >>> 1) & 15, ep, halfmove, fullmove);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Corrupt position record: position " + e.getMessage());
+        }
+    }
+
+    static void decode(byte[] record, ChessGame game) {
+        decode(ByteBuffer.wrap(record), 0, game);
+    }
+
+    // Appends positions to a file. A crash can at worst leave a partial last record,
+    // which the next Writer (or Reader) ignores.
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(SIZE * 2048);
+        private long count;
+
+        Writer(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            count = channel.size() / SIZE;
+            channel.truncate(count * SIZE);
+            channel.position(count * SIZE);
+        }
+
+        // Returns the record number
+        long append(ChessGame game) throws IOException {
+            if (buffer.remaining() < SIZE) {
+                flush();
+            }
+            encode(game, buffer);
+            return count++;
+        }
+
+        long count() {
+            return count;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // Flushes and forces the records to disk
+        void sync() throws IOException {
+            flush();
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    // Random access and sequential scans over a position file through read-only mappings
+    static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final MappedByteBuffer[] segments;
+        private final long count;
+
+        Reader(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            count = channel.size() / SIZE;
+            long bytes = count * SIZE;
+            segments = new MappedByteBuffer[(int) ((bytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_BYTES, bytes - start));
+            }
+        }
+
+        long count() {
+            return count;
+        }
+
+        void read(long index, ChessGame game) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Position " + index + " of " + count);
+            }
+            long offset = index * SIZE;
+            decode(segments[(int) (offset / SEGMENT_BYTES)], (int) (offset % SEGMENT_BYTES), game);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
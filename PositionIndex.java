@@ -0,0 +1,653 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Inverted index over a GameFile store: which games reach a position, a pawn structure,
+// or a material balance.
+//
+//   java PositionIndex build <base> [--pgn <games.pgn>]... [--threads N]
+//   java PositionIndex query <base> [--fen FEN] [--pawns FEN] [--material KRPvKR] [--limit N]
+//   java PositionIndex bench <base>
+//
+// Every position of every game contributes three keys:
+//   - its Zobrist hash: the exact position, side to move and castling rights included;
+//   - a hash of the two pawn bitboards: the pawn structure, wherever the pieces stand;
+//   - a hash of the piece counts of each side: the material signature.
+// Each key maps to the ascending list of games that reach it at least once. Game numbers
+// are the GameFile's, so a hit is read back with GameFile.Reader.read. Keys are 64-bit
+// hashes, so a false hit is possible in principle but not in any archive that fits on disk.
+//
+// Two files sit next to the store:
+//   <base>.pkeys   32-byte header, then 16-byte entries sorted by unsigned key: the key,
+//                  then the offset of its posting list, or, for a key only one game
+//                  reaches (most positions past the opening), that game with the top bit set
+//   <base>.plists  posting lists: varint game count, varint byte length, then varint gaps
+//                  between successive game numbers, so long lists cost about a byte a game
+// The keys file is mapped and binary searched like the opening book; a posting list is
+// then one positional read. Both are written as temp files and moved into place, lists
+// first, so a reader never sees keys without their lists.
+//
+// Building is an external sort. Worker threads replay disjoint ranges of games and append
+// (key, game) pairs to partition files chosen by the key's top bits. Each partition is
+// then sorted in memory and written out in key order. Partitions are sized to about
+// PARTITION_BYTES, so memory stays bounded however many games there are.
+final class PositionIndex implements Closeable {
+    static final int MAGIC = 0x43504958; // "CPIX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int ENTRY_SIZE = 16;
+    static final long PARTITION_BYTES = 256L << 20;
+
+    private static final long SINGLE_GAME = Long.MIN_VALUE;
+    // A multiple of ENTRY_SIZE, so no entry straddles two mappings
+    private static final long SEGMENT_BYTES = 1L << 30;
+    private static final int MAX_PARTITION_BITS = 12;
+    private static final int GAMES_PER_TASK = 1024;
+    private static final long PAWN_SALT = 0x6A09E667F3BCC908L;
+    private static final long MATERIAL_SALT = 0xBB67AE8584CAA73BL;
+
+    private final FileChannel keysChannel;
+    private final FileChannel listsChannel;
+    private final MappedByteBuffer[] segments;
+    private final long games;
+    private final long keyCount;
+
+    private PositionIndex(FileChannel keysChannel, FileChannel listsChannel) throws IOException {
+        this.keysChannel = keysChannel;
+        this.listsChannel = listsChannel;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(keysChannel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a position index (or an unsupported version)");
+        }
+        games = header.getLong(8);
+        keyCount = header.getLong(16);
+        long listBytes = header.getLong(24);
+        if (keysChannel.size() != HEADER_SIZE + keyCount * ENTRY_SIZE || listsChannel.size() != listBytes) {
+            throw new IOException("Position index files are truncated or from different builds");
+        }
+        long entryBytes = keyCount * ENTRY_SIZE;
+        segments = new MappedByteBuffer[(int) ((entryBytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = i * SEGMENT_BYTES;
+            segments[i] = keysChannel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + start,
+                Math.min(SEGMENT_BYTES, entryBytes - start));
+        }
+    }
+
+    static Path keysPath(Path base) {
+        return Paths.get(base + ".pkeys");
+    }
+
+    static Path listsPath(Path base) {
+        return Paths.get(base + ".plists");
+    }
+
+    static PositionIndex open(Path base) throws IOException {
+        FileChannel keys = FileChannel.open(keysPath(base), StandardOpenOption.READ);
+        try {
+            FileChannel lists = FileChannel.open(listsPath(base), StandardOpenOption.READ);
+            try {
+                return new PositionIndex(keys, lists);
+            } catch (IOException e) {
+                lists.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            keys.close();
+            throw e;
+        }
+    }
+
+    // Games in the store when the index was built
+    long games() {
+        return games;
+    }
+
+    long keys() {
+        return keyCount;
+    }
+
+    // Keys
+
+    static long positionKey(ChessGame board) {
+        return board.hash();
+    }
+
+    static long pawnKey(ChessGame board) {
+        return mix(mix(board.pieces(ChessGame.WHITE, ChessGame.PAWN) ^ PAWN_SALT)
+            ^ board.pieces(ChessGame.BLACK, ChessGame.PAWN));
+    }
+
+    static long materialKey(ChessGame board) {
+        return materialKey(materialCounts(board, ChessGame.WHITE), materialCounts(board, ChessGame.BLACK));
+    }
+
+    // Counts are four bits per piece type, pawns lowest, kings left out
+    static long materialKey(int whiteCounts, int blackCounts) {
+        return mix(MATERIAL_SALT ^ (whiteCounts | (long) blackCounts << 20));
+    }
+
+    private static int materialCounts(ChessGame board, int color) {
+        int counts = 0;
+        for (int type = ChessGame.PAWN; type < ChessGame.KING; type++) {
+            counts |= Long.bitCount(board.pieces(color, type)) << (4 * type);
+        }
+        return counts;
+    }
+
+    // "KRPvKR": one side's pieces, 'v', the other's, each starting with its king. The
+    // result holds the counts of the first side, then the second.
+    static int[] parseMaterial(String signature) {
+        String[] sides = signature.toUpperCase(Locale.ROOT).split("V");
+        if (sides.length != 2) {
+            throw new IllegalArgumentException("Material must look like KRPvKR: " + signature);
+        }
+        int[] counts = new int[2];
+        for (int side = 0; side < 2; side++) {
+            String pieces = sides[side];
+            if (pieces.isEmpty() || pieces.charAt(0) != 'K' || pieces.indexOf('K', 1) >= 0) {
+                throw new IllegalArgumentException("Each side needs exactly one king, first: " + signature);
+            }
+            for (int i = 1; i < pieces.length(); i++) {
+                int type = "PNBRQ".indexOf(pieces.charAt(i));
+                if (type < 0) {
+                    throw new IllegalArgumentException("Unknown piece '" + pieces.charAt(i) + "' in " + signature);
+                }
+                if ((counts[side] >>> (4 * type) & 15) == 15) {
+                    throw new IllegalArgumentException("Too many pieces in " + signature);
+                }
+                counts[side] += 1 << (4 * type);
+            }
+        }
+        return counts;
+    }
+
+    // splitmix64's finalizer: spreads the bits of structured values over the whole key
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Queries
+
+    // How many games reach the key; one binary search and at most one small read
+    int count(long key) throws IOException {
+        long value = find(key);
+        if (value == -1) {
+            return 0;
+        }
+        if (value < 0) {
+            return 1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(5);
+        listsChannel.read(header, value);
+        return (int) GameCodec.getVarint(header, 0);
+    }
+
+    // Ascending game numbers that reach the key; empty when none do
+    int[] games(long key) throws IOException {
+        long value = find(key);
+        if (value == -1) {
+            return new int[0];
+        }
+        if (value < 0) {
+            return new int[] {(int) (value & ~SINGLE_GAME)};
+        }
+        ByteBuffer header = ByteBuffer.allocate(10);
+        listsChannel.read(header, value);
+        long count = GameCodec.getVarint(header, 0);
+        long length = GameCodec.getVarint(header, (int) (count >>> 32));
+        int start = (int) (length >>> 32);
+        ByteBuffer list = ByteBuffer.allocate((int) length);
+        readFully(listsChannel, list, value + start);
+        int[] games = new int[(int) count];
+        int game = 0;
+        for (int i = 0, offset = 0; i < games.length; i++) {
+            long gap = GameCodec.getVarint(list, offset);
+            game += (int) gap;
+            games[i] = game;
+            offset = (int) (gap >>> 32);
+        }
+        return games;
+    }
+
+    // Either side may hold the first signature's pieces
+    int[] gamesWithMaterial(String signature) throws IOException {
+        int[] counts = parseMaterial(signature);
+        int[] games = games(materialKey(counts[0], counts[1]));
+        return counts[0] == counts[1] ? games : union(games, games(materialKey(counts[1], counts[0])));
+    }
+
+    // The value stored with the key, or -1 when it isn't in the index
+    private long find(long key) {
+        long low = 0, high = keyCount;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(keyAt(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low < keyCount && keyAt(low) == key) {
+            long offset = low * ENTRY_SIZE;
+            return segments[(int) (offset / SEGMENT_BYTES)].getLong((int) (offset % SEGMENT_BYTES) + 8);
+        }
+        return -1;
+    }
+
+    private long keyAt(long index) {
+        long offset = index * ENTRY_SIZE;
+        return segments[(int) (offset / SEGMENT_BYTES)].getLong((int) (offset % SEGMENT_BYTES));
+    }
+
+    // Both ascending; so is the result
+    static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    static int[] union(int[] a, int[] b) {
+        int[] out = new int[a.length + b.length];
+        int n = 0, i = 0, j = 0;
+        while (i < a.length || j < b.length) {
+            int next = j == b.length || (i < a.length && a[i] <= b[j]) ? a[i] : b[j];
+            if (i < a.length && a[i] == next) {
+                i++;
+            }
+            if (j < b.length && b[j] == next) {
+                j++;
+            }
+            out[n++] = next;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    @Override
+    public void close() throws IOException {
+        keysChannel.close();
+        listsChannel.close();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Position index ends early");
+            }
+            position += read;
+        }
+    }
+
+    // Building
+
+    // Indexes every game in the store; returns the number of distinct keys
+    static long build(Path base, int threads) throws IOException {
+        try (GameFile.Reader reader = new GameFile.Reader(base)) {
+            long games = reader.count();
+            if (games > Integer.MAX_VALUE) {
+                throw new IOException("Too many games to index (" + games + ")");
+            }
+            // Three keys per position at most; headers are read without decoding moves
+            long pairs = 0;
+            for (long game = 0; game < games; game++) {
+                pairs += 3L * (reader.moveCount(game) + 1);
+            }
+            int bits = 0;
+            while (bits < MAX_PARTITION_BITS && (pairs * ENTRY_SIZE >>> bits) > PARTITION_BYTES) {
+                bits++;
+            }
+
+            Path parts = Files.createTempDirectory(base.toAbsolutePath().getParent(), base.getFileName() + ".parts");
+            FileChannel[] partitions = new FileChannel[1 << bits];
+            try {
+                for (int i = 0; i < partitions.length; i++) {
+                    partitions[i] = FileChannel.open(parts.resolve(Integer.toString(i)), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                scatter(reader, partitions, bits, threads);
+                return writeIndex(base, games, partitions, threads);
+            } finally {
+                for (FileChannel partition : partitions) {
+                    if (partition != null) {
+                        partition.close();
+                    }
+                }
+                Files.deleteIfExists(parts);
+            }
+        }
+    }
+
+    // Replays the games on several threads, appending (key, game) pairs to the partitions
+    private static void scatter(GameFile.Reader reader, FileChannel[] partitions, int bits, int threads)
+            throws IOException {
+        AtomicLong next = new AtomicLong();
+        long games = reader.count();
+        // Big buffers when there are few partitions, small ones when there are many
+        int bufferBytes = Math.max(4096, (16 << 20) >>> bits);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, SearchEngine.daemonThreads("index-builder"));
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(pool.submit(() -> {
+                    GameCodec.Game game = new GameCodec.Game();
+                    ChessGame board = new ChessGame();
+                    long[] keys = new long[3 * 257];
+                    ByteBuffer[] buffers = new ByteBuffer[partitions.length];
+                    for (int i = 0; i < buffers.length; i++) {
+                        buffers[i] = ByteBuffer.allocate(bufferBytes);
+                    }
+                    for (long start; (start = next.getAndAdd(GAMES_PER_TASK)) < games; ) {
+                        for (long n = start; n < Math.min(games, start + GAMES_PER_TASK); n++) {
+                            reader.read(n, game);
+                            if (keys.length < 3 * (game.moveCount + 1)) {
+                                keys = new long[3 * (game.moveCount + 1)];
+                            }
+                            int count = gameKeys(game, board, keys);
+                            for (int i = 0; i < count; i++) {
+                                int partition = bits == 0 ? 0 : (int) (keys[i] >>> (64 - bits));
+                                ByteBuffer buffer = buffers[partition];
+                                if (!buffer.hasRemaining()) {
+                                    flush(partitions[partition], buffer);
+                                }
+                                buffer.putLong(keys[i]).putLong(n);
+                            }
+                        }
+                    }
+                    for (int i = 0; i < buffers.length; i++) {
+                        flush(partitions[i], buffers[i]);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to index games", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // The game's distinct keys, unsorted apart from duplicates being gone
+    private static int gameKeys(GameCodec.Game game, ChessGame board, long[] keys) {
+        board.copyFrom(game.start);
+        int count = 0;
+        for (int ply = 0; ; ply++) {
+            keys[count++] = positionKey(board);
+            keys[count++] = pawnKey(board);
+            keys[count++] = materialKey(board);
+            if (ply == game.moveCount) {
+                break;
+            }
+            board.makeMove(game.moves[ply]);
+        }
+        Arrays.sort(keys, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        return distinct;
+    }
+
+    // Workers share the partition files; a buffer holds whole pairs and goes out in one piece
+    private static void flush(FileChannel partition, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        synchronized (partition) {
+            while (buffer.hasRemaining()) {
+                partition.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+
+    // Sorts each partition in turn and appends its keys and lists; returns the key count
+    private static long writeIndex(Path base, long games, FileChannel[] partitions, int threads) throws IOException {
+        Path keysTemp = Paths.get(keysPath(base) + ".tmp"), listsTemp = Paths.get(listsPath(base) + ".tmp");
+        long keyCount = 0;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (FileChannel keysOut = FileChannel.open(keysTemp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel listsOut = FileChannel.open(listsTemp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer entries = ByteBuffer.allocate(ENTRY_SIZE * 4096);
+            ByteBuffer list = ByteBuffer.allocate(1 << 16);
+            ByteBuffer in = ByteBuffer.allocateDirect(1 << 20);
+            keysOut.position(HEADER_SIZE);
+            long listBytes = 0;
+            for (FileChannel partition : partitions) {
+                long size = partition.size();
+                if (size / ENTRY_SIZE > Integer.MAX_VALUE - 8) {
+                    throw new IOException("Index partition of " + size + " bytes is too large");
+                }
+                int n = (int) (size / ENTRY_SIZE);
+                long[] keys = new long[n];
+                long[] values = new long[n];
+                in.clear();
+                long position = 0;
+                for (int i = 0; i < n; ) {
+                    position += partition.read(in, position);
+                    in.flip();
+                    while (in.remaining() >= ENTRY_SIZE) {
+                        keys[i] = in.getLong();
+                        values[i++] = in.getLong();
+                    }
+                    in.compact();
+                }
+                partition.truncate(0);
+                if (n > 0) {
+                    pool.invoke(new OpeningBook.SortTask(keys, values, 0, n - 1));
+                }
+
+                for (int start = 0; start < n; ) {
+                    int end = start + 1;
+                    while (end < n && keys[end] == keys[start]) {
+                        end++;
+                    }
+                    long value;
+                    if (end - start == 1) {
+                        value = SINGLE_GAME | values[start];
+                    } else {
+                        value = listBytes;
+                        int count = end - start;
+                        if (list.capacity() < 5 * count) {
+                            list = ByteBuffer.allocate(5 * count);
+                        }
+                        list.clear();
+                        long previous = 0;
+                        for (int i = start; i < end; i++) {
+                            GameCodec.putVarint(list, values[i] - previous);
+                            previous = values[i];
+                        }
+                        list.flip();
+                        ByteBuffer header = ByteBuffer.allocate(10);
+                        GameCodec.putVarint(header, count);
+                        GameCodec.putVarint(header, list.remaining());
+                        header.flip();
+                        listBytes += header.remaining() + list.remaining();
+                        write(listsOut, header);
+                        write(listsOut, list);
+                    }
+                    if (!entries.hasRemaining()) {
+                        entries.flip();
+                        write(keysOut, entries);
+                        entries.clear();
+                    }
+                    entries.putLong(keys[start]).putLong(value);
+                    keyCount++;
+                    start = end;
+                }
+            }
+            entries.flip();
+            write(keysOut, entries);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(games).putLong(keyCount).putLong(listBytes).flip();
+            while (header.hasRemaining()) {
+                keysOut.write(header, header.position());
+            }
+            listsOut.force(false);
+            keysOut.force(false);
+        } finally {
+            pool.shutdown();
+        }
+        Files.move(listsTemp, listsPath(base), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(keysTemp, keysPath(base), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return keyCount;
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            switch (args[0]) {
+                case "build": {
+                    Path base = Paths.get(args[1]);
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    List<Path> pgns = new ArrayList<>();
+                    for (int i = 2; i < args.length; i++) {
+                        switch (args[i]) {
+                            case "--threads": threads = Integer.parseInt(args[++i]); break;
+                            case "--pgn": pgns.add(Paths.get(args[++i])); break;
+                            default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                    }
+                    long start = System.nanoTime();
+                    for (Path pgn : pgns) {
+                        if (GameFile.importPgn(pgn, base) < 0) {
+                            System.out.println(pgn + " was imported before; indexing the games already stored");
+                        }
+                    }
+                    long imported = System.nanoTime();
+                    long keys = build(base, Math.max(1, threads));
+                    long end = System.nanoTime();
+                    try (PositionIndex index = open(base)) {
+                        System.out.printf("%,d games, %,d keys in %.1f s (import %.1f s); %,d bytes of keys, %,d bytes of lists%n",
+                            index.games(), keys, (end - start) / 1e9, (imported - start) / 1e9,
+                            Files.size(keysPath(base)), Files.size(listsPath(base)));
+                    }
+                    break;
+                }
+                case "query": {
+                    Path base = Paths.get(args[1]);
+                    int limit = 10;
+                    List<String> criteria = new ArrayList<>();
+                    try (PositionIndex index = open(base); GameFile.Reader reader = new GameFile.Reader(base)) {
+                        long start = System.nanoTime();
+                        int[] games = null;
+                        for (int i = 2; i < args.length; i++) {
+                            int[] matches;
+                            switch (args[i]) {
+                                case "--fen":
+                                    matches = index.games(positionKey(new ChessGame(args[++i])));
+                                    break;
+                                case "--pawns":
+                                    matches = index.games(pawnKey(new ChessGame(args[++i])));
+                                    break;
+                                case "--material":
+                                    matches = index.gamesWithMaterial(args[++i]);
+                                    break;
+                                case "--limit":
+                                    limit = Integer.parseInt(args[++i]);
+                                    continue;
+                                default:
+                                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                            }
+                            criteria.add(args[i - 1] + " " + args[i]);
+                            games = games == null ? matches : intersect(games, matches);
+                        }
+                        if (games == null) {
+                            throw new IllegalArgumentException("No query given");
+                        }
+                        double millis = (System.nanoTime() - start) / 1e6;
+                        System.out.printf("%,d games match %s (%.2f ms)%n", games.length, String.join(" and ", criteria), millis);
+                        for (int i = 0; i < Math.min(limit, games.length); i++) {
+                            System.out.printf("  game %d: %s, %d plies%n", games[i],
+                                new String[] {"*", "1-0", "0-1", "1/2-1/2"}[reader.result(games[i])],
+                                reader.moveCount(games[i]));
+                        }
+                    }
+                    break;
+                }
+                case "bench": {
+                    Path base = Paths.get(args[1]);
+                    try (PositionIndex index = open(base); GameFile.Reader reader = new GameFile.Reader(base)) {
+                        // Positions from random games at random plies, so every query has a hit
+                        String[] kinds = {"position", "pawns", "material"};
+                        LatencyHistogram[] latency = new LatencyHistogram[kinds.length];
+                        long[] hits = new long[kinds.length];
+                        for (int k = 0; k < kinds.length; k++) {
+                            latency[k] = new LatencyHistogram();
+                        }
+                        GameCodec.Game game = new GameCodec.Game();
+                        ChessGame board = new ChessGame();
+                        SplittableRandom random = new SplittableRandom(1);
+                        long deadline = System.nanoTime() + 3_000_000_000L;
+                        while (System.nanoTime() < deadline && reader.count() > 0) {
+                            reader.read(random.nextLong(reader.count()), game);
+                            board.copyFrom(game.start);
+                            int ply = random.nextInt(game.moveCount + 1);
+                            for (int i = 0; i < ply; i++) {
+                                board.makeMove(game.moves[i]);
+                            }
+                            long[] keys = {positionKey(board), pawnKey(board), materialKey(board)};
+                            for (int k = 0; k < kinds.length; k++) {
+                                long begin = System.nanoTime();
+                                hits[k] += index.games(keys[k]).length;
+                                latency[k].record(System.nanoTime() - begin);
+                            }
+                        }
+                        System.out.printf("%,d games, %,d keys%n", index.games(), index.keys());
+                        for (int k = 0; k < kinds.length; k++) {
+                            System.out.printf("%-8s %,9d queries, %,11.1f games each, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                                kinds[k], latency[k].count(), (double) hits[k] / Math.max(1, latency[k].count()),
+                                latency[k].mean() / 1e6, latency[k].percentile(50) / 1e6,
+                                latency[k].percentile(99) / 1e6, latency[k].max() / 1e6);
+                        }
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown command " + args[0]);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            System.err.println("Usage: java PositionIndex build <base> [--pgn <games.pgn>]... [--threads N]");
+            System.err.println("       java PositionIndex query <base> [--fen FEN] [--pawns FEN] [--material KRPvKR] [--limit N]");
+            System.err.println("       java PositionIndex bench <base>");
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
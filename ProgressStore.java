@@ -0,0 +1,703 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+// Crash-safe lesson progress for any number of users.
+//
+// Every change is appended to a write-ahead log and fsynced before the call returns.
+// Callers don't sync individually: they queue their record and wait while a single
+// log thread writes everything queued so far and syncs once (group commit), so a
+// thousand concurrent completions cost a handful of fsyncs. The log thread is also
+// the only writer of the in-memory state, applying each batch after it is durable,
+// so readers never see a change that could be lost.
+//
+// When the active log segment grows past CHECKPOINT_LOG_BYTES the log thread starts a
+// new segment and hands a snapshot of the state to a background thread, which writes
+// it atomically and deletes the segments it covers. Recovery loads the snapshot and
+// replays only records with a higher sequence number, so nothing is applied twice
+// and progress never double counts; a torn record at the end of the log is dropped.
+//
+// The log thread also feeds every completion into a LearningAnalytics. Its rollups are
+// written with each snapshot and on close, tagged with the last sequence they cover,
+// and recovery replays only later records into them, so instructors' numbers count
+// each logged event exactly once.
+//
+//   java ProgressStore bench <dir> [threads] [seconds]
+final class ProgressStore implements Closeable {
+    static final double PROGRESS_PER_LESSON = 20.0;
+    static final long CHECKPOINT_LOG_BYTES = 4L << 20;
+
+    private static final String SNAPSHOT = "progress.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x43485053; // "CHPS"
+    private static final String ANALYTICS_SNAPSHOT = "analytics.snapshot";
+    private static final int ANALYTICS_MAGIC = 0x43484c41; // "CHLA"
+    private static final byte COMPLETE = 1;
+    private static final byte RESET = 2;
+    private static final int MAX_RECORD_BYTES = 1 << 16;
+
+    // Shared by every store in the process
+    private static final LatencyHistogram COMMIT_LATENCY = Metrics.histogram("storage.commit");
+    private static final LatencyHistogram FSYNC_LATENCY = Metrics.histogram("storage.fsync");
+    private static final LongAdder RECORDS = Metrics.counter("storage.records");
+    private static final LongAdder FSYNCS = Metrics.counter("storage.fsyncs");
+
+    static final class LessonResult {
+        final int accuracy;
+        final int timeTakenSeconds;
+        final int hintsUsed;
+        final int attempts;
+        final long completedAtMillis;
+
+        LessonResult(int accuracy, int timeTakenSeconds, int hintsUsed, int attempts, long completedAtMillis) {
+            this.accuracy = accuracy;
+            this.timeTakenSeconds = timeTakenSeconds;
+            this.hintsUsed = hintsUsed;
+            this.attempts = attempts;
+            this.completedAtMillis = completedAtMillis;
+        }
+    }
+
+    // Immutable; replaced as a whole on every change so snapshots can share it
+    static final class UserProgress {
+        static final UserProgress EMPTY = new UserProgress(Collections.emptyMap());
+
+        final Map<String, LessonResult> lessons;
+
+        UserProgress(Map<String, LessonResult> lessons) {
+            this.lessons = lessons;
+        }
+
+        // Each distinct lesson counts once, however many times it is repeated
+        double progressPercent() {
+            return Math.min(100.0, lessons.size() * PROGRESS_PER_LESSON);
+        }
+    }
+
+    // A change waiting for the log thread
+    private static final class Record {
+        final byte type;
+        final String user;
+        final String lesson;
+        final int accuracy;
+        final int timeTakenSeconds;
+        final int hintsUsed;
+        final long timestamp;
+        long sequence;
+
+        Record(byte type, String user, String lesson, int accuracy, int timeTakenSeconds, int hintsUsed, long timestamp) {
+            this.type = type;
+            this.user = user;
+            this.lesson = lesson;
+            this.accuracy = accuracy;
+            this.timeTakenSeconds = timeTakenSeconds;
+            this.hintsUsed = hintsUsed;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final Path directory;
+    private final ConcurrentHashMap<String, UserProgress> users = new ConcurrentHashMap<>();
+    // Written by the log thread (and recovery) only; safe to query from any thread
+    private final LearningAnalytics analytics = new LearningAnalytics();
+    private final ExecutorService checkpointer = Executors.newSingleThreadExecutor(SearchEngine.daemonThreads("progress-checkpoint"));
+    private final Thread logThread;
+
+    // Guarded by queue
+    private final ArrayDeque<Record> queue = new ArrayDeque<>();
+    private long lastSequence;
+    private long durableSequence;
+    private boolean closing;
+    private boolean checkpointRequested;
+    private Future<?> lastCheckpoint = CompletableFuture.completedFuture(null);
+    private IOException failure;
+
+    // Owned by the log thread
+    private FileChannel segment;
+    private long segmentNumber;
+    private long segmentBytes;
+    private long lastApplied;
+    // Every record up to this is in the analytics snapshot on disk
+    private long analyticsSaved;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(1 << 20);
+
+    private volatile long commits;
+    private volatile long syncs;
+
+    private ProgressStore(Path directory) {
+        this.directory = directory;
+        logThread = new Thread(this::runLog, "progress-log");
+        logThread.setDaemon(true);
+    }
+
+    static ProgressStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        ProgressStore store = new ProgressStore(directory);
+        store.recover();
+        store.logThread.start();
+        return store;
+    }
+
+    // Public API
+
+    // Returns once the result is durable
+    void completeLesson(String user, String lessonId, int accuracy, int timeTakenSeconds, int hintsUsed) throws IOException {
+        commit(new Record(COMPLETE, user, lessonId, accuracy, timeTakenSeconds, hintsUsed, System.currentTimeMillis()));
+    }
+
+    void reset(String user) throws IOException {
+        commit(new Record(RESET, user, "", 0, 0, 0, System.currentTimeMillis()));
+    }
+
+    UserProgress user(String user) {
+        return users.getOrDefault(user, UserProgress.EMPTY);
+    }
+
+    double progress(String user) {
+        return user(user).progressPercent();
+    }
+
+    LearningAnalytics analytics() {
+        return analytics;
+    }
+
+    Set<String> userIds() {
+        return Collections.unmodifiableSet(users.keySet());
+    }
+
+    long commits() {
+        return commits;
+    }
+
+    long syncs() {
+        return syncs;
+    }
+
+    // Starts a new log segment and writes a snapshot now instead of waiting for the size trigger
+    void checkpoint() throws IOException {
+        Future<?> done;
+        synchronized (queue) {
+            checkpointRequested = true;
+            queue.notifyAll();
+            while (checkpointRequested && failure == null) {
+                try {
+                    queue.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for checkpoint");
+                }
+            }
+            done = lastCheckpoint;
+        }
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for checkpoint");
+        } catch (ExecutionException e) {
+            throw new IOException("Checkpoint failed", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (queue) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            queue.notifyAll();
+        }
+        boolean stopped = false;
+        try {
+            logThread.join();
+            checkpointer.shutdown();
+            stopped = checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (segment != null) {
+            segment.close();
+        }
+        // So the next open need not rebuild them from the whole log; progress itself
+        // replays quickly enough and keeps its snapshot for the size trigger
+        if (stopped && failure == null && lastApplied > analyticsSaved) {
+            writeAnalyticsSnapshot(analytics, lastApplied);
+        }
+    }
+
+    // Group commit
+
+    private void commit(Record record) throws IOException {
+        if (record.user.length() > 1024 || record.lesson.length() > 1024) {
+            throw new IllegalArgumentException("User and lesson ids are limited to 1024 characters");
+        }
+        long start = System.nanoTime();
+        synchronized (queue) {
+            if (closing) {
+                throw new IOException("Progress store is closed");
+            }
+            if (failure != null) {
+                throw new IOException("Progress log failed", failure);
+            }
+            // Numbered under the same lock that orders the queue, so log order is sequence order
+            record.sequence = ++lastSequence;
+            queue.add(record);
+            queue.notifyAll();
+            boolean interrupted = false;
+            while (durableSequence < record.sequence && failure == null) {
+                try {
+                    queue.wait();
+                } catch (InterruptedException e) {
+                    // The record is already queued; finish waiting so the caller learns its outcome
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (durableSequence < record.sequence) {
+                throw new IOException("Progress log failed", failure);
+            }
+        }
+        if (Metrics.ENABLED) {
+            COMMIT_LATENCY.record(System.nanoTime() - start);
+        }
+    }
+
+    private void runLog() {
+        List<Record> batch = new ArrayList<>();
+        while (true) {
+            boolean checkpointNow;
+            synchronized (queue) {
+                while (queue.isEmpty() && !closing && !checkpointRequested) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException e) {
+                        // Only close() stops the log thread
+                    }
+                }
+                if (queue.isEmpty() && closing) {
+                    return;
+                }
+                batch.addAll(queue);
+                queue.clear();
+                checkpointNow = checkpointRequested;
+            }
+
+            try {
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                    for (Record record : batch) {
+                        apply(record);
+                        analyze(record);
+                    }
+                }
+                Future<?> checkpoint = null;
+                if (checkpointNow || segmentBytes >= CHECKPOINT_LOG_BYTES) {
+                    checkpoint = startCheckpoint();
+                }
+                synchronized (queue) {
+                    if (!batch.isEmpty()) {
+                        durableSequence = batch.get(batch.size() - 1).sequence;
+                    }
+                    if (checkpoint != null) {
+                        lastCheckpoint = checkpoint;
+                        checkpointRequested = false;
+                    }
+                    queue.notifyAll();
+                }
+                commits += batch.size();
+            } catch (IOException e) {
+                synchronized (queue) {
+                    failure = e;
+                    queue.notifyAll();
+                }
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<Record> batch) throws IOException {
+        for (Record record : batch) {
+            byte[] payload = encode(record);
+            if (writeBuffer.remaining() < payload.length + 8) {
+                flushBuffer();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            writeBuffer.putInt(payload.length);
+            writeBuffer.putInt((int) crc.getValue());
+            writeBuffer.put(payload);
+        }
+        flushBuffer();
+        long start = System.nanoTime();
+        segment.force(false);
+        syncs++;
+        if (Metrics.ENABLED) {
+            FSYNC_LATENCY.record(System.nanoTime() - start);
+            FSYNCS.increment();
+            RECORDS.add(batch.size());
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        writeBuffer.flip();
+        segmentBytes += writeBuffer.remaining();
+        while (writeBuffer.hasRemaining()) {
+            segment.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    // Runs on the log thread: every record in older segments has been applied, so the state
+    // captured here is exactly what those segments describe
+    private Future<?> startCheckpoint() throws IOException {
+        Map<String, UserProgress> snapshot = new HashMap<>(users);
+        LearningAnalytics analyticsSnapshot = analytics.copy();
+        long sequence = lastApplied;
+        long firstKept = segmentNumber + 1;
+        openSegment(firstKept);
+        return checkpointer.submit(() -> {
+            // Analytics first: if only they make it, replay skips what they already hold
+            writeAnalyticsSnapshot(analyticsSnapshot, sequence);
+            writeSnapshot(snapshot, sequence);
+            deleteSegmentsBefore(firstKept);
+            return null;
+        });
+    }
+
+    private void apply(Record record) {
+        if (record.type == RESET) {
+            users.remove(record.user);
+        } else {
+            UserProgress previous = users.getOrDefault(record.user, UserProgress.EMPTY);
+            Map<String, LessonResult> lessons = new HashMap<>(previous.lessons);
+            LessonResult earlier = lessons.get(record.lesson);
+            lessons.put(record.lesson, new LessonResult(record.accuracy, record.timeTakenSeconds, record.hintsUsed,
+                earlier == null ? 1 : earlier.attempts + 1, record.timestamp));
+            users.put(record.user, new UserProgress(Collections.unmodifiableMap(lessons)));
+        }
+        lastApplied = record.sequence;
+    }
+
+    private void analyze(Record record) {
+        if (record.type == COMPLETE) {
+            analytics.record(record.user, record.lesson, record.accuracy, record.timeTakenSeconds, record.hintsUsed);
+        }
+    }
+
+    // Log segments
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("wal-%016d.log", number));
+    }
+
+    private void openSegment(long number) throws IOException {
+        if (segment != null) {
+            segment.close();
+        }
+        segment = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        segmentNumber = number;
+        segmentBytes = 0;
+        syncDirectory();
+    }
+
+    private List<Long> segmentNumbers() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Long.parseLong(name.substring(4, name.length() - 4)));
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private void deleteSegmentsBefore(long number) throws IOException {
+        for (long old : segmentNumbers()) {
+            if (old < number) {
+                Files.deleteIfExists(segmentPath(old));
+            }
+        }
+    }
+
+    // Makes file creations and renames in the directory durable (a no-op where unsupported)
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Some platforms can't open directories; the data files themselves are still synced
+        }
+    }
+
+    // Record encoding: [int length][int crc32][payload]
+
+    private static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(record.sequence);
+        out.writeByte(record.type);
+        out.writeUTF(record.user);
+        out.writeUTF(record.lesson);
+        out.writeInt(record.accuracy);
+        out.writeInt(record.timeTakenSeconds);
+        out.writeInt(record.hintsUsed);
+        out.writeLong(record.timestamp);
+        return bytes.toByteArray();
+    }
+
+    private static Record decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long sequence = in.readLong();
+        byte type = in.readByte();
+        Record record = new Record(type, in.readUTF(), in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readLong());
+        record.sequence = sequence;
+        return record;
+    }
+
+    // Recovery
+
+    private void recover() throws IOException {
+        long snapshotSequence = readSnapshot();
+        lastApplied = snapshotSequence;
+        long analyticsSequence = readAnalyticsSnapshot();
+        if (analyticsSequence < 0) {
+            // A store from before analytics: the snapshot's latest results are all the history left
+            for (Map.Entry<String, UserProgress> user : users.entrySet()) {
+                for (Map.Entry<String, LessonResult> lesson : user.getValue().lessons.entrySet()) {
+                    LessonResult result = lesson.getValue();
+                    analytics.record(user.getKey(), lesson.getKey(), result.accuracy, result.timeTakenSeconds,
+                        result.hintsUsed);
+                }
+            }
+            analyticsSequence = snapshotSequence;
+        }
+        analyticsSaved = analyticsSequence;
+        List<Long> segments = segmentNumbers();
+        long replayedBytes = 0;
+
+        for (int i = 0; i < segments.size(); i++) {
+            Path path = segmentPath(segments.get(i));
+            long valid = replaySegment(path, analyticsSequence);
+            replayedBytes += valid;
+            if (valid < Files.size(path)) {
+                // Records after the damage were acknowledged; leave the file alone for a person to look at
+                if (i < segments.size() - 1) {
+                    throw new IOException("Progress log segment " + path + " is corrupt before the end of the log");
+                }
+                // A torn write from a crash: keep the intact prefix, nothing after it was acknowledged
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                    channel.force(false);
+                }
+            }
+        }
+
+        lastSequence = lastApplied;
+        durableSequence = lastApplied;
+        long next = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+        openSegment(next);
+        if (replayedBytes >= CHECKPOINT_LOG_BYTES) {
+            // A long replay now means a long replay next time too; fold it into the snapshot
+            Map<String, UserProgress> snapshot = new HashMap<>(users);
+            long sequence = lastApplied;
+            writeAnalyticsSnapshot(analytics, sequence);
+            writeSnapshot(snapshot, sequence);
+            deleteSegmentsBefore(next);
+        }
+    }
+
+    // Applies the segment's intact records, and feeds analytics those after analyticsSequence;
+    // returns the length of that intact prefix
+    private long replaySegment(Path path, long analyticsSequence) throws IOException {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                Record record = decode(payload);
+                if (record.sequence > lastApplied) {
+                    apply(record);
+                }
+                if (record.sequence > analyticsSequence) {
+                    analyze(record);
+                }
+                valid += 8 + length;
+            }
+        }
+        return valid;
+    }
+
+    // The snapshot's contents without its checksum, or null if there is none
+    private DataInputStream openChecked(String name) throws IOException {
+        Path path = directory.resolve(name);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < 8) {
+            throw new IOException("Progress snapshot " + path + " is truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+            throw new IOException("Progress snapshot " + path + " failed its checksum");
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+    }
+
+    private long readSnapshot() throws IOException {
+        DataInputStream in = openChecked(SNAPSHOT);
+        if (in == null) {
+            return 0;
+        }
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException(directory.resolve(SNAPSHOT) + " is not a progress snapshot");
+        }
+        long sequence = in.readLong();
+        int userCount = in.readInt();
+        for (int u = 0; u < userCount; u++) {
+            String user = in.readUTF();
+            int lessonCount = in.readInt();
+            Map<String, LessonResult> lessons = new HashMap<>();
+            for (int l = 0; l < lessonCount; l++) {
+                lessons.put(in.readUTF(), new LessonResult(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readLong()));
+            }
+            users.put(user, new UserProgress(Collections.unmodifiableMap(lessons)));
+        }
+        return sequence;
+    }
+
+    private void writeSnapshot(Map<String, UserProgress> snapshot, long sequence) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeLong(sequence);
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, UserProgress> user : snapshot.entrySet()) {
+            out.writeUTF(user.getKey());
+            out.writeInt(user.getValue().lessons.size());
+            for (Map.Entry<String, LessonResult> lesson : user.getValue().lessons.entrySet()) {
+                LessonResult result = lesson.getValue();
+                out.writeUTF(lesson.getKey());
+                out.writeInt(result.accuracy);
+                out.writeInt(result.timeTakenSeconds);
+                out.writeInt(result.hintsUsed);
+                out.writeInt(result.attempts);
+                out.writeLong(result.completedAtMillis);
+            }
+        }
+        writeChecked(SNAPSHOT, bytes);
+    }
+
+    // -1 if there is none
+    private long readAnalyticsSnapshot() throws IOException {
+        DataInputStream in = openChecked(ANALYTICS_SNAPSHOT);
+        if (in == null) {
+            return -1;
+        }
+        if (in.readInt() != ANALYTICS_MAGIC) {
+            throw new IOException(directory.resolve(ANALYTICS_SNAPSHOT) + " is not an analytics snapshot");
+        }
+        long sequence = in.readLong();
+        analytics.read(in);
+        return sequence;
+    }
+
+    private void writeAnalyticsSnapshot(LearningAnalytics snapshot, long sequence) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ANALYTICS_MAGIC);
+        out.writeLong(sequence);
+        snapshot.write(out);
+        writeChecked(ANALYTICS_SNAPSHOT, bytes);
+    }
+
+    // Appends a checksum and replaces the file atomically, synced
+    private void writeChecked(String name, ByteArrayOutputStream bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        new DataOutputStream(bytes).writeLong(crc.getValue());
+
+        Path temp = directory.resolve(name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    // Throughput check: concurrent sessions completing lessons as fast as they can
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || !args[0].equals("bench")) {
+            System.err.println("Usage: java ProgressStore bench <dir> [threads] [seconds]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        long start = System.nanoTime();
+        ProgressStore store = open(dir);
+        System.out.printf("Recovered %,d users in %.1f ms%n", store.userIds().size(), (System.nanoTime() - start) / 1e6);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService sessions = Executors.newFixedThreadPool(threads);
+        long commitsBefore = store.commits(), syncsBefore = store.syncs();
+        start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int session = t;
+            sessions.submit(() -> {
+                Random random = new Random(session);
+                while (System.nanoTime() < deadline) {
+                    long begin = System.nanoTime();
+                    store.completeLesson("user-" + random.nextInt(10_000), "lesson-" + random.nextInt(5),
+                        60 + random.nextInt(40), random.nextInt(300), random.nextInt(3));
+                    latency.record(System.nanoTime() - begin);
+                }
+                return null;
+            });
+        }
+        sessions.shutdown();
+        sessions.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long commits = store.commits() - commitsBefore, syncs = store.syncs() - syncsBefore;
+        store.close();
+
+        System.out.printf("%,d completions in %.1f s (%,.0f/sec) with %d sessions, %,d fsyncs (%.1f per fsync)%n",
+            commits, elapsed, commits / elapsed, threads, syncs, syncs == 0 ? 0.0 : (double) commits / syncs);
+        System.out.println("Commit latency: " + latency.summary());
+    }
+}
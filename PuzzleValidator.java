@@ -0,0 +1,455 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Checks lesson lines and puzzle positions in bulk.
+//
+//   java PuzzleValidator [catalog.ts | suite.epd]... [--depth N] [--jobs N] [--hash MB] [--cache FILE | --no-cache]
+//
+// The catalog defaults to the app's learning content, src/data/learningContent.ts: each
+// scenario's position and solution, and each opening lesson's moves. EPD files add test
+// suites, one puzzle per line with its "bm" move and "id". An opening lesson only has to be
+// legal from the start position. A puzzle must also be sound:
+//   - the position loads (one king a side, the side not to move not in check) with no
+//     pawns on the first or last rank, and the solution is legal move by move, with
+//     its '+' and '#' marks true;
+//   - at each of the solver's moves, two searches are run: the best line, then the best
+//     line without the key move (multi-PV by excluding root moves). The key move must win
+//     (a mate or WIN_CP), and no other move may win as well: another mate when the key
+//     mates, otherwise a move keeping at least half the advantage, is an alternate solution;
+//   - each scripted reply is the defender's best, or within REPLY_MARGIN_CP of it.
+//
+// Items run in parallel, each worker with its own single-threaded engine and a table
+// cleared per item, so a verdict doesn't depend on what ran before it. Verdicts are cached
+// by the start position's hash, the moves, and the depth, in a tab-separated file; a
+// re-run only searches what changed, and a puzzle listed twice is searched once.
+// Exits with 1 if any item is unsound, illegal, or has an alternate solution.
+final class PuzzleValidator {
+    static final Path DEFAULT_CATALOG = Paths.get("src", "data", "learningContent.ts");
+    static final Path DEFAULT_CACHE = ChessStorage.DATA_DIRECTORY.resolve("puzzle-cache.tsv");
+    static final int DEFAULT_DEPTH = 12;
+    static final int WIN_CP = 200;
+    static final int REPLY_MARGIN_CP = 50;
+    // Bump when the checks change, so old verdicts are not reused
+    private static final int CACHE_VERSION = 1;
+
+    // Worst last, so an item's status is the maximum over its findings
+    enum Status { OK, WARNING, ALTERNATE, UNSOUND, ILLEGAL }
+
+    static final class Item {
+        final String id;
+        final String fen;
+        final List<String> moves;
+        // Puzzles are searched; lesson lines only need to be legal
+        final boolean puzzle;
+
+        Item(String id, String fen, List<String> moves, boolean puzzle) {
+            this.id = id;
+            this.fen = fen;
+            this.moves = moves;
+            this.puzzle = puzzle;
+        }
+    }
+
+    static final class Verdict {
+        final Status status;
+        final List<String> notes;
+
+        Verdict(Status status, List<String> notes) {
+            this.status = status;
+            this.notes = notes;
+        }
+    }
+
+    private PuzzleValidator() {
+    }
+
+    // Loading
+
+    private static final Pattern ID = Pattern.compile("\\bid:\\s*\"([^\"]*)\"");
+    private static final Pattern POSITION = Pattern.compile("\\bposition:\\s*\"([^\"]*)\"");
+    private static final Pattern SOLUTION = Pattern.compile("\\bsolution:\\s*\\[([^\\]]*)\\]");
+    private static final Pattern MOVES = Pattern.compile("\\bmoves:\\s*\\[([^\\]]*)\\]");
+    private static final Pattern STRING = Pattern.compile("\"([^\"]*)\"");
+
+    // Reads the object literals of the TypeScript content file by their fields: anything with
+    // a position and a solution is a puzzle, anything with a non-empty move list a lesson line
+    static List<Item> loadTypeScript(Path path) throws IOException {
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        List<Item> items = new ArrayList<>();
+        // Each object's fields run from its id to the next id
+        Matcher id = ID.matcher(text);
+        List<String> names = new ArrayList<>();
+        List<int[]> spans = new ArrayList<>();
+        while (id.find()) {
+            names.add(id.group(1));
+            spans.add(new int[] {id.start(), id.end()});
+        }
+        for (int i = 0; i < spans.size(); i++) {
+            String name = names.get(i);
+            String body = text.substring(spans.get(i)[1], i + 1 < spans.size() ? spans.get(i + 1)[0] : text.length());
+            Matcher position = POSITION.matcher(body), solution = SOLUTION.matcher(body), moves = MOVES.matcher(body);
+            if (position.find() && solution.find()) {
+                items.add(new Item(name, position.group(1), strings(solution.group(1)), true));
+            } else if (moves.find()) {
+                List<String> line = strings(moves.group(1));
+                if (!line.isEmpty()) {
+                    items.add(new Item(name, ChessGame.START_FEN, line, false));
+                }
+            }
+        }
+        return items;
+    }
+
+    private static List<String> strings(String list) {
+        List<String> out = new ArrayList<>();
+        Matcher string = STRING.matcher(list);
+        while (string.find()) {
+            out.add(string.group(1));
+        }
+        return out;
+    }
+
+    // EPD: four FEN fields, then operations such as  bm Nf5+; id "fork.1";
+    static List<Item> loadEpd(Path path) throws IOException {
+        List<Item> items = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String[] fields = line.trim().split("\\s+", 5);
+            if (fields.length < 5 || line.trim().startsWith("#")) {
+                continue;
+            }
+            String fen = String.join(" ", fields[0], fields[1], fields[2], fields[3]) + " 0 1";
+            String id = path.getFileName() + ":" + lineNumber;
+            List<String> moves = new ArrayList<>();
+            for (String operation : fields[4].split(";")) {
+                String[] parts = operation.trim().split("\\s+", 2);
+                if (parts.length == 2 && parts[0].equals("bm")) {
+                    // Several best moves means several solutions; the first is checked as the key
+                    moves.add(parts[1].split("\\s+")[0]);
+                } else if (parts.length == 2 && parts[0].equals("id")) {
+                    id = parts[1].replace("\"", "");
+                }
+            }
+            if (!moves.isEmpty()) {
+                items.add(new Item(id, fen, moves, true));
+            }
+        }
+        return items;
+    }
+
+    // Checking
+
+    // Cache key: the start position's hash (the FEN's, if it doesn't load), the moves, the depth
+    static long cacheKey(Item item, int depth) {
+        long key;
+        try {
+            key = new ChessGame(item.fen).hash();
+        } catch (IllegalArgumentException e) {
+            key = fnv(item.fen);
+        }
+        String rest = String.join(" ", item.moves) + '|' + item.puzzle + '|' + depth + '|' + CACHE_VERSION;
+        return key * 31 ^ fnv(rest);
+    }
+
+    private static long fnv(String text) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    static Verdict check(Item item, SearchEngine engine, SearchLimits limits) {
+        List<String> notes = new ArrayList<>();
+        Status status = Status.OK;
+        ChessGame board;
+        try {
+            board = new ChessGame(item.fen);
+        } catch (IllegalArgumentException e) {
+            notes.add(e.getMessage());
+            return new Verdict(Status.ILLEGAL, notes);
+        }
+        long pawns = board.pieces(ChessGame.WHITE, ChessGame.PAWN) | board.pieces(ChessGame.BLACK, ChessGame.PAWN);
+        if ((pawns & (Bitboards.RANK_1 | Bitboards.RANK_8)) != 0) {
+            notes.add("pawn on the first or last rank");
+            return new Verdict(Status.ILLEGAL, notes);
+        }
+        engine.newGame();
+
+        for (int i = 0; i < item.moves.size(); i++) {
+            String san = item.moves.get(i);
+            int move = board.parseSanMove(san);
+            if (move == Move.NONE) {
+                notes.add("move " + (i + 1) + " " + san + " is not legal in " + board.toFen());
+                return new Verdict(Status.ILLEGAL, notes);
+            }
+            if (item.puzzle) {
+                Status found = i % 2 == 0 ? checkKeyMove(board, move, engine, limits, notes)
+                    : checkReply(board, move, engine, limits, notes);
+                status = worst(status, found);
+            }
+            board.makeMove(move);
+            if (san.endsWith("#") && !board.isCheckmate()) {
+                notes.add(san + " is not mate");
+                status = worst(status, Status.UNSOUND);
+            } else if (san.endsWith("+") && !board.inCheck()) {
+                notes.add(san + " is not check");
+                status = worst(status, Status.WARNING);
+            }
+        }
+        return new Verdict(status, notes);
+    }
+
+    // The solver's move must win, and be the only move that does
+    private static Status checkKeyMove(ChessGame board, int move, SearchEngine engine, SearchLimits limits,
+                                       List<String> notes) {
+        MoveList legal = new MoveList();
+        board.generateLegalMoves(legal);
+        SearchResult best = engine.search(board, limits, null);
+        int keyScore = best.bestMove() == move ? best.score : engine.search(board, onlyMove(limits, legal, move), null).score;
+        String key = board.toSan(move);
+
+        if (!winning(keyScore)) {
+            if (winning(best.score)) {
+                notes.add(key + " scores " + scoreText(keyScore) + " but " + board.toSan(best.bestMove()) + " wins ("
+                    + scoreText(best.score) + ")");
+                return Status.UNSOUND;
+            }
+            notes.add("no decisive advantage after " + key + " (" + scoreText(keyScore) + ")");
+            return Status.WARNING;
+        }
+        if (legal.size() == 1) {
+            return Status.OK;
+        }
+        SearchResult alternative = best.bestMove() == move ? engine.search(board, limits.excluding(move), null) : best;
+        // An empty line means every other move was excluded: there is no alternative
+        if (alternative.pv.length > 0 && alsoWins(alternative.score, keyScore)) {
+            notes.add("alternate solution " + board.toSan(alternative.bestMove()) + " (" + scoreText(alternative.score)
+                + ") besides " + key + " (" + scoreText(keyScore) + ")");
+            return Status.ALTERNATE;
+        }
+        return Status.OK;
+    }
+
+    // A scripted defence should be the defender's best try
+    private static Status checkReply(ChessGame board, int move, SearchEngine engine, SearchLimits limits,
+                                     List<String> notes) {
+        SearchResult best = engine.search(board, limits, null);
+        if (best.bestMove() == move) {
+            return Status.OK;
+        }
+        MoveList legal = new MoveList();
+        board.generateLegalMoves(legal);
+        int score = engine.search(board, onlyMove(limits, legal, move), null).score;
+        if (score < best.score - REPLY_MARGIN_CP) {
+            notes.add("reply " + board.toSan(move) + " (" + scoreText(score) + ") is weaker than "
+                + board.toSan(best.bestMove()) + " (" + scoreText(best.score) + ")");
+            return Status.WARNING;
+        }
+        return Status.OK;
+    }
+
+    private static SearchLimits onlyMove(SearchLimits limits, MoveList legal, int move) {
+        int[] others = new int[legal.size() - 1];
+        for (int i = 0, n = 0; i < legal.size(); i++) {
+            if (legal.get(i) != move) {
+                others[n++] = legal.get(i);
+            }
+        }
+        return limits.excluding(others);
+    }
+
+    private static boolean winning(int score) {
+        return score >= WIN_CP;
+    }
+
+    // Against a mate only another mate counts; otherwise a move keeping half the advantage
+    // is as good an answer, however much the key move wins by
+    private static boolean alsoWins(int score, int keyScore) {
+        if (keyScore >= SearchEngine.MATE_BOUND) {
+            return score >= SearchEngine.MATE_BOUND;
+        }
+        return winning(score) && score >= keyScore / 2;
+    }
+
+    private static String scoreText(int score) {
+        if (Math.abs(score) >= SearchEngine.MATE_BOUND) {
+            int moves = score > 0 ? (SearchEngine.MATE - score + 1) / 2 : -(SearchEngine.MATE + score) / 2;
+            return "mate " + moves;
+        }
+        return String.format("%+.2f", score / 100.0);
+    }
+
+    private static Status worst(Status a, Status b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    // Cache
+
+    static Map<Long, Verdict> loadCache(Path path) throws IOException {
+        Map<Long, Verdict> cache = new HashMap<>();
+        if (!Files.exists(path)) {
+            return cache;
+        }
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length < 3) {
+                continue;
+            }
+            try {
+                List<String> notes = fields[2].isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(fields[2].split(" \\| ")));
+                cache.put(Long.parseUnsignedLong(fields[0], 16), new Verdict(Status.valueOf(fields[1]), notes));
+            } catch (IllegalArgumentException e) {
+                // A line from an older or damaged file is simply checked again
+            }
+        }
+        return cache;
+    }
+
+    // Keeps only the verdicts of this run, so entries for deleted puzzles don't pile up
+    static void saveCache(Path path, Map<Long, Verdict> verdicts) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Long, Verdict> entry : verdicts.entrySet()) {
+            sb.append(Long.toHexString(entry.getKey())).append('\t').append(entry.getValue().status).append('\t')
+                .append(String.join(" | ", entry.getValue().notes).replace('\t', ' ').replace('\n', ' ')).append('\n');
+        }
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, sb.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Checks every item not already in the cache, on jobs threads; returns the verdict of each
+    // distinct key, cached or new
+    static Map<Long, Verdict> run(List<Item> items, Map<Long, Verdict> cache, int depth, int jobs, int hashMb)
+            throws InterruptedException {
+        Map<Long, Verdict> verdicts = new ConcurrentHashMap<>();
+        Map<Long, Item> pending = new LinkedHashMap<>();
+        for (Item item : items) {
+            long key = cacheKey(item, depth);
+            Verdict cached = cache.get(key);
+            if (cached != null) {
+                verdicts.put(key, cached);
+            } else {
+                pending.putIfAbsent(key, item);
+            }
+        }
+        if (pending.isEmpty()) {
+            return verdicts;
+        }
+
+        BlockingQueue<SearchEngine> engines = new ArrayBlockingQueue<>(jobs);
+        for (int i = 0; i < jobs; i++) {
+            engines.add(new SearchEngine(1, hashMb));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(jobs, SearchEngine.daemonThreads("puzzle-validator"));
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            SearchLimits limits = SearchLimits.depth(depth);
+            for (Map.Entry<Long, Item> entry : pending.entrySet()) {
+                tasks.add(pool.submit(() -> {
+                    SearchEngine engine = engines.take();
+                    try {
+                        verdicts.put(entry.getKey(), check(entry.getValue(), engine, limits));
+                    } finally {
+                        engines.add(engine);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Validation failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            for (SearchEngine engine : engines) {
+                engine.shutdown();
+            }
+        }
+        return verdicts;
+    }
+
+    public static void main(String[] args) {
+        try {
+            List<Path> catalogs = new ArrayList<>();
+            int depth = DEFAULT_DEPTH, jobs = Runtime.getRuntime().availableProcessors(), hashMb = 16;
+            Path cachePath = DEFAULT_CACHE;
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--depth": depth = Integer.parseInt(args[++i]); break;
+                    case "--jobs": jobs = Integer.parseInt(args[++i]); break;
+                    case "--hash": hashMb = Integer.parseInt(args[++i]); break;
+                    case "--cache": cachePath = Paths.get(args[++i]); break;
+                    case "--no-cache": cachePath = null; break;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        catalogs.add(Paths.get(args[i]));
+                }
+            }
+            if (depth < 1 || depth >= SearchEngine.MAX_PLY || jobs < 1) {
+                throw new IllegalArgumentException("--depth must be 1-" + (SearchEngine.MAX_PLY - 1) + " and --jobs positive");
+            }
+            if (catalogs.isEmpty()) {
+                catalogs.add(DEFAULT_CATALOG);
+            }
+
+            List<Item> items = new ArrayList<>();
+            for (Path catalog : catalogs) {
+                items.addAll(catalog.toString().endsWith(".epd") ? loadEpd(catalog) : loadTypeScript(catalog));
+            }
+            Map<Long, Verdict> cache = cachePath != null ? loadCache(cachePath) : new HashMap<>();
+            long start = System.nanoTime();
+            int cached = 0;
+            for (Item item : items) {
+                if (cache.containsKey(cacheKey(item, depth))) {
+                    cached++;
+                }
+            }
+            Map<Long, Verdict> verdicts = run(items, cache, depth, jobs, hashMb);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (cachePath != null) {
+                saveCache(cachePath, verdicts);
+            }
+
+            int[] counts = new int[Status.values().length];
+            for (Item item : items) {
+                Verdict verdict = verdicts.get(cacheKey(item, depth));
+                counts[verdict.status.ordinal()]++;
+                System.out.printf("%-9s %-24s %s%n", verdict.status, item.id, String.join("; ", verdict.notes));
+            }
+            StringBuilder summary = new StringBuilder();
+            for (Status status : Status.values()) {
+                summary.append(String.format(", %d %s", counts[status.ordinal()], status.name().toLowerCase(Locale.ROOT)));
+            }
+            System.out.printf("%d items%s; %d from cache, depth %d, %.1f s%n", items.size(), summary, cached, depth, seconds);
+            boolean failed = counts[Status.ALTERNATE.ordinal()] + counts[Status.UNSOUND.ordinal()]
+                + counts[Status.ILLEGAL.ordinal()] > 0;
+            System.exit(failed ? 1 : 0);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            System.err.println("Usage: java PuzzleValidator [catalog.ts | suite.epd]... [--depth N] [--jobs N] [--hash MB] [--cache FILE | --no-cache]");
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+    }
+}
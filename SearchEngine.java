@@ -0,0 +1,277 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Iterative-deepening alpha-beta engine with Lazy SMP: every thread searches the same
+// root independently and they cooperate only through the shared transposition table.
+// Thread 0 owns time control and reporting; helpers just keep the table warm.
+public class SearchEngine {
+    static final int MAX_PLY = 128;
+    static final int INFINITY = 32000;
+    static final int MATE = 31000;
+    static final int MATE_BOUND = MATE - MAX_PLY;
+
+    private static final LongAdder SEARCHES = Metrics.counter("search.searches");
+    private static final LongAdder SEARCH_NANOS = Metrics.counter("search.nanos");
+    private static final LatencyHistogram SEARCH_TIME = Metrics.histogram("search.time");
+
+    static {
+        // Over all searches so far; the periodic dump's search.nodes rate is the current figure
+        Metrics.gauge("search.nps", () -> {
+            long nanos = SEARCH_NANOS.sum();
+            return nanos == 0 ? 0 : Metrics.counter("search.nodes").sum() * 1_000_000_000L / nanos;
+        });
+    }
+
+    private TranspositionTable table;
+    private volatile Tablebase tablebase;
+    private Evaluator evaluator = ClassicalEvaluator.INSTANCE;
+    private SearchWorker[] workers;
+    private ExecutorService helperPool;
+
+    volatile boolean stopped;
+    private long startNanos;
+    private long softLimitNanos;
+    private long hardLimitNanos;
+    private long nodeLimit;
+
+    public SearchEngine() {
+        this(1, 16);
+    }
+
+    public SearchEngine(int threads, int hashMb) {
+        table = new TranspositionTable(hashMb);
+        setThreads(threads);
+    }
+
+    public synchronized void setThreads(int threads) {
+        int count = Math.max(1, threads);
+        if (helperPool != null) {
+            helperPool.shutdownNow();
+        }
+        workers = new SearchWorker[count];
+        for (int i = 0; i < count; i++) {
+            workers[i] = new SearchWorker(this, i);
+            workers[i].setEvaluator(evaluator.newInstance());
+        }
+        helperPool = count > 1 ? Executors.newFixedThreadPool(count - 1, daemonThreads("search-helper")) : null;
+    }
+
+    public synchronized int getThreads() {
+        return workers.length;
+    }
+
+    // Reallocates (and so clears) the shared table; clamped to the supported range
+    public synchronized void setHashSize(int sizeMb) {
+        int clamped = Math.max(TranspositionTable.MIN_SIZE_MB, Math.min(TranspositionTable.MAX_SIZE_MB, sizeMb));
+        if (clamped != table.sizeMb()) {
+            table = new TranspositionTable(clamped);
+        }
+    }
+
+    public synchronized int getHashSize() {
+        return table.sizeMb();
+    }
+
+    TranspositionTable table() {
+        return table;
+    }
+
+    // Endgame tables to probe during search, or null; shared, so several engines may use one
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    Tablebase tablebase() {
+        return tablebase;
+    }
+
+    // Takes effect from the next search; every thread gets its own instance. Clears the
+    // table, whose scores came from the previous evaluator
+    public synchronized void setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+        table.clear();
+        for (SearchWorker worker : workers) {
+            worker.setEvaluator(evaluator.newInstance());
+        }
+    }
+
+    public synchronized Evaluator evaluator() {
+        return evaluator;
+    }
+
+    // Forget everything learned from the previous game
+    public synchronized void newGame() {
+        table.clear();
+        for (SearchWorker worker : workers) {
+            worker.clearHistory();
+        }
+    }
+
+    // Safe to call from any thread; search() returns promptly with the best move so far
+    public void stop() {
+        stopped = true;
+    }
+
+    public synchronized void shutdown() {
+        stopped = true;
+        if (helperPool != null) {
+            helperPool.shutdownNow();
+        }
+    }
+
+    // Blocks until a limit is hit or stop() is called
+    public synchronized SearchResult search(ChessGame position, SearchLimits limits, SearchListener listener) {
+        stopped = false;
+        startNanos = System.nanoTime();
+
+        // In the tables the best move is known outright; analysis ("infinite") still searches
+        Tablebase tablebase = this.tablebase;
+        if (tablebase != null && !limits.infinite && limits.excludedMoves == null) {
+            int move = tablebase.bestMove(position);
+            if (move != Move.NONE) {
+                // Ply 0, as the probes inside the search score a position at the root
+                int score = Tablebase.score(tablebase.probeWdl(position), 0);
+                SearchResult result = new SearchResult(1, 1, score, 0, elapsedMillis(), new int[] {move}, table.hashfull());
+                if (listener != null) {
+                    listener.onIteration(result);
+                }
+                return result;
+            }
+        }
+
+        // With every root move excluded there is nothing to search: no move, and no score to report
+        MoveList rootMoves = new MoveList();
+        position.generateLegalMoves(rootMoves);
+        int firstAllowed = firstAllowed(rootMoves, limits.excludedMoves);
+        if (firstAllowed == Move.NONE && rootMoves.size() > 0) {
+            return new SearchResult(0, 0, 0, 0, elapsedMillis(), new int[0], table.hashfull());
+        }
+
+        allocateTime(limits, position.sideToMove());
+        nodeLimit = limits.nodes;
+        table.newSearch();
+        int maxDepth = limits.depth > 0 ? Math.min(limits.depth, MAX_PLY - 1) : MAX_PLY - 1;
+
+        for (SearchWorker worker : workers) {
+            worker.prepare(position, maxDepth, limits.excludedMoves);
+        }
+
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) {
+            helpers.add(helperPool.submit(workers[i]));
+        }
+
+        SearchWorker main = workers[0];
+        main.iterativeDeepening(listener);
+
+        // An infinite search must not report until told to stop
+        while (limits.infinite && !stopped) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        stopped = true;
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Search helper failed", e.getCause());
+            }
+        }
+
+        long searchNanos = System.nanoTime() - startNanos;
+        if (Metrics.ENABLED) {
+            SEARCHES.increment();
+            SEARCH_NANOS.add(searchNanos);
+            SEARCH_TIME.record(searchNanos);
+        }
+
+        SearchResult best = main.result();
+        if (best == null) {
+            // Stopped before depth 1 finished: fall back to any legal move that is not excluded
+            int[] pv = firstAllowed != Move.NONE ? new int[] {firstAllowed} : new int[0];
+            best = new SearchResult(0, 0, 0, totalNodes(), elapsedMillis(), pv, 0);
+        }
+        return new SearchResult(best.depth, best.selDepth, best.score, totalNodes(), elapsedMillis(), best.pv,
+            table.hashfull());
+    }
+
+    // The first of moves not in excluded (which may be null), or Move.NONE
+    private static int firstAllowed(MoveList moves, int[] excluded) {
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            boolean skip = false;
+            if (excluded != null) {
+                for (int e : excluded) {
+                    skip |= e == move;
+                }
+            }
+            if (!skip) {
+                return move;
+            }
+        }
+        return Move.NONE;
+    }
+
+    private void allocateTime(SearchLimits limits, int sideToMove) {
+        softLimitNanos = Long.MAX_VALUE;
+        hardLimitNanos = Long.MAX_VALUE;
+        if (limits.infinite) {
+            return;
+        }
+        if (limits.moveTimeMs > 0) {
+            softLimitNanos = hardLimitNanos = TimeUnit.MILLISECONDS.toNanos(limits.moveTimeMs);
+        } else if (limits.hasClock()) {
+            long remaining = sideToMove == ChessGame.WHITE ? limits.whiteTimeMs : limits.blackTimeMs;
+            long increment = sideToMove == ChessGame.WHITE ? limits.whiteIncrementMs : limits.blackIncrementMs;
+            int movesToGo = limits.movesToGo > 0 ? limits.movesToGo : 30;
+            // Keep a small reserve for transport overhead
+            long usable = Math.max(1, remaining - 50);
+            long target = usable / movesToGo + increment * 3 / 4;
+            long soft = Math.min(target, usable / 2);
+            long hard = Math.min(target * 4, usable / 2);
+            softLimitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(5, soft));
+            hardLimitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(10, hard));
+        }
+    }
+
+    // Polled by the main thread every few thousand nodes
+    void checkLimits() {
+        if (System.nanoTime() - startNanos >= hardLimitNanos
+                || (nodeLimit > 0 && totalNodes() >= nodeLimit)) {
+            stopped = true;
+        }
+    }
+
+    // Whether another iteration is worth starting
+    boolean softTimeExpired() {
+        return System.nanoTime() - startNanos >= softLimitNanos;
+    }
+
+    long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    long totalNodes() {
+        long total = 0;
+        for (SearchWorker worker : workers) {
+            total += worker.nodes;
+        }
+        return total;
+    }
+
+    static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
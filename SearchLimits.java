@@ -0,0 +1,62 @@
+// What a search may spend: any combination of depth, node, and time limits.
+// A limit of zero means "not set"; infinite searches run until stopped.
+final class SearchLimits {
+    int depth;
+    long nodes;
+    long moveTimeMs;
+    long whiteTimeMs;
+    long blackTimeMs;
+    long whiteIncrementMs;
+    long blackIncrementMs;
+    int movesToGo;
+    boolean infinite;
+    // Root moves left out of the search, for finding the best alternative to a move; null for none
+    int[] excludedMoves;
+
+    static SearchLimits depth(int depth) {
+        SearchLimits limits = new SearchLimits();
+        limits.depth = depth;
+        return limits;
+    }
+
+    static SearchLimits moveTime(long millis) {
+        SearchLimits limits = new SearchLimits();
+        limits.moveTimeMs = millis;
+        return limits;
+    }
+
+    static SearchLimits nodes(long nodes) {
+        SearchLimits limits = new SearchLimits();
+        limits.nodes = nodes;
+        return limits;
+    }
+
+    static SearchLimits infinite() {
+        SearchLimits limits = new SearchLimits();
+        limits.infinite = true;
+        return limits;
+    }
+
+    // Same limits with these root moves left out as well
+    SearchLimits excluding(int... moves) {
+        SearchLimits limits = new SearchLimits();
+        limits.depth = depth;
+        limits.nodes = nodes;
+        limits.moveTimeMs = moveTimeMs;
+        limits.whiteTimeMs = whiteTimeMs;
+        limits.blackTimeMs = blackTimeMs;
+        limits.whiteIncrementMs = whiteIncrementMs;
+        limits.blackIncrementMs = blackIncrementMs;
+        limits.movesToGo = movesToGo;
+        limits.infinite = infinite;
+        int already = excludedMoves == null ? 0 : excludedMoves.length;
+        limits.excludedMoves = java.util.Arrays.copyOf(excludedMoves == null ? new int[0] : excludedMoves,
+            already + moves.length);
+        System.arraycopy(moves, 0, limits.excludedMoves, already, moves.length);
+        return limits;
+    }
+
+    boolean hasClock() {
+        return whiteTimeMs > 0 || blackTimeMs > 0;
+    }
+}
@@ -0,0 +1,5 @@
+// Receives a result after every completed iteration of the main search thread.
+// Called on the search thread, so implementations must hand off quickly.
+interface SearchListener {
+    void onIteration(SearchResult result);
+}
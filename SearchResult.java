@@ -0,0 +1,58 @@
+// Snapshot of a search: the principal variation and the statistics behind it.
+final class SearchResult {
+    final int depth;
+    final int selDepth;
+    final int score;
+    final long nodes;
+    final long timeMs;
+    final int[] pv;
+    final int hashfull;
+
+    SearchResult(int depth, int selDepth, int score, long nodes, long timeMs, int[] pv, int hashfull) {
+        this.depth = depth;
+        this.selDepth = selDepth;
+        this.score = score;
+        this.nodes = nodes;
+        this.timeMs = timeMs;
+        this.pv = pv;
+        this.hashfull = hashfull;
+    }
+
+    int bestMove() {
+        return pv.length > 0 ? pv[0] : Move.NONE;
+    }
+
+    int ponderMove() {
+        return pv.length > 1 ? pv[1] : Move.NONE;
+    }
+
+    long nodesPerSecond() {
+        return timeMs > 0 ? nodes * 1000 / timeMs : nodes * 1000;
+    }
+
+    boolean isMate() {
+        return Math.abs(score) >= SearchEngine.MATE_BOUND;
+    }
+
+    // Moves (not plies) until mate; negative when the side to move is being mated
+    int mateIn() {
+        return score > 0 ? (SearchEngine.MATE - score + 1) / 2 : -(SearchEngine.MATE + score) / 2;
+    }
+
+    String pvString() {
+        StringBuilder sb = new StringBuilder();
+        for (int move : pv) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(Move.toUci(move));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("depth %d score %s nodes %d nps %d pv %s", depth,
+            isMate() ? "mate " + mateIn() : "cp " + score, nodes, nodesPerSecond(), pvString());
+    }
+}
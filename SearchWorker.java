@@ -0,0 +1,619 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// One search thread: its own board, evaluator state, move buffers, killers and history,
+// sharing only the transposition table and stop flag with the rest of the engine.
+final class SearchWorker implements Runnable {
+    private static final int MAX_PLY = SearchEngine.MAX_PLY;
+    private static final int INFINITY = SearchEngine.INFINITY;
+    private static final int MATE = SearchEngine.MATE;
+    private static final int MATE_BOUND = SearchEngine.MATE_BOUND;
+
+    private static final int TT_MOVE_SCORE = 2_000_000;
+    private static final int CAPTURE_SCORE = 1_000_000;
+    private static final int KILLER_SCORE = 900_000;
+    private static final int HISTORY_LIMIT = 16384;
+    // One move generation in this many is timed
+    private static final int GENERATION_SAMPLE_MASK = 1023;
+    // Long searches publish their tallies this often, so a dump during analysis isn't stale
+    private static final int FLUSH_NODE_MASK = 65535;
+
+    // Process totals, fed from the per-worker tallies below once per search
+    private static final LongAdder NODES = Metrics.counter("search.nodes");
+    private static final LongAdder QUIESCENCE_NODES = Metrics.counter("search.qnodes");
+    private static final LongAdder TT_PROBES = Metrics.counter("search.tt.probes");
+    private static final LongAdder TT_HITS = Metrics.counter("search.tt.hits");
+    private static final LongAdder CUTOFFS = Metrics.counter("search.cutoffs");
+    private static final LongAdder FIRST_MOVE_CUTOFFS = Metrics.counter("search.cutoffs.first");
+    private static final LatencyHistogram MOVE_GENERATION = Metrics.histogram("search.movegen");
+
+    static {
+        // Per mille, so they fit the long gauges
+        Metrics.gauge("search.tt.hitrate", () -> ratio(TT_HITS.sum(), TT_PROBES.sum()));
+        Metrics.gauge("search.cutoffs.firstrate", () -> ratio(FIRST_MOVE_CUTOFFS.sum(), CUTOFFS.sum()));
+    }
+
+    // Late move reductions indexed by [depth][move number]
+    private static final int[][] REDUCTIONS = new int[64][64];
+
+    static {
+        for (int depth = 1; depth < 64; depth++) {
+            for (int moveNumber = 1; moveNumber < 64; moveNumber++) {
+                REDUCTIONS[depth][moveNumber] = (int) (0.75 + Math.log(depth) * Math.log(moveNumber) / 2.25);
+            }
+        }
+    }
+
+    private final SearchEngine engine;
+    private final int id;
+    private final ChessGame board = new ChessGame();
+
+    private final MoveList[] moveLists = new MoveList[MAX_PLY + 1];
+    private final int[][] moveScores = new int[MAX_PLY + 1][MoveList.CAPACITY];
+    private final int[][] quietsTried = new int[MAX_PLY + 1][MoveList.CAPACITY];
+    private final int[][] killers = new int[MAX_PLY + 1][2];
+    private final int[][] history = new int[12][64];
+    private final int[][] pvTable = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private final int[] pvLength = new int[MAX_PLY + 1];
+
+    long nodes;
+    // Plain tallies for the metrics; see flushMetrics
+    private long flushedNodes;
+    private long quiescenceNodes;
+    private long ttProbes;
+    private long ttHits;
+    private long cutoffs;
+    private long firstMoveCutoffs;
+    private int generations;
+    private int selDepth;
+    private int maxDepth;
+    // Root moves to skip (SearchLimits.excludedMoves), or null
+    private int[] excludedMoves;
+    private TranspositionTable table;
+    private Tablebase tablebase;
+    private Evaluator evaluator = ClassicalEvaluator.INSTANCE;
+    private SearchResult result;
+
+    SearchWorker(SearchEngine engine, int id) {
+        this.engine = engine;
+        this.id = id;
+        for (int i = 0; i <= MAX_PLY; i++) {
+            moveLists[i] = new MoveList();
+        }
+    }
+
+    void prepare(ChessGame position, int maxDepth, int[] excludedMoves) {
+        board.copyFrom(position);
+        this.maxDepth = maxDepth;
+        this.excludedMoves = excludedMoves;
+        this.table = engine.table();
+        this.tablebase = engine.tablebase();
+        evaluator.reset(board);
+        nodes = 0;
+        flushedNodes = 0;
+        result = null;
+        for (int[] pair : killers) {
+            pair[0] = Move.NONE;
+            pair[1] = Move.NONE;
+        }
+    }
+
+    // Must come from Evaluator.newInstance(): the worker updates it in step with its board
+    void setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    void clearHistory() {
+        for (int[] row : history) {
+            java.util.Arrays.fill(row, 0);
+        }
+    }
+
+    SearchResult result() {
+        return result;
+    }
+
+    private boolean isExcluded(int move) {
+        if (excludedMoves != null) {
+            for (int excluded : excludedMoves) {
+                if (excluded == move) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void run() {
+        iterativeDeepening(null);
+    }
+
+    private static long ratio(long part, long whole) {
+        return whole == 0 ? 0 : part * 1000 / whole;
+    }
+
+    // At the end of a search and every 64K nodes, so the shared adders see a handful of
+    // updates per search rather than one per node
+    private void flushMetrics() {
+        if (Metrics.ENABLED) {
+            NODES.add(nodes - flushedNodes);
+            QUIESCENCE_NODES.add(quiescenceNodes);
+            TT_PROBES.add(ttProbes);
+            TT_HITS.add(ttHits);
+            CUTOFFS.add(cutoffs);
+            FIRST_MOVE_CUTOFFS.add(firstMoveCutoffs);
+        }
+        flushedNodes = nodes;
+        quiescenceNodes = ttProbes = ttHits = cutoffs = firstMoveCutoffs = 0;
+    }
+
+    void iterativeDeepening(SearchListener listener) {
+        try {
+            deepen(listener);
+        } finally {
+            flushMetrics();
+        }
+    }
+
+    private void deepen(SearchListener listener) {
+        int previousScore = 0;
+        for (int depth = 1; depth <= maxDepth && !engine.stopped; depth++) {
+            // Helpers stagger their depths so the threads don't all walk the same tree in lockstep
+            if (id > 0 && depth > 2 && ((depth + id) & 1) == 0) {
+                continue;
+            }
+            selDepth = 0;
+
+            int score;
+            if (depth >= 5) {
+                int window = 25;
+                int alpha = Math.max(previousScore - window, -INFINITY);
+                int beta = Math.min(previousScore + window, INFINITY);
+                while (true) {
+                    score = search(depth, alpha, beta, 0, false);
+                    if (engine.stopped) {
+                        break;
+                    }
+                    if (score <= alpha) {
+                        alpha = Math.max(score - window, -INFINITY);
+                    } else if (score >= beta) {
+                        beta = Math.min(score + window, INFINITY);
+                    } else {
+                        break;
+                    }
+                    window *= 2;
+                }
+            } else {
+                score = search(depth, -INFINITY, INFINITY, 0, false);
+            }
+
+            // A partial iteration is only trustworthy if nothing was searched at all
+            if (engine.stopped && result != null) {
+                break;
+            }
+            if (pvLength[0] == 0) {
+                break;
+            }
+            previousScore = score;
+            result = new SearchResult(depth, selDepth, score, nodes, engine.elapsedMillis(),
+                java.util.Arrays.copyOf(pvTable[0], pvLength[0]), 0);
+
+            if (id == 0) {
+                if (listener != null) {
+                    listener.onIteration(new SearchResult(depth, selDepth, score, engine.totalNodes(),
+                        engine.elapsedMillis(), result.pv, table.hashfull()));
+                }
+                if (engine.softTimeExpired()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private int search(int depth, int alpha, int beta, int ply, boolean allowNull) {
+        boolean pvNode = beta - alpha > 1;
+        pvLength[ply] = 0;
+
+        if (depth <= 0) {
+            return quiesce(alpha, beta, ply);
+        }
+        countNode();
+        if (engine.stopped) {
+            return 0;
+        }
+        if (ply > selDepth) {
+            selDepth = ply;
+        }
+
+        if (ply > 0) {
+            if (board.isRepetition() || board.halfmoveClock() >= 100) {
+                return 0;
+            }
+            // Mate distance pruning
+            alpha = Math.max(alpha, -MATE + ply);
+            beta = Math.min(beta, MATE - ply - 1);
+            if (alpha >= beta) {
+                return alpha;
+            }
+        }
+        if (ply >= MAX_PLY - 1) {
+            return evaluator.evaluate(board);
+        }
+
+        // Exact results for small endings; the root still searches so it has a move to play
+        if (tablebase != null && ply > 0 && Long.bitCount(board.occupied()) <= tablebase.maxPieces()) {
+            int wdl = tablebase.probeWdl(board);
+            if (wdl != Tablebase.UNKNOWN) {
+                return Tablebase.score(wdl, ply);
+            }
+        }
+
+        boolean inCheck = board.inCheck();
+        if (inCheck) {
+            depth++;
+        }
+
+        long key = board.hash();
+        long entry = table.probe(key);
+        int ttMove = Move.NONE;
+        ttProbes++;
+        if (entry != 0) {
+            ttHits++;
+            ttMove = TranspositionTable.move(entry);
+            if (!pvNode && TranspositionTable.depth(entry) >= depth) {
+                int score = scoreFromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.BOUND_EXACT
+                        || (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+                        || (bound == TranspositionTable.BOUND_UPPER && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        int staticEval = inCheck ? -INFINITY : evaluator.evaluate(board);
+
+        if (!pvNode && !inCheck && Math.abs(beta) < MATE_BOUND) {
+            // Reverse futility: far enough above beta that a quiet move won't fall back below it
+            if (depth <= 6 && staticEval - 80 * depth >= beta) {
+                return staticEval;
+            }
+
+            if (allowNull && depth >= 3 && staticEval >= beta && board.hasNonPawnMaterial(board.sideToMove())) {
+                int reduction = 3 + depth / 6;
+                board.makeNullMove();
+                int score = -search(depth - 1 - reduction, -beta, -beta + 1, ply + 1, false);
+                board.unmakeNullMove();
+                if (engine.stopped) {
+                    return 0;
+                }
+                if (score >= beta) {
+                    return score >= MATE_BOUND ? beta : score;
+                }
+            }
+        }
+
+        // Without a hash move the ordering is poor; search shallower first
+        if (ttMove == Move.NONE && depth >= 4 && !inCheck) {
+            depth--;
+        }
+
+        MoveList moves = moveLists[ply];
+        generate(moves, false);
+        if (moves.size() == 0) {
+            return inCheck ? -MATE + ply : 0;
+        }
+        scoreMoves(moves, ply, ttMove);
+
+        int originalAlpha = alpha;
+        int bestScore = -INFINITY;
+        int bestMove = Move.NONE;
+        int quietCount = 0;
+        int[] quiets = quietsTried[ply];
+
+        for (int i = 0; i < moves.size(); i++) {
+            int move = pickNext(moves, ply, i);
+            if (ply == 0 && isExcluded(move)) {
+                continue;
+            }
+            boolean quiet = !Move.isCapture(move) && !Move.isPromotion(move);
+            boolean killer = move == killers[ply][0] || move == killers[ply][1];
+
+            // Late move pruning: quiet moves this far down the list at low depth rarely matter
+            if (!pvNode && !inCheck && quiet && bestScore > -MATE_BOUND && depth <= 3
+                    && quietCount >= 3 + depth * depth * 2) {
+                continue;
+            }
+
+            makeMove(move);
+            boolean givesCheck = board.inCheck();
+
+            // Futility: a quiet, non-checking move that can't lift the eval to alpha
+            if (!pvNode && !inCheck && quiet && !givesCheck && bestScore > -MATE_BOUND
+                    && depth <= 2 && staticEval + 150 * depth <= alpha) {
+                unmakeMove(move);
+                continue;
+            }
+
+            int score;
+            if (i == 0) {
+                score = -search(depth - 1, -beta, -alpha, ply + 1, true);
+            } else {
+                int reduction = 0;
+                if (depth >= 3 && i >= 2 && quiet && !inCheck && !givesCheck) {
+                    reduction = REDUCTIONS[Math.min(depth, 63)][Math.min(i, 63)];
+                    if (pvNode) {
+                        reduction--;
+                    }
+                    if (killer) {
+                        reduction--;
+                    }
+                    reduction = Math.max(0, Math.min(reduction, depth - 2));
+                }
+                score = -search(depth - 1 - reduction, -alpha - 1, -alpha, ply + 1, true);
+                if (score > alpha && reduction > 0) {
+                    score = -search(depth - 1, -alpha - 1, -alpha, ply + 1, true);
+                }
+                if (score > alpha && score < beta) {
+                    score = -search(depth - 1, -beta, -alpha, ply + 1, true);
+                }
+            }
+            unmakeMove(move);
+
+            if (engine.stopped) {
+                return 0;
+            }
+            if (quiet) {
+                quiets[quietCount++] = move;
+            }
+
+            if (score > bestScore) {
+                bestScore = score;
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = move;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        cutoffs++;
+                        if (i == 0) {
+                            firstMoveCutoffs++;
+                        }
+                        if (quiet) {
+                            updateQuietStats(ply, move, depth, quiets, quietCount - 1);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        // Every move was pruned; fall back to the static eval as an upper bound
+        if (bestScore == -INFINITY) {
+            return staticEval;
+        }
+
+        // A root result with moves excluded is not the position's value; it must not be found
+        // by an unrestricted search of the same position
+        if (ply > 0 || excludedMoves == null) {
+            int bound = bestScore >= beta ? TranspositionTable.BOUND_LOWER
+                : alpha > originalAlpha ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+            table.store(key, bestMove != Move.NONE ? bestMove : ttMove, scoreToTable(bestScore, ply), depth, bound);
+        }
+        return bestScore;
+    }
+
+    private int quiesce(int alpha, int beta, int ply) {
+        countNode();
+        quiescenceNodes++;
+        pvLength[ply] = 0;
+        if (engine.stopped) {
+            return 0;
+        }
+        if (ply > selDepth) {
+            selDepth = ply;
+        }
+        if (ply >= MAX_PLY - 1) {
+            return evaluator.evaluate(board);
+        }
+
+        boolean inCheck = board.inCheck();
+        long key = board.hash();
+        long entry = table.probe(key);
+        int ttMove = Move.NONE;
+        ttProbes++;
+        if (entry != 0) {
+            ttHits++;
+            ttMove = TranspositionTable.move(entry);
+            int score = scoreFromTable(TranspositionTable.score(entry), ply);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.BOUND_EXACT
+                    || (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+                    || (bound == TranspositionTable.BOUND_UPPER && score <= alpha)) {
+                return score;
+            }
+        }
+
+        MoveList moves = moveLists[ply];
+        int bestScore;
+        int standPat = 0;
+        if (inCheck) {
+            // No stand-pat while in check: every evasion has to be tried
+            generate(moves, false);
+            if (moves.size() == 0) {
+                return -MATE + ply;
+            }
+            bestScore = -INFINITY;
+        } else {
+            standPat = evaluator.evaluate(board);
+            if (standPat >= beta) {
+                return standPat;
+            }
+            if (standPat > alpha) {
+                alpha = standPat;
+            }
+            bestScore = standPat;
+            generate(moves, true);
+        }
+        scoreMoves(moves, ply, ttMove);
+
+        for (int i = 0; i < moves.size(); i++) {
+            int move = pickNext(moves, ply, i);
+            // Delta pruning: even winning the captured piece outright won't reach alpha
+            if (!inCheck && !Move.isPromotion(move)
+                    && standPat + capturedValue(move) + 200 <= alpha) {
+                continue;
+            }
+
+            makeMove(move);
+            int score = -quiesce(-beta, -alpha, ply + 1);
+            unmakeMove(move);
+            if (engine.stopped) {
+                return 0;
+            }
+
+            if (score > bestScore) {
+                bestScore = score;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return bestScore;
+    }
+
+    // The evaluator sees each move before the board changes; a null move changes no
+    // piece, so it needs neither call
+    private void makeMove(int move) {
+        evaluator.push(board, move);
+        board.makeMove(move);
+    }
+
+    private void unmakeMove(int move) {
+        board.unmakeMove(move);
+        evaluator.pop();
+    }
+
+    private void generate(MoveList moves, boolean capturesOnly) {
+        if ((++generations & GENERATION_SAMPLE_MASK) != 0 || !Metrics.ENABLED) {
+            if (capturesOnly) {
+                board.generateLegalCaptures(moves);
+            } else {
+                board.generateLegalMoves(moves);
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        if (capturesOnly) {
+            board.generateLegalCaptures(moves);
+        } else {
+            board.generateLegalMoves(moves);
+        }
+        MOVE_GENERATION.record(System.nanoTime() - start);
+    }
+
+    private void countNode() {
+        long count = ++nodes;
+        if (id == 0 && (count & 2047) == 0) {
+            engine.checkLimits();
+        }
+        if ((count & FLUSH_NODE_MASK) == 0) {
+            flushMetrics();
+        }
+    }
+
+    private int capturedValue(int move) {
+        if (Move.flags(move) == Move.EN_PASSANT) {
+            return ClassicalEvaluator.PIECE_VALUES[ChessGame.PAWN];
+        }
+        int victim = board.pieceAt(Move.to(move));
+        return victim == ChessGame.EMPTY ? 0 : ClassicalEvaluator.PIECE_VALUES[ChessGame.typeOf(victim)];
+    }
+
+    // Move ordering: hash move, captures by MVV-LVA, queen promotions, killers, then history
+    private void scoreMoves(MoveList moves, int ply, int ttMove) {
+        int[] scores = moveScores[ply];
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            int from = Move.from(move);
+            int score;
+            if (move == ttMove) {
+                score = TT_MOVE_SCORE;
+            } else if (Move.isCapture(move)) {
+                score = CAPTURE_SCORE + capturedValue(move) * 16 - ChessGame.typeOf(board.pieceAt(from));
+                if (Move.isPromotion(move)) {
+                    score += Move.promotionType(move) == ChessGame.QUEEN ? 10_000 : -CAPTURE_SCORE;
+                }
+            } else if (Move.isPromotion(move)) {
+                score = Move.promotionType(move) == ChessGame.QUEEN ? CAPTURE_SCORE + 8_000 : -HISTORY_LIMIT - 1;
+            } else if (move == killers[ply][0]) {
+                score = KILLER_SCORE;
+            } else if (move == killers[ply][1]) {
+                score = KILLER_SCORE - 1;
+            } else {
+                score = history[board.pieceAt(from)][Move.to(move)];
+            }
+            scores[i] = score;
+        }
+    }
+
+    // Selection sort step: swap the best remaining move into slot index
+    private int pickNext(MoveList moves, int ply, int index) {
+        int[] scores = moveScores[ply];
+        int best = index;
+        for (int i = index + 1; i < moves.size(); i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        int move = moves.moves[best];
+        if (best != index) {
+            moves.moves[best] = moves.moves[index];
+            moves.moves[index] = move;
+            int score = scores[best];
+            scores[best] = scores[index];
+            scores[index] = score;
+        }
+        return move;
+    }
+
+    private void updateQuietStats(int ply, int move, int depth, int[] quiets, int failedCount) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        int bonus = Math.min(depth * depth, 400);
+        addHistory(move, bonus);
+        for (int i = 0; i < failedCount; i++) {
+            addHistory(quiets[i], -bonus);
+        }
+    }
+
+    // History with gravity so scores stay within +-HISTORY_LIMIT
+    private void addHistory(int move, int bonus) {
+        int[] row = history[board.pieceAt(Move.from(move))];
+        int to = Move.to(move);
+        row[to] += bonus - row[to] * Math.abs(bonus) / HISTORY_LIMIT;
+    }
+
+    private void updatePv(int ply, int move) {
+        int[] line = pvTable[ply];
+        int[] child = pvTable[ply + 1];
+        line[0] = move;
+        int childLength = pvLength[ply + 1];
+        System.arraycopy(child, 0, line, 1, childLength);
+        pvLength[ply] = childLength + 1;
+    }
+
+    // Mate scores are stored relative to the node so they stay valid at other plies
+    private static int scoreToTable(int score, int ply) {
+        return score >= MATE_BOUND ? score + ply : score <= -MATE_BOUND ? score - ply : score;
+    }
+
+    private static int scoreFromTable(int score, int ply) {
+        return score >= MATE_BOUND ? score - ply : score <= -MATE_BOUND ? score + ply : score;
+    }
+}
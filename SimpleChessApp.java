@@ -1,8 +1,12 @@
+import java.io.IOException;
+import java.nio.file.*;
 import java.util.*;
 
 public class SimpleChessApp {
-    private static Map<String, Object> storage = new HashMap<>();
-    private static double progress = 0.0;
+    // Finished console games are appended here in the compact binary game format
+    private static final Path GAMES_FILE = ChessStorage.DATA_DIRECTORY.resolve("games");
+    // Optional opening book (build one with java OpeningBook build); the AI plays from it while it can
+    private static final Path BOOK_FILE = ChessStorage.DATA_DIRECTORY.resolve("book.bin");
     
     public static void main(String[] args) {
         System.out.println("♔ Chess Learning App ♔");
@@ -60,20 +64,119 @@ public class SimpleChessApp {
     
     private static void startNewGame() {
         System.out.println("\n🎮 Starting New Game...");
-        System.out.println("Chess board initialized!");
-        System.out.println("White pieces: ♔♕♖♗♘♙");
-        System.out.println("Black pieces: K Q R B N P");
-        System.out.println("\nGame features:");
-        System.out.println("- Interactive board");
-        System.out.println("- Move validation");
-        System.out.println("- AI opponent (coming soon)");
-        System.out.println("- Game analysis");
+        System.out.println("You play White against the AI.");
+        System.out.println("Enter moves like e2e4 (e7e8q to promote), or 'quit' to return to menu.");
         
+        ChessGame game = new ChessGame();
+        ChessGame start = new ChessGame();
+        int[] moves = new int[1024];
+        int moveCount = 0;
+        int outcome = PgnParser.RESULT_UNKNOWN;
+        SearchEngine engine = new SearchEngine(Runtime.getRuntime().availableProcessors(), 64);
+        OpeningBook book = openBook();
         Scanner scanner = new Scanner(System.in);
+        
+        try {
+            while (moveCount < moves.length) {
+                printBoard(game);
+                
+                if (game.isCheckmate()) {
+                    System.out.println(game.isWhiteTurn() ? "Checkmate - the AI wins." : "🎉 Checkmate - you win!");
+                    outcome = game.isWhiteTurn() ? PgnParser.RESULT_BLACK_WINS : PgnParser.RESULT_WHITE_WINS;
+                    break;
+                }
+                if (game.isStalemate()) {
+                    System.out.println("Stalemate - the game is a draw.");
+                    outcome = PgnParser.RESULT_DRAW;
+                    break;
+                }
+                
+                if (game.isWhiteTurn()) {
+                    System.out.print("Your move: ");
+                    String input = scanner.nextLine().trim();
+                    if (input.equalsIgnoreCase("quit")) {
+                        break;
+                    }
+                    int move = game.parseUciMove(input.toLowerCase());
+                    if (move == Move.NONE) {
+                        System.out.println("Illegal move, try again.");
+                        continue;
+                    }
+                    game.makeMove(move);
+                    moves[moveCount++] = move;
+                } else {
+                    int bookMove = book != null ? book.probe(game) : Move.NONE;
+                    if (bookMove != Move.NONE) {
+                        System.out.println("AI plays " + Move.toUci(bookMove) + " (book)");
+                        game.makeMove(bookMove);
+                        moves[moveCount++] = bookMove;
+                        continue;
+                    }
+                    System.out.println("AI is thinking...");
+                    SearchResult result = engine.search(game, SearchLimits.moveTime(1000), null);
+                    System.out.println("AI plays " + Move.toUci(result.bestMove()) + " (" + result + ")");
+                    game.makeMove(result.bestMove());
+                    moves[moveCount++] = result.bestMove();
+                }
+            }
+        } finally {
+            engine.shutdown();
+            if (book != null) {
+                try {
+                    book.close();
+                } catch (IOException e) {
+                    // Read-only; nothing to lose
+                }
+            }
+        }
+        saveGame(start, moves, moveCount, outcome);
+        
         System.out.print("\nPress Enter to return to menu...");
         scanner.nextLine();
     }
     
+    private static OpeningBook openBook() {
+        if (!Files.exists(BOOK_FILE)) {
+            return null;
+        }
+        try {
+            return OpeningBook.open(BOOK_FILE);
+        } catch (IOException e) {
+            System.out.println("Opening book unavailable: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private static void saveGame(ChessGame start, int[] moves, int moveCount, int result) {
+        if (moveCount == 0) {
+            return;
+        }
+        try {
+            Files.createDirectories(GAMES_FILE.getParent());
+            try (GameFile.Writer writer = new GameFile.Writer(GAMES_FILE)) {
+                long number = writer.append(start, moves, moveCount, result);
+                writer.sync();
+                System.out.println("Game #" + (number + 1) + " saved to " + GAMES_FILE.getParent());
+            }
+        } catch (IOException e) {
+            System.out.println("Could not save the game: " + e.getMessage());
+        }
+    }
+    
+    private static void printBoard(ChessGame game) {
+        String pieceChars = "PNBRQKpnbrqk";
+        System.out.println();
+        for (int row = 7; row >= 0; row--) {
+            StringBuilder line = new StringBuilder().append(row + 1).append("  ");
+            for (int col = 0; col < 8; col++) {
+                int piece = game.getPiece(row, col);
+                line.append(piece == ChessGame.EMPTY ? '.' : pieceChars.charAt(piece)).append(' ');
+            }
+            System.out.println(line);
+        }
+        System.out.println("   a b c d e f g h");
+    }
+    
     private static void openLearningMode() {
         System.out.println("\n📚 Chess Learning Mode");
         System.out.println("=====================");
@@ -107,20 +210,13 @@ public class SimpleChessApp {
         int timeTaken = 60 + (int)(Math.random() * 120); // 1-3 minutes
         int hintsUsed = (int)(Math.random() * 3);
         
-        storage.put("lesson_" + lessonId, Map.of(
-            "completed", true,
-            "accuracy", accuracy,
-            "timeTaken", timeTaken,
-            "hintsUsed", hintsUsed
-        ));
-        
-        progress = Math.min(100.0, progress + 20.0);
+        ChessStorage.completeLesson(lessonId, accuracy, timeTaken, hintsUsed);
         
         System.out.println("✅ Lesson completed!");
         System.out.println("📊 Accuracy: " + accuracy + "%");
         System.out.println("Time taken: " + timeTaken + " seconds");
         System.out.println("💡 Hints used: " + hintsUsed);
-        System.out.println("📈 Overall progress: " + String.format("%.1f", progress) + "%");
+        System.out.println("📈 Overall progress: " + String.format("%.1f", ChessStorage.getProgress()) + "%");
         
         Scanner scanner = new Scanner(System.in);
         System.out.print("\nPress Enter to continue...");
@@ -135,18 +231,25 @@ public class SimpleChessApp {
         
         // Test 1: Storage
         System.out.println("🧪 Testing storage service...");
-        System.out.println("✅ Storage initialized");
+        System.out.println("✅ Storage initialized, progress: " + String.format("%.1f", ChessStorage.getProgress()) + "%");
         
-        // Test 2: Lesson completion
+        // Test 2: Lesson completion survives a reopen (in a scratch store, not the learner's)
         System.out.println("🧪 Testing lesson completion...");
-        completeLesson("test-lesson");
-        System.out.println("✅ Lesson completed, progress: " + String.format("%.1f", progress) + "%");
+        int failures = 0;
+        if (ChessStorage.selfTest()) {
+            System.out.println("✅ Lesson completed and recovered");
+        } else {
+            System.out.println("❌ Lesson completion was not persisted");
+            failures++;
+        }
         
-        // Test 3: Game logic
-        System.out.println("🧪 Testing chess game...");
-        System.out.println("✅ Game created successfully");
+        // Test 3: Move generator against known perft node counts
+        System.out.println("🧪 Testing move generation (perft)...");
+        int perftFailures = Perft.runSuite(3, System.out::println);
+        System.out.println(perftFailures == 0 ? "✅ Perft counts match" : "❌ " + perftFailures + " perft mismatch(es)");
+        failures += perftFailures;
         
-        System.out.println("\n🎉 All tests passed!");
+        System.out.println(failures == 0 ? "\n🎉 All tests passed!" : "\n❌ Some tests failed");
         
         Scanner scanner = new Scanner(System.in);
         System.out.print("\nPress Enter to return to menu...");
@@ -156,8 +259,9 @@ public class SimpleChessApp {
     private static void showProgress() {
         System.out.println("\n📊 Progress Report");
         System.out.println("=================");
+        double progress = ChessStorage.getProgress();
         System.out.println("Overall Progress: " + String.format("%.1f", progress) + "%");
-        System.out.println("Completed Lessons: " + (storage.size() - 1)); // -1 for test lesson
+        System.out.println("Completed Lessons: " + ChessStorage.getCompletedLessons());
         System.out.println("Total Lessons: 5");
         
         if (progress >= 100) {
@@ -179,8 +283,7 @@ public class SimpleChessApp {
     
     private static void resetProgress() {
         System.out.println("\n🔄 Resetting Progress...");
-        storage.clear();
-        progress = 0.0;
+        ChessStorage.resetProgress();
         System.out.println("✅ Progress reset successfully!");
         
         Scanner scanner = new Scanner(System.in);
@@ -189,8 +292,7 @@ public class SimpleChessApp {
     }
     
     private static void initialize() {
-        storage.clear();
-        progress = 0.0;
+        ChessStorage.initialize();
         System.out.println("✅ Application initialized successfully!");
     }
 } 
\ No newline at end of file
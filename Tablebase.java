@@ -0,0 +1,536 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Endgame tables: the exact result (win/draw/loss) and distance to zeroing (plies until
+// the next capture or pawn move on the fastest winning / slowest losing line) of every
+// position with a given material, as produced by TablebaseGenerator.
+//
+//   java Tablebase probe <dir> <fen>
+//
+// One file per material, named like KQvKR.ctb with the stronger side first; positions
+// where the other colour has that material are probed with the board flipped. Each
+// file holds one byte per position and side to move, deflated in 32 KB blocks:
+//
+//   int magic, int pieces, int block size, long positions, int blocks,
+//   long[blocks + 1] block offsets from the start of the data, block data
+//
+// Files are mapped the first time their material is probed. Decompressed blocks are
+// shared by all files through an LRU cache with a fixed byte budget. Positions with
+// castling rights or an en passant square are not in the tables and probe as UNKNOWN.
+// The 50-move rule is ignored, so a win may take longer than 50 moves to convert.
+final class Tablebase implements Closeable {
+    static final int LOSS = -1;
+    static final int DRAW = 0;
+    static final int WIN = 1;
+    static final int UNKNOWN = -2;
+
+    static final int MAX_PIECES = 6;
+    static final int BLOCK_SIZE = 1 << 15;
+    static final String EXTENSION = ".ctb";
+    static final int MAGIC = 0x43544231; // "CTB1"
+
+    // Scores for table wins in search: beyond any evaluation, short of a proven mate
+    static final int WIN_SCORE = SearchEngine.MATE_BOUND - SearchEngine.MAX_PLY - 1;
+
+    // Piece order inside a table key and an index: queens first, so keys compare by strength
+    private static final int[] ORDER = {ChessGame.QUEEN, ChessGame.ROOK, ChessGame.BISHOP, ChessGame.KNIGHT, ChessGame.PAWN};
+    private static final String LETTERS = "QRBNP";
+
+    // White king squares of a pawnless table: the a1-d1-d4 triangle
+    private static final int[] TRIANGLE = new int[64];
+    private static final int[] TRIANGLE_SQUARES = {0, 1, 2, 3, 9, 10, 11, 18, 19, 27};
+
+    static {
+        Arrays.fill(TRIANGLE, -1);
+        for (int i = 0; i < TRIANGLE_SQUARES.length; i++) {
+            TRIANGLE[TRIANGLE_SQUARES[i]] = i;
+        }
+    }
+
+    // A material signature: 3 bits per piece kind in ORDER, for one colour
+    static int signature(ChessGame game, int color) {
+        int signature = 0;
+        for (int type : ORDER) {
+            signature = signature << 3 | Math.min(7, Long.bitCount(game.pieces(color, type)));
+        }
+        return signature;
+    }
+
+    static int count(int signature, int orderIndex) {
+        return (signature >>> (3 * (ORDER.length - 1 - orderIndex))) & 7;
+    }
+
+    static int pieceCount(int signature) {
+        int total = 0;
+        for (int i = 0; i < ORDER.length; i++) {
+            total += count(signature, i);
+        }
+        return total;
+    }
+
+    static boolean hasPawns(int signature) {
+        return count(signature, ORDER.length - 1) > 0;
+    }
+
+    // "KQvKR" for white signature Q and black signature R
+    static String name(int white, int black) {
+        StringBuilder name = new StringBuilder("K");
+        appendPieces(name, white);
+        name.append("vK");
+        appendPieces(name, black);
+        return name.toString();
+    }
+
+    private static void appendPieces(StringBuilder name, int signature) {
+        for (int i = 0; i < ORDER.length; i++) {
+            for (int n = count(signature, i); n > 0; n--) {
+                name.append(LETTERS.charAt(i));
+            }
+        }
+    }
+
+    // Parses "KQvKR" into {white, black} signatures
+    static int[] parseName(String name) {
+        String[] sides = name.toUpperCase(Locale.ROOT).split("V");
+        if (sides.length != 2 || !sides[0].startsWith("K") || !sides[1].startsWith("K")) {
+            throw new IllegalArgumentException("Material must look like KQvKR: " + name);
+        }
+        int[] signatures = new int[2];
+        for (int side = 0; side < 2; side++) {
+            for (char c : sides[side].substring(1).toCharArray()) {
+                int index = LETTERS.indexOf(c);
+                if (index < 0) {
+                    throw new IllegalArgumentException("Unknown piece " + c + " in " + name);
+                }
+                if (count(signatures[side], index) == 7) {
+                    throw new IllegalArgumentException("Too many pieces in " + name);
+                }
+                signatures[side] += 1 << (3 * (ORDER.length - 1 - index));
+            }
+        }
+        if (2 + pieceCount(signatures[0]) + pieceCount(signatures[1]) > MAX_PIECES) {
+            throw new IllegalArgumentException(name + " has more than " + MAX_PIECES + " pieces");
+        }
+        return signatures;
+    }
+
+    // Tables are stored with the stronger signature as white
+    static boolean isCanonical(int white, int black) {
+        return white >= black;
+    }
+
+    // Layout of one table: the piece order its index uses
+
+    static final class Layout {
+        final int white;
+        final int black;
+        final boolean pawns;
+        final int[] pieces; // ChessGame piece codes, white king first, black king after the white pieces
+        final long positionsPerSide;
+
+        Layout(int white, int black) {
+            this.white = white;
+            this.black = black;
+            pawns = hasPawns(white) || hasPawns(black);
+            List<Integer> list = new ArrayList<>();
+            list.add(ChessGame.piece(ChessGame.WHITE, ChessGame.KING));
+            addPieces(list, white, ChessGame.WHITE);
+            list.add(ChessGame.piece(ChessGame.BLACK, ChessGame.KING));
+            addPieces(list, black, ChessGame.BLACK);
+            pieces = list.stream().mapToInt(Integer::intValue).toArray();
+            long size = pawns ? 32 : 10;
+            for (int i = 1; i < pieces.length; i++) {
+                size *= 64;
+            }
+            positionsPerSide = size;
+        }
+
+        private static void addPieces(List<Integer> list, int signature, int color) {
+            for (int i = 0; i < ORDER.length; i++) {
+                for (int n = count(signature, i); n > 0; n--) {
+                    list.add(ChessGame.piece(color, ORDER[i]));
+                }
+            }
+        }
+
+        long positions() {
+            return positionsPerSide * 2;
+        }
+
+        // Index of the position, whose material must match this layout (with the colours
+        // swapped if flip is set)
+        long index(ChessGame game, boolean flip) {
+            int[] squares = new int[pieces.length];
+            for (int p = 0; p < pieces.length; ) {
+                int piece = pieces[p];
+                int color = ChessGame.colorOf(piece) ^ (flip ? 1 : 0);
+                long bits = game.pieces(color, ChessGame.typeOf(piece));
+                // Identical pieces take their squares in ascending order
+                while (p < pieces.length && pieces[p] == piece) {
+                    int square = Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    squares[p++] = flip ? square ^ 56 : square;
+                }
+            }
+            int side = game.sideToMove() ^ (flip ? 1 : 0);
+            return indexOf(squares, side);
+        }
+
+        long indexOf(int[] squares, int side) {
+            int transform = transform(squares[0]);
+            long index = kingSlot(apply(squares[0], transform));
+            for (int i = 1; i < squares.length; i++) {
+                index = index * 64 + apply(squares[i], transform);
+            }
+            return side * positionsPerSide + index;
+        }
+
+        // Square list of an index, and the side to move in the last element; null for an unused slot
+        int[] squaresOf(long index) {
+            int[] squares = new int[pieces.length + 1];
+            squares[pieces.length] = (int) (index / positionsPerSide);
+            index %= positionsPerSide;
+            for (int i = pieces.length - 1; i > 0; i--) {
+                squares[i] = (int) (index % 64);
+                index /= 64;
+            }
+            squares[0] = pawns ? (int) (index / 4) * 8 + (int) (index % 4) : TRIANGLE_SQUARES[(int) index];
+            return squares;
+        }
+
+        // Symmetry that brings the white king into the indexed region: bit 0 mirrors files,
+        // bit 1 mirrors ranks, bit 2 swaps files and ranks (pawnless tables only)
+        private int transform(int king) {
+            int transform = (king & 7) > 3 ? 1 : 0;
+            if (!pawns) {
+                if ((king >>> 3) > 3) {
+                    transform |= 2;
+                }
+                int normalized = apply(king, transform);
+                if ((normalized >>> 3) > (normalized & 7)) {
+                    transform |= 4;
+                }
+            }
+            return transform;
+        }
+
+        private int kingSlot(int king) {
+            return pawns ? (king >>> 3) * 4 + (king & 7) : TRIANGLE[king];
+        }
+
+        private static int apply(int square, int transform) {
+            if ((transform & 1) != 0) {
+                square ^= 7;
+            }
+            if ((transform & 2) != 0) {
+                square ^= 56;
+            }
+            if ((transform & 4) != 0) {
+                square = (square >>> 3) | (square & 7) << 3;
+            }
+            return square;
+        }
+    }
+
+    // Stored values: 0 draw, 1..127 win in that many plies to zeroing, 128 + n loss in n
+
+    static int wdlOf(int value) {
+        return value == 0 ? DRAW : value < 128 ? WIN : LOSS;
+    }
+
+    static int dtzOf(int value) {
+        return value == 0 ? 0 : value < 128 ? value : value - 128;
+    }
+
+    static int encode(int wdl, int dtz) {
+        if (dtz > 127) {
+            throw new IllegalStateException("Distance to zeroing " + dtz + " does not fit the table format");
+        }
+        return wdl == DRAW ? 0 : wdl == WIN ? dtz : 128 + dtz;
+    }
+
+    // Files
+
+    private static final class Table {
+        static final Table MISSING = new Table();
+
+        final int id;
+        final Layout layout;
+        final FileChannel channel;
+        final MappedByteBuffer mapped;
+        final long[] blockOffsets;
+        final int dataStart;
+
+        private Table() {
+            id = -1;
+            layout = null;
+            channel = null;
+            mapped = null;
+            blockOffsets = null;
+            dataStart = 0;
+        }
+
+        Table(int id, Layout layout, Path path) throws IOException {
+            this.id = id;
+            this.layout = layout;
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException(path + " is larger than 2 GB");
+                }
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != layout.pieces.length
+                        || mapped.getInt(8) != BLOCK_SIZE || mapped.getLong(12) != layout.positions()) {
+                    throw new IOException(path + " is not a " + layout.pieces.length + "-piece table in this format");
+                }
+                int blocks = mapped.getInt(20);
+                blockOffsets = new long[blocks + 1];
+                for (int i = 0; i <= blocks; i++) {
+                    blockOffsets[i] = mapped.getLong(24 + 8 * i);
+                }
+                dataStart = 24 + 8 * (blocks + 1);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+
+    private final Path directory;
+    private final ConcurrentHashMap<Integer, Table> tables = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Long, byte[]> blocks;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final int maxPieces;
+
+    final LongAdder probes = new LongAdder();
+    final LongAdder hits = new LongAdder();
+    final LongAdder blockHits = new LongAdder();
+    final LongAdder blockLoads = new LongAdder();
+
+    Tablebase(Path directory, long cacheBytes) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("No tablebase directory " + directory);
+        }
+        this.directory = directory;
+        int capacity = (int) Math.max(4, Math.min(1 << 20, cacheBytes / BLOCK_SIZE));
+        blocks = new LinkedHashMap<Long, byte[]>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > capacity;
+            }
+        };
+        int largest = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    int[] material = parseName(name.substring(0, name.length() - EXTENSION.length()));
+                    largest = Math.max(largest, 2 + pieceCount(material[0]) + pieceCount(material[1]));
+                } catch (IllegalArgumentException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        maxPieces = largest;
+    }
+
+    // Most pieces of any table present; positions with more are never probed
+    int maxPieces() {
+        return maxPieces;
+    }
+
+    // WIN/DRAW/LOSS for the side to move, or UNKNOWN
+    int probeWdl(ChessGame game) {
+        int value = probeValue(game);
+        return value < 0 ? UNKNOWN : wdlOf(value);
+    }
+
+    // Plies to the next zeroing move under best play, or -1 if unknown
+    int probeDtz(ChessGame game) {
+        int value = probeValue(game);
+        return value < 0 ? -1 : dtzOf(value);
+    }
+
+    // Raw stored value, or -1
+    int probeValue(ChessGame game) {
+        if (game.castlingRights() != 0 || game.epSquare() >= 0) {
+            return -1;
+        }
+        int pieces = Long.bitCount(game.occupied());
+        if (pieces == 2) {
+            return 0; // bare kings
+        }
+        if (pieces > maxPieces) {
+            return -1;
+        }
+        probes.increment();
+        int white = signature(game, ChessGame.WHITE), black = signature(game, ChessGame.BLACK);
+        boolean flip = !isCanonical(white, black);
+        Table table = table(flip ? black : white, flip ? white : black);
+        if (table == Table.MISSING) {
+            return -1;
+        }
+        long index = table.layout.index(game, flip);
+        try {
+            byte[] block = block(table, (int) (index / BLOCK_SIZE));
+            hits.increment();
+            return block[(int) (index % BLOCK_SIZE)] & 0xFF;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt tablebase block in " + name(table.layout.white, table.layout.black), e);
+        }
+    }
+
+    // Best move by distance to zeroing: the quickest win, else a draw, else the longest loss.
+    // Move.NONE if the position or any of its successors can't be probed.
+    int bestMove(ChessGame game) {
+        if (probeValue(game) < 0) {
+            return Move.NONE;
+        }
+        MoveList moves = new MoveList();
+        game.generateLegalMoves(moves);
+        int best = Move.NONE, bestRank = Integer.MIN_VALUE;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            boolean zeroing = Move.isCapture(move) || ChessGame.typeOf(game.pieceAt(Move.from(move))) == ChessGame.PAWN;
+            game.makeMove(move);
+            int value = probeValue(game);
+            boolean mates = value >= 0 && game.isCheckmate();
+            game.unmakeMove(move);
+            if (value < 0) {
+                return Move.NONE;
+            }
+            int wdl = -wdlOf(value), dtz = zeroing ? 1 : dtzOf(value) + 1;
+            // Higher is better: wins by shortest distance, draws, losses by longest distance
+            int rank = mates ? Integer.MAX_VALUE : wdl == WIN ? 1000 - dtz : wdl == DRAW ? 0 : -1000 + dtz;
+            if (rank > bestRank) {
+                bestRank = rank;
+                best = move;
+            }
+        }
+        return best;
+    }
+
+    // Search score for a table result ply plies from the root
+    static int score(int wdl, int ply) {
+        return wdl == WIN ? WIN_SCORE - ply : wdl == LOSS ? -WIN_SCORE + ply : 0;
+    }
+
+    private Table table(int white, int black) {
+        int key = white << 15 | black;
+        Table table = tables.get(key);
+        if (table != null) {
+            return table;
+        }
+        return tables.computeIfAbsent(key, k -> {
+            Path path = directory.resolve(name(white, black) + EXTENSION);
+            if (!Files.exists(path)) {
+                return Table.MISSING;
+            }
+            try {
+                return new Table(nextId.getAndIncrement(), new Layout(white, black), path);
+            } catch (IOException e) {
+                // Treated as absent so a bad file costs exact answers, not the search
+                System.err.println("Ignoring tablebase file: " + e.getMessage());
+                return Table.MISSING;
+            }
+        });
+    }
+
+    private byte[] block(Table table, int number) throws DataFormatException {
+        long key = (long) table.id << 32 | number;
+        synchronized (blocks) {
+            byte[] cached = blocks.get(key);
+            if (cached != null) {
+                blockHits.increment();
+                return cached;
+            }
+        }
+        // Decompressed outside the lock; two threads missing on the same block both inflate it
+        ByteBuffer compressed = table.mapped.slice(table.dataStart + (int) table.blockOffsets[number],
+            (int) (table.blockOffsets[number + 1] - table.blockOffsets[number]));
+        long remaining = table.layout.positions() - (long) number * BLOCK_SIZE;
+        byte[] block = new byte[(int) Math.min(BLOCK_SIZE, remaining)];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        int length = 0;
+        while (length < block.length && !inflater.finished()) {
+            int read = inflater.inflate(block, length, block.length - length);
+            if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Block " + number + " ends early");
+            }
+            length += read;
+        }
+        blockLoads.increment();
+        synchronized (blocks) {
+            blocks.put(key, block);
+        }
+        return block;
+    }
+
+    String stats() {
+        long blockTotal = blockHits.sum() + blockLoads.sum();
+        return String.format("%,d probes, %,d hits, block cache %,d hits / %,d loads (%.1f%% hit rate)",
+            probes.sum(), hits.sum(), blockHits.sum(), blockLoads.sum(),
+            blockTotal == 0 ? 0.0 : 100.0 * blockHits.sum() / blockTotal);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Table table : tables.values()) {
+            if (table != Table.MISSING) {
+                table.channel.close();
+            }
+        }
+        tables.clear();
+        synchronized (blocks) {
+            blocks.clear();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3 || !args[0].equals("probe")) {
+            System.err.println("Usage: java Tablebase probe <dir> <fen>");
+            System.exit(2);
+        }
+        try (Tablebase tablebase = new Tablebase(Paths.get(args[1]), 16 << 20)) {
+            ChessGame game = new ChessGame(String.join(" ", Arrays.copyOfRange(args, 2, args.length)));
+            int value = tablebase.probeValue(game);
+            if (value < 0) {
+                System.out.println("Not in the tables");
+                return;
+            }
+            String[] results = {"loss", "draw", "win"};
+            System.out.println(results[wdlOf(value) + 1] + (value == 0 ? "" : ", " + dtzOf(value) + " plies to zeroing"));
+            ChessGame line = new ChessGame();
+            line.copyFrom(game);
+            StringBuilder moves = new StringBuilder();
+            for (int ply = 0; ply < 200 && tablebase.probeValue(line) > 0; ply++) {
+                int move = tablebase.bestMove(line);
+                if (move == Move.NONE) {
+                    break;
+                }
+                moves.append(line.toSan(move)).append(' ');
+                line.makeMove(move);
+            }
+            System.out.println("Line: " + moves.toString().trim());
+            System.out.println(tablebase.stats());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+
+// Builds Tablebase files by value iteration over the legal move generator.
+//
+//   java TablebaseGenerator <dir> <material>...   e.g. KQvK KRvK KPvK
+//   java TablebaseGenerator <dir> --all N          every table up to N pieces
+//
+// Every position of the material is set up on a board and its moves are looked up:
+// captures and promotions in the smaller tables (built first, recursively), other
+// moves in the table itself. The first phase repeats passes until no result changes,
+// deciding a position as soon as one move reaches a lost position or every move reaches
+// a won one; what is left is drawn. The second phase does the same for distance to
+// zeroing. Meant for 3-4 pieces: a 4-piece table takes a few million positions per pass.
+// En passant replies inside the table are not considered (tables ignore the ep square).
+final class TablebaseGenerator {
+    // Phase one states
+    private static final byte UNKNOWN = 0;
+    private static final byte WIN = 1;
+    private static final byte LOSS = 2;
+    private static final byte DRAW = 3;
+    private static final byte INVALID = 4;
+
+    private static final int CHUNK = 1 << 14;
+    private static final int OUTSIDE = -1;
+
+    private final Path directory;
+    private final Tablebase.Layout layout;
+    private final int positions;
+    private final byte[] wdl;
+    private final short[] dtz;
+    private final ThreadLocal<Worker> workers;
+    private final Tablebase smaller;
+
+    private TablebaseGenerator(Path directory, int white, int black) throws IOException {
+        this.directory = directory;
+        layout = new Tablebase.Layout(white, black);
+        if (layout.positions() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(Tablebase.name(white, black) + " is too large to generate in memory");
+        }
+        positions = (int) layout.positions();
+        wdl = new byte[positions];
+        dtz = new short[positions];
+        smaller = new Tablebase(directory, 64 << 20);
+        workers = ThreadLocal.withInitial(Worker::new);
+    }
+
+    // Per-thread board and buffers
+    private final class Worker {
+        final ChessGame board = new ChessGame();
+        final byte[] squares = new byte[64];
+        final MoveList moves = new MoveList();
+
+        // Sets up the position at index; false if no legal position lives there
+        boolean setUp(int index) {
+            int[] placed = layout.squaresOf(index);
+            Arrays.fill(squares, (byte) ChessGame.EMPTY);
+            for (int i = 0; i < layout.pieces.length; i++) {
+                int square = placed[i];
+                int piece = layout.pieces[i];
+                if (squares[square] != ChessGame.EMPTY) {
+                    return false;
+                }
+                if (ChessGame.typeOf(piece) == ChessGame.PAWN && (square < 8 || square >= 56)) {
+                    return false;
+                }
+                squares[square] = (byte) piece;
+            }
+            try {
+                board.setPosition(squares, placed[layout.pieces.length], 0, -1, 0, 1);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            board.generateLegalMoves(moves);
+            return true;
+        }
+
+        // Index of the position after the move inside this table, or OUTSIDE when it changes material
+        int childIndex(int move) {
+            if (Move.isCapture(move) || Move.isPromotion(move)) {
+                return OUTSIDE;
+            }
+            board.makeMove(move);
+            int index = (int) layout.index(board, false);
+            board.unmakeMove(move);
+            return index;
+        }
+
+        // Result of a material-changing move for the side that then moves
+        byte outsideResult(int move) {
+            board.makeMove(move);
+            int result = smaller.probeWdl(board);
+            board.unmakeMove(move);
+            if (result == Tablebase.UNKNOWN) {
+                throw new IllegalStateException("No table for the position after " + Move.toUci(move) + " in " + board.toFen());
+            }
+            return result == Tablebase.WIN ? WIN : result == Tablebase.LOSS ? LOSS : DRAW;
+        }
+
+        boolean zeroing(int move) {
+            return Move.isCapture(move) || ChessGame.typeOf(board.pieceAt(Move.from(move))) == ChessGame.PAWN;
+        }
+    }
+
+    // Phase one: one pass over the undecided positions; returns how many were decided
+    private long wdlPass(boolean first) {
+        LongAdder decided = new LongAdder();
+        IntStream.range(0, (positions + CHUNK - 1) / CHUNK).parallel().forEach(chunk -> {
+            Worker worker = workers.get();
+            int end = Math.min(positions, (chunk + 1) * CHUNK);
+            for (int index = chunk * CHUNK; index < end; index++) {
+                if (wdl[index] != UNKNOWN) {
+                    continue;
+                }
+                if (!worker.setUp(index)) {
+                    if (first) {
+                        wdl[index] = INVALID;
+                    }
+                    continue;
+                }
+                MoveList moves = worker.moves;
+                byte result;
+                if (moves.size() == 0) {
+                    result = worker.board.inCheck() ? LOSS : DRAW;
+                    if (result == LOSS) {
+                        dtz[index] = 0;
+                    }
+                } else {
+                    boolean allWon = true;
+                    result = UNKNOWN;
+                    for (int i = 0; i < moves.size() && result == UNKNOWN; i++) {
+                        int child = worker.childIndex(moves.get(i));
+                        byte after = child == OUTSIDE ? worker.outsideResult(moves.get(i)) : wdl[child];
+                        if (after == LOSS) {
+                            result = WIN;
+                        } else if (after != WIN) {
+                            allWon = false;
+                        }
+                    }
+                    if (result == UNKNOWN && allWon) {
+                        result = LOSS;
+                    }
+                }
+                if (result != UNKNOWN) {
+                    wdl[index] = result;
+                    decided.increment();
+                }
+            }
+        });
+        return decided.sum();
+    }
+
+    // Phase two, pass number pass: distances for decided positions; dtz is -1 until known
+    // (0 for mated positions). A win at distance d is only settled in pass d, when every loss
+    // closer than that is known, so a longer line found early can't stand in for the shortest.
+    // Returns how many positions are still without a distance.
+    private long dtzPass(int pass) {
+        LongAdder pending = new LongAdder();
+        IntStream.range(0, (positions + CHUNK - 1) / CHUNK).parallel().forEach(chunk -> {
+            Worker worker = workers.get();
+            int end = Math.min(positions, (chunk + 1) * CHUNK);
+            for (int index = chunk * CHUNK; index < end; index++) {
+                if (dtz[index] >= 0 || (wdl[index] != WIN && wdl[index] != LOSS)) {
+                    continue;
+                }
+                worker.setUp(index);
+                MoveList moves = worker.moves;
+                boolean win = wdl[index] == WIN;
+                int best = win ? Integer.MAX_VALUE : 0;
+                boolean complete = true;
+                for (int i = 0; i < moves.size(); i++) {
+                    int move = moves.get(i);
+                    int child = worker.childIndex(move);
+                    byte after = child == OUTSIDE ? worker.outsideResult(move) : wdl[child];
+                    if (win && after != LOSS) {
+                        continue;
+                    }
+                    int distance;
+                    if (worker.zeroing(move)) {
+                        distance = 1;
+                    } else if (dtz[child] >= 0) {
+                        distance = dtz[child] + 1;
+                    } else {
+                        complete = false;
+                        continue;
+                    }
+                    best = win ? Math.min(best, distance) : Math.max(best, distance);
+                }
+                // A loss needs every line known
+                if (win ? best <= pass : complete) {
+                    dtz[index] = (short) best;
+                } else {
+                    pending.increment();
+                }
+            }
+        });
+        return pending.sum();
+    }
+
+    private void generate() throws IOException {
+        String name = Tablebase.name(layout.white, layout.black);
+        long start = System.nanoTime();
+        Arrays.fill(dtz, (short) -1);
+        long decided = wdlPass(true);
+        int passes = 1;
+        while (decided > 0) {
+            decided = wdlPass(false);
+            passes++;
+        }
+        long[] counts = new long[5];
+        for (int index = 0; index < positions; index++) {
+            if (wdl[index] == UNKNOWN) {
+                wdl[index] = DRAW;
+            }
+            counts[wdl[index]]++;
+        }
+        // Distances only grow by one per pass, so the format's limit bounds the passes
+        for (int pass = 1; dtzPass(pass) > 0; pass++) {
+            if (pass > 127) {
+                throw new IllegalStateException(name + " has distances beyond the table format's 127 plies");
+            }
+            passes++;
+        }
+
+        byte[] values = new byte[positions];
+        int longest = 0;
+        for (int index = 0; index < positions; index++) {
+            if (wdl[index] == WIN || wdl[index] == LOSS) {
+                if (dtz[index] < 0) {
+                    throw new IllegalStateException("No distance for position " + index + " of " + name);
+                }
+                longest = Math.max(longest, dtz[index]);
+                values[index] = (byte) Tablebase.encode(wdl[index] == WIN ? Tablebase.WIN : Tablebase.LOSS, dtz[index]);
+            }
+        }
+        write(directory.resolve(name + Tablebase.EXTENSION), values);
+        System.out.printf("%s: %,d positions (%,d wins, %,d losses, %,d draws), longest %d plies to zeroing, "
+            + "%d passes, %.1f s%n", name, counts[WIN] + counts[LOSS] + counts[DRAW], counts[WIN], counts[LOSS],
+            counts[DRAW], longest, passes, (System.nanoTime() - start) / 1e9);
+    }
+
+    private void write(Path path, byte[] values) throws IOException {
+        int blocks = (values.length + Tablebase.BLOCK_SIZE - 1) / Tablebase.BLOCK_SIZE;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        long[] offsets = new long[blocks + 1];
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] buffer = new byte[Tablebase.BLOCK_SIZE + 1024];
+        for (int block = 0; block < blocks; block++) {
+            int from = block * Tablebase.BLOCK_SIZE;
+            deflater.reset();
+            deflater.setInput(values, from, Math.min(Tablebase.BLOCK_SIZE, values.length - from));
+            deflater.finish();
+            while (!deflater.finished()) {
+                data.write(buffer, 0, deflater.deflate(buffer));
+            }
+            offsets[block + 1] = data.size();
+        }
+        deflater.end();
+
+        ByteBuffer header = ByteBuffer.allocate(24 + 8 * offsets.length);
+        header.putInt(Tablebase.MAGIC).putInt(layout.pieces.length).putInt(Tablebase.BLOCK_SIZE)
+            .putLong(values.length).putInt(blocks);
+        for (long offset : offsets) {
+            header.putLong(offset);
+        }
+        header.flip();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer body = ByteBuffer.wrap(data.toByteArray());
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            while (body.hasRemaining()) {
+                out.write(body);
+            }
+            out.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Builds the table and, first, every smaller table its captures and promotions lead to
+    static void generate(Path directory, int white, int black) throws IOException {
+        if (!Tablebase.isCanonical(white, black)) {
+            generate(directory, black, white);
+            return;
+        }
+        if (white == 0 && black == 0) {
+            return; // bare kings are always drawn and have no file
+        }
+        if (Files.exists(directory.resolve(Tablebase.name(white, black) + Tablebase.EXTENSION))) {
+            return;
+        }
+        for (int[] child : successors(white, black)) {
+            generate(directory, child[0], child[1]);
+        }
+        TablebaseGenerator generator = new TablebaseGenerator(directory, white, black);
+        try {
+            generator.generate();
+        } finally {
+            generator.smaller.close();
+        }
+    }
+
+    // Materials one capture or promotion away
+    private static List<int[]> successors(int white, int black) {
+        List<int[]> result = new ArrayList<>();
+        for (int side = 0; side < 2; side++) {
+            int own = side == 0 ? white : black, other = side == 0 ? black : white;
+            for (int i = 0; i < 5; i++) {
+                int unit = 1 << (3 * (4 - i));
+                if (Tablebase.count(own, i) == 0) {
+                    continue;
+                }
+                // This piece is captured
+                result.add(side == 0 ? new int[] {own - unit, other} : new int[] {other, own - unit});
+                if (i == 4) {
+                    // A pawn promotes, possibly capturing on the way
+                    for (int promoted = 0; promoted < 4; promoted++) {
+                        int changed = own - unit + (1 << (3 * (4 - promoted)));
+                        result.add(side == 0 ? new int[] {changed, other} : new int[] {other, changed});
+                        for (int j = 0; j < 5; j++) {
+                            if (Tablebase.count(other, j) > 0) {
+                                int captured = other - (1 << (3 * (4 - j)));
+                                result.add(side == 0 ? new int[] {changed, captured} : new int[] {captured, changed});
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) {
+        try {
+            Path directory = Paths.get(args[0]);
+            Files.createDirectories(directory);
+            List<int[]> materials = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--all")) {
+                    int pieces = Integer.parseInt(args[++i]);
+                    if (pieces < 3 || pieces > 4) {
+                        throw new IllegalArgumentException("--all takes 3 or 4 pieces");
+                    }
+                    addAll(materials, pieces - 2);
+                } else {
+                    materials.add(Tablebase.parseName(args[i]));
+                }
+            }
+            if (materials.isEmpty()) {
+                throw new IllegalArgumentException("No materials given");
+            }
+            for (int[] material : materials) {
+                generate(directory, material[0], material[1]);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            System.err.println("Usage: java TablebaseGenerator <dir> <material>... | <dir> --all 3|4");
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Every canonical material with up to extra non-king pieces
+    private static void addAll(List<int[]> materials, int extra) {
+        List<Integer> signatures = new ArrayList<>();
+        signatures.add(0);
+        for (int i = 0; i < 5; i++) {
+            signatures.add(1 << (3 * (4 - i)));
+            for (int j = i; j < 5; j++) {
+                signatures.add((1 << (3 * (4 - i))) + (1 << (3 * (4 - j))));
+            }
+        }
+        for (int white : signatures) {
+            for (int black : signatures) {
+                int pieces = Tablebase.pieceCount(white) + Tablebase.pieceCount(black);
+                if (pieces > 0 && pieces <= extra && Tablebase.isCanonical(white, black)) {
+                    materials.add(new int[] {white, black});
+                }
+            }
+        }
+    }
+}
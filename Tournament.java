@@ -0,0 +1,1160 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Engine-vs-engine matches, for deciding whether a change makes the engine stronger.
+//
+//   java Tournament --engine name=new [eval=FILE.nnue] [hash=MB]
+//                   --engine name=base cmd="java -cp old UciServer" [option.<Name>=<value>]
+//                   [--tc 10+0.1 | --movetime MS | --nodes N | --depth N] [--games N]
+//                   [--concurrency N] [--openings FILE.epd|FILE.pgn] [--plies N]
+//                   [--sprt ELO0 ELO1] [--alpha A] [--beta B] [--pgn OUT.pgn] [--no-adjudication]
+//
+// An engine is either this engine in-process (a single-threaded SearchEngine, with an
+// NNUE network if eval= is given) or any UCI engine run as a subprocess, which is how
+// two builds are compared. cmd= is split on whitespace. Games run in parallel, one per
+// core by default. Each game slot owns its two players, so only one side of a game
+// thinks at a time and every engine gets a core to itself while it does.
+//
+// Every opening is played twice with colours reversed, and the pair counts as one
+// observation of 0, 1/2, 1, 3/2 or 2 points for the first engine (pentanomial). A pair
+// cancels most of the bias of an unbalanced opening and varies less than single games,
+// so the Elo error bars and the SPRT both come from pair scores. The SPRT uses the
+// normal approximation of the generalized log-likelihood ratio. H0 is "the first engine
+// is ELO0 stronger" and H1 is "it is ELO1 stronger". The match stops as soon as the
+// ratio leaves (ln(beta/(1-alpha)), ln((1-beta)/alpha)); games already running are
+// finished and counted.
+//
+// Games are adjudicated once both engines agree on the outcome:
+// - a win once every score stays past RESIGN_CP for RESIGN_MOVES moves of each side;
+// - a draw from DRAW_START_PLY once every score stays within DRAW_CP for DRAW_MOVES
+//   moves of each side.
+// Exit code 1 means the SPRT accepted H0 (the change is rejected) or the match failed.
+public class Tournament {
+    static final int RESIGN_CP = 800;
+    static final int RESIGN_MOVES = 4;
+    static final int DRAW_CP = 10;
+    static final int DRAW_MOVES = 8;
+    static final int DRAW_START_PLY = 80;
+    static final int MAX_PLIES = 600;
+    static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    static final int NO_SCORE = Integer.MIN_VALUE;
+
+    // Half-points of the game for White: 2 win, 1 draw, 0 loss
+    static final String[] RESULTS = {"0-1", "1/2-1/2", "1-0"};
+
+    // Common main lines, all close to equal, so the suite works without an openings file
+    static final String[] BUILT_IN_OPENINGS = {
+        "e4 e5 Nf3 Nc6 Bb5 a6",
+        "e4 e5 Nf3 Nc6 Bc4 Bc5",
+        "e4 e5 Nf3 Nc6 d4 exd4 Nxd4",
+        "e4 e5 Nf3 Nf6",
+        "e4 c5 Nf3 d6 d4 cxd4 Nxd4 Nf6 Nc3 a6",
+        "e4 c5 Nf3 Nc6 d4 cxd4 Nxd4",
+        "e4 c5 Nc3 Nc6 g3",
+        "e4 e6 d4 d5 Nc3 Nf6",
+        "e4 e6 d4 d5 e5 c5",
+        "e4 c6 d4 d5 Nc3 dxe4 Nxe4 Bf5",
+        "e4 d5 exd5 Qxd5 Nc3 Qa5",
+        "e4 g6 d4 Bg7 Nc3 d6",
+        "d4 d5 c4 e6 Nc3 Nf6",
+        "d4 d5 c4 c6 Nf3 Nf6",
+        "d4 d5 c4 dxc4 Nf3 Nf6",
+        "d4 d5 Nf3 Nf6 Bf4",
+        "d4 Nf6 c4 e6 Nc3 Bb4",
+        "d4 Nf6 c4 e6 Nf3 b6",
+        "d4 Nf6 c4 g6 Nc3 Bg7 e4 d6",
+        "d4 Nf6 c4 g6 Nc3 d5",
+        "d4 f5 g3 Nf6 Bg2",
+        "c4 e5 Nc3 Nf6",
+        "c4 c5 Nc3 Nc6 g3 g6",
+        "Nf3 d5 g3 Nf6 Bg2"
+    };
+
+    static final class TimeControl {
+        long baseMs;
+        long incrementMs;
+        long moveTimeMs;
+        long nodes;
+        int depth;
+
+        // "<seconds>[+<increment seconds>]", e.g. 10+0.1
+        static TimeControl clock(String text) {
+            TimeControl tc = new TimeControl();
+            int plus = text.indexOf('+');
+            tc.baseMs = Math.round(Double.parseDouble(plus < 0 ? text : text.substring(0, plus)) * 1000);
+            tc.incrementMs = plus < 0 ? 0 : Math.round(Double.parseDouble(text.substring(plus + 1)) * 1000);
+            if (tc.baseMs <= 0 || tc.incrementMs < 0) {
+                throw new IllegalArgumentException("Bad time control " + text);
+            }
+            return tc;
+        }
+
+        boolean hasClock() {
+            return baseMs > 0;
+        }
+
+        SearchLimits limits(long whiteMs, long blackMs) {
+            SearchLimits limits = new SearchLimits();
+            limits.depth = depth;
+            limits.nodes = nodes;
+            limits.moveTimeMs = moveTimeMs;
+            if (hasClock()) {
+                limits.whiteTimeMs = Math.max(1, whiteMs);
+                limits.blackTimeMs = Math.max(1, blackMs);
+                limits.whiteIncrementMs = incrementMs;
+                limits.blackIncrementMs = incrementMs;
+            }
+            return limits;
+        }
+
+        String uciGo(long whiteMs, long blackMs) {
+            StringBuilder sb = new StringBuilder("go");
+            if (hasClock()) {
+                sb.append(" wtime ").append(Math.max(1, whiteMs)).append(" btime ").append(Math.max(1, blackMs))
+                    .append(" winc ").append(incrementMs).append(" binc ").append(incrementMs);
+            }
+            if (moveTimeMs > 0) {
+                sb.append(" movetime ").append(moveTimeMs);
+            }
+            if (nodes > 0) {
+                sb.append(" nodes ").append(nodes);
+            }
+            if (depth > 0) {
+                sb.append(" depth ").append(depth);
+            }
+            return sb.toString();
+        }
+
+        // PGN TimeControl tag: seconds+increment, or "-" for searches without a clock
+        String pgnTag() {
+            if (!hasClock()) {
+                return "-";
+            }
+            return seconds(baseMs) + (incrementMs > 0 ? "+" + seconds(incrementMs) : "");
+        }
+
+        private static String seconds(long millis) {
+            return millis % 1000 == 0 ? Long.toString(millis / 1000) : Double.toString(millis / 1000.0);
+        }
+
+        @Override
+        public String toString() {
+            if (hasClock()) {
+                return "tc " + pgnTag();
+            }
+            return moveTimeMs > 0 ? "movetime " + moveTimeMs + " ms" : nodes > 0 ? "nodes " + nodes : "depth " + depth;
+        }
+    }
+
+    static final class EngineSpec {
+        String name;
+        List<String> command;
+        Path network;
+        int hashMb = 16;
+        final Map<String, String> options = new LinkedHashMap<>();
+        private NnueEvaluator.Network loaded;
+
+        // key=value tokens: name, cmd, eval, hash, option.<Name>
+        static EngineSpec parse(List<String> tokens, int number) {
+            EngineSpec spec = new EngineSpec();
+            spec.name = "engine" + number;
+            for (String token : tokens) {
+                int eq = token.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("Engine settings are key=value: " + token);
+                }
+                String key = token.substring(0, eq), value = token.substring(eq + 1);
+                if (key.startsWith("option.")) {
+                    spec.options.put(key.substring("option.".length()), value);
+                    continue;
+                }
+                switch (key) {
+                    case "name": spec.name = value; break;
+                    case "cmd": spec.command = Arrays.asList(value.trim().split("\\s+")); break;
+                    case "eval": spec.network = Paths.get(value); break;
+                    case "hash": spec.hashMb = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("Unknown engine setting " + key);
+                }
+            }
+            if (spec.command != null && spec.network != null) {
+                throw new IllegalArgumentException("eval= is for the built-in engine; pass EvalFile as option.EvalFile");
+            }
+            if (spec.command == null && !spec.options.isEmpty()) {
+                throw new IllegalArgumentException("option.* settings are for UCI engines");
+            }
+            return spec;
+        }
+
+        synchronized Player create() throws IOException {
+            if (command != null) {
+                return new UciPlayer(this);
+            }
+            if (network != null && loaded == null) {
+                loaded = NnueEvaluator.Network.load(network);
+            }
+            return new BuiltinPlayer(hashMb, loaded);
+        }
+    }
+
+    // One engine's answer; score is centipawns for the side to move, or NO_SCORE
+    static final class Reply {
+        final int move;
+        final int score;
+        final int depth;
+        final long nodes;
+
+        Reply(int move, int score, int depth, long nodes) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+        }
+    }
+
+    interface Player extends Closeable {
+        void newGame() throws IOException;
+
+        // board is the position reached from startFen by moves; clocks are what is left
+        Reply go(String startFen, List<Integer> moves, ChessGame board, TimeControl tc, long whiteMs, long blackMs)
+            throws IOException;
+
+        @Override
+        void close();
+    }
+
+    private static final class BuiltinPlayer implements Player {
+        private final SearchEngine engine;
+        private final ChessGame position = new ChessGame();
+
+        BuiltinPlayer(int hashMb, NnueEvaluator.Network network) {
+            engine = new SearchEngine(1, hashMb);
+            if (network != null) {
+                engine.setEvaluator(new NnueEvaluator(network));
+            }
+        }
+
+        @Override
+        public void newGame() {
+            engine.newGame();
+        }
+
+        @Override
+        public Reply go(String startFen, List<Integer> moves, ChessGame board, TimeControl tc, long whiteMs,
+                long blackMs) {
+            position.copyFrom(board);
+            SearchResult result = engine.search(position, tc.limits(whiteMs, blackMs), null);
+            return new Reply(result.bestMove(), result.score, result.depth, result.nodes);
+        }
+
+        @Override
+        public void close() {
+            engine.shutdown();
+        }
+    }
+
+    // A UCI engine in its own process. Its output is read on a daemon thread into a
+    // queue, so a hung engine costs a timeout rather than a stuck game slot.
+    private static final class UciPlayer implements Player {
+        static final long STARTUP_TIMEOUT_MS = 10_000;
+        // Allowed past the engine's own limit before it is told to stop, then abandoned
+        static final long GRACE_MS = 5_000;
+        // For depth and node limits, which say nothing about time
+        static final long UNTIMED_TIMEOUT_MS = 600_000;
+        private static final String END_OF_OUTPUT = "\u0000";
+
+        private final String name;
+        private final Process process;
+        private final PrintWriter out;
+        private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+        UciPlayer(EngineSpec spec) throws IOException {
+            name = spec.name;
+            process = new ProcessBuilder(spec.command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            out = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8), true);
+            Thread reader = new Thread(() -> {
+                try (BufferedReader in = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        lines.add(line.trim());
+                    }
+                } catch (IOException e) {
+                    // Same as the engine exiting
+                } finally {
+                    lines.add(END_OF_OUTPUT);
+                }
+            }, "uci-" + spec.name);
+            reader.setDaemon(true);
+            reader.start();
+
+            try {
+                send("uci");
+                await("uciok", STARTUP_TIMEOUT_MS);
+                send("setoption name Hash value " + spec.hashMb);
+                for (Map.Entry<String, String> option : spec.options.entrySet()) {
+                    send("setoption name " + option.getKey() + " value " + option.getValue());
+                }
+                send("isready");
+                await("readyok", STARTUP_TIMEOUT_MS);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void newGame() throws IOException {
+            send("ucinewgame");
+            send("isready");
+            await("readyok", STARTUP_TIMEOUT_MS);
+        }
+
+        @Override
+        public Reply go(String startFen, List<Integer> moves, ChessGame board, TimeControl tc, long whiteMs,
+                long blackMs) throws IOException {
+            StringBuilder position = new StringBuilder("position fen ").append(startFen);
+            if (!moves.isEmpty()) {
+                position.append(" moves");
+                for (int move : moves) {
+                    position.append(' ').append(Move.toUci(move));
+                }
+            }
+            send(position.toString());
+            send(tc.uciGo(whiteMs, blackMs));
+
+            long allowed = tc.hasClock() ? (board.isWhiteTurn() ? whiteMs : blackMs)
+                : tc.moveTimeMs > 0 ? tc.moveTimeMs : UNTIMED_TIMEOUT_MS;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, allowed) + GRACE_MS);
+            boolean stopSent = false;
+            int score = NO_SCORE, depth = 0;
+            long nodes = 0;
+            while (true) {
+                String line = poll(deadline);
+                if (line == null) {
+                    if (stopSent) {
+                        throw new IOException(name + " sent no bestmove");
+                    }
+                    send("stop");
+                    stopSent = true;
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GRACE_MS);
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                if (tokens[0].equals("bestmove")) {
+                    int move = tokens.length > 1 ? board.parseUciMove(tokens[1]) : Move.NONE;
+                    return new Reply(move, score, depth, nodes);
+                }
+                if (!tokens[0].equals("info")) {
+                    continue;
+                }
+                for (int i = 1; i + 1 < tokens.length; i++) {
+                    try {
+                        switch (tokens[i]) {
+                            case "depth": depth = Integer.parseInt(tokens[++i]); break;
+                            case "nodes": nodes = Long.parseLong(tokens[++i]); break;
+                            case "score":
+                                if (i + 2 < tokens.length && tokens[i + 1].equals("cp")) {
+                                    score = Integer.parseInt(tokens[i + 2]);
+                                } else if (i + 2 < tokens.length && tokens[i + 1].equals("mate")) {
+                                    int mate = Integer.parseInt(tokens[i + 2]);
+                                    score = mate > 0 ? SearchEngine.MATE - (2 * mate - 1) : -SearchEngine.MATE - 2 * mate;
+                                }
+                                i += 2;
+                                break;
+                            case "pv":
+                            case "string":
+                                i = tokens.length;
+                                break;
+                            default:
+                                break;
+                        }
+                    } catch (NumberFormatException e) {
+                        // A malformed field; the rest of the line is still useful
+                    }
+                }
+            }
+        }
+
+        private void send(String command) throws IOException {
+            out.println(command);
+            if (out.checkError()) {
+                throw new IOException(name + " is not accepting commands");
+            }
+        }
+
+        private void await(String expected, long timeoutMs) throws IOException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            String line;
+            while ((line = poll(deadline)) != null) {
+                if (line.equals(expected)) {
+                    return;
+                }
+            }
+            throw new IOException(name + " did not send " + expected);
+        }
+
+        // The next line, or null once the deadline has passed; throws when the engine has exited
+        private String poll(long deadlineNanos) throws IOException {
+            try {
+                String line = lines.poll(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (line == END_OF_OUTPUT) {
+                    lines.add(END_OF_OUTPUT);
+                    throw new IOException(name + " exited");
+                }
+                return line;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for " + name, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            out.println("quit");
+            out.close();
+            try {
+                if (!process.waitFor(1, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // A start position and the moves that lead from it to where the engines take over
+    static final class Opening {
+        final String fen;
+        final int[] moves;
+
+        Opening(String fen, int[] moves) {
+            this.fen = fen;
+            this.moves = moves;
+        }
+    }
+
+    static List<Opening> builtInOpenings() {
+        List<Opening> openings = new ArrayList<>();
+        for (String line : BUILT_IN_OPENINGS) {
+            ChessGame board = new ChessGame();
+            String[] sans = line.split(" ");
+            int[] moves = new int[sans.length];
+            for (int i = 0; i < sans.length; i++) {
+                moves[i] = board.parseSanMove(sans[i]);
+                if (moves[i] == Move.NONE) {
+                    throw new IllegalStateException("Illegal built-in opening: " + line);
+                }
+                board.makeMove(moves[i]);
+            }
+            openings.add(new Opening(ChessGame.START_FEN, moves));
+        }
+        return openings;
+    }
+
+    // PGN: each game's first maxPlies moves from its start position. Otherwise one
+    // FEN or EPD position per line
+    static List<Opening> loadOpenings(Path path, int maxPlies) throws IOException {
+        List<Opening> openings = new ArrayList<>();
+        if (path.toString().endsWith(".pgn")) {
+            PgnParser.parseFile(path, true, new PgnParser.Visitor() {
+                String fen;
+                final List<Integer> moves = new ArrayList<>();
+
+                @Override
+                public void startGame(long offset) {
+                    fen = null;
+                    moves.clear();
+                }
+
+                @Override
+                public boolean move(ChessGame board, int move) {
+                    if (fen == null) {
+                        fen = board.toFen();
+                    }
+                    moves.add(move);
+                    return moves.size() < maxPlies;
+                }
+
+                @Override
+                public void endGame(int result) {
+                    if (fen != null) {
+                        openings.add(new Opening(fen, moves.stream().mapToInt(Integer::intValue).toArray()));
+                    }
+                }
+            });
+            return openings;
+        }
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 4 || fields[0].startsWith("#")) {
+                continue;
+            }
+            // FEN clocks when present, otherwise fresh ones (EPD has opcodes there)
+            String fen = fields.length >= 6 && fields[4].matches("\\d+") && fields[5].matches("\\d+")
+                ? String.join(" ", Arrays.copyOf(fields, 6))
+                : String.join(" ", Arrays.copyOf(fields, 4)) + " 0 1";
+            try {
+                new ChessGame(fen);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + ":" + lineNumber + ": " + e.getMessage());
+            }
+            openings.add(new Opening(fen, new int[0]));
+        }
+        return openings;
+    }
+
+    // Results so far, from the first engine's point of view
+    static final class Stats {
+        // Lower bound on the pair-score variance (0-1 scale) in the SPRT. Identical pairs,
+        // such as two deterministic engines drawing every opening, have none, and the
+        // ratio would stay at 0 until the game cap; real matches sit well above this.
+        static final double MIN_PAIR_VARIANCE = 1e-3;
+
+        // Indexed by the first engine's half-points: losses, draws, wins
+        private final long[] games = new long[3];
+        // Indexed by the first engine's half-points over both games of an opening, 0-4
+        private final long[] pairs = new long[5];
+        // First game of each pair still waiting for its partner
+        private final Map<Integer, Integer> unpaired = new HashMap<>();
+        private final long[] moves = new long[2];
+        private final long[] thinkNanos = new long[2];
+        private final long[] nodes = new long[2];
+        private final long[] depths = new long[2];
+
+        // Returns true when this game completed a pair
+        synchronized boolean addGame(int game, int halfPoints) {
+            games[halfPoints]++;
+            Integer partner = unpaired.remove(game / 2);
+            if (partner == null) {
+                unpaired.put(game / 2, halfPoints);
+                return false;
+            }
+            pairs[partner + halfPoints]++;
+            return true;
+        }
+
+        synchronized void addMove(int engine, long nanos, Reply reply) {
+            moves[engine]++;
+            thinkNanos[engine] += nanos;
+            nodes[engine] += reply.nodes;
+            depths[engine] += reply.depth;
+        }
+
+        synchronized long gameCount() {
+            return games[0] + games[1] + games[2];
+        }
+
+        synchronized long pairCount() {
+            return pairs[0] + pairs[1] + pairs[2] + pairs[3] + pairs[4];
+        }
+
+        // Mean and variance of the pair score, scaled to 0-1
+        private double[] pairMoments() {
+            long n = pairCount();
+            double mean = 0;
+            for (int i = 0; i < 5; i++) {
+                mean += pairs[i] * (i / 4.0);
+            }
+            mean /= n;
+            double variance = 0;
+            for (int i = 0; i < 5; i++) {
+                double d = i / 4.0 - mean;
+                variance += pairs[i] * d * d;
+            }
+            return new double[] {mean, variance / n};
+        }
+
+        // Elo difference and its 95% interval, from the pairs; null before the first pair
+        synchronized double[] elo() {
+            if (pairCount() == 0) {
+                return null;
+            }
+            double[] moments = pairMoments();
+            double margin = 1.959964 * Math.sqrt(moments[1] / pairCount());
+            return new double[] {eloOf(moments[0]), eloOf(moments[0] - margin), eloOf(moments[0] + margin)};
+        }
+
+        synchronized double llr(double elo0, double elo1) {
+            if (pairCount() < 2) {
+                return 0;
+            }
+            double[] moments = pairMoments();
+            double variance = Math.max(moments[1], MIN_PAIR_VARIANCE);
+            double s0 = scoreOf(elo0), s1 = scoreOf(elo1);
+            return pairCount() * (s1 - s0) * (2 * moments[0] - s0 - s1) / (2 * variance);
+        }
+
+        // True when the SPRT is running on MIN_PAIR_VARIANCE rather than the measured variance
+        synchronized boolean varianceFloored() {
+            return pairCount() >= 2 && pairMoments()[1] < MIN_PAIR_VARIANCE;
+        }
+
+        // Likelihood of superiority from decisive games
+        synchronized double los() {
+            long decisive = games[0] + games[2];
+            return decisive == 0 ? 0.5 : 0.5 * (1 + erf((games[2] - games[0]) / Math.sqrt(2.0 * decisive)));
+        }
+
+        synchronized String score(String first, String second) {
+            long n = gameCount();
+            double points = games[2] + games[1] / 2.0;
+            return String.format("Score of %s vs %s: %d - %d - %d  [%.3f] %d", first, second, games[2], games[0],
+                games[1], n == 0 ? 0.5 : points / n, n);
+        }
+
+        synchronized String pentanomial() {
+            return Arrays.toString(pairs);
+        }
+
+        synchronized String usage(int engine, String name) {
+            long count = Math.max(1, moves[engine]);
+            double seconds = thinkNanos[engine] / 1e9;
+            return String.format("%s: %,d moves, %.1f ms/move, depth %.1f, %,.0f nodes/s, %.0f s thinking", name,
+                moves[engine], thinkNanos[engine] / 1e6 / count, depths[engine] / (double) count,
+                seconds > 0 ? nodes[engine] / seconds : 0, seconds);
+        }
+
+        static double scoreOf(double elo) {
+            return 1 / (1 + Math.pow(10, -elo / 400));
+        }
+
+        static double eloOf(double score) {
+            double clamped = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+            // + 0.0 turns -0.0 into 0.0 for printing
+            return -400 * Math.log10(1 / clamped - 1) + 0.0;
+        }
+
+        // Abramowitz and Stegun 7.1.26, error below 1.5e-7
+        static double erf(double x) {
+            double t = 1 / (1 + 0.3275911 * Math.abs(x));
+            double y = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027
+                + t * 1.061405429)))) * Math.exp(-x * x);
+            return x >= 0 ? y : -y;
+        }
+    }
+
+    static final class Config {
+        final List<EngineSpec> engines = new ArrayList<>();
+        TimeControl tc = TimeControl.clock("10+0.1");
+        int games = 1000;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        Path openings;
+        int plies = 16;
+        boolean sprt;
+        double elo0;
+        double elo1 = 5;
+        double alpha = 0.05;
+        double beta = 0.05;
+        Path pgn;
+        boolean adjudicate = true;
+        // Overdraft tolerated on the clock, for timer and scheduling jitter
+        long timeMarginMs = 50;
+
+        static Config parse(String[] args) {
+            Config config = new Config();
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--engine": {
+                        List<String> tokens = new ArrayList<>();
+                        while (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                            tokens.add(args[++i]);
+                        }
+                        config.engines.add(EngineSpec.parse(tokens, config.engines.size() + 1));
+                        break;
+                    }
+                    case "--tc": config.tc = TimeControl.clock(args[++i]); break;
+                    case "--movetime": config.tc = new TimeControl(); config.tc.moveTimeMs = Long.parseLong(args[++i]); break;
+                    case "--nodes": config.tc = new TimeControl(); config.tc.nodes = Long.parseLong(args[++i]); break;
+                    case "--depth": config.tc = new TimeControl(); config.tc.depth = Integer.parseInt(args[++i]); break;
+                    case "--games": config.games = Integer.parseInt(args[++i]); break;
+                    case "--concurrency": config.concurrency = Integer.parseInt(args[++i]); break;
+                    case "--openings": config.openings = Paths.get(args[++i]); break;
+                    case "--plies": config.plies = Integer.parseInt(args[++i]); break;
+                    case "--sprt":
+                        config.sprt = true;
+                        config.elo0 = Double.parseDouble(args[++i]);
+                        config.elo1 = Double.parseDouble(args[++i]);
+                        break;
+                    case "--alpha": config.alpha = Double.parseDouble(args[++i]); break;
+                    case "--beta": config.beta = Double.parseDouble(args[++i]); break;
+                    case "--pgn": config.pgn = Paths.get(args[++i]); break;
+                    case "--no-adjudication": config.adjudicate = false; break;
+                    case "--time-margin": config.timeMarginMs = Long.parseLong(args[++i]); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (config.engines.size() != 2) {
+                throw new IllegalArgumentException("Exactly two --engine options are needed");
+            }
+            if (config.games < 2 || config.concurrency < 1 || config.plies < 1) {
+                throw new IllegalArgumentException("--games must be at least 2, --concurrency and --plies positive");
+            }
+            if (config.sprt && !(config.elo1 > config.elo0 && config.alpha > 0 && config.alpha < 1
+                    && config.beta > 0 && config.beta < 1)) {
+                throw new IllegalArgumentException("--sprt needs ELO0 < ELO1, and --alpha and --beta in (0, 1)");
+            }
+            // Whole pairs only
+            config.games += config.games % 2;
+            return config;
+        }
+    }
+
+    private final Config config;
+    private final List<Opening> openings;
+    private final Stats stats = new Stats();
+    private final AtomicInteger nextGame = new AtomicInteger();
+    private final AtomicLong lastProgress = new AtomicLong(System.nanoTime());
+    private final Writer pgn;
+    private final String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy.MM.dd"));
+    private volatile boolean stopped;
+    private volatile String decision;
+    private final AtomicBoolean floorLogged = new AtomicBoolean();
+    private volatile IOException failure;
+
+    Tournament(Config config, List<Opening> openings, Writer pgn) {
+        this.config = config;
+        this.openings = openings;
+        this.pgn = pgn;
+    }
+
+    void run() throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(config.concurrency, SearchEngine.daemonThreads("tournament"));
+        try {
+            List<Future<?>> slots = new ArrayList<>();
+            for (int i = 0; i < config.concurrency; i++) {
+                slots.add(pool.submit(this::playGames));
+            }
+            for (Future<?> slot : slots) {
+                try {
+                    slot.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Game slot failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // One game slot: plays games until the schedule or the SPRT ends the match
+    private void playGames() {
+        Player[] players = new Player[2];
+        try {
+            int game;
+            while (!stopped && (game = nextGame.getAndIncrement()) < config.games) {
+                for (int i = 0; i < 2; i++) {
+                    if (players[i] == null) {
+                        players[i] = config.engines.get(i).create();
+                    }
+                }
+                Game result = play(game, players);
+                // A crashed engine is replaced for the next game
+                if (result.failed >= 0) {
+                    players[result.failed].close();
+                    players[result.failed] = null;
+                }
+                recordGame(game, result);
+            }
+        } catch (IOException e) {
+            failure = e;
+            stopped = true;
+        } finally {
+            for (Player player : players) {
+                if (player != null) {
+                    player.close();
+                }
+            }
+        }
+    }
+
+    // A finished game, with what the PGN needs
+    private static final class Game {
+        final boolean firstIsWhite;
+        final Opening opening;
+        final List<String> sans = new ArrayList<>();
+        final List<String> comments = new ArrayList<>();
+        int whiteHalfPoints = 1;
+        String termination = "normal";
+        String reason;
+        // Index of the engine that crashed, or -1
+        int failed = -1;
+
+        Game(boolean firstIsWhite, Opening opening) {
+            this.firstIsWhite = firstIsWhite;
+            this.opening = opening;
+        }
+
+        int firstHalfPoints() {
+            return firstIsWhite ? whiteHalfPoints : 2 - whiteHalfPoints;
+        }
+
+        void end(int whiteHalfPoints, String termination, String reason) {
+            this.whiteHalfPoints = whiteHalfPoints;
+            this.termination = termination;
+            this.reason = reason;
+        }
+    }
+
+    private Game play(int number, Player[] players) {
+        // Consecutive games share an opening, with colours reversed
+        Opening opening = openings.get((number / 2) % openings.size());
+        Game game = new Game(number % 2 == 0, opening);
+        int whiteEngine = game.firstIsWhite ? 0 : 1;
+        ChessGame board = new ChessGame(opening.fen);
+        List<Integer> moves = new ArrayList<>();
+        Map<Long, Integer> seen = new HashMap<>();
+        seen.put(board.hash(), 1);
+        for (int move : opening.moves) {
+            game.sans.add(board.toSan(move));
+            game.comments.add(null);
+            board.makeMove(move);
+            moves.add(move);
+            seen.merge(board.hash(), 1, Integer::sum);
+        }
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                players[i].newGame();
+            } catch (IOException e) {
+                int side = i == whiteEngine ? ChessGame.WHITE : ChessGame.BLACK;
+                game.end(side == ChessGame.WHITE ? 0 : 2, "abandoned", e.getMessage());
+                game.failed = i;
+                return game;
+            }
+        }
+
+        long[] clocks = {config.tc.baseMs, config.tc.baseMs};
+        // White's point of view, one per engine move
+        List<Integer> scores = new ArrayList<>();
+        MoveList legal = new MoveList();
+        while (!finished(game, board, seen, legal, scores)) {
+            int side = board.sideToMove();
+            int engine = side == ChessGame.WHITE ? whiteEngine : 1 - whiteEngine;
+            int lossForMover = side == ChessGame.WHITE ? 0 : 2;
+            String mover = side == ChessGame.WHITE ? "White" : "Black";
+            long start = System.nanoTime();
+            Reply reply;
+            try {
+                reply = players[engine].go(opening.fen, moves, board, config.tc, clocks[0], clocks[1]);
+            } catch (IOException e) {
+                game.end(lossForMover, "abandoned", e.getMessage());
+                game.failed = engine;
+                break;
+            }
+            long nanos = System.nanoTime() - start;
+            if (config.tc.hasClock()) {
+                clocks[side] -= TimeUnit.NANOSECONDS.toMillis(nanos);
+                if (clocks[side] < -config.timeMarginMs) {
+                    game.end(lossForMover, "time forfeit", mover + " loses on time");
+                    break;
+                }
+                clocks[side] += config.tc.incrementMs;
+            }
+            if (reply.move == Move.NONE) {
+                game.end(lossForMover, "rules infraction", mover + " makes an illegal move");
+                break;
+            }
+            stats.addMove(engine, nanos, reply);
+            game.sans.add(board.toSan(reply.move));
+            game.comments.add(comment(reply, nanos));
+            board.makeMove(reply.move);
+            moves.add(reply.move);
+            seen.merge(board.hash(), 1, Integer::sum);
+            scores.add(reply.score == NO_SCORE ? NO_SCORE : side == ChessGame.WHITE ? reply.score : -reply.score);
+        }
+        return game;
+    }
+
+    // Ends the game when the rules or adjudication say so
+    private boolean finished(Game game, ChessGame board, Map<Long, Integer> seen, MoveList legal, List<Integer> scores) {
+        board.generateLegalMoves(legal);
+        if (legal.size() == 0) {
+            if (board.inCheck()) {
+                boolean whiteMated = board.isWhiteTurn();
+                game.end(whiteMated ? 0 : 2, "normal", (whiteMated ? "Black" : "White") + " mates");
+            } else {
+                game.end(1, "normal", "Stalemate");
+            }
+            return true;
+        }
+        if (board.halfmoveClock() >= 100) {
+            game.end(1, "normal", "Fifty-move rule");
+            return true;
+        }
+        if (seen.getOrDefault(board.hash(), 0) >= 3) {
+            game.end(1, "normal", "Threefold repetition");
+            return true;
+        }
+        if (insufficientMaterial(board)) {
+            game.end(1, "normal", "Insufficient material");
+            return true;
+        }
+        if (game.sans.size() >= MAX_PLIES) {
+            game.end(1, "adjudication", "Move limit");
+            return true;
+        }
+        if (!config.adjudicate) {
+            return false;
+        }
+        if (agree(scores, RESIGN_MOVES * 2, score -> score >= RESIGN_CP)) {
+            game.end(2, "adjudication", "Both engines score White winning");
+            return true;
+        }
+        if (agree(scores, RESIGN_MOVES * 2, score -> score <= -RESIGN_CP)) {
+            game.end(0, "adjudication", "Both engines score Black winning");
+            return true;
+        }
+        if (game.sans.size() >= DRAW_START_PLY && agree(scores, DRAW_MOVES * 2, score -> Math.abs(score) <= DRAW_CP)) {
+            game.end(1, "adjudication", "Both engines score a draw");
+            return true;
+        }
+        return false;
+    }
+
+    // The last plies scores all exist and pass the test
+    private static boolean agree(List<Integer> scores, int plies, java.util.function.IntPredicate test) {
+        if (scores.size() < plies) {
+            return false;
+        }
+        for (int i = scores.size() - plies; i < scores.size(); i++) {
+            int score = scores.get(i);
+            if (score == NO_SCORE || !test.test(score)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Bare kings, a single minor piece, or bishops that all stand on one colour
+    static boolean insufficientMaterial(ChessGame board) {
+        long heavy = 0, knights = 0, bishops = 0;
+        for (int color = ChessGame.WHITE; color <= ChessGame.BLACK; color++) {
+            heavy |= board.pieces(color, ChessGame.PAWN) | board.pieces(color, ChessGame.ROOK)
+                | board.pieces(color, ChessGame.QUEEN);
+            knights |= board.pieces(color, ChessGame.KNIGHT);
+            bishops |= board.pieces(color, ChessGame.BISHOP);
+        }
+        if (heavy != 0) {
+            return false;
+        }
+        if (Long.bitCount(knights | bishops) <= 1) {
+            return true;
+        }
+        long lightSquares = 0x55AA55AA55AA55AAL;
+        return knights == 0 && ((bishops & lightSquares) == 0 || (bishops & ~lightSquares) == 0);
+    }
+
+    // Score from the mover's side, depth and time, as other match tools write them
+    private static String comment(Reply reply, long nanos) {
+        String score;
+        if (reply.score == NO_SCORE) {
+            score = "?";
+        } else if (Math.abs(reply.score) >= SearchEngine.MATE_BOUND) {
+            // Moves to mate, as SearchResult.mateIn counts them
+            int moves = (SearchEngine.MATE - Math.abs(reply.score) + 1) / 2;
+            score = (reply.score > 0 ? "+M" : "-M") + moves;
+        } else {
+            score = String.format(Locale.ROOT, "%+.2f", reply.score / 100.0);
+        }
+        return String.format(Locale.ROOT, "%s/%d %.3fs", score, reply.depth, nanos / 1e9);
+    }
+
+    private void recordGame(int number, Game game) throws IOException {
+        boolean pairDone = stats.addGame(number, game.firstHalfPoints());
+        if (pgn != null) {
+            String text = toPgn(number, game);
+            synchronized (pgn) {
+                pgn.write(text);
+                pgn.flush();
+            }
+        }
+        if (config.sprt && pairDone && decision == null) {
+            if (stats.varianceFloored() && floorLogged.compareAndSet(false, true)) {
+                System.err.printf("SPRT: pair scores barely vary (pentanomial %s); using variance %.4f%n",
+                    stats.pentanomial(), Stats.MIN_PAIR_VARIANCE);
+            }
+            double llr = stats.llr(config.elo0, config.elo1);
+            if (llr >= upperBound()) {
+                decision = "H1";
+                stopped = true;
+            } else if (llr <= lowerBound()) {
+                decision = "H0";
+                stopped = true;
+            }
+        }
+        long now = System.nanoTime(), last = lastProgress.get();
+        if (now - last >= PROGRESS_INTERVAL_NANOS && lastProgress.compareAndSet(last, now)) {
+            System.err.println(status());
+        }
+    }
+
+    private double lowerBound() {
+        return Math.log(config.beta / (1 - config.alpha));
+    }
+
+    private double upperBound() {
+        return Math.log((1 - config.beta) / config.alpha);
+    }
+
+    private String status() {
+        StringBuilder sb = new StringBuilder(stats.score(config.engines.get(0).name, config.engines.get(1).name));
+        double[] elo = stats.elo();
+        if (elo != null) {
+            sb.append(String.format("  elo %+.1f [%+.1f, %+.1f]", elo[0], elo[1], elo[2]));
+        }
+        if (config.sprt) {
+            sb.append(String.format("  llr %.2f (%.2f, %.2f)", stats.llr(config.elo0, config.elo1), lowerBound(),
+                upperBound()));
+        }
+        return sb.toString();
+    }
+
+    private String toPgn(int number, Game game) {
+        String first = config.engines.get(0).name, second = config.engines.get(1).name;
+        String result = RESULTS[game.whiteHalfPoints];
+        StringBuilder sb = new StringBuilder(1024);
+        tag(sb, "Event", "Tournament " + first + " vs " + second);
+        tag(sb, "Site", "?");
+        tag(sb, "Date", date);
+        tag(sb, "Round", Integer.toString(number + 1));
+        tag(sb, "White", game.firstIsWhite ? first : second);
+        tag(sb, "Black", game.firstIsWhite ? second : first);
+        tag(sb, "Result", result);
+        if (!game.opening.fen.equals(ChessGame.START_FEN)) {
+            tag(sb, "SetUp", "1");
+            tag(sb, "FEN", game.opening.fen);
+        }
+        tag(sb, "PlyCount", Integer.toString(game.sans.size()));
+        tag(sb, "TimeControl", config.tc.pgnTag());
+        tag(sb, "Termination", game.termination);
+        sb.append('\n');
+
+        ChessGame start = new ChessGame(game.opening.fen);
+        boolean white = start.isWhiteTurn();
+        int moveNumber = start.fullmoveNumber();
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < game.sans.size(); i++) {
+            if (white) {
+                tokens.add(moveNumber + ".");
+            } else if (i == 0) {
+                tokens.add(moveNumber + "...");
+            }
+            tokens.add(game.sans.get(i));
+            if (game.comments.get(i) != null) {
+                tokens.add("{" + game.comments.get(i) + "}");
+            }
+            if (!white) {
+                moveNumber++;
+            }
+            white = !white;
+        }
+        if (game.reason != null) {
+            tokens.add("{" + game.reason + "}");
+        }
+        tokens.add(result);
+
+        // Export format: lines of at most 79 characters
+        int lineLength = 0;
+        for (String token : tokens) {
+            if (lineLength > 0 && lineLength + 1 + token.length() > 79) {
+                sb.append('\n');
+                lineLength = 0;
+            } else if (lineLength > 0) {
+                sb.append(' ');
+                lineLength++;
+            }
+            sb.append(token);
+            lineLength += token.length();
+        }
+        return sb.append("\n\n").toString();
+    }
+
+    private static void tag(StringBuilder sb, String name, String value) {
+        sb.append('[').append(name).append(" \"").append(value.replace("\\", "\\\\").replace("\"", "\\\""))
+            .append("\"]\n");
+    }
+
+    // Printed at the end of the match
+    String summary(double seconds) {
+        String first = config.engines.get(0).name, second = config.engines.get(1).name;
+        StringBuilder sb = new StringBuilder();
+        sb.append(stats.score(first, second)).append('\n');
+        double[] elo = stats.elo();
+        if (elo != null) {
+            sb.append(String.format("Elo difference: %+.1f [%+.1f, %+.1f] (95%%), LOS %.1f%%%n", elo[0], elo[1],
+                elo[2], stats.los() * 100));
+        }
+        sb.append(String.format("Pairs %d, pentanomial [0, 1/2, 1, 3/2, 2 points] %s%n", stats.pairCount(),
+            stats.pentanomial()));
+        if (config.sprt) {
+            String outcome = decision == null ? "inconclusive"
+                : decision.equals("H1") ? "H1 accepted" : "H0 accepted";
+            sb.append(String.format("SPRT elo0 %.1f elo1 %.1f alpha %.2f beta %.2f: llr %.2f (%.2f, %.2f), %s%n",
+                config.elo0, config.elo1, config.alpha, config.beta, stats.llr(config.elo0, config.elo1),
+                lowerBound(), upperBound(), outcome));
+            if (stats.varianceFloored()) {
+                sb.append(String.format("SPRT used the variance floor %.4f: the pairs vary less than that%n",
+                    Stats.MIN_PAIR_VARIANCE));
+            }
+        }
+        sb.append(stats.usage(0, first)).append('\n');
+        sb.append(stats.usage(1, second)).append('\n');
+        sb.append(String.format("%d games in %.1f s, %s, %d at a time, %d openings%n", stats.gameCount(), seconds,
+            config.tc, config.concurrency, openings.size()));
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        Config config;
+        try {
+            config = Config.parse(args);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            System.err.println("Usage: java Tournament --engine name=A [eval=FILE.nnue] [hash=MB]");
+            System.err.println("       --engine name=B cmd=\"<uci command>\" [option.<Name>=<value>]");
+            System.err.println("       [--tc S+INC | --movetime MS | --nodes N | --depth N] [--games N] [--concurrency N]");
+            System.err.println("       [--openings FILE.epd|FILE.pgn] [--plies N] [--sprt ELO0 ELO1] [--alpha A] [--beta B]");
+            System.err.println("       [--pgn OUT.pgn] [--no-adjudication] [--time-margin MS]");
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (config.concurrency > Runtime.getRuntime().availableProcessors()) {
+            System.err.println("Warning: more games at a time than cores; engines will lose time to each other");
+        }
+
+        int status;
+        try (Writer pgn = config.pgn == null ? null : Files.newBufferedWriter(config.pgn, StandardCharsets.UTF_8)) {
+            List<Opening> openings = config.openings != null ? loadOpenings(config.openings, config.plies)
+                : builtInOpenings();
+            if (openings.isEmpty()) {
+                throw new IOException("No openings in " + config.openings);
+            }
+            Tournament tournament = new Tournament(config, openings, pgn);
+            long start = System.nanoTime();
+            tournament.run();
+            System.out.print(tournament.summary((System.nanoTime() - start) / 1e9));
+            status = "H0".equals(tournament.decision) ? 1 : 0;
+        } catch (IOException e) {
+            System.err.println("Tournament failed: " + e.getMessage());
+            status = 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = 1;
+        }
+        System.exit(status);
+    }
+}
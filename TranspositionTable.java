@@ -0,0 +1,133 @@
+// Hash table shared by all search threads, packed into one long[] with no per-entry objects.
+//
+// Entries are two longs, (key ^ data, data): a probe only trusts the data if XOR-ing it
+// back reproduces the key, so a torn write from a concurrent store reads as a miss instead
+// of needing a lock. Four entries form a 64-byte bucket, so a probe touches one or two
+// cache lines; within a bucket the shallowest / oldest entry is replaced first.
+final class TranspositionTable {
+    static final int BOUND_UPPER = 1;
+    static final int BOUND_LOWER = 2;
+    static final int BOUND_EXACT = 3;
+
+    static final int MIN_SIZE_MB = 1;
+    static final int MAX_SIZE_MB = 4096;
+
+    private static final int ENTRIES_PER_BUCKET = 4;
+    private static final int LONGS_PER_BUCKET = ENTRIES_PER_BUCKET * 2;
+    private static final int AGE_MASK = 63;
+
+    private final long[] entries;
+    private final long bucketCount;
+    private final int sizeMb;
+    private volatile int age;
+
+    TranspositionTable(int sizeMb) {
+        this.sizeMb = Math.max(MIN_SIZE_MB, Math.min(MAX_SIZE_MB, sizeMb));
+        bucketCount = ((long) this.sizeMb << 20) / (LONGS_PER_BUCKET * 8);
+        entries = new long[(int) (bucketCount * LONGS_PER_BUCKET)];
+    }
+
+    int sizeMb() {
+        return sizeMb;
+    }
+
+    void clear() {
+        java.util.Arrays.fill(entries, 0L);
+        age = 0;
+    }
+
+    // Called once per search so entries from earlier searches become preferred victims
+    void newSearch() {
+        age = (age + 1) & AGE_MASK;
+    }
+
+    // Maps the upper key bits onto [0, bucketCount) without needing a power-of-two size
+    private int bucketIndex(long key) {
+        return (int) (((key >>> 32) * bucketCount) >>> 32) * LONGS_PER_BUCKET;
+    }
+
+    // Returns the packed data for key, or 0 on a miss
+    long probe(long key) {
+        int base = bucketIndex(key);
+        for (int i = base; i < base + LONGS_PER_BUCKET; i += 2) {
+            long data = entries[i + 1];
+            if ((entries[i] ^ data) == key && data != 0) {
+                return data;
+            }
+        }
+        return 0L;
+    }
+
+    void store(long key, int move, int score, int depth, int bound) {
+        int base = bucketIndex(key);
+        int currentAge = age;
+        int victim = base;
+        int victimValue = Integer.MAX_VALUE;
+
+        for (int i = base; i < base + LONGS_PER_BUCKET; i += 2) {
+            long data = entries[i + 1];
+            if ((entries[i] ^ data) == key || data == 0) {
+                // Same position (or a free slot): keep a known move if this store has none,
+                // and don't let a shallow non-exact result overwrite a deeper one from this search
+                if (data != 0) {
+                    if (move == Move.NONE) {
+                        move = move(data);
+                    }
+                    if (bound != BOUND_EXACT && age(data) == currentAge && depth + 2 < depth(data)) {
+                        return;
+                    }
+                }
+                victim = i;
+                break;
+            }
+            // Older entries lose 8 plies of value per search generation
+            int value = depth(data) - 8 * ((currentAge - age(data)) & AGE_MASK);
+            if (value < victimValue) {
+                victimValue = value;
+                victim = i;
+            }
+        }
+
+        long data = (move & 0xFFFFL) | ((score & 0xFFFFL) << 16) | ((long) (depth & 0xFF) << 32)
+            | ((long) bound << 40) | ((long) currentAge << 42);
+        entries[victim] = key ^ data;
+        entries[victim + 1] = data;
+    }
+
+    // Permille of sampled entries written during the current search (UCI "hashfull")
+    int hashfull() {
+        int sampleBuckets = (int) Math.min(bucketCount, 250);
+        int currentAge = age;
+        int used = 0;
+        for (int b = 0; b < sampleBuckets; b++) {
+            int base = b * LONGS_PER_BUCKET;
+            for (int i = base; i < base + LONGS_PER_BUCKET; i += 2) {
+                long data = entries[i + 1];
+                if (data != 0 && age(data) == currentAge) {
+                    used++;
+                }
+            }
+        }
+        return used * 1000 / (sampleBuckets * ENTRIES_PER_BUCKET);
+    }
+
+    static int move(long data) {
+        return (int) (data & 0xFFFF);
+    }
+
+    static int score(long data) {
+        return (short) (data >>> 16);
+    }
+
+    static int depth(long data) {
+        return (int) ((data >>> 32) & 0xFF);
+    }
+
+    static int bound(long data) {
+        return (int) ((data >>> 40) & 3);
+    }
+
+    static int age(long data) {
+        return (int) ((data >>> 42) & AGE_MASK);
+    }
+}
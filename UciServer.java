@@ -0,0 +1,353 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+// Headless UCI front end for the search engine: reads commands from stdin, runs each
+// search on its own thread and streams "info" lines while it works. stdin stays
+// responsive during a search, so "stop" takes effect at the next node check.
+public class UciServer {
+    static final String ENGINE_NAME = "Chess Learning Engine";
+    static final int MAX_THREADS = 256;
+    static final long TABLEBASE_CACHE_BYTES = 64L << 20;
+
+    private final BufferedReader input;
+    private final PrintStream output;
+    private final SearchEngine engine = new SearchEngine();
+    private final ExecutorService searchThread = Executors.newSingleThreadExecutor(SearchEngine.daemonThreads("uci-search"));
+    private final ChessGame position = new ChessGame();
+    private Future<?> currentSearch;
+    private OpeningBook book;
+    private Tablebase tablebase;
+    private boolean ownBook = true;
+
+    UciServer(InputStream in, PrintStream out) {
+        input = new BufferedReader(new InputStreamReader(in));
+        output = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Metrics.start();
+        new UciServer(System.in, System.out).run();
+    }
+
+    void run() throws IOException {
+        try {
+            String line;
+            while ((line = input.readLine()) != null) {
+                if (!handle(line.trim())) {
+                    break;
+                }
+            }
+        } finally {
+            stopSearch();
+            searchThread.shutdownNow();
+            engine.shutdown();
+            closeBook();
+        }
+    }
+
+    // Returns false when the session should end
+    boolean handle(String line) {
+        if (line.isEmpty()) {
+            return true;
+        }
+        String[] tokens = line.split("\\s+");
+        switch (tokens[0]) {
+            case "uci":
+                send("id name " + ENGINE_NAME);
+                send("id author Chess Learning App");
+                send("option name Hash type spin default 16 min " + TranspositionTable.MIN_SIZE_MB
+                    + " max " + TranspositionTable.MAX_SIZE_MB);
+                send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+                send("option name OwnBook type check default true");
+                send("option name BookFile type string default <empty>");
+                send("option name TablebasePath type string default <empty>");
+                send("option name EvalFile type string default <empty>");
+                send("uciok");
+                break;
+            case "isready":
+                send("readyok");
+                break;
+            case "ucinewgame":
+                stopSearch();
+                engine.newGame();
+                position.setFen(ChessGame.START_FEN);
+                break;
+            case "setoption":
+                stopSearch();
+                setOption(tokens);
+                break;
+            case "position":
+                stopSearch();
+                setPosition(tokens);
+                break;
+            case "go":
+                stopSearch();
+                startSearch(parseLimits(tokens));
+                break;
+            case "stop":
+                stopSearch();
+                break;
+            case "d":
+                send(position.toFen());
+                break;
+            case "quit":
+                return false;
+            default:
+                send("info string unknown command: " + tokens[0]);
+        }
+        return true;
+    }
+
+    private void setOption(String[] tokens) {
+        // setoption name <id> [value <x>]
+        String name = null, value = null;
+        for (int i = 1; i < tokens.length - 1; i++) {
+            if (tokens[i].equals("name")) {
+                name = tokens[i + 1];
+            } else if (tokens[i].equals("value")) {
+                value = tokens[i + 1];
+            }
+        }
+        if (name == null || value == null) {
+            send("info string setoption needs a name and a value");
+            return;
+        }
+        if (name.equalsIgnoreCase("OwnBook")) {
+            ownBook = Boolean.parseBoolean(value);
+            return;
+        }
+        if (name.equalsIgnoreCase("BookFile") || name.equalsIgnoreCase("TablebasePath")
+                || name.equalsIgnoreCase("EvalFile")) {
+            // The path is everything after "value", spaces included
+            String line = String.join(" ", tokens);
+            String path = line.substring(line.indexOf(" value ") + 7).trim();
+            if (name.equalsIgnoreCase("BookFile")) {
+                setBook(path);
+            } else if (name.equalsIgnoreCase("TablebasePath")) {
+                setTablebase(path);
+            } else {
+                setEvalFile(path);
+            }
+            return;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (name.equalsIgnoreCase("Hash")) {
+                engine.setHashSize(number);
+            } else if (name.equalsIgnoreCase("Threads")) {
+                engine.setThreads(Math.max(1, Math.min(MAX_THREADS, number)));
+            } else {
+                send("info string unknown option: " + name);
+            }
+        } catch (NumberFormatException e) {
+            send("info string invalid value for " + name + ": " + value);
+        }
+    }
+
+    private void setBook(String path) {
+        closeBook();
+        if (path.isEmpty() || path.equals("<empty>")) {
+            return;
+        }
+        try {
+            book = OpeningBook.open(java.nio.file.Paths.get(path));
+            send("info string book " + path + " with " + book.size() + " entries");
+        } catch (IOException | java.nio.file.InvalidPathException e) {
+            send("info string cannot open book " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void setTablebase(String path) {
+        Tablebase previous = tablebase;
+        tablebase = null;
+        engine.setTablebase(null);
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                // Read-only mappings; nothing to lose
+            }
+        }
+        if (path.isEmpty() || path.equals("<empty>")) {
+            return;
+        }
+        try {
+            tablebase = new Tablebase(java.nio.file.Paths.get(path), TABLEBASE_CACHE_BYTES);
+            engine.setTablebase(tablebase);
+            send("info string tablebases up to " + tablebase.maxPieces() + " pieces in " + path);
+        } catch (IOException | java.nio.file.InvalidPathException e) {
+            send("info string cannot open tablebases in " + path + ": " + e.getMessage());
+        }
+    }
+
+    // An empty path goes back to the classical evaluation
+    private void setEvalFile(String path) {
+        if (path.isEmpty() || path.equals("<empty>")) {
+            engine.setEvaluator(ClassicalEvaluator.INSTANCE);
+            return;
+        }
+        try {
+            NnueEvaluator.Network network = NnueEvaluator.Network.load(java.nio.file.Paths.get(path));
+            engine.setEvaluator(new NnueEvaluator(network));
+            send("info string network " + path + " with " + network.hidden + " hidden, "
+                + NnueEvaluator.KERNELS.name() + " kernels");
+        } catch (IOException | java.nio.file.InvalidPathException e) {
+            send("info string cannot load network " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void closeBook() {
+        if (book != null) {
+            try {
+                book.close();
+            } catch (IOException e) {
+                // Read-only mapping; nothing to lose
+            }
+            book = null;
+        }
+    }
+
+    private void setPosition(String[] tokens) {
+        // position [startpos | fen <fen>] [moves <m1> ... <mn>]
+        // Built aside and copied in only when all of it is valid, so a bad command keeps the old position
+        ChessGame next = new ChessGame();
+        int index = 1;
+        try {
+            if (tokens.length > 1 && tokens[1].equals("startpos")) {
+                index = 2;
+            } else if (tokens.length > 1 && tokens[1].equals("fen")) {
+                StringBuilder fen = new StringBuilder();
+                index = 2;
+                while (index < tokens.length && !tokens[index].equals("moves")) {
+                    fen.append(tokens[index++]).append(' ');
+                }
+                next.setFen(fen.toString());
+            } else {
+                send("info string position needs startpos or fen");
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            send("info string " + e.getMessage());
+            return;
+        }
+
+        if (index < tokens.length && tokens[index].equals("moves")) {
+            for (int i = index + 1; i < tokens.length; i++) {
+                int move = next.parseUciMove(tokens[i]);
+                if (move == Move.NONE) {
+                    send("info string illegal move: " + tokens[i]);
+                    return;
+                }
+                next.makeMove(move);
+            }
+        }
+        position.copyFrom(next);
+    }
+
+    static SearchLimits parseLimits(String[] tokens) {
+        SearchLimits limits = new SearchLimits();
+        for (int i = 1; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.equals("infinite")) {
+                limits.infinite = true;
+                continue;
+            }
+            if (i + 1 >= tokens.length) {
+                break;
+            }
+            try {
+                switch (token) {
+                    case "depth": limits.depth = Integer.parseInt(tokens[++i]); break;
+                    case "nodes": limits.nodes = Long.parseLong(tokens[++i]); break;
+                    case "movetime": limits.moveTimeMs = Long.parseLong(tokens[++i]); break;
+                    case "wtime": limits.whiteTimeMs = Long.parseLong(tokens[++i]); break;
+                    case "btime": limits.blackTimeMs = Long.parseLong(tokens[++i]); break;
+                    case "winc": limits.whiteIncrementMs = Long.parseLong(tokens[++i]); break;
+                    case "binc": limits.blackIncrementMs = Long.parseLong(tokens[++i]); break;
+                    case "movestogo": limits.movesToGo = Integer.parseInt(tokens[++i]); break;
+                    default: break;
+                }
+            } catch (NumberFormatException e) {
+                // Ignore a malformed limit rather than refusing to search
+            }
+        }
+        return limits;
+    }
+
+    private void startSearch(SearchLimits limits) {
+        // A book hit answers at once; "go infinite" is analysis, so it always searches
+        if (book != null && ownBook && !limits.infinite) {
+            int move = book.probe(position);
+            if (move != Move.NONE) {
+                send("info string book move");
+                send("bestmove " + Move.toUci(move));
+                return;
+            }
+        }
+        // The board is copied into the workers before search() returns control, but the
+        // next "position" command could arrive first, so hand the search its own copy
+        ChessGame root = new ChessGame();
+        root.copyFrom(position);
+        currentSearch = searchThread.submit(() -> {
+            SearchResult result;
+            try {
+                result = engine.search(root, limits, this::sendInfo);
+            } catch (Throwable e) {
+                // The GUI waits for a bestmove whatever happened
+                send("info string search failed: " + e);
+                send("bestmove 0000");
+                return;
+            }
+            if (result.pv.length == 0) {
+                send("info depth 0 score " + (root.inCheck() ? "mate 0" : "cp 0"));
+            }
+            StringBuilder line = new StringBuilder("bestmove ").append(Move.toUci(result.bestMove()));
+            if (result.ponderMove() != Move.NONE) {
+                line.append(" ponder ").append(Move.toUci(result.ponderMove()));
+            }
+            send(line.toString());
+        });
+    }
+
+    // Stops any running search and waits for its bestmove to be sent
+    private void stopSearch() {
+        if (currentSearch == null) {
+            return;
+        }
+        try {
+            // Repeat the stop in case it raced ahead of the search resetting its flag
+            while (true) {
+                engine.stop();
+                try {
+                    currentSearch.get(1, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    // still winding down
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            send("info string search failed: " + e.getCause());
+        }
+        currentSearch = null;
+    }
+
+    private void sendInfo(SearchResult result) {
+        send(formatInfo(result));
+    }
+
+    static String formatInfo(SearchResult result) {
+        return "info depth " + result.depth + " seldepth " + result.selDepth
+            + " score " + (result.isMate() ? "mate " + result.mateIn() : "cp " + result.score)
+            + " nodes " + result.nodes + " nps " + result.nodesPerSecond() + " hashfull " + result.hashfull
+            + " time " + result.timeMs + " pv " + result.pvString();
+    }
+
+    private void send(String line) {
+        synchronized (output) {
+            output.println(line);
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Evaluation throughput as the search sees it: push, make, evaluate, unmake, pop for one
+// move. Each position keeps its own evaluators, reset once, so the network is timed on
+// incremental updates only. Random weights; only the arithmetic is being measured.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvalBenchmark {
+    private ChessGame[] positions;
+    private int[] firstMoves;
+    private int index;
+    private Evaluator[] classical;
+    private Evaluator[] scalar;
+    private Evaluator[] vector;
+
+    @Setup
+    public void setUp() {
+        positions = new ChessGame[Perft.SUITE.length];
+        firstMoves = new int[positions.length];
+        classical = new Evaluator[positions.length];
+        scalar = new Evaluator[positions.length];
+        vector = new Evaluator[positions.length];
+        NnueEvaluator.Network network = NnueEvaluator.Network.random(256, 1);
+        MoveList moves = new MoveList();
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new ChessGame(Perft.SUITE[i][0]);
+            positions[i].generateLegalMoves(moves);
+            firstMoves[i] = moves.get(moves.size() / 2);
+            classical[i] = ClassicalEvaluator.INSTANCE;
+            scalar[i] = new NnueEvaluator(network, NnueEvaluator.SCALAR);
+            vector[i] = new NnueEvaluator(network, NnueEvaluator.KERNELS);
+            scalar[i].reset(positions[i]);
+            vector[i].reset(positions[i]);
+        }
+    }
+
+    private int evaluateNext(Evaluator[] evaluators) {
+        index = index + 1 == positions.length ? 0 : index + 1;
+        ChessGame board = positions[index];
+        Evaluator evaluator = evaluators[index];
+        int move = firstMoves[index];
+        evaluator.push(board, move);
+        board.makeMove(move);
+        int score = evaluator.evaluate(board);
+        board.unmakeMove(move);
+        evaluator.pop();
+        return score;
+    }
+
+    @Benchmark
+    public int classical() {
+        return evaluateNext(classical);
+    }
+
+    @Benchmark
+    public int nnueScalar() {
+        return evaluateNext(scalar);
+    }
+
+    @Benchmark
+    public int nnueVector() {
+        return evaluateNext(vector);
+    }
+}
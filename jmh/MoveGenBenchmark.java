@@ -0,0 +1,76 @@
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Hot-path throughput for move generation, make/unmake and hashing. Run with: ./gradlew jmh
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenBenchmark {
+    private ChessGame[] positions;
+    private MoveList moves;
+    private int[] firstMoves;
+    private int index;
+
+    // Reported as nodes/sec next to the per-invocation score
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Nodes {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        positions = new ChessGame[Perft.SUITE.length];
+        firstMoves = new int[positions.length];
+        moves = new MoveList();
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new ChessGame(Perft.SUITE[i][0]);
+            positions[i].generateLegalMoves(moves);
+            firstMoves[i] = moves.get(moves.size() / 2);
+        }
+    }
+
+    private int next() {
+        index = index + 1 == positions.length ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public int generateLegal() {
+        positions[next()].generateLegalMoves(moves);
+        return moves.size();
+    }
+
+    @Benchmark
+    public int generatePseudoLegal() {
+        positions[next()].generatePseudoLegalMoves(moves);
+        return moves.size();
+    }
+
+    @Benchmark
+    public void makeUnmake(Blackhole bh) {
+        int i = next();
+        positions[i].makeMove(firstMoves[i]);
+        bh.consume(positions[i].hash());
+        positions[i].unmakeMove(firstMoves[i]);
+    }
+
+    @Benchmark
+    public long fullHash() {
+        return positions[next()].computeHash();
+    }
+
+    @Benchmark
+    public void perft3(Nodes counter) {
+        counter.nodes += Perft.perft(positions[next()], 3);
+    }
+}